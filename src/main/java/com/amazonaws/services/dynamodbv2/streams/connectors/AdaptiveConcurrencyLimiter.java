@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+/**
+ * Limits the number of in-flight writes to the destination table and adapts the limit to the destination: the limit
+ * grows additively while write latency stays close to the lowest latency observed, shrinks in proportion to the
+ * latency gradient when latency rises, and is halved when the destination throttles. Like TCP congestion control, a
+ * throttled or slow write only shrinks the limit if it was sent after the previous decrease, so one overloaded round
+ * of writes shrinks the limit once.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * Latency within this factor of the minimum latency is considered flat.
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    /**
+     * Lower bound of the latency gradient, bounds the decrease caused by a single slow write.
+     */
+    private static final double MIN_GRADIENT = 0.5;
+    /**
+     * Multiplicative decrease applied when the destination throttles.
+     */
+    private static final double THROTTLE_BACKOFF_RATIO = 0.5;
+    /**
+     * Number of samples after which the minimum latency is re-learned, so the baseline follows the destination.
+     */
+    private static final int MIN_LATENCY_WINDOW = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private int inFlight = 0;
+    private long minLatencyNanos = Long.MAX_VALUE;
+    private int samples = 0;
+    private long lastDecreaseNanos;
+
+    /**
+     * Constructor for the limiter.
+     *
+     * @param initialLimit
+     *            The initial number of writes allowed in flight
+     * @param minLimit
+     *            The lowest the limit can shrink to
+     * @param maxLimit
+     *            The highest the limit can grow to
+     */
+    public AdaptiveConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid concurrency limits: initial=" + initialLimit + ", min=" + minLimit + ", max="
+                + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until a write may be sent.
+     *
+     * @return The time the permit was acquired, to be passed back on completion of the write
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (inFlight >= getLimit()) {
+            wait();
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Releases the permit of a successful write and adjusts the limit based on its latency.
+     *
+     * @param startNanos
+     *            The value returned by {@link #acquire()} for the write
+     */
+    public void onSuccess(final long startNanos) {
+        onSuccess(startNanos, System.nanoTime());
+    }
+
+    synchronized void onSuccess(final long startNanos, final long endNanos) {
+        final int inFlightBeforeRelease = inFlight;
+        release();
+        final long latencyNanos = Math.max(1, endNanos - startNanos);
+        if (++samples >= MIN_LATENCY_WINDOW) {
+            samples = 0;
+            minLatencyNanos = latencyNanos;
+        } else {
+            minLatencyNanos = Math.min(minLatencyNanos, latencyNanos);
+        }
+        final double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, LATENCY_TOLERANCE * minLatencyNanos / latencyNanos));
+        if (gradient < 1.0) {
+            // Latency is rising: shrink by up to half a permit per write, about half the limit per round of writes
+            if (startNanos - lastDecreaseNanos >= 0) {
+                limit = Math.max(minLimit, limit - (1.0 - gradient));
+            }
+        } else if (inFlightBeforeRelease * 2 >= getLimit()) {
+            // Latency is flat and the limit is in use: grow by about one permit per round of writes
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    /**
+     * Releases the permit of a throttled write and shrinks the limit.
+     *
+     * @param startNanos
+     *            The value returned by {@link #acquire()} for the write
+     */
+    public void onThrottle(final long startNanos) {
+        onThrottle(startNanos, System.nanoTime());
+    }
+
+    synchronized void onThrottle(final long startNanos, final long endNanos) {
+        release();
+        if (startNanos - lastDecreaseNanos >= 0) {
+            limit = Math.max(minLimit, limit * THROTTLE_BACKOFF_RATIO);
+            lastDecreaseNanos = endNanos;
+        }
+    }
+
+    /**
+     * Releases the permit of a write without adjusting the limit, for writes that failed for reasons unrelated to load.
+     */
+    public synchronized void release() {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return The current number of writes allowed in flight
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return The current number of writes in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+
+/**
+ * Compact binary encoding of DynamoDB Streams records and items. Every attribute value is a one byte type tag followed
+ * by its content, lengths and counts are unsigned variable-length integers, and strings and numbers are UTF-8. A record
+ * holds its operation type, sequence number, size and the keys, new image and old image that are present.
+ * <p>
+ * Keys also have a canonical encoding, with the attributes in name order, so that equal keys have equal encodings.
+ */
+public final class AttributeValueCodec {
+
+    private static final byte TYPE_S = 1;
+    private static final byte TYPE_N = 2;
+    private static final byte TYPE_B = 3;
+    private static final byte TYPE_SS = 4;
+    private static final byte TYPE_NS = 5;
+    private static final byte TYPE_BS = 6;
+    private static final byte TYPE_M = 7;
+    private static final byte TYPE_L = 8;
+    private static final byte TYPE_TRUE = 9;
+    private static final byte TYPE_FALSE = 10;
+    private static final byte TYPE_NULL = 11;
+
+    private static final byte HAS_KEYS = 1;
+    private static final byte HAS_NEW_IMAGE = 2;
+    private static final byte HAS_OLD_IMAGE = 4;
+    private static final byte HAS_SIZE = 8;
+
+    private static final OperationType[] OPERATION_TYPES = OperationType.values();
+
+    /**
+     * Initial capacity of the encoding of a key, enough for most keys.
+     */
+    private static final int KEY_CAPACITY = 64;
+
+    private AttributeValueCodec() {
+        // Static utility class
+    }
+
+    /**
+     * @param record
+     *            The record to encode
+     * @return The encoded record
+     */
+    public static byte[] encodeRecord(final Record record) {
+        final Encoder encoder = new Encoder();
+        writeRecord(encoder, record);
+        return encoder.toByteArray();
+    }
+
+    /**
+     * @param buffer
+     *            The buffer positioned at an encoded record, positioned after the record on return
+     * @return The decoded record
+     */
+    public static Record decodeRecord(final ByteBuffer buffer) {
+        final OperationType operationType = OPERATION_TYPES[buffer.get()];
+        final byte flags = buffer.get();
+        final StreamRecord streamRecord = new StreamRecord().withSequenceNumber(readString(buffer));
+        if ((flags & HAS_SIZE) != 0) {
+            streamRecord.setSizeBytes(readVarLong(buffer));
+        }
+        if ((flags & HAS_KEYS) != 0) {
+            streamRecord.setKeys(decodeItem(buffer));
+        }
+        if ((flags & HAS_NEW_IMAGE) != 0) {
+            streamRecord.setNewImage(decodeItem(buffer));
+        }
+        if ((flags & HAS_OLD_IMAGE) != 0) {
+            streamRecord.setOldImage(decodeItem(buffer));
+        }
+        return new Record().withEventName(operationType).withDynamodb(streamRecord);
+    }
+
+    /**
+     * @param item
+     *            The item or key to encode
+     * @return The encoded item
+     */
+    public static byte[] encodeItem(final Map<String, AttributeValue> item) {
+        final Encoder encoder = new Encoder();
+        writeItem(encoder, item);
+        return encoder.toByteArray();
+    }
+
+    /**
+     * @param key
+     *            The primary key of an item
+     * @return The canonical encoding of the key: the item encoding with the attributes in name order
+     */
+    public static byte[] encodeKey(final Map<String, AttributeValue> key) {
+        final Encoder encoder = new Encoder(KEY_CAPACITY);
+        encoder.writeVarLong(key.size());
+        if (key.size() == 1) {
+            final Map.Entry<String, AttributeValue> attribute = key.entrySet().iterator().next();
+            encoder.writeString(attribute.getKey());
+            writeValue(encoder, attribute.getValue());
+        } else {
+            final String[] names = key.keySet().toArray(new String[key.size()]);
+            Arrays.sort(names);
+            for (String name : names) {
+                encoder.writeString(name);
+                writeValue(encoder, key.get(name));
+            }
+        }
+        return encoder.toByteArray();
+    }
+
+    /**
+     * @param buffer
+     *            The buffer positioned at an encoded item, positioned after the item on return
+     * @return The decoded item, with attributes in encoding order
+     */
+    public static Map<String, AttributeValue> decodeItem(final ByteBuffer buffer) {
+        final int size = readVarInt(buffer);
+        final Map<String, AttributeValue> item = new LinkedHashMap<String, AttributeValue>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            final String name = readString(buffer);
+            item.put(name, decodeValue(buffer));
+        }
+        return item;
+    }
+
+    private static void writeRecord(final Encoder encoder, final Record record) {
+        final StreamRecord streamRecord = record.getDynamodb();
+        encoder.writeByte(OperationType.fromValue(record.getEventName()).ordinal());
+        byte flags = 0;
+        flags |= streamRecord.getKeys() != null ? HAS_KEYS : 0;
+        flags |= streamRecord.getNewImage() != null ? HAS_NEW_IMAGE : 0;
+        flags |= streamRecord.getOldImage() != null ? HAS_OLD_IMAGE : 0;
+        flags |= streamRecord.getSizeBytes() != null ? HAS_SIZE : 0;
+        encoder.writeByte(flags);
+        encoder.writeString(streamRecord.getSequenceNumber());
+        if (streamRecord.getSizeBytes() != null) {
+            encoder.writeVarLong(streamRecord.getSizeBytes());
+        }
+        if (streamRecord.getKeys() != null) {
+            writeItem(encoder, streamRecord.getKeys());
+        }
+        if (streamRecord.getNewImage() != null) {
+            writeItem(encoder, streamRecord.getNewImage());
+        }
+        if (streamRecord.getOldImage() != null) {
+            writeItem(encoder, streamRecord.getOldImage());
+        }
+    }
+
+    private static void writeItem(final Encoder encoder, final Map<String, AttributeValue> item) {
+        encoder.writeVarLong(item.size());
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            encoder.writeString(attribute.getKey());
+            writeValue(encoder, attribute.getValue());
+        }
+    }
+
+    private static void writeValue(final Encoder encoder, final AttributeValue value) {
+        if (value.getS() != null) {
+            encoder.writeByte(TYPE_S);
+            encoder.writeString(value.getS());
+        } else if (value.getN() != null) {
+            encoder.writeByte(TYPE_N);
+            encoder.writeString(value.getN());
+        } else if (value.getB() != null) {
+            encoder.writeByte(TYPE_B);
+            encoder.writeBytes(value.getB());
+        } else if (value.getSS() != null) {
+            encoder.writeByte(TYPE_SS);
+            encoder.writeVarLong(value.getSS().size());
+            for (String s : value.getSS()) {
+                encoder.writeString(s);
+            }
+        } else if (value.getNS() != null) {
+            encoder.writeByte(TYPE_NS);
+            encoder.writeVarLong(value.getNS().size());
+            for (String n : value.getNS()) {
+                encoder.writeString(n);
+            }
+        } else if (value.getBS() != null) {
+            encoder.writeByte(TYPE_BS);
+            encoder.writeVarLong(value.getBS().size());
+            for (ByteBuffer b : value.getBS()) {
+                encoder.writeBytes(b);
+            }
+        } else if (value.getM() != null) {
+            encoder.writeByte(TYPE_M);
+            writeItem(encoder, value.getM());
+        } else if (value.getL() != null) {
+            encoder.writeByte(TYPE_L);
+            encoder.writeVarLong(value.getL().size());
+            for (AttributeValue element : value.getL()) {
+                writeValue(encoder, element);
+            }
+        } else if (value.getBOOL() != null) {
+            encoder.writeByte(value.getBOOL() ? TYPE_TRUE : TYPE_FALSE);
+        } else {
+            encoder.writeByte(TYPE_NULL);
+        }
+    }
+
+    private static AttributeValue decodeValue(final ByteBuffer buffer) {
+        final byte type = buffer.get();
+        switch (type) {
+            case TYPE_S:
+                return new AttributeValue().withS(readString(buffer));
+            case TYPE_N:
+                return new AttributeValue().withN(readString(buffer));
+            case TYPE_B:
+                return new AttributeValue().withB(readBytes(buffer));
+            case TYPE_SS:
+            case TYPE_NS: {
+                final int size = readVarInt(buffer);
+                final List<String> strings = new ArrayList<String>(size);
+                for (int i = 0; i < size; i++) {
+                    strings.add(readString(buffer));
+                }
+                return type == TYPE_SS ? new AttributeValue().withSS(strings) : new AttributeValue().withNS(strings);
+            }
+            case TYPE_BS: {
+                final int size = readVarInt(buffer);
+                final List<ByteBuffer> bytes = new ArrayList<ByteBuffer>(size);
+                for (int i = 0; i < size; i++) {
+                    bytes.add(readBytes(buffer));
+                }
+                return new AttributeValue().withBS(bytes);
+            }
+            case TYPE_M:
+                return new AttributeValue().withM(decodeItem(buffer));
+            case TYPE_L: {
+                final int size = readVarInt(buffer);
+                final List<AttributeValue> list = new ArrayList<AttributeValue>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(decodeValue(buffer));
+                }
+                return new AttributeValue().withL(list);
+            }
+            case TYPE_TRUE:
+                return new AttributeValue().withBOOL(true);
+            case TYPE_FALSE:
+                return new AttributeValue().withBOOL(false);
+            case TYPE_NULL:
+                return new AttributeValue().withNULL(true);
+            default:
+                throw new IllegalArgumentException("Unknown attribute value type: " + type);
+        }
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final int length = readVarInt(buffer);
+        final String s;
+        if (buffer.hasArray()) {
+            s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        } else {
+            final byte[] bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+
+    private static ByteBuffer readBytes(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[readVarInt(buffer)];
+        buffer.get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static int readVarInt(final ByteBuffer buffer) {
+        final long value = readVarLong(buffer);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Length out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    private static long readVarLong(final ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable-length integer");
+    }
+
+    /**
+     * Growable byte array the encoding is written to.
+     */
+    private static final class Encoder {
+        private byte[] bytes;
+        private int length = 0;
+
+        private Encoder() {
+            this(256);
+        }
+
+        private Encoder(final int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        private void ensureCapacity(final int additional) {
+            if (length + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+            }
+        }
+
+        private void writeByte(final int b) {
+            ensureCapacity(1);
+            bytes[length++] = (byte) b;
+        }
+
+        private void writeVarLong(final long value) {
+            long remaining = value;
+            ensureCapacity(10);
+            while ((remaining & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((remaining & 0x7F) | 0x80);
+                remaining >>>= 7;
+            }
+            bytes[length++] = (byte) remaining;
+        }
+
+        private void writeString(final String s) {
+            final byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length);
+            ensureCapacity(utf8.length);
+            System.arraycopy(utf8, 0, bytes, length, utf8.length);
+            length += utf8.length;
+        }
+
+        private void writeBytes(final ByteBuffer b) {
+            final ByteBuffer source = b.duplicate();
+            writeVarLong(source.remaining());
+            ensureCapacity(source.remaining());
+            final int count = source.remaining();
+            source.get(bytes, length, count);
+            length += count;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+}
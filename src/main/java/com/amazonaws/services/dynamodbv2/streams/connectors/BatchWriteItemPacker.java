@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+
+/**
+ * Packs deduplicated DynamoDB Streams records into groups that each fit in a single BatchWriteItem request. Uses
+ * first-fit decreasing bin packing on the size of the write (the new image for puts, the key for deletes), bounded by
+ * both the number of items and the total request size.
+ */
+public class BatchWriteItemPacker {
+
+    /**
+     * Maximum number of writes in a group.
+     */
+    private final int maxItems;
+    /**
+     * Maximum total size in bytes of the writes in a group.
+     */
+    private final long maxBytes;
+
+    /**
+     * Constructor with the BatchWriteItem service limits.
+     */
+    public BatchWriteItemPacker() {
+        this(DynamoDBConnectorConstants.BATCH_WRITE_ITEM_LIMIT, DynamoDBConnectorConstants.BATCH_WRITE_BYTES_LIMIT);
+    }
+
+    /**
+     * Constructor with given limits.
+     *
+     * @param maxItems
+     *            Maximum number of writes in a group
+     * @param maxBytes
+     *            Maximum total size in bytes of the writes in a group
+     */
+    public BatchWriteItemPacker(final int maxItems, final long maxBytes) {
+        if (maxItems < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Batch limits must be positive: maxItems=" + maxItems + ", maxBytes=" + maxBytes);
+        }
+        this.maxItems = maxItems;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Packs the records into as few groups as possible. A record larger than the byte limit is placed in a group of its
+     * own so that the service reports the error for that record alone.
+     *
+     * @param records
+     *            The records to pack, with at most one record per item key
+     * @return The groups of records, each of which fits in one BatchWriteItem request
+     */
+    public List<List<Record>> pack(final List<Record> records) {
+        final List<SizedRecord> sized = new ArrayList<SizedRecord>(records.size());
+        for (Record record : records) {
+            sized.add(new SizedRecord(record, getWriteSizeBytes(record)));
+        }
+        Collections.sort(sized, LARGEST_FIRST);
+
+        final List<Bin> bins = new ArrayList<Bin>();
+        for (SizedRecord record : sized) {
+            Bin target = null;
+            for (Bin bin : bins) {
+                if (bin.fits(record)) {
+                    target = bin;
+                    break;
+                }
+            }
+            if (target == null) {
+                target = new Bin();
+                bins.add(target);
+            }
+            target.add(record);
+        }
+
+        final List<List<Record>> groups = new ArrayList<List<Record>>(bins.size());
+        for (Bin bin : bins) {
+            groups.add(bin.records);
+        }
+        return groups;
+    }
+
+    /**
+     * @param record
+     *            The record to size
+     * @return The size of the write the record produces
+     */
+    static long getWriteSizeBytes(final Record record) {
+        if (OperationType.REMOVE.toString().equalsIgnoreCase(record.getEventName())) {
+            return DynamoDBConnectorUtilities.getItemSizeBytes(record.getDynamodb().getKeys());
+        }
+        return DynamoDBConnectorUtilities.getItemSizeBytes(record.getDynamodb().getNewImage());
+    }
+
+    private static final Comparator<SizedRecord> LARGEST_FIRST = new Comparator<SizedRecord>() {
+        @Override
+        public int compare(final SizedRecord a, final SizedRecord b) {
+            return Long.compare(b.sizeBytes, a.sizeBytes);
+        }
+    };
+
+    private static final class SizedRecord {
+        private final Record record;
+        private final long sizeBytes;
+
+        private SizedRecord(final Record record, final long sizeBytes) {
+            this.record = record;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+
+    private final class Bin {
+        private final List<Record> records = new ArrayList<Record>();
+        private long sizeBytes = 0;
+
+        private boolean fits(final SizedRecord record) {
+            return records.size() < maxItems && sizeBytes + record.sizeBytes <= maxBytes;
+        }
+
+        private void add(final SizedRecord record) {
+            records.add(record.record);
+            sizeBytes += record.sizeBytes;
+        }
+    }
+}
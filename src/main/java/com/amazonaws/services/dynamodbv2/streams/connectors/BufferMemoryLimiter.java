@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+/**
+ * Ceiling of the bytes of records the record processors of a worker hold between reading them and emitting them. A
+ * record processor acquires the bytes of a chunk of records before buffering it and releases them once its buffer is
+ * emitted, so when the emitters cannot keep up the processors wait here, and KCL does not read the next records of
+ * their shards until they return. A chunk larger than the ceiling is let through when no other bytes are held, so
+ * that it cannot wait forever.
+ */
+public class BufferMemoryLimiter {
+
+    private final long maxBytes;
+    private long heldBytes = 0;
+
+    /**
+     * Constructor for a limiter.
+     *
+     * @param maxBytes
+     *            The ceiling of the bytes held, 0 for no ceiling
+     */
+    public BufferMemoryLimiter(final long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Holds the bytes if they fit under the ceiling now.
+     *
+     * @param bytes
+     *            The bytes to hold
+     * @return True if the bytes are held
+     */
+    public synchronized boolean tryAcquire(final long bytes) {
+        if (!fits(bytes)) {
+            return false;
+        }
+        heldBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Waits until the bytes fit under the ceiling, then holds them. An interrupt does not end the wait, so that the
+     * records of a processor are never skipped; the interrupt status is restored on return.
+     *
+     * @param bytes
+     *            The bytes to hold
+     */
+    public synchronized void acquireUninterruptibly(final long bytes) {
+        boolean interrupted = false;
+        while (!fits(bytes)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        heldBytes += bytes;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Releases bytes acquired earlier and wakes the processors waiting for them.
+     *
+     * @param bytes
+     *            The bytes to release
+     */
+    public synchronized void release(final long bytes) {
+        heldBytes -= bytes;
+        notifyAll();
+    }
+
+    private boolean fits(final long bytes) {
+        return maxBytes == 0 || heldBytes == 0 || heldBytes + bytes <= maxBytes;
+    }
+
+    /**
+     * @return The bytes currently held
+     */
+    public synchronized long getHeldBytes() {
+        return heldBytes;
+    }
+
+    /**
+     * @return The ceiling of the bytes held, 0 for no ceiling
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
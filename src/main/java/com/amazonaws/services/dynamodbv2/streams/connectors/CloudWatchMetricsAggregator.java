@@ -0,0 +1,473 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Accumulates the metrics of the emitters of a process and publishes them to CloudWatch once per interval, instead of
+ * one PutMetricData call per emit. Every metric is kept per destination table and shard, as the TableName and ShardId
+ * dimensions, in {@link StripedStatistics} so that emitters of different shards record without locking. Counts are
+ * published as their sum, other metrics as statistic sets. Counts are also published without dimensions, summed over
+ * every table and shard, so the series the emitters published before they had dimensions carry on. Latencies are kept per destination table in
+ * {@link LatencyHistogram}s and published as one metric per percentile, named after the latency with the suffixes of
+ * {@link #PERCENTILES} and {@link #MAX_SUFFIX}. The data of an interval is sent in as few calls as the CloudWatch
+ * limit of metric data per call allows.
+ * <p>
+ * The metrics of a shard are dropped once its emitter is shut down with {@link #removeShard(String, String)}, so the
+ * metrics kept follow the shards the process currently owns. Latencies have no shard, so there is one histogram per
+ * destination table and latency.
+ * <p>
+ * All emitters publishing with the same CloudWatch client to the same namespace share one aggregator, obtained from
+ * {@link #forNamespace(AmazonCloudWatchAsync, String, long)}.
+ */
+@Log4j
+public class CloudWatchMetricsAggregator {
+
+    /**
+     * Maximum number of metric data in a PutMetricData request.
+     */
+    public static final int MAX_METRIC_DATA_PER_REQUEST = 20;
+
+    /**
+     * Dimension names of the destination table and the source shard.
+     */
+    public static final String TABLE_NAME_DIMENSION = "TableName";
+    public static final String SHARD_ID_DIMENSION = "ShardId";
+
+    /**
+     * Percentiles published for every latency, with the suffixes of their metric names.
+     */
+    static final double[] PERCENTILES = {50, 99, 99.9};
+    static final String[] PERCENTILE_SUFFIXES = {"P50", "P99", "P999"};
+    static final String MAX_SUFFIX = "Max";
+
+    private static final Map<AggregatorKey, CloudWatchMetricsAggregator> AGGREGATORS = new ConcurrentHashMap<AggregatorKey, CloudWatchMetricsAggregator>();
+
+    /**
+     * The thread publishing the aggregators on a schedule, running only while at least one aggregator is scheduled.
+     */
+    private static ScheduledExecutorService scheduler;
+    private static int scheduledCount;
+
+    private final AmazonCloudWatchAsync cloudwatch;
+    private final String namespace;
+    private final ConcurrentMap<MetricKey, StripedStatistics> metrics = new ConcurrentHashMap<MetricKey, StripedStatistics>();
+    private final ConcurrentMap<MetricKey, LatencyHistogram> latencies = new ConcurrentHashMap<MetricKey, LatencyHistogram>();
+    private final Queue<Map.Entry<MetricKey, StatisticSet>> removed = new ConcurrentLinkedQueue<Map.Entry<MetricKey, StatisticSet>>();
+    private final ScheduledFuture<?> flushTask;
+
+    /**
+     * Returns the aggregator shared by all emitters publishing with a client to a namespace, creating it on first use.
+     *
+     * @param cloudwatch
+     *            The CloudWatch client
+     * @param namespace
+     *            The metric namespace
+     * @param intervalMillis
+     *            The time between publications, used if the aggregator is created
+     * @return The aggregator of the client and namespace
+     */
+    public static CloudWatchMetricsAggregator forNamespace(final AmazonCloudWatchAsync cloudwatch, final String namespace,
+        final long intervalMillis) {
+        final AggregatorKey key = new AggregatorKey(cloudwatch, namespace);
+        CloudWatchMetricsAggregator aggregator = AGGREGATORS.get(key);
+        if (aggregator == null) {
+            synchronized (AGGREGATORS) {
+                aggregator = AGGREGATORS.get(key);
+                if (aggregator == null) {
+                    aggregator = new CloudWatchMetricsAggregator(cloudwatch, namespace, intervalMillis);
+                    AGGREGATORS.put(key, aggregator);
+                }
+            }
+        }
+        return aggregator;
+    }
+
+    /**
+     * Publishes and stops the aggregators of a client, before the client is shut down.
+     *
+     * @param cloudwatch
+     *            The CloudWatch client
+     */
+    public static void closeAll(final AmazonCloudWatchAsync cloudwatch) {
+        synchronized (AGGREGATORS) {
+            final Iterator<Map.Entry<AggregatorKey, CloudWatchMetricsAggregator>> entries = AGGREGATORS.entrySet().iterator();
+            while (entries.hasNext()) {
+                final Map.Entry<AggregatorKey, CloudWatchMetricsAggregator> entry = entries.next();
+                if (entry.getKey().cloudwatch == cloudwatch) {
+                    entries.remove();
+                    entry.getValue().close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructor for an aggregator publishing on a schedule.
+     *
+     * @param cloudwatch
+     *            The CloudWatch client
+     * @param namespace
+     *            The metric namespace
+     * @param intervalMillis
+     *            The time between publications, 0 to only publish on {@link #flush()}
+     */
+    public CloudWatchMetricsAggregator(final AmazonCloudWatchAsync cloudwatch, final String namespace, final long intervalMillis) {
+        this.cloudwatch = cloudwatch;
+        this.namespace = namespace;
+        if (intervalMillis > 0) {
+            flushTask = schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } catch (RuntimeException e) {
+                        // Keep the schedule running
+                        log.error("Could not publish metrics to " + namespace, e);
+                    }
+                }
+            }, intervalMillis);
+        } else {
+            flushTask = null;
+        }
+    }
+
+    /**
+     * Adds to a count metric.
+     *
+     * @param metricName
+     *            The name of the metric
+     * @param tableName
+     *            The destination table
+     * @param shardId
+     *            The source shard, or null if unknown
+     * @param count
+     *            The count to add
+     */
+    public void addCount(final String metricName, final String tableName, final String shardId, final double count) {
+        getStatistics(new MetricKey(metricName, StandardUnit.Count, tableName, shardId)).add(count);
+    }
+
+    /**
+     * Records a sample of a metric.
+     *
+     * @param metricName
+     *            The name of the metric
+     * @param unit
+     *            The unit of the metric
+     * @param tableName
+     *            The destination table
+     * @param shardId
+     *            The source shard, or null if unknown
+     * @param value
+     *            The sample
+     */
+    public void addSample(final String metricName, final StandardUnit unit, final String tableName, final String shardId, final double value) {
+        getStatistics(new MetricKey(metricName, unit, tableName, shardId)).add(value);
+    }
+
+    /**
+     * Returns the histogram of a latency of a destination table, for the emitters to record into directly.
+     *
+     * @param metricName
+     *            The name of the latency metric
+     * @param tableName
+     *            The destination table
+     * @return The histogram, shared by all emitters writing to the table
+     */
+    public LatencyHistogram getLatencyHistogram(final String metricName, final String tableName) {
+        final MetricKey key = new MetricKey(metricName, StandardUnit.Milliseconds, tableName, null);
+        LatencyHistogram histogram = latencies.get(key);
+        if (null == histogram) {
+            final LatencyHistogram created = new LatencyHistogram();
+            histogram = latencies.putIfAbsent(key, created);
+            if (null == histogram) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Stops keeping the metrics of a shard, once the emitter of the shard is shut down. What the shard recorded since
+     * the last publication is published with the next one.
+     *
+     * @param tableName
+     *            The destination table
+     * @param shardId
+     *            The source shard, or null if unknown
+     */
+    public void removeShard(final String tableName, final String shardId) {
+        if (null == shardId) {
+            // The metrics without a shard are shared by the emitters of the table
+            return;
+        }
+        for (Map.Entry<MetricKey, StripedStatistics> entry : metrics.entrySet()) {
+            final MetricKey key = entry.getKey();
+            if (shardId.equals(key.shardId) && MetricKey.equal(tableName, key.tableName) && metrics.remove(key, entry.getValue())) {
+                final StatisticSet statistics = entry.getValue().sumThenReset();
+                if (null != statistics) {
+                    removed.add(new AbstractMap.SimpleImmutableEntry<MetricKey, StatisticSet>(key, statistics));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of metrics kept, besides latencies
+     */
+    int getMetricCount() {
+        return metrics.size();
+    }
+
+    /**
+     * Publishes the metrics accumulated since the last publication.
+     *
+     * @return The number of PutMetricData calls made
+     */
+    public int flush() {
+        final Date timestamp = new Date();
+        final List<MetricDatum> data = new ArrayList<MetricDatum>();
+        final Map<MetricKey, Double> totals = new LinkedHashMap<MetricKey, Double>();
+        for (Map.Entry<MetricKey, StatisticSet> entry = removed.poll(); null != entry; entry = removed.poll()) {
+            addDatum(data, totals, entry.getKey(), entry.getValue(), timestamp);
+        }
+        for (Map.Entry<MetricKey, StripedStatistics> entry : metrics.entrySet()) {
+            final StatisticSet statistics = entry.getValue().sumThenReset();
+            if (null != statistics) {
+                addDatum(data, totals, entry.getKey(), statistics, timestamp);
+            }
+        }
+        for (Map.Entry<MetricKey, Double> total : totals.entrySet()) {
+            data.add(total.getKey().toDatum("", total.getValue(), timestamp));
+        }
+        for (Map.Entry<MetricKey, LatencyHistogram> entry : latencies.entrySet()) {
+            final LatencyHistogram.Snapshot snapshot = entry.getValue().snapshotThenReset();
+            if (snapshot.getCount() > 0) {
+                final MetricKey key = entry.getKey();
+                for (int i = 0; i < PERCENTILES.length; i++) {
+                    data.add(key.toDatum(PERCENTILE_SUFFIXES[i], toMillis(snapshot.getValueAtPercentile(PERCENTILES[i])), timestamp));
+                }
+                data.add(key.toDatum(MAX_SUFFIX, toMillis(snapshot.getMax()), timestamp));
+            }
+        }
+        int requests = 0;
+        for (int start = 0; start < data.size(); start += MAX_METRIC_DATA_PER_REQUEST) {
+            final PutMetricDataRequest request = new PutMetricDataRequest().withNamespace(namespace)
+                .withMetricData(data.subList(start, Math.min(data.size(), start + MAX_METRIC_DATA_PER_REQUEST)));
+            cloudwatch.putMetricDataAsync(request, new AsyncHandler<PutMetricDataRequest, PutMetricDataResult>() {
+                @Override
+                public void onSuccess(PutMetricDataRequest request, PutMetricDataResult result) {
+                    log.trace("Published metrics: " + request);
+                }
+
+                @Override
+                public void onError(Exception exception) {
+                    log.error("Could not publish metrics: " + request, exception);
+                }
+            });
+            requests++;
+        }
+        return requests;
+    }
+
+    /**
+     * Stops the schedule and publishes the remaining metrics.
+     */
+    public void close() {
+        if (null != flushTask) {
+            cancel(flushTask);
+        }
+        flush();
+    }
+
+    /**
+     * Schedules the publications of an aggregator, starting the publishing thread if no aggregator is scheduled.
+     */
+    private static synchronized ScheduledFuture<?> schedule(final Runnable flush, final long intervalMillis) {
+        if (null == scheduler) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("cloudwatch-metrics-%d").setDaemon(true).build());
+        }
+        scheduledCount++;
+        return scheduler.scheduleAtFixedRate(flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the publications of an aggregator, stopping the publishing thread once no aggregator is scheduled.
+     */
+    private static synchronized void cancel(final ScheduledFuture<?> flushTask) {
+        if (flushTask.cancel(false) && --scheduledCount == 0) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return The number of aggregators shared through {@link #forNamespace(AmazonCloudWatchAsync, String, long)}
+     */
+    static int getAggregatorCount() {
+        return AGGREGATORS.size();
+    }
+
+    /**
+     * @return The number of aggregators publishing on a schedule
+     */
+    static synchronized int getScheduledCount() {
+        return scheduledCount;
+    }
+
+    /**
+     * @return Whether the publishing thread is running
+     */
+    static synchronized boolean isSchedulerRunning() {
+        return null != scheduler;
+    }
+
+    /**
+     * Adds the datum of a metric, and adds a count to its total over every table and shard.
+     */
+    private static void addDatum(final List<MetricDatum> data, final Map<MetricKey, Double> totals, final MetricKey key,
+        final StatisticSet statistics, final Date timestamp) {
+        data.add(key.toDatum(statistics, timestamp));
+        if (StandardUnit.Count == key.unit) {
+            final MetricKey total = new MetricKey(key.metricName, key.unit, null, null);
+            final Double sum = totals.get(total);
+            totals.put(total, (null == sum ? 0 : sum) + statistics.getSum());
+        }
+    }
+
+    private static double toMillis(final long micros) {
+        return micros / 1000.0;
+    }
+
+    private StripedStatistics getStatistics(final MetricKey key) {
+        StripedStatistics statistics = metrics.get(key);
+        if (null == statistics) {
+            final StripedStatistics created = new StripedStatistics();
+            statistics = metrics.putIfAbsent(key, created);
+            if (null == statistics) {
+                statistics = created;
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * A metric of a destination table and shard.
+     */
+    private static final class MetricKey {
+        private final String metricName;
+        private final StandardUnit unit;
+        private final String tableName;
+        private final String shardId;
+
+        private MetricKey(final String metricName, final StandardUnit unit, final String tableName, final String shardId) {
+            this.metricName = metricName;
+            this.unit = unit;
+            this.tableName = tableName;
+            this.shardId = shardId;
+        }
+
+        private MetricDatum toDatum(final StatisticSet statistics, final Date timestamp) {
+            final MetricDatum datum = createDatum(metricName, timestamp);
+            if (StandardUnit.Count == unit) {
+                return datum.withValue(statistics.getSum());
+            }
+            return datum.withStatisticValues(statistics);
+        }
+
+        private MetricDatum toDatum(final String suffix, final double value, final Date timestamp) {
+            return createDatum(metricName + suffix, timestamp).withValue(value);
+        }
+
+        private MetricDatum createDatum(final String name, final Date timestamp) {
+            final List<Dimension> dimensions = new ArrayList<Dimension>(2);
+            if (null != tableName) {
+                dimensions.add(new Dimension().withName(TABLE_NAME_DIMENSION).withValue(tableName));
+            }
+            if (null != shardId) {
+                dimensions.add(new Dimension().withName(SHARD_ID_DIMENSION).withValue(shardId));
+            }
+            return new MetricDatum().withMetricName(name).withUnit(unit).withDimensions(dimensions).withTimestamp(timestamp);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof MetricKey)) {
+                return false;
+            }
+            final MetricKey key = (MetricKey) other;
+            return metricName.equals(key.metricName) && unit == key.unit && equal(tableName, key.tableName) && equal(shardId, key.shardId);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = metricName.hashCode();
+            hash = 31 * hash + unit.hashCode();
+            hash = 31 * hash + (null == tableName ? 0 : tableName.hashCode());
+            return 31 * hash + (null == shardId ? 0 : shardId.hashCode());
+        }
+
+        private static boolean equal(final String a, final String b) {
+            return null == a ? null == b : a.equals(b);
+        }
+    }
+
+    /**
+     * A CloudWatch client, compared by identity, and a namespace.
+     */
+    private static final class AggregatorKey {
+        private final AmazonCloudWatchAsync cloudwatch;
+        private final String namespace;
+
+        private AggregatorKey(final AmazonCloudWatchAsync cloudwatch, final String namespace) {
+            this.cloudwatch = cloudwatch;
+            this.namespace = namespace;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof AggregatorKey)) {
+                return false;
+            }
+            final AggregatorKey key = (AggregatorKey) other;
+            return cloudwatch == key.cloudwatch && namespace.equals(key.namespace);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(cloudwatch) + namespace.hashCode();
+        }
+    }
+}
@@ -5,6 +5,9 @@
  */
 package com.amazonaws.services.dynamodbv2.streams.connectors;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.beust.jcommander.Parameter;
 
 import lombok.Getter;
@@ -71,4 +74,76 @@ public class CommandLineArgs {
             description = "Wait for this long between polls to check if parent shards are done",
             hidden = true)
     private Long parentShardPollIntervalMillis;
+
+    public static final String BATCH_WRITE = "--batchWrite";
+    @Parameter(names = BATCH_WRITE, description = "Write to the destination table with BatchWriteItem requests of up to 25 items")
+    private boolean batchWrite = false;
+
+    public static final String MAX_WRITE_CAPACITY_UNITS = "--maxWriteCapacityUnits";
+    @Parameter(names = MAX_WRITE_CAPACITY_UNITS, description = "Ceiling of the write capacity units per second consumed on the destination table by each replication process")
+    private Double maxWriteCapacityUnits;
+
+    public static final String VALIDATE_ITEMS = "--validateItems";
+    @Parameter(names = VALIDATE_ITEMS, description = "Check item sizes and key attributes against the destination table before writing, and fail invalid records without stopping replication")
+    private boolean validateItems = false;
+
+    public static final String SKIP_ERRORS = "--skipErrors";
+    @Parameter(names = SKIP_ERRORS, description = "Fail records the destination table rejects and continue replication, instead of stopping the process")
+    private boolean skipErrors = false;
+
+    public static final String DEAD_LETTER_DIRECTORY = "--deadLetterDirectory";
+    @Parameter(names = DEAD_LETTER_DIRECTORY, description = "Directory of a local log that failed records are appended to, for use with the replay command")
+    private String deadLetterDirectory;
+
+    public static final String ADDITIONAL_DESTINATION = "--additionalDestination";
+    @Parameter(names = ADDITIONAL_DESTINATION, description = "Another destination table to replicate to from the same stream read, as region:table[:endpoint][;setting=value...], where the settings override maxConnections, clientThreads, connectionTimeoutMillis, socketTimeoutMillis or requestTimeoutMillis for this table. May be repeated")
+    private List<String> additionalDestinations = new ArrayList<String>();
+
+    public static final String FILTER_EXPRESSION = "--filterExpression";
+    @Parameter(names = FILTER_EXPRESSION, description = "Only replicate the records matching this expression, such as \"begins_with(customerId, 'eu-') AND eventName <> 'REMOVE'\"")
+    private String filterExpression;
+
+    public static final String PROJECTED_ATTRIBUTES = "--projectedAttributes";
+    @Parameter(names = PROJECTED_ATTRIBUTES, description = "Only replicate these attributes of the items, as a comma separated list, besides the key attributes")
+    private List<String> projectedAttributes = new ArrayList<String>();
+
+    public static final String ORIGIN_ATTRIBUTE = "--originAttribute";
+    @Parameter(names = ORIGIN_ATTRIBUTE, description = "Stamp the items written with an origin marker in this attribute, and do not replicate the writes that carry the marker of another table, for two-way replication")
+    private String originAttribute;
+
+    public static final String ORIGIN_ID = "--originId";
+    @Parameter(names = ORIGIN_ID, description = "Id of the source table in the origin markers, by default sourceRegion:sourceTable")
+    private String originId;
+
+    public static final String PIPELINE_STATS_LOG_INTERVAL_MILLIS = "--pipelineStatsLogIntervalMillis";
+    @Parameter(names = PIPELINE_STATS_LOG_INTERVAL_MILLIS, description = "Log the time, records and bytes spent in each stage of the replication pipeline per shard at this interval")
+    private Long pipelineStatsLogIntervalMillis;
+
+    public static final String LOCAL_METRICS_PORT = "--localMetricsPort";
+    @Parameter(names = LOCAL_METRICS_PORT, description = "Serve the replication and KCL metrics on this port in the Prometheus format at /metrics and over JMX, instead of publishing them to CloudWatch")
+    private Integer localMetricsPort;
+
+    public static final String LOCAL_METRICS_ADDRESS = "--localMetricsAddress";
+    @Parameter(names = LOCAL_METRICS_ADDRESS, description = "Address to serve the local metrics on, such as 0.0.0.0 for every interface; only the loopback address by default")
+    private String localMetricsAddress;
+
+    public static final String BUFFER_MAX_BYTES = "--bufferMaxBytes";
+    @Parameter(names = BUFFER_MAX_BYTES, description = "Bytes of records each shard buffers before emitting them, splitting larger GetRecords batches")
+    private Long bufferMaxBytes;
+
+    public static final String WORKER_BUFFER_MAX_BYTES = "--workerBufferMaxBytes";
+    @Parameter(names = WORKER_BUFFER_MAX_BYTES, description = "Ceiling of the bytes of records buffered by all shards of the process, above which reading the stream waits for the destination writes")
+    private Long workerBufferMaxBytes;
+
+    public static final String COALESCE_MILLIS = "--coalesceMillis";
+    @Parameter(names = COALESCE_MILLIS, description = "Keep records for up to this long to merge the writes of keys updated in several GetRecords batches, instead of writing after every batch")
+    private Long coalesceMillis;
+
+    public static final String COALESCE_MAX_RECORDS = "--coalesceMaxRecords";
+    @Parameter(names = COALESCE_MAX_RECORDS, description = "Write coalesced records once this many distinct keys are buffered, before " + COALESCE_MILLIS + " elapses")
+    private Integer coalesceMaxRecords;
+
+    public static final String CHECKPOINT_INTERVAL_MILLIS = "--checkpointIntervalMillis";
+    @Parameter(names = CHECKPOINT_INTERVAL_MILLIS, description = "Shortest time between checkpoints of the records written so far while a buffer is being written, 0 to checkpoint only whole buffers")
+    private Long checkpointIntervalMillis;
 }
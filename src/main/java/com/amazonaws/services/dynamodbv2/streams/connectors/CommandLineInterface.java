@@ -5,6 +5,12 @@
  */
 package com.amazonaws.services.dynamodbv2.streams.connectors;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 import java.util.UUID;
 
@@ -26,10 +32,10 @@ import com.amazonaws.services.dynamodbv2.streamsadapter.AmazonDynamoDBStreamsAda
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.InitialPositionInStream;
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.KinesisClientLibConfiguration;
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.Worker;
-import com.amazonaws.services.kinesis.connectors.KinesisConnectorRecordProcessorFactory;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 
@@ -51,6 +57,13 @@ public class CommandLineInterface {
      */
     public static void main(String[] args) {
         try {
+            if (args.length > 0 && ReplayCommandLineArgs.COMMAND.equals(args[0])) {
+                final int failed = replayUnsafe(Arrays.copyOfRange(args, 1, args.length));
+                if (failed > 0) {
+                    System.exit(StatusCodes.EIO);
+                }
+                return;
+            }
             final Optional<Worker> workerOption = mainUnsafe(args);
             if (!workerOption.isPresent()) {
                 return;
@@ -87,6 +100,54 @@ public class CommandLineInterface {
         return Optional.of(cli.createWorker());
     }
 
+    /**
+     * Replays a dead letter log into the destination table.
+     *
+     * @param args
+     *            replay command arguments
+     * @return the number of records that could not be replayed
+     * @throws Exception
+     *             if the dead letter log cannot be read or the replay is interrupted
+     */
+    static int replayUnsafe(String[] args) throws Exception {
+        final ReplayCommandLineArgs params = new ReplayCommandLineArgs();
+        final JCommander cmd = new JCommander(params);
+        cmd.setProgramName(ReplayCommandLineArgs.COMMAND);
+        cmd.parse(args);
+        if (params.isHelp()) {
+            cmd.usage();
+            return 0;
+        }
+
+        final Region destinationRegion = RegionUtils.getRegion(params.getDestinationSigningRegion());
+        final AwsClientBuilder.EndpointConfiguration destinationEndpointConfiguration = createEndpointConfiguration(destinationRegion,
+                Optional.fromNullable(params.getDestinationEndpoint()), AmazonDynamoDB.ENDPOINT_PREFIX);
+
+        // replay with batch writes and all writes allowed in flight from the start
+        final Properties properties = new Properties();
+        properties.put(DynamoDBStreamsConnectorConfiguration.PROP_APP_NAME, params.getTaskName());
+        properties.put(DynamoDBStreamsConnectorConfiguration.PROP_DYNAMODB_ENDPOINT, destinationEndpointConfiguration.getServiceEndpoint());
+        properties.put(DynamoDBStreamsConnectorConfiguration.PROP_DYNAMODB_DATA_TABLE_NAME, params.getDestinationTable());
+        properties.put(DynamoDBStreamsConnectorConfiguration.PROP_REGION_NAME, destinationRegion.getName());
+        properties.put(DynamoDBStreamsConnectorConfiguration.PROP_BATCH_WRITE_ENABLED, String.valueOf(true));
+        properties.put(DynamoDBStreamsConnectorConfiguration.PROP_INITIAL_CONCURRENT_WRITES,
+                String.valueOf(DynamoDBStreamsConnectorConfiguration.DEFAULT_MAX_CONCURRENT_WRITES));
+        final DynamoDBStreamsConnectorConfiguration configuration = new DynamoDBStreamsConnectorConfiguration(properties,
+                new DefaultAWSCredentialsProviderChain());
+
+        final DynamoDBClientRegistry clients = new DynamoDBClientRegistry(configuration.AWS_CREDENTIALS_PROVIDER);
+        final DynamoDBReplicationEmitter emitter = new DynamoDBReplicationEmitter(configuration,
+                clients.getDynamoDB(new ReplicationDestination(destinationRegion.getName(), params.getDestinationTable(),
+                        destinationEndpointConfiguration.getServiceEndpoint()), configuration), clients.getCloudWatch());
+        try {
+            return new DeadLetterReplayer(emitter, configuration, params.getRecordsPerBatch())
+                    .replay(new File(params.getDeadLetterDirectory()), params.isDeleteReplayed());
+        } finally {
+            emitter.shutdown();
+            clients.shutdown();
+        }
+    }
+
     @Getter(AccessLevel.PACKAGE)
     private final Region sourceRegion;
     private final Optional<String> sourceDynamodbEndpoint;
@@ -101,6 +162,24 @@ public class CommandLineInterface {
     private final String taskName;
     private final String destinationTable;
     private final Optional<Long> parentShardPollIntervalMillis;
+    private final boolean isBatchWrite;
+    private final Optional<Double> maxWriteCapacityUnits;
+    private final boolean isValidateItems;
+    private final boolean isSkipErrors;
+    private final Optional<String> deadLetterDirectory;
+    private final List<ReplicationDestination> additionalDestinations;
+    private final Optional<String> filterExpression;
+    private final List<String> projectedAttributes;
+    private final Optional<String> originAttribute;
+    private final String originId;
+    private final Optional<Long> pipelineStatsLogIntervalMillis;
+    private final Optional<Integer> localMetricsPort;
+    private final Optional<String> localMetricsAddress;
+    private final Optional<Long> bufferMaxBytes;
+    private final Optional<Long> workerBufferMaxBytes;
+    private final Optional<Long> coalesceMillis;
+    private final Optional<Integer> coalesceMaxRecords;
+    private final Optional<Long> checkpointIntervalMillis;
 
     @VisibleForTesting
     CommandLineInterface(CommandLineArgs params) throws ParameterException {
@@ -129,6 +208,69 @@ public class CommandLineInterface {
         isPublishCloudWatch = !params.isDontPublishCloudwatch();
         taskName = params.getTaskName();
         parentShardPollIntervalMillis = Optional.fromNullable(params.getParentShardPollIntervalMillis());
+        isBatchWrite = params.isBatchWrite();
+        maxWriteCapacityUnits = Optional.fromNullable(params.getMaxWriteCapacityUnits());
+        isValidateItems = params.isValidateItems();
+        isSkipErrors = params.isSkipErrors();
+        deadLetterDirectory = Optional.fromNullable(params.getDeadLetterDirectory());
+        if (maxWriteCapacityUnits.isPresent() && !(maxWriteCapacityUnits.get() > 0)) {
+            throw new ParameterException(CommandLineArgs.MAX_WRITE_CAPACITY_UNITS + " must be positive");
+        }
+        final List<ReplicationDestination> destinations = new ArrayList<ReplicationDestination>();
+        for (String destination : params.getAdditionalDestinations()) {
+            try {
+                destinations.add(ReplicationDestination.parse(destination));
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException(CommandLineArgs.ADDITIONAL_DESTINATION + ": " + e.getMessage());
+            }
+        }
+        additionalDestinations = Collections.unmodifiableList(destinations);
+        filterExpression = Optional.fromNullable(params.getFilterExpression());
+        if (filterExpression.isPresent()) {
+            try {
+                RecordFilter.compile(filterExpression.get());
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException(CommandLineArgs.FILTER_EXPRESSION + ": " + e.getMessage());
+            }
+        }
+        projectedAttributes = Collections.unmodifiableList(new ArrayList<String>(params.getProjectedAttributes()));
+        originAttribute = Optional.fromNullable(params.getOriginAttribute());
+        originId = Optional.fromNullable(params.getOriginId()).or(sourceRegion.getName() + ":" + sourceTable);
+        if (originId.contains(OriginFilter.SEPARATOR)) {
+            throw new ParameterException(CommandLineArgs.ORIGIN_ID + " must not contain " + OriginFilter.SEPARATOR);
+        }
+        pipelineStatsLogIntervalMillis = Optional.fromNullable(params.getPipelineStatsLogIntervalMillis());
+        if (pipelineStatsLogIntervalMillis.isPresent() && pipelineStatsLogIntervalMillis.get() <= 0) {
+            throw new ParameterException(CommandLineArgs.PIPELINE_STATS_LOG_INTERVAL_MILLIS + " must be positive");
+        }
+        localMetricsPort = Optional.fromNullable(params.getLocalMetricsPort());
+        if (localMetricsPort.isPresent() && (localMetricsPort.get() < 0 || localMetricsPort.get() > 65535)) {
+            throw new ParameterException(CommandLineArgs.LOCAL_METRICS_PORT + " must be a port number");
+        }
+        localMetricsAddress = Optional.fromNullable(params.getLocalMetricsAddress());
+        if (localMetricsAddress.isPresent() && !localMetricsPort.isPresent()) {
+            throw new ParameterException(CommandLineArgs.LOCAL_METRICS_ADDRESS + " needs " + CommandLineArgs.LOCAL_METRICS_PORT);
+        }
+        bufferMaxBytes = Optional.fromNullable(params.getBufferMaxBytes());
+        if (bufferMaxBytes.isPresent() && bufferMaxBytes.get() <= 0) {
+            throw new ParameterException(CommandLineArgs.BUFFER_MAX_BYTES + " must be positive");
+        }
+        workerBufferMaxBytes = Optional.fromNullable(params.getWorkerBufferMaxBytes());
+        if (workerBufferMaxBytes.isPresent() && workerBufferMaxBytes.get() <= 0) {
+            throw new ParameterException(CommandLineArgs.WORKER_BUFFER_MAX_BYTES + " must be positive");
+        }
+        coalesceMillis = Optional.fromNullable(params.getCoalesceMillis());
+        if (coalesceMillis.isPresent() && coalesceMillis.get() <= 0) {
+            throw new ParameterException(CommandLineArgs.COALESCE_MILLIS + " must be positive");
+        }
+        coalesceMaxRecords = Optional.fromNullable(params.getCoalesceMaxRecords());
+        if (coalesceMaxRecords.isPresent() && coalesceMaxRecords.get() <= 0) {
+            throw new ParameterException(CommandLineArgs.COALESCE_MAX_RECORDS + " must be positive");
+        }
+        checkpointIntervalMillis = Optional.fromNullable(params.getCheckpointIntervalMillis());
+        if (checkpointIntervalMillis.isPresent() && checkpointIntervalMillis.get() < 0) {
+            throw new ParameterException(CommandLineArgs.CHECKPOINT_INTERVAL_MILLIS + " must not be negative");
+        }
     }
 
     @VisibleForTesting
@@ -172,9 +314,12 @@ public class CommandLineInterface {
         // initialize DynamoDB Streams Adapter client and set the Streams endpoint properly
         final AmazonDynamoDBStreamsAdapterClient streamsAdapterClient = new AmazonDynamoDBStreamsAdapterClient(streamsClient);
 
-        // initialize CloudWatch client and set the region to emit metrics to
+        // initialize CloudWatch client and set the region to emit metrics to, or keep the metrics in memory to serve them locally
+        final LocalMetricsCloudWatch localMetrics = localMetricsPort.isPresent() ? new LocalMetricsCloudWatch() : null;
         final AmazonCloudWatch kclCloudWatchClient;
-        if (isPublishCloudWatch) {
+        if (null != localMetrics) {
+            kclCloudWatchClient = localMetrics;
+        } else if (isPublishCloudWatch) {
             kclCloudWatchClient = AmazonCloudWatchClientBuilder.standard()
                     .withCredentials(credentialsProvider)
                     .withRegion(kclRegion.or(sourceRegion).getName()).build();
@@ -193,11 +338,77 @@ public class CommandLineInterface {
         properties.put(DynamoDBStreamsConnectorConfiguration.PROP_DYNAMODB_ENDPOINT, destinationEndpointConfiguration.getServiceEndpoint());
         properties.put(DynamoDBStreamsConnectorConfiguration.PROP_DYNAMODB_DATA_TABLE_NAME, destinationTable);
         properties.put(DynamoDBStreamsConnectorConfiguration.PROP_REGION_NAME, destinationRegion.getName());
+        properties.put(DynamoDBStreamsConnectorConfiguration.PROP_BATCH_WRITE_ENABLED, String.valueOf(isBatchWrite));
+        properties.put(DynamoDBStreamsConnectorConfiguration.PROP_PREFLIGHT_VALIDATION, String.valueOf(isValidateItems));
+        properties.put(DynamoDBStreamsConnectorConfiguration.PROP_SKIP_ERRORS, String.valueOf(isSkipErrors));
+        if (deadLetterDirectory.isPresent()) {
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_DEAD_LETTER_DIRECTORY, deadLetterDirectory.get());
+        }
+        if (filterExpression.isPresent()) {
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_FILTER_EXPRESSION, filterExpression.get());
+        }
+        if (!projectedAttributes.isEmpty()) {
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_PROJECTED_ATTRIBUTES, Joiner.on(',').join(projectedAttributes));
+        }
+        if (originAttribute.isPresent()) {
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_ORIGIN_ATTRIBUTE, originAttribute.get());
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_ORIGIN_ID, originId);
+        }
+        if (!additionalDestinations.isEmpty()) {
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_ADDITIONAL_DESTINATIONS, ReplicationDestination.formatList(additionalDestinations));
+        }
+        if (maxWriteCapacityUnits.isPresent()) {
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_MAX_WRITE_CAPACITY_UNITS, String.valueOf(maxWriteCapacityUnits.get()));
+        }
+        if (bufferMaxBytes.isPresent()) {
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_BUFFER_MAX_BYTES, String.valueOf(bufferMaxBytes.get()));
+        }
+        if (workerBufferMaxBytes.isPresent()) {
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_WORKER_BUFFER_MAX_BYTES, String.valueOf(workerBufferMaxBytes.get()));
+        }
+        if (coalesceMillis.isPresent()) {
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_COALESCE_MILLIS, String.valueOf(coalesceMillis.get()));
+        }
+        if (coalesceMaxRecords.isPresent()) {
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_COALESCE_MAX_RECORDS, String.valueOf(coalesceMaxRecords.get()));
+        }
+        if (checkpointIntervalMillis.isPresent()) {
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_CHECKPOINT_INTERVAL_MILLIS, String.valueOf(checkpointIntervalMillis.get()));
+        }
+
+        // create the clients of the destination tables, shared by the emitters of all shards and shut down with the process
+        final DynamoDBClientRegistry clients = new DynamoDBClientRegistry(credentialsProvider, localMetrics);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                clients.shutdown();
+            }
+        });
 
         // create the record processor factory based on given pipeline and connector configurations
-        // use the master to replicas pipeline
-        final KinesisConnectorRecordProcessorFactory<Record, Record> factory = new KinesisConnectorRecordProcessorFactory<>(
-                new DynamoDBMasterToReplicasPipeline(), new DynamoDBStreamsConnectorConfiguration(properties, credentialsProvider));
+        // use the master to replicas pipeline, with the emitters tagging their metrics with the shard they replicate
+        // and the time spent in each stage of the pipeline recorded per shard, holding a bounded number of bytes of records
+        final PipelineStats stats = new PipelineStats();
+        if (pipelineStatsLogIntervalMillis.isPresent()) {
+            stats.logEvery(pipelineStatsLogIntervalMillis.get());
+        }
+        if (null != localMetrics) {
+            properties.put(DynamoDBStreamsConnectorConfiguration.PROP_METRICS_INTERVAL_MILLIS, String.valueOf(DynamoDBConnectorConstants.LOCAL_METRICS_INTERVAL_MILLIS));
+            final LocalMetricsEndpoint endpoint = new LocalMetricsEndpoint(localMetrics, stats);
+            try {
+                endpoint.start(localMetricsAddress.orNull(), localMetricsPort.get());
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not serve metrics on " + localMetricsAddress.or("localhost") + ":" + localMetricsPort.get(), e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    endpoint.close();
+                }
+            });
+        }
+        final ReplicationRecordProcessorFactory<Record, Record> factory = new ReplicationRecordProcessorFactory<>(
+                new DynamoDBMasterToReplicasPipeline(clients), new DynamoDBStreamsConnectorConfiguration(properties, credentialsProvider), stats);
 
         // create the KCL configuration with default values
         final KinesisClientLibConfiguration kclConfig = new KinesisClientLibConfiguration(actualTaskName,
@@ -216,12 +427,22 @@ public class CommandLineInterface {
                 // make parent shard poll interval tunable to decrease time to run integration test
                 .withParentShardPollIntervalMillis(parentShardPollIntervalMillis.or(DynamoDBConnectorConstants.DEFAULT_PARENT_SHARD_POLL_INTERVAL_MILLIS))
                 // avoid losing leases too often - default 60 seconds
-                .withFailoverTimeMillis(DynamoDBConnectorConstants.KCL_FAILOVER_TIME);
+                .withFailoverTimeMillis(DynamoDBConnectorConstants.KCL_FAILOVER_TIME)
+                // coalescing buffers are flushed by age only when the record processor is called
+                .withCallProcessRecordsEvenForEmptyRecordList(coalesceMillis.isPresent());
 
         // create the KCL worker for this connector
         return new Worker(factory, kclConfig, streamsAdapterClient, kclDynamoDBClient, kclCloudWatchClient);
     }
 
+    /**
+     * @return the destination tables replicated to in addition to the destination table
+     */
+    @VisibleForTesting
+    List<ReplicationDestination> getAdditionalDestinations() {
+        return additionalDestinations;
+    }
+
     @VisibleForTesting
     EndpointConfiguration createKclDynamoDbEndpointConfiguration() {
         return createEndpointConfiguration(kclRegion.or(sourceRegion),
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+
+/**
+ * Form of a DynamoDB Streams record held by {@link DynamoDBBuffer} until it is flushed, keeping only what the emitter
+ * writes: the event name, the sequence number, the size and creation time the stream reports, the key and the new image.
+ * The key and the new image are kept in the encoding of {@link AttributeValueCodec}, a few byte arrays instead of maps
+ * of attribute values, and the old image and the other stream metadata are dropped. The record is rebuilt when the
+ * buffer is flushed. The new image of a {@link LazyStreamRecord} that was never read is kept as its JSON instead, and
+ * the rebuilt record is lazy too, so that the image is only decoded when the write is built.
+ */
+public final class CompactRecord {
+
+    private final String eventName;
+    private final String sequenceNumber;
+    private final Long sizeBytes;
+    private final Date approximateCreationDateTime;
+    /**
+     * Canonical encoding of the key, see {@link AttributeValueCodec#encodeKey(java.util.Map)}.
+     */
+    private final byte[] key;
+    /**
+     * The new image, in the encoding of {@link AttributeValueCodec} or as JSON, or null if the record has none.
+     */
+    private final byte[] newImage;
+    /**
+     * Whether the new image is kept as JSON rather than in the encoding of {@link AttributeValueCodec}.
+     */
+    private final boolean newImageJson;
+
+    /**
+     * Constructor for the compact form of a record.
+     *
+     * @param record
+     *            The record
+     * @param key
+     *            The canonical encoding of the key of the record, not copied
+     */
+    public CompactRecord(final Record record, final byte[] key) {
+        final StreamRecord streamRecord = record.getDynamodb();
+        this.eventName = internEventName(record.getEventName());
+        this.sequenceNumber = streamRecord.getSequenceNumber();
+        this.sizeBytes = streamRecord.getSizeBytes();
+        this.approximateCreationDateTime = streamRecord.getApproximateCreationDateTime();
+        this.key = key;
+        final byte[] newImageJson = streamRecord instanceof LazyStreamRecord ? ((LazyStreamRecord) streamRecord).copyRawNewImage() : null;
+        if (null != newImageJson) {
+            this.newImage = newImageJson;
+            this.newImageJson = true;
+        } else {
+            this.newImage = null == streamRecord.getNewImage() ? null : AttributeValueCodec.encodeItem(streamRecord.getNewImage());
+            this.newImageJson = false;
+        }
+    }
+
+    /**
+     * @return A new record with the fields kept by the compact form
+     */
+    public Record toRecord() {
+        final StreamRecord streamRecord = newImageJson ? new LazyStreamRecord(newImage) : new StreamRecord();
+        streamRecord.withSequenceNumber(sequenceNumber).withSizeBytes(sizeBytes).withApproximateCreationDateTime(approximateCreationDateTime)
+            .setKeys(AttributeValueCodec.decodeItem(ByteBuffer.wrap(key)));
+        if (newImageJson) {
+            ((LazyStreamRecord) streamRecord).setRawNewImage(0, newImage.length);
+        } else if (null != newImage) {
+            streamRecord.setNewImage(AttributeValueCodec.decodeItem(ByteBuffer.wrap(newImage)));
+        }
+        return new Record().withEventName(eventName).withDynamodb(streamRecord);
+    }
+
+    /**
+     * @return The sequence number of the record
+     */
+    public String getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return The bytes of the encoded key and new image
+     */
+    public int getEncodedBytes() {
+        return key.length + (null == newImage ? 0 : newImage.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "CompactRecord [eventName=" + eventName + ", sequenceNumber=" + sequenceNumber + ", encodedBytes=" + getEncodedBytes() + "]";
+    }
+
+    /**
+     * @return The constant name of a known operation type, so that the event names of the buffered records are shared,
+     *         or the name itself otherwise
+     */
+    private static String internEventName(final String eventName) {
+        for (OperationType operationType : OperationType.values()) {
+            if (operationType.toString().equals(eventName)) {
+                return operationType.toString();
+            }
+        }
+        return eventName;
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import com.amazonaws.services.dynamodbv2.model.Record;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Durable local log of records that could not be written to the destination table, so replication can move past them
+ * and they can be replayed later. The log is a directory of segment files that are only appended to. Each entry is the
+ * length of the encoded record, a CRC32 of the encoding and the record encoded with {@link AttributeValueCodec}. An
+ * entry that is cut short or has a bad checksum marks the end of a segment that was cut short by a crash.
+ * <p>
+ * A log holds a lock on a file of its directory while it is open, and appends to segments it created itself, so the
+ * segments of a directory other than the last one are never written to again and can be replayed and deleted while a
+ * log is appending to the directory.
+ */
+@Log4j
+public class DeadLetterLog implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "deadletter-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String LOCK_FILE = "deadletter.lock";
+    private static final int ENTRY_HEADER_BYTES = 8;
+
+    private static final ConcurrentMap<String, DeadLetterLog> LOGS = new ConcurrentHashMap<String, DeadLetterLog>();
+
+    /**
+     * Directories locked by a log of this JVM, which must not be probed by opening the lock file again, since closing
+     * a channel to the lock file can release the lock held by the log.
+     */
+    private static final Set<String> LOCKED = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final File directory;
+    private final long segmentBytes;
+    private final FileChannel lockChannel;
+    private long segmentIndex;
+    private FileChannel segment;
+    private boolean closed;
+
+    /**
+     * Returns the log shared by all emitters writing to a directory, opening it on first use.
+     *
+     * @param directory
+     *            The directory of the log
+     * @param segmentBytes
+     *            The size of each segment file, used if the log is opened
+     * @return The log of the directory
+     * @throws IOException
+     *             If the log cannot be opened
+     */
+    public static DeadLetterLog forDirectory(final File directory, final long segmentBytes) throws IOException {
+        final String key = directory.getAbsolutePath();
+        DeadLetterLog deadLetterLog = LOGS.get(key);
+        if (deadLetterLog == null) {
+            synchronized (LOGS) {
+                deadLetterLog = LOGS.get(key);
+                if (deadLetterLog == null) {
+                    deadLetterLog = new DeadLetterLog(directory, segmentBytes);
+                    LOGS.put(key, deadLetterLog);
+                }
+            }
+        }
+        return deadLetterLog;
+    }
+
+    /**
+     * Opens the log, locking its directory. Records are appended to a new segment after the existing ones, created on
+     * the first append.
+     *
+     * @param directory
+     *            The directory of the log, created if it does not exist
+     * @param segmentBytes
+     *            The size of each segment file
+     * @throws IOException
+     *             If the log cannot be opened, or another log is open on the directory
+     */
+    public DeadLetterLog(final File directory, final long segmentBytes) throws IOException {
+        if (segmentBytes <= ENTRY_HEADER_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid dead letter segment size: " + segmentBytes);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create dead letter directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        final String key = directory.getAbsolutePath();
+        if (!LOCKED.add(key)) {
+            throw new IOException("Dead letter directory is in use by another log: " + directory);
+        }
+        lockChannel = lock(directory);
+        if (lockChannel == null) {
+            LOCKED.remove(key);
+            throw new IOException("Dead letter directory is in use by another process: " + directory);
+        }
+        final long[] indexes = getSegmentIndexes(directory);
+        segmentIndex = indexes.length == 0 ? 0 : indexes[indexes.length - 1] + 1;
+    }
+
+    /**
+     * Appends a record to the log and forces it to disk.
+     *
+     * @param record
+     *            The record to append
+     * @throws IOException
+     *             If the record cannot be written
+     */
+    public void append(final Record record) throws IOException {
+        append(Collections.singletonList(record));
+    }
+
+    /**
+     * Appends records to the log and forces them to disk once, after the last one is written.
+     *
+     * @param records
+     *            The records to append
+     * @throws IOException
+     *             If the records cannot be written
+     */
+    public synchronized void append(final List<Record> records) throws IOException {
+        if (closed) {
+            throw new IOException("Dead letter log is closed: " + directory);
+        }
+        for (Record record : records) {
+            final byte[] encoded = AttributeValueCodec.encodeRecord(record);
+            final int entryBytes = ENTRY_HEADER_BYTES + encoded.length;
+            if (segment == null) {
+                openSegment();
+            } else if (segment.size() > 0 && segment.size() + entryBytes > segmentBytes) {
+                // A record larger than a segment gets a segment of its own
+                segment.force(true);
+                segment.close();
+                segmentIndex++;
+                openSegment();
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(encoded);
+            final ByteBuffer entry = ByteBuffer.allocate(entryBytes);
+            entry.putInt(encoded.length);
+            entry.putInt((int) crc.getValue());
+            entry.put(encoded);
+            entry.flip();
+            while (entry.hasRemaining()) {
+                segment.write(entry);
+            }
+        }
+        if (segment != null && !records.isEmpty()) {
+            segment.force(true);
+        }
+    }
+
+    /**
+     * Forces the current segment to disk, stops appending and unlocks the directory.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (segment != null) {
+                segment.force(true);
+                segment.close();
+                segment = null;
+            }
+        } catch (IOException e) {
+            log.error("Could not close dead letter segment " + getSegmentFile(directory, segmentIndex), e);
+        } finally {
+            try {
+                // Closing the channel releases the lock
+                lockChannel.close();
+            } catch (IOException e) {
+                log.error("Could not unlock dead letter directory " + directory, e);
+            }
+            LOCKED.remove(directory.getAbsolutePath());
+            LOGS.remove(directory.getAbsolutePath(), this);
+        }
+    }
+
+/**
+     * Reads the records of a log in the order they were appended.
+     *
+     * @param directory
+     *            The directory of the log
+     * @return An iterator over the records of every segment
+     * @throws IOException
+     *             If the segment files cannot be listed
+     */
+    public static Iterator<Record> read(final File directory) throws IOException {
+        return read(listSegments(directory));
+    }
+
+    /**
+     * Reads the records of segment files in the order they were appended.
+     *
+     * @param segments
+     *            The segment files, as listed by {@link #listSegments(File)}
+     * @return An iterator over the records of the segments
+     */
+    public static Iterator<Record> read(final List<File> segments) {
+        return new SegmentIterator(segments);
+    }
+
+    /**
+     * Lists the segment files of a log in the order they were appended.
+     *
+     * @param directory
+     *            The directory of the log
+     * @return The segment files of the log
+     * @throws IOException
+     *             If the segment files cannot be listed
+     */
+    public static List<File> listSegments(final File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException("Dead letter directory does not exist: " + directory);
+        }
+        final long[] indexes = getSegmentIndexes(directory);
+        final List<File> files = new ArrayList<File>(indexes.length);
+        for (long index : indexes) {
+            files.add(getSegmentFile(directory, index));
+        }
+        return files;
+    }
+
+    /**
+     * Lists the segment files of a log that no open log may still append to, in the order they were appended. The
+     * last segment is left out while a log holds the lock of the directory.
+     *
+     * @param directory
+     *            The directory of the log
+     * @return The segment files of the log that are no longer appended to
+     * @throws IOException
+     *             If the segment files cannot be listed
+     */
+    public static List<File> listSealedSegments(final File directory) throws IOException {
+        // List before checking the lock: a log locking the directory afterwards appends to a segment of its own
+        final List<File> segments = listSegments(directory);
+        if (!segments.isEmpty() && isLocked(directory)) {
+            log.info("Dead letter directory " + directory + " is locked by an open log, skipping its last segment");
+            return new ArrayList<File>(segments.subList(0, segments.size() - 1));
+        }
+        return segments;
+    }
+
+    /**
+     * Deletes segment files, once their records are replayed. Segments listed by {@link #listSealedSegments(File)}
+     * can be deleted while a log is open on the directory.
+     *
+     * @param segments
+     *            The segment files to delete
+     * @throws IOException
+     *             If a segment file cannot be deleted
+     */
+    public static void delete(final List<File> segments) throws IOException {
+        for (File segment : segments) {
+            if (segment.exists() && !segment.delete()) {
+                throw new IOException("Could not delete dead letter segment " + segment);
+            }
+        }
+    }
+
+    private void openSegment() throws IOException {
+        final File file = getSegmentFile(directory, segmentIndex);
+        segment = new RandomAccessFile(file, "rw").getChannel();
+        segment.position(segment.size());
+    }
+
+    /**
+     * @return The channel of the lock file holding the lock of the directory, or null if another process holds it
+     */
+    private static FileChannel lock(final File directory) throws IOException {
+        final FileChannel channel = new RandomAccessFile(new File(directory, LOCK_FILE), "rw").getChannel();
+        FileLock fileLock = null;
+        try {
+            fileLock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by this JVM
+        } finally {
+            if (fileLock == null) {
+                channel.close();
+            }
+        }
+        return fileLock == null ? null : channel;
+    }
+
+    /**
+     * @return Whether a log of this or another process holds the lock of a directory
+     */
+    private static boolean isLocked(final File directory) throws IOException {
+        if (LOCKED.contains(directory.getAbsolutePath())) {
+            return true;
+        }
+        if (!new File(directory, LOCK_FILE).exists()) {
+            return false;
+        }
+        try {
+            final FileChannel channel = lock(directory);
+            if (channel == null) {
+                return true;
+            }
+            channel.close();
+            return false;
+        } catch (IOException e) {
+            log.warn("Could not check the lock of dead letter directory " + directory, e);
+            return true;
+        }
+    }
+
+    /**
+     * @return The encoding of the next entry of a segment, or null at the end of the segment
+     */
+    private static byte[] nextEntry(final DataInputStream in, final long remaining, final File file) throws IOException {
+        if (remaining < ENTRY_HEADER_BYTES) {
+            return null;
+        }
+        final int length = in.readInt();
+        final int expectedCrc = in.readInt();
+        if (length <= 0 || length > remaining - ENTRY_HEADER_BYTES) {
+            return null;
+        }
+        final byte[] encoded = new byte[length];
+        in.readFully(encoded);
+        final CRC32 crc = new CRC32();
+        crc.update(encoded);
+        if ((int) crc.getValue() != expectedCrc) {
+            log.warn("Dead letter entry with bad checksum in " + file + ", ignoring the rest of the segment");
+            return null;
+        }
+        return encoded;
+    }
+
+    private static File getSegmentFile(final File directory, final long index) {
+        return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static long[] getSegmentIndexes(final File directory) throws IOException {
+        final String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (names == null) {
+            throw new IOException("Could not list dead letter directory " + directory);
+        }
+        final long[] indexes = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indexes[i] = Long.parseLong(names[i].substring(SEGMENT_PREFIX.length(), names[i].length() - SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(indexes);
+        return indexes;
+    }
+
+    /**
+     * Iterates over the entries of the segment files in order, reading one segment at a time.
+     */
+    private static final class SegmentIterator implements Iterator<Record> {
+        private final Iterator<File> files;
+        private File file;
+        private DataInputStream in;
+        private long remaining;
+        private Record next;
+
+        private SegmentIterator(final List<File> files) {
+            this.files = files.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    final byte[] entry = in == null ? null : nextEntry(in, remaining, file);
+                    if (entry != null) {
+                        remaining -= ENTRY_HEADER_BYTES + entry.length;
+                        next = AttributeValueCodec.decodeRecord(ByteBuffer.wrap(entry));
+                    } else {
+                        closeSegment();
+                        if (!files.hasNext()) {
+                            return false;
+                        }
+                        file = files.next();
+                        remaining = file.length();
+                        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                    }
+                }
+            } catch (IOException e) {
+                closeSegment();
+                throw new IllegalStateException("Could not read dead letter segment " + file, e);
+            }
+            return true;
+        }
+
+        private void closeSegment() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.warn("Could not close dead letter segment " + file, e);
+                }
+                in = null;
+            }
+        }
+
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Record record = next;
+            next = null;
+            return record;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Replays the records of a {@link DeadLetterLog} into the destination table. Records are buffered and deduplicated by
+ * key like stream records, and each full buffer is written with a single emit call, so the replay runs at the batch
+ * throughput of the emitter. Records the emitter fails are retried like the record processor does, then passed to
+ * {@link IEmitter#fail(List)}. Replaying a log again writes its records again, unless the replayed segments are deleted.
+ */
+@Log4j
+public class DeadLetterReplayer {
+
+    private final IEmitter<Record> emitter;
+    private final DynamoDBStreamsConnectorConfiguration configuration;
+    private final int recordsPerEmit;
+
+    /**
+     * Constructor for the replayer.
+     *
+     * @param emitter
+     *            The emitter writing to the destination table
+     * @param configuration
+     *            The configuration of the buffer, retry limit and backoff interval
+     * @param recordsPerEmit
+     *            The number of distinct keys written with each emit call
+     */
+    public DeadLetterReplayer(final IEmitter<Record> emitter, final DynamoDBStreamsConnectorConfiguration configuration,
+        final int recordsPerEmit) {
+        if (recordsPerEmit < 1) {
+            throw new IllegalArgumentException("Records per emit must be positive: " + recordsPerEmit);
+        }
+        this.emitter = emitter;
+        this.configuration = configuration;
+        this.recordsPerEmit = recordsPerEmit;
+    }
+
+    /**
+     * Writes all records to the destination table.
+     *
+     * @param records
+     *            The records to replay, in the order they were logged
+     * @return The number of records that could not be replayed
+     * @throws IOException
+     *             If the emitter fails to write the records
+     * @throws InterruptedException
+     *             If the thread is interrupted while backing off
+     */
+    public int replay(final Iterator<Record> records) throws IOException, InterruptedException {
+        final DynamoDBBuffer buffer = new DynamoDBBuffer(configuration);
+        int read = 0;
+        int failed = 0;
+        while (records.hasNext()) {
+            final Record record = records.next();
+            // Later records of a key replace earlier ones, as in the stream
+            buffer.consumeRecord(record, 0, record.getDynamodb().getSequenceNumber());
+            read++;
+            if (buffer.getRecords().size() >= recordsPerEmit) {
+                failed += flush(buffer);
+            }
+        }
+        if (!buffer.getRecords().isEmpty()) {
+            failed += flush(buffer);
+        }
+        log.info("Replayed " + read + " dead letter records, " + failed + " records failed");
+        return failed;
+    }
+
+    /**
+     * Writes the records of a dead letter log to the destination table, and deletes the segments of the log once all
+     * their records are written. The segment an open log may still append to is left for a later replay.
+     *
+     * @param directory
+     *            The directory of the dead letter log
+     * @param deleteReplayed
+     *            Whether to delete the segments read if no record failed. Segments are kept if any record failed, so
+     *            the whole log can be replayed again.
+     * @return The number of records that could not be replayed
+     * @throws IOException
+     *             If the log cannot be read or deleted, or the emitter fails to write the records
+     * @throws InterruptedException
+     *             If the thread is interrupted while backing off
+     */
+    public int replay(final File directory, final boolean deleteReplayed) throws IOException, InterruptedException {
+        final List<File> segments = DeadLetterLog.listSealedSegments(directory);
+        final int failed = replay(DeadLetterLog.read(segments));
+        if (deleteReplayed) {
+            if (failed == 0) {
+                DeadLetterLog.delete(segments);
+                log.info("Deleted " + segments.size() + " replayed dead letter segments from " + directory);
+            } else {
+                log.warn("Kept the dead letter segments of " + directory + " because " + failed + " records failed");
+            }
+        }
+        return failed;
+    }
+
+    private int flush(final DynamoDBBuffer buffer) throws IOException, InterruptedException {
+        List<Record> unprocessed = emitter.emit(new UnmodifiableBuffer<Record>(buffer));
+        for (int attempt = 0; !unprocessed.isEmpty() && attempt < configuration.RETRY_LIMIT; attempt++) {
+            Thread.sleep(configuration.BACKOFF_INTERVAL);
+            unprocessed = emitter.emit(new UnmodifiableBuffer<Record>(buffer, unprocessed));
+        }
+        final int failed = unprocessed.size();
+        if (failed > 0) {
+            emitter.fail(unprocessed);
+        }
+        buffer.clear();
+        return failed;
+    }
+}
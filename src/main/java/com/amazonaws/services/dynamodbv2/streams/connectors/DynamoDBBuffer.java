@@ -6,9 +6,10 @@
 package com.amazonaws.services.dynamodbv2.streams.connectors;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.annotation.NotThreadSafe;
 import org.apache.log4j.Logger;
@@ -24,6 +25,23 @@ import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
  * A buffer that stores DynamoDB Streams records. Deduplicates based on the latest record with a given DynamoDB key.
  * First and last sequence numbers are based on the entire range of records considered, even if a record has been
  * overwritten by a newer record with the same key. The buffer is designed to flush on every processRecords call.
+ * <p>
+ * With {@link DynamoDBStreamsConnectorConfiguration#COALESCE_MILLIS} set, the buffer instead keeps its records across
+ * processRecords calls, merging the writes of keys updated in several GetRecords batches, and asks to be flushed once
+ * its first record is that old, or once it holds {@link DynamoDBStreamsConnectorConfiguration#COALESCE_MAX_RECORDS}
+ * keys or {@link DynamoDBStreamsConnectorConfiguration#BUFFER_MAX_BYTES}. The age is only checked when the record
+ * processor is called, so KCL must call it for empty GetRecords results too.
+ * <p>
+ * The buffer counts the bytes of the records it consumes, including records later replaced by a newer record with the
+ * same key, and reports the configured {@link DynamoDBStreamsConnectorConfiguration#BUFFER_MAX_BYTES} as its bytes to
+ * buffer, which {@link ReplicationRecordProcessorFactory} uses to split large GetRecords batches.
+ * <p>
+ * Keys are compared on their canonical encoding, {@link AttributeValueCodec#encodeKey(java.util.Map)}, in an
+ * {@link EncodedKeyMap}, rather than as maps of attribute values. A record replacing an earlier record with the same
+ * key moves to the end of the buffer, so records are emitted in the order of their sequence numbers, and the records
+ * written up to any point of the emitted list cover the stream up to the sequence number of the last of them.
+ * <p>
+ * Records are held as {@link CompactRecord}s, without their old image, and rebuilt when the buffer is flushed.
  */
 @NotThreadSafe
 public class DynamoDBBuffer implements IBuffer<Record> {
@@ -33,9 +51,14 @@ public class DynamoDBBuffer implements IBuffer<Record> {
     private static final Logger LOGGER = Logger.getLogger(DynamoDBBuffer.class);
 
     /**
-     * The map of DynamoDB key to DynamoDB Stream record used to buffer writes.
+     * The map of encoded DynamoDB key to DynamoDB Stream record used to buffer writes.
      */
-    private final Map<Map<String, AttributeValue>, Record> buffer = new HashMap<Map<String, AttributeValue>, Record>();
+    private final EncodedKeyMap<CompactRecord> buffer = new EncodedKeyMap<CompactRecord>();
+    /**
+     * The records rebuilt by the last getRecords call, until the next record is consumed or the buffer is cleared, so
+     * that every call returns the same instances.
+     */
+    private List<Record> rebuiltRecords = null;
 
     /**
      * The CloudWatch client to use for emitting metrics.
@@ -55,6 +78,31 @@ public class DynamoDBBuffer implements IBuffer<Record> {
      */
     private double processedRecords = 0;
 
+    /**
+     * Bytes of the records consumed since the buffer was last cleared.
+     */
+    private long bufferedBytes = 0;
+
+    /**
+     * Bytes of records to buffer before flushing.
+     */
+    private final long maxBytes;
+
+    /**
+     * Age of the first record at which a coalescing buffer is flushed, 0 if the buffer does not coalesce.
+     */
+    private final long coalesceMillis;
+
+    /**
+     * Number of keys at which a coalescing buffer is flushed.
+     */
+    private final int coalesceMaxRecords;
+
+    /**
+     * Time the first record was consumed since the buffer was last cleared.
+     */
+    private long firstRecordNanos = 0;
+
     /**
      * Constructor for buffer.
      *
@@ -64,6 +112,9 @@ public class DynamoDBBuffer implements IBuffer<Record> {
     public DynamoDBBuffer(final DynamoDBStreamsConnectorConfiguration configuration) {
         // TODO set up cloudwatch to emit metrics
         cloudwatch = null;
+        maxBytes = configuration.BUFFER_MAX_BYTES;
+        coalesceMillis = configuration.COALESCE_MILLIS;
+        coalesceMaxRecords = configuration.COALESCE_MAX_RECORDS;
     }
 
     /**
@@ -71,13 +122,17 @@ public class DynamoDBBuffer implements IBuffer<Record> {
      */
     @Override
     public void clear() {
+        final int records = getEncodedBuffer().size();
+        final double processed = getProcessedRecords();
         // Clear the set and reset sequence number bounds
-        getBuffer().clear();
+        getEncodedBuffer().clear();
+        rebuiltRecords = null;
         setFirstSequenceNumber(null);
         setLastSequenceNumber(null);
         setProcessedRecords(0);
+        bufferedBytes = 0;
         emitCloudWatchMetrics();
-        LOGGER.debug("Buffer cleared with buffer size: " + buffer.size() + " (" + processedRecords + " processed)");
+        LOGGER.debug("Buffer cleared with buffer size: " + records + " (" + processed + " processed)");
     }
 
     /**
@@ -85,14 +140,18 @@ public class DynamoDBBuffer implements IBuffer<Record> {
      */
     @Override
     public void consumeRecord(final Record record, final int recordBytes, final String sequenceNumber) {
-        // Use HashMap to deduplicate using the DynamoDB key as the key.
-        getBuffer().put(record.getDynamodb().getKeys(), record);
+        // Deduplicate using the encoded DynamoDB key as the key.
+        final byte[] key = AttributeValueCodec.encodeKey(record.getDynamodb().getKeys());
+        getEncodedBuffer().putLast(key, new CompactRecord(record, key));
+        rebuiltRecords = null;
         // Sequence number bound maintenance
         setLastSequenceNumber(sequenceNumber);
         if (getFirstSequenceNumber() == null) {
             setFirstSequenceNumber(getLastSequenceNumber());
+            firstRecordNanos = System.nanoTime();
         }
         setProcessedRecords(getProcessedRecords() + 1);
+        bufferedBytes += recordBytes;
         emitCloudWatchMetrics();
     }
 
@@ -113,7 +172,7 @@ public class DynamoDBBuffer implements IBuffer<Record> {
      */
     @Override
     public long getBytesToBuffer() {
-        return 1;
+        return maxBytes;
     }
 
     /**
@@ -137,7 +196,7 @@ public class DynamoDBBuffer implements IBuffer<Record> {
      */
     @Override
     public long getMillisecondsToBuffer() {
-        return Long.MAX_VALUE;
+        return isCoalescing() ? coalesceMillis : Long.MAX_VALUE;
     }
 
     /**
@@ -145,7 +204,7 @@ public class DynamoDBBuffer implements IBuffer<Record> {
      */
     @Override
     public long getNumRecordsToBuffer() {
-        return 1;
+        return isCoalescing() ? coalesceMaxRecords : 1;
     }
 
     /**
@@ -153,8 +212,14 @@ public class DynamoDBBuffer implements IBuffer<Record> {
      */
     @Override
     public List<Record> getRecords() {
-        // Convert records to a list
-        return new ArrayList<Record>(getBuffer().values());
+        if (null == rebuiltRecords) {
+            final List<CompactRecord> compactRecords = getEncodedBuffer().values();
+            rebuiltRecords = new ArrayList<Record>(compactRecords.size());
+            for (CompactRecord compactRecord : compactRecords) {
+                rebuiltRecords.add(compactRecord.toRecord());
+            }
+        }
+        return new ArrayList<Record>(rebuiltRecords);
     }
 
     /**
@@ -162,8 +227,21 @@ public class DynamoDBBuffer implements IBuffer<Record> {
      */
     @Override
     public boolean shouldFlush() {
-        return getBuffer().size() > 0;
+        if (getEncodedBuffer().size() == 0) {
+            return false;
+        }
+        if (!isCoalescing()) {
+            return true;
+        }
+        return getEncodedBuffer().size() >= coalesceMaxRecords || bufferedBytes >= maxBytes
+            || System.nanoTime() - firstRecordNanos >= TimeUnit.MILLISECONDS.toNanos(coalesceMillis);
+    }
 
+    /**
+     * @return true if the buffer keeps its records across processRecords calls
+     */
+    public boolean isCoalescing() {
+        return coalesceMillis > 0;
     }
 
     /**
@@ -171,18 +249,36 @@ public class DynamoDBBuffer implements IBuffer<Record> {
      */
     @Override
     public String toString() {
-        return "DynamoDBBuffer [buffer=" + getBuffer() + ", cloudwatch=" + getCloudwatch() + ", firstSeqNum="
+        return "DynamoDBBuffer [buffer=" + getEncodedBuffer() + ", cloudwatch=" + getCloudwatch() + ", firstSeqNum="
             + getFirstSequenceNumber() + ", lastSeqNum=" + getLastSequenceNumber() + ", processedRecords="
-            + getProcessedRecords() + "]";
+            + getProcessedRecords() + ", bufferedBytes=" + getBufferedBytes() + "]";
     }
 
     /**
-     * @return the buffer
+     * @return a copy of the buffer, mapping the DynamoDB key of each buffered record to the record, in buffer order
      */
     public Map<Map<String, AttributeValue>, Record> getBuffer() {
+        final Map<Map<String, AttributeValue>, Record> records = new LinkedHashMap<Map<String, AttributeValue>, Record>();
+        for (Record record : getRecords()) {
+            records.put(record.getDynamodb().getKeys(), record);
+        }
+        return records;
+    }
+
+    /**
+     * @return the buffer, keyed by encoded DynamoDB key
+     */
+    EncodedKeyMap<CompactRecord> getEncodedBuffer() {
         return buffer;
     }
 
+    /**
+     * @return the bytes of the records consumed since the buffer was last cleared
+     */
+    public long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
     /**
      * @param lastSeqNumParameter
      *            the lastSeqNum to set
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsyncClient;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClient;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * The clients of one replication process. Each destination table gets its own asynchronous DynamoDB client, with its
+ * own connection pool, executor and timeouts, shared by the emitters of all shards writing to that destination. The
+ * pool size, executor threads and timeouts are those of the configuration, unless the destination overrides them. The
+ * emitters share one CloudWatch client, either created by the registry or given to it. The registry owns the clients
+ * and shuts them all down together. The DynamoDB clients splice the items of {@link RawPutItemRequest}s into their
+ * requests.
+ */
+@Log4j
+public class DynamoDBClientRegistry {
+
+    /**
+     * Threads of the CloudWatch client executor.
+     */
+    private static final int CLOUDWATCH_THREADS = 10;
+
+    private final AWSCredentialsProvider credentialsProvider;
+    private final Map<String, AmazonDynamoDBAsync> dynamoDBClients = new LinkedHashMap<String, AmazonDynamoDBAsync>();
+    private AmazonCloudWatchAsync cloudwatch;
+    private boolean isShutdown = false;
+
+    /**
+     * Constructor for the registry.
+     *
+     * @param credentialsProvider
+     *            The credentials provider of all clients
+     */
+    public DynamoDBClientRegistry(final AWSCredentialsProvider credentialsProvider) {
+        this(credentialsProvider, null);
+    }
+
+    /**
+     * Constructor for a registry handing out the given CloudWatch client, for example a {@link LocalMetricsCloudWatch}.
+     *
+     * @param credentialsProvider
+     *            The credentials provider of all clients
+     * @param cloudwatch
+     *            The CloudWatch client of the emitters, or null to create one on first use
+     */
+    public DynamoDBClientRegistry(final AWSCredentialsProvider credentialsProvider, final AmazonCloudWatchAsync cloudwatch) {
+        this.credentialsProvider = credentialsProvider;
+        this.cloudwatch = cloudwatch;
+    }
+
+    /**
+     * Returns the client of a destination table, creating it on first use.
+     *
+     * @param destination
+     *            The destination table
+     * @param configuration
+     *            The connection pool size, executor threads and timeouts not overridden by the destination, used if the
+     *            client is created
+     * @return The client of the destination, pointed at its endpoint
+     */
+    public synchronized AmazonDynamoDBAsync getDynamoDB(final ReplicationDestination destination,
+        final DynamoDBStreamsConnectorConfiguration configuration) {
+        checkNotShutdown();
+        final String key = destination.toString();
+        AmazonDynamoDBAsync client = dynamoDBClients.get(key);
+        if (null == client) {
+            final int maxConnections = destination.getClientSetting(DynamoDBStreamsConnectorConfiguration.PROP_MAX_CONNECTIONS,
+                configuration.MAX_CONNECTIONS);
+            final int clientThreads = destination.getClientSetting(DynamoDBStreamsConnectorConfiguration.PROP_CLIENT_THREADS,
+                configuration.CLIENT_THREADS);
+            final ClientConfiguration clientConfiguration = new ClientConfiguration()
+                .withMaxConnections(maxConnections)
+                .withConnectionTimeout(destination.getClientSetting(DynamoDBStreamsConnectorConfiguration.PROP_CONNECTION_TIMEOUT_MILLIS,
+                    configuration.CONNECTION_TIMEOUT_MILLIS))
+                .withSocketTimeout(destination.getClientSetting(DynamoDBStreamsConnectorConfiguration.PROP_SOCKET_TIMEOUT_MILLIS,
+                    configuration.SOCKET_TIMEOUT_MILLIS))
+                .withRequestTimeout(destination.getClientSetting(DynamoDBStreamsConnectorConfiguration.PROP_REQUEST_TIMEOUT_MILLIS,
+                    configuration.REQUEST_TIMEOUT_MILLIS))
+                .withRetryPolicy(PredefinedRetryPolicies.DYNAMODB_DEFAULT);
+            final AmazonDynamoDBAsyncClient asyncClient = new AmazonDynamoDBAsyncClient(credentialsProvider, clientConfiguration,
+                createExecutor("dynamodb-" + destination.getTableName() + "-%d", clientThreads));
+            asyncClient.addRequestHandler(new RawPutItemRequestHandler());
+            client = asyncClient;
+            client.setEndpoint(destination.getEndpoint());
+            dynamoDBClients.put(key, client);
+            log.info("Created DynamoDB client for " + destination + " with " + maxConnections + " connections and " + clientThreads
+                + " threads");
+        }
+        return client;
+    }
+
+    /**
+     * @return The CloudWatch client of the process: the client given to the registry, or a client in the current region
+     *         or us-east-1 created on first use
+     */
+    public synchronized AmazonCloudWatchAsync getCloudWatch() {
+        checkNotShutdown();
+        if (null == cloudwatch) {
+            cloudwatch = new AmazonCloudWatchAsyncClient(credentialsProvider, createExecutor("cloudwatch-%d", CLOUDWATCH_THREADS))
+                .withRegion(Regions.getCurrentRegion() == null ? Region.getRegion(Regions.US_EAST_1) : Regions.getCurrentRegion());
+        }
+        return cloudwatch;
+    }
+
+    /**
+     * @return The destinations that have a client, as {@code region:table:endpoint}
+     */
+    public synchronized List<String> getDestinations() {
+        return new ArrayList<String>(dynamoDBClients.keySet());
+    }
+
+    /**
+     * Shuts down all clients and their executors. Clients cannot be obtained afterwards.
+     */
+    public synchronized void shutdown() {
+        if (isShutdown) {
+            return;
+        }
+        isShutdown = true;
+        for (AmazonDynamoDBAsync client : dynamoDBClients.values()) {
+            client.shutdown();
+        }
+        dynamoDBClients.clear();
+        if (null != cloudwatch) {
+            // Publish the metrics accumulated since the last interval
+            CloudWatchMetricsAggregator.closeAll(cloudwatch);
+            cloudwatch.shutdown();
+            cloudwatch = null;
+        }
+    }
+
+    private void checkNotShutdown() {
+        if (isShutdown) {
+            throw new IllegalStateException("Client registry has been shut down");
+        }
+    }
+
+    /**
+     * @return A fixed pool of daemon threads, so idle clients do not keep the process alive
+     */
+    private static ExecutorService createExecutor(final String nameFormat, final int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build());
+    }
+}
@@ -35,6 +35,12 @@ public class DynamoDBConnectorConstants {
     public static final String STREAMS_PREFIX = "streams.";
     public static final String PROTOCOL_REGEX = "^(https?://)?(.+)";
     public static final int DYNAMODB_TABLENAME_LIMIT = 255;
+    public static final int BATCH_WRITE_ITEM_LIMIT = 25;
+    public static final long BATCH_WRITE_BYTES_LIMIT = 16L * 1024 * 1024;
+    public static final int SEQUENCE_NUMBER_VERSION_LENGTH = 40;
+    public static final long MAX_ITEM_SIZE_BYTES = 400L * 1024;
+    public static final long MAX_PARTITION_KEY_BYTES = 2048L;
+    public static final long MAX_SORT_KEY_BYTES = 1024L;
 
     /**
      * KCL constants
@@ -45,6 +51,11 @@ public class DynamoDBConnectorConstants {
     public static final long DEFAULT_PARENT_SHARD_POLL_INTERVAL_MILLIS = 10000L;
     public static final String WORKER_LABEL = "worker";
 
+    /**
+     * Time between publications of the emitter metrics when they are served locally instead of sent to CloudWatch.
+     */
+    public static final long LOCAL_METRICS_INTERVAL_MILLIS = 5000L;
+
     /**
      * MD5 digest instance
      */
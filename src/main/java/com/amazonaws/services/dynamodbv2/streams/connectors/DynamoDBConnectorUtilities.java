@@ -6,11 +6,15 @@
 package com.amazonaws.services.dynamodbv2.streams.connectors;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.codec.binary.Hex;
 
 import com.amazonaws.regions.Region;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBStreams;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.DescribeStreamRequest;
 import com.amazonaws.services.dynamodbv2.model.StreamDescription;
 import com.amazonaws.services.dynamodbv2.model.StreamViewType;
@@ -91,4 +95,127 @@ public class DynamoDBConnectorUtilities {
         log.error(DynamoDBConnectorConstants.STREAM_NOT_READY + " StreamARN: " + streamArn);
         return false;
     }
+
+    /**
+     * Calculate the size of an item as DynamoDB accounts for it: the sum of the UTF-8 lengths of the attribute names and
+     * the sizes of the attribute values. Used to pack BatchWriteItem requests without serializing the items.
+     *
+     * @param item
+     *            the item (or key) to size
+     * @return the size of the item in bytes, or 0 if the item is null
+     */
+    public static long getItemSizeBytes(final Map<String, AttributeValue> item) {
+        if (item == null) {
+            return 0;
+        }
+        long size = 0;
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            size += getUtf8Length(attribute.getKey()) + getAttributeValueSizeBytes(attribute.getValue());
+        }
+        return size;
+    }
+
+    /**
+     * Calculate the size of a single attribute value, following the DynamoDB item size rules.
+     *
+     * @param value
+     *            the attribute value to size
+     * @return the size of the attribute value in bytes
+     */
+    public static long getAttributeValueSizeBytes(final AttributeValue value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value.getS() != null) {
+            return getUtf8Length(value.getS());
+        } else if (value.getN() != null) {
+            return getNumberSizeBytes(value.getN());
+        } else if (value.getB() != null) {
+            return value.getB().remaining();
+        } else if (value.getSS() != null) {
+            long size = 0;
+            for (String s : value.getSS()) {
+                size += getUtf8Length(s);
+            }
+            return size;
+        } else if (value.getNS() != null) {
+            long size = 0;
+            for (String n : value.getNS()) {
+                size += getNumberSizeBytes(n);
+            }
+            return size;
+        } else if (value.getBS() != null) {
+            long size = 0;
+            for (ByteBuffer b : value.getBS()) {
+                size += b.remaining();
+            }
+            return size;
+        } else if (value.getM() != null) {
+            // 3 bytes of overhead for the map plus 1 byte per element
+            long size = 3;
+            for (Map.Entry<String, AttributeValue> entry : value.getM().entrySet()) {
+                size += 1 + getUtf8Length(entry.getKey()) + getAttributeValueSizeBytes(entry.getValue());
+            }
+            return size;
+        } else if (value.getL() != null) {
+            // 3 bytes of overhead for the list plus 1 byte per element
+            final List<AttributeValue> list = value.getL();
+            long size = 3;
+            for (AttributeValue element : list) {
+                size += 1 + getAttributeValueSizeBytes(element);
+            }
+            return size;
+        } else {
+            // BOOL and NULL
+            return 1;
+        }
+    }
+
+    /**
+     * Numbers are stored with up to 38 significant digits, two digits per byte plus one byte of overhead.
+     */
+    private static long getNumberSizeBytes(final String number) {
+        int start = 0;
+        int end = number.length();
+        int significantDigits = 0;
+        boolean negative = false;
+        while (start < end && !Character.isDigit(number.charAt(start)) || start < end && number.charAt(start) == '0') {
+            negative |= number.charAt(start) == '-';
+            start++;
+        }
+        final int exponent = Math.max(number.indexOf('e'), number.indexOf('E'));
+        if (exponent >= start) {
+            end = exponent;
+        }
+        while (end > start && (number.charAt(end - 1) == '0' || number.charAt(end - 1) == '.')) {
+            end--;
+        }
+        for (int i = start; i < end; i++) {
+            if (Character.isDigit(number.charAt(i))) {
+                significantDigits++;
+            }
+        }
+        return (significantDigits + 1) / 2 + 1 + (negative ? 1 : 0);
+    }
+
+    /**
+     * Count the UTF-8 encoded length of a string without encoding it.
+     */
+    private static long getUtf8Length(final String string) {
+        long length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
 }
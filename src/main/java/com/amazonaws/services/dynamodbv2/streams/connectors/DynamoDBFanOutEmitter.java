@@ -0,0 +1,303 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Emits the records of one buffer to several destination emitters in parallel, so that a stream read and deduplicated
+ * once is replicated to every destination. Emit returns once every destination has finished, so the record processor
+ * checkpoints only what the slowest destination has written.
+ * <p>
+ * Each destination keeps its own progress: the records it failed are remembered, and when the record processor
+ * retries the failed records, each destination is sent only the records it has not written yet. Records failed for
+ * good are passed to the fail method of the destinations that could not write them.
+ * <p>
+ * When every destination reports its progress, a record is reported to the progress listener of this emitter once
+ * every destination it was sent to has written it.
+ */
+@Log4j
+public class DynamoDBFanOutEmitter implements IEmitter<Record>, ShardAware, ProgressAware {
+
+    private final List<IEmitter<Record>> destinations;
+    /**
+     * Records of the current buffer each destination has not written yet, by identity.
+     */
+    private final List<Set<Record>> unwritten;
+    private final ExecutorService executor;
+    /**
+     * Told of the records of the current emit call once every destination has written them, or null.
+     */
+    private volatile ProgressAware.Listener progressListener;
+
+    /**
+     * Constructor for the fan-out emitter.
+     *
+     * @param destinations
+     *            The emitters of the destination tables
+     */
+    public DynamoDBFanOutEmitter(final List<? extends IEmitter<Record>> destinations) {
+        if (destinations.isEmpty()) {
+            throw new IllegalArgumentException("Fan-out emitter needs at least one destination");
+        }
+        this.destinations = new ArrayList<IEmitter<Record>>(destinations);
+        this.unwritten = new ArrayList<Set<Record>>(destinations.size());
+        for (int i = 0; i < destinations.size(); i++) {
+            unwritten.add(Collections.<Record>emptySet());
+        }
+        this.executor = Executors.newFixedThreadPool(destinations.size(),
+            new ThreadFactoryBuilder().setNameFormat("fan-out-emitter-%d").setDaemon(true).build());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Record> emit(final UnmodifiableBuffer<Record> buffer) throws IOException {
+        final List<Record> records = buffer.getRecords();
+        final boolean retry = isRetry(records);
+        final List<List<Record>> toWrite = new ArrayList<List<Record>>(destinations.size());
+        for (int i = 0; i < destinations.size(); i++) {
+            toWrite.add(retry ? retain(records, unwritten.get(i)) : records);
+        }
+        final boolean reportProgress = setDestinationListeners(toWrite);
+        try {
+            return emit(buffer, records, toWrite);
+        } finally {
+            if (reportProgress) {
+                for (IEmitter<Record> destination : destinations) {
+                    ((ProgressAware) destination).setProgressListener(null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Emits the records to each destination in parallel and waits for every destination.
+     */
+    private List<Record> emit(final UnmodifiableBuffer<Record> buffer, final List<Record> records, final List<List<Record>> toWriteByDestination)
+        throws IOException {
+        final List<Future<List<Record>>> futures = new ArrayList<Future<List<Record>>>(destinations.size());
+        for (int i = 0; i < destinations.size(); i++) {
+            final IEmitter<Record> destination = destinations.get(i);
+            final List<Record> toWrite = toWriteByDestination.get(i);
+            futures.add(executor.submit(new Callable<List<Record>>() {
+                @Override
+                public List<Record> call() throws IOException {
+                    if (toWrite.isEmpty()) {
+                        return Collections.emptyList();
+                    }
+                    return destination.emit(new UnmodifiableBuffer<Record>(buffer, toWrite));
+                }
+            }));
+        }
+        // Wait for every destination, even if one of them throws
+        Exception error = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                final Set<Record> failed = newIdentitySet();
+                failed.addAll(Uninterruptibles.getUninterruptibly(futures.get(i)));
+                unwritten.set(i, failed);
+                if (!failed.isEmpty()) {
+                    log.debug(failed.size() + " records not written to " + destinations.get(i));
+                }
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (null == error) {
+                    error = cause instanceof RuntimeException || cause instanceof IOException ? (Exception) cause
+                        : new IllegalStateException("Could not emit to " + destinations.get(i), cause);
+                }
+            }
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (null != error) {
+            throw (RuntimeException) error;
+        }
+        final List<Record> failed = new ArrayList<Record>();
+        for (Record record : records) {
+            if (isUnwritten(record)) {
+                failed.add(record);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void fail(final List<Record> records) {
+        for (int i = 0; i < destinations.size(); i++) {
+            final List<Record> failed = new ArrayList<Record>();
+            for (Record record : records) {
+                // Records not emitted through this emitter are failed on every destination
+                if (unwritten.get(i).contains(record) || !isUnwritten(record)) {
+                    failed.add(record);
+                }
+            }
+            if (!failed.isEmpty()) {
+                destinations.get(i).fail(failed);
+            }
+        }
+        for (int i = 0; i < unwritten.size(); i++) {
+            unwritten.set(i, Collections.<Record>emptySet());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setShardId(final String shardId) {
+        for (IEmitter<Record> destination : destinations) {
+            if (destination instanceof ShardAware) {
+                ((ShardAware) destination).setShardId(shardId);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setProgressListener(final ProgressAware.Listener listener) {
+        this.progressListener = listener;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+        for (IEmitter<Record> destination : destinations) {
+            destination.shutdown();
+        }
+    }
+
+    /**
+     * @return the emitters of the destination tables
+     */
+    public List<IEmitter<Record>> getDestinations() {
+        return Collections.unmodifiableList(destinations);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "DynamoDBFanOutEmitter " + destinations;
+    }
+
+    /**
+     * @return true if the records are all records some destination has not written yet, which is how the record
+     *         processor retries the records returned by emit
+     */
+    private boolean isRetry(final List<Record> records) {
+        if (records.isEmpty()) {
+            return false;
+        }
+        for (Record record : records) {
+            if (!isUnwritten(record)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isUnwritten(final Record record) {
+        for (Set<Record> destinationUnwritten : unwritten) {
+            if (destinationUnwritten.contains(record)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gives every destination a listener counting down the destinations each record is sent to, and reports a record
+     * to the progress listener of this emitter once the count reaches zero.
+     *
+     * @param toWrite
+     *            The records sent to each destination
+     * @return true if the listeners were set, false if there is no progress listener or a destination does not report
+     *         its progress
+     */
+    private boolean setDestinationListeners(final List<List<Record>> toWrite) {
+        final ProgressAware.Listener listener = progressListener;
+        if (null == listener) {
+            return false;
+        }
+        for (IEmitter<Record> destination : destinations) {
+            if (!(destination instanceof ProgressAware)) {
+                return false;
+            }
+        }
+        final Map<Record, AtomicInteger> pending = new IdentityHashMap<Record, AtomicInteger>();
+        for (List<Record> records : toWrite) {
+            for (Record record : records) {
+                AtomicInteger count = pending.get(record);
+                if (null == count) {
+                    count = new AtomicInteger();
+                    pending.put(record, count);
+                }
+                count.incrementAndGet();
+            }
+        }
+        final ProgressAware.Listener destinationListener = new ProgressAware.Listener() {
+            @Override
+            public void onWritten(final Record record) {
+                final AtomicInteger count = pending.get(record);
+                if (null != count && count.decrementAndGet() == 0) {
+                    listener.onWritten(record);
+                }
+            }
+        };
+        for (IEmitter<Record> destination : destinations) {
+            ((ProgressAware) destination).setProgressListener(destinationListener);
+        }
+        return true;
+    }
+
+    private static List<Record> retain(final List<Record> records, final Set<Record> retained) {
+        final List<Record> result = new ArrayList<Record>();
+        for (Record record : records) {
+            if (retained.contains(record)) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    private static Set<Record> newIdentitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<Record, Boolean>());
+    }
+}
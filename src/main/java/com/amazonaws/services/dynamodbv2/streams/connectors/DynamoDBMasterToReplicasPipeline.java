@@ -5,6 +5,10 @@
  */
 package com.amazonaws.services.dynamodbv2.streams.connectors;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
 import com.amazonaws.services.dynamodbv2.model.Record;
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
 import com.amazonaws.services.kinesis.connectors.impl.AllPassFilter;
@@ -17,25 +21,74 @@ import com.amazonaws.services.kinesis.connectors.interfaces.ITransformer;
 /**
  * The Pipeline used when there is only one single master replicating to multiple replicas. Uses:
  * <ul>
- * <li>{@link DynamoDBReplicationEmitter}</li>
+ * <li>{@link DynamoDBReplicationEmitter}, or a {@link DynamoDBFanOutEmitter} of one per destination table</li>
  * <li>{@link DynamoDBBuffer}</li>
  * <li>{@link DynamoDBStreamsRecordTransformer}</li>
- * <li>{@link AllPassFilter}</li>
+ * <li>{@link RecordFilter} if a filter expression or projected attributes are configured, {@link AllPassFilter} otherwise,
+ * after an {@link OriginFilter} if an origin attribute is configured</li>
  * </ul>
  */
 
 public class DynamoDBMasterToReplicasPipeline implements IKinesisConnectorPipeline<Record, Record> {
 
+    /**
+     * Clients shared by the emitters of all shards, or null until created from the first configuration.
+     */
+    private DynamoDBClientRegistry clients;
+
+    /**
+     * Constructor with a client registry created from the credentials of the first configuration.
+     */
+    public DynamoDBMasterToReplicasPipeline() {
+        this(null);
+    }
+
+    /**
+     * Constructor with the client registry the emitters of all shards get their clients from.
+     *
+     * @param clients
+     *            The client registry, shut down by its owner
+     */
+    public DynamoDBMasterToReplicasPipeline(final DynamoDBClientRegistry clients) {
+        this.clients = clients;
+    }
+
     @Override
     public IEmitter<Record> getEmitter(final KinesisConnectorConfiguration configuration) {
         if (configuration instanceof DynamoDBStreamsConnectorConfiguration) {
-            return new DynamoDBReplicationEmitter((DynamoDBStreamsConnectorConfiguration) configuration);
+            final DynamoDBStreamsConnectorConfiguration dynamoDBConfiguration = (DynamoDBStreamsConnectorConfiguration) configuration;
+            final DynamoDBClientRegistry registry = getClients(dynamoDBConfiguration);
+            final AmazonCloudWatchAsync cloudwatch = registry.getCloudWatch();
+            final List<DynamoDBReplicationEmitter> destinations = new ArrayList<DynamoDBReplicationEmitter>();
+            destinations.add(createEmitter(dynamoDBConfiguration, new ReplicationDestination(dynamoDBConfiguration.REGION_NAME,
+                dynamoDBConfiguration.DYNAMODB_DATA_TABLE_NAME, dynamoDBConfiguration.DYNAMODB_ENDPOINT), registry, cloudwatch));
+            for (ReplicationDestination destination : dynamoDBConfiguration.ADDITIONAL_DESTINATIONS) {
+                destinations.add(createEmitter(dynamoDBConfiguration, destination, registry, cloudwatch));
+            }
+            if (destinations.size() == 1) {
+                return destinations.get(0);
+            }
+            // Fan out each buffer to every destination instead of reading the stream once per destination
+            return new DynamoDBFanOutEmitter(destinations);
         } else {
             throw new IllegalArgumentException(this + " needs a DynamoDBStreamsConnectorConfiguration argument.");
         }
 
     }
 
+    private static DynamoDBReplicationEmitter createEmitter(final DynamoDBStreamsConnectorConfiguration configuration,
+        final ReplicationDestination destination, final DynamoDBClientRegistry registry, final AmazonCloudWatchAsync cloudwatch) {
+        return new DynamoDBReplicationEmitter(configuration.APP_NAME, destination.getEndpoint(), destination.getRegion(), destination.getTableName(),
+            registry.getDynamoDB(destination, configuration), cloudwatch, configuration);
+    }
+
+    private synchronized DynamoDBClientRegistry getClients(final DynamoDBStreamsConnectorConfiguration configuration) {
+        if (null == clients) {
+            clients = new DynamoDBClientRegistry(configuration.AWS_CREDENTIALS_PROVIDER);
+        }
+        return clients;
+    }
+
     @Override
     public IBuffer<Record> getBuffer(final KinesisConnectorConfiguration configuration) {
         if (configuration instanceof DynamoDBStreamsConnectorConfiguration) {
@@ -52,6 +105,18 @@ public class DynamoDBMasterToReplicasPipeline implements IKinesisConnectorPipeli
 
     @Override
     public IFilter<Record> getFilter(final KinesisConnectorConfiguration configuration) {
+        if (configuration instanceof DynamoDBStreamsConnectorConfiguration) {
+            final DynamoDBStreamsConnectorConfiguration dynamoDBConfiguration = (DynamoDBStreamsConnectorConfiguration) configuration;
+            IFilter<Record> filter = new AllPassFilter<Record>();
+            if (null != dynamoDBConfiguration.FILTER_EXPRESSION || !dynamoDBConfiguration.PROJECTED_ATTRIBUTES.isEmpty()) {
+                filter = new RecordFilter(dynamoDBConfiguration.FILTER_EXPRESSION, dynamoDBConfiguration.PROJECTED_ATTRIBUTES);
+            }
+            if (null != dynamoDBConfiguration.ORIGIN_ATTRIBUTE) {
+                // Drop the writes replicated into the source table before anything else reads them
+                filter = new OriginFilter(dynamoDBConfiguration.ORIGIN_ATTRIBUTE, dynamoDBConfiguration.ORIGIN_ID, filter);
+            }
+            return filter;
+        }
         return new AllPassFilter<Record>();
     }
 
@@ -5,17 +5,23 @@
  */
 package com.amazonaws.services.dynamodbv2.streams.connectors;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
@@ -29,23 +35,29 @@ import com.amazonaws.regions.Regions;
 import com.amazonaws.retry.PredefinedRetryPolicies;
 import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsync;
 import com.amazonaws.services.cloudwatch.AmazonCloudWatchAsyncClient;
-import com.amazonaws.services.cloudwatch.model.MetricDatum;
-import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
-import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
 import com.amazonaws.services.cloudwatch.model.StandardUnit;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClient;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
 import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
 import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
 import com.amazonaws.services.dynamodbv2.model.InternalServerErrorException;
 import com.amazonaws.services.dynamodbv2.model.ItemCollectionSizeLimitExceededException;
 import com.amazonaws.services.dynamodbv2.model.OperationType;
 import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
 import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
 import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
 import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
 import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
 import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
 import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
 
@@ -56,7 +68,7 @@ import lombok.extern.log4j.Log4j;
  * item key. Asynchronously makes the writes to the DynamoDB table.
  */
 @Log4j
-public class DynamoDBReplicationEmitter implements IEmitter<Record> {
+public class DynamoDBReplicationEmitter implements IEmitter<Record>, ShardAware, ProgressAware {
 
     /**
      * CloudWatch Metric for Records that failed.
@@ -70,8 +82,41 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
      * CloudWatch Metric for number of retries to write Records to the destination table.
      */
     private static final String RECORDS_RETRIED = "RecordsRetried";
+    /**
+     * CloudWatch Metric for the number of writes allowed in flight to the destination table.
+     */
+    private static final String CONCURRENCY_LIMIT = "ConcurrencyLimit";
+    /**
+     * CloudWatch Metric for the number of partition keys holding a large share of the records of an emit call.
+     */
+    private static final String HOT_PARTITION_KEYS = "HotPartitionKeys";
+    /**
+     * CloudWatch Metric for the number of records written to hot partition keys.
+     */
+    private static final String HOT_PARTITION_RECORDS = "HotPartitionRecords";
+    /**
+     * CloudWatch Metric for the time from the creation of a stream record to the acknowledgement of its write.
+     */
+    private static final String REPLICATION_LAG = "ReplicationLag";
+    /**
+     * CloudWatch Metrics for the time from submitting a write attempt to its response, per request type.
+     */
+    private static final String PUT_ITEM_LATENCY = "PutItemLatency";
+    private static final String DELETE_ITEM_LATENCY = "DeleteItemLatency";
+    private static final String BATCH_WRITE_ITEM_LATENCY = "BatchWriteItemLatency";
 
-    private static final int WAIT_TIME_MS = 100;
+    /**
+     * Error code of throttled requests to the DynamoDB control plane.
+     */
+    private static final String THROTTLING_EXCEPTION = "ThrottlingException";
+    /**
+     * Error code of requests throttled by the account-level request limit.
+     */
+    private static final String REQUEST_LIMIT_EXCEEDED = "RequestLimitExceeded";
+    /**
+     * Error code of requests rejected for their contents.
+     */
+    private static final String VALIDATION_EXCEPTION = "ValidationException";
 
     /**
      * DynamoDB Replication Emitter User Agent
@@ -79,13 +124,29 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
     public static final String USER_AGENT = "DynamoDBReplicationEmitter-1.0";
 
     /**
-     * AmazonCloudWatch for emitting metrics.
+     * Accumulates the metrics published to CloudWatch, or null to not publish metrics.
+     */
+    private final CloudWatchMetricsAggregator metrics;
+    /**
+     * Histograms of the replication lag and of the write latencies of the destination table, or null to not record
+     * them.
      */
-    private static final AtomicReference<AmazonCloudWatchAsync> CLOUDWATCH = new AtomicReference<AmazonCloudWatchAsync>();
+    private final LatencyHistogram replicationLag;
+    private final LatencyHistogram putItemLatency;
+    private final LatencyHistogram deleteItemLatency;
+    private final LatencyHistogram batchWriteItemLatency;
+    /**
+     * The shard the records come from, or null if unknown.
+     */
+    private volatile String shardId;
+    /**
+     * Told of the records of the current emit call as they are written, or null.
+     */
+    private volatile ProgressAware.Listener progressListener;
     /**
      * Asynchronous DynamoDB client for writing to the DynamoDB table.
      */
-    private static final AtomicReference<AmazonDynamoDBAsync> DYNAMODB = new AtomicReference<AmazonDynamoDBAsync>();
+    private final AmazonDynamoDBAsync dynamodb;
     /**
      * Maximum number of threads for the Async clients.
      */
@@ -113,6 +174,93 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
 
     private final boolean skipErrors;
 
+    /**
+     * Log the records that could not be written are appended to, or null to only log them.
+     */
+    private final DeadLetterLog deadLetterLog;
+
+    /**
+     * Packs records into BatchWriteItem requests, or null when each record is written with its own request.
+     */
+    private final BatchWriteItemPacker batchWritePacker;
+
+    /**
+     * Limits the number of writes in flight to the destination table.
+     */
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * Computes the delay before a retryable write is submitted again.
+     */
+    private RetryBackoff retryBackoff;
+    /**
+     * Retries allowed per emit call: a fixed minimum plus a number of retries per record.
+     */
+    private final int minRetryBudget;
+    private final double retryBudgetRatio;
+
+    /**
+     * Settings of the per-partition write lanes.
+     */
+    private final String partitionKeyAttribute;
+    private final int maxConcurrentWritesPerPartition;
+    private final double hotPartitionRatio;
+    private final int minHotPartitionRecords;
+
+    /**
+     * Hot partition keys of the last emit call.
+     */
+    private volatile Map<Object, Integer> hotPartitions = Collections.emptyMap();
+
+    /**
+     * Name of the attribute holding the stream sequence number of the last write of each item, or null to write
+     * unconditionally.
+     */
+    private final String versionAttribute;
+
+    /**
+     * Number of conditional writes the destination rejected: versioned writes of an item it held a newer version of,
+     * and deletes of an item that was not replicated from the source table.
+     */
+    private final AtomicLong staleWritesRejected = new AtomicLong();
+
+    /**
+     * Condition of versioned writes: the item does not exist or holds an older version. A delete removes the version
+     * with the item, so a put older than the delete that is written after it, such as a replayed dead letter, recreates
+     * the item.
+     */
+    private static final String VERSION_CONDITION = "attribute_not_exists(#version) OR #version < :version";
+
+    /**
+     * Condition of deletes when the origin is stamped: the item holds a marker of the source table, so it was last put
+     * by this replication. Items written by applications of the destination table, or replicated from another table,
+     * are kept.
+     */
+    private static final String ORIGIN_CONDITION = "begins_with(#origin, :origin)";
+
+    /**
+     * Keeps the write capacity consumed on the destination table under the configured ceiling, or null if unlimited.
+     */
+    private final WriteCapacityLimiter writeCapacityLimiter;
+
+    /**
+     * Checks records against the limits and key schema of the destination table before writing them, or null to send
+     * every record.
+     */
+    private final ItemValidator itemValidator;
+
+    /**
+     * Whether the new images of records decoded lazily and never read are put with a {@link RawPutItemRequest}, sending
+     * their JSON without decoding it.
+     */
+    private final boolean rawImageWrites;
+
+    /**
+     * Name of the attribute holding the origin marker of each item put, or null to not stamp the origin.
+     */
+    private final String originAttribute;
+    private final String originId;
+
     /**
      * Constructor with default CloudWatch client and default DynamoDBAsync.
      *
@@ -144,9 +292,14 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
     @Deprecated
     public DynamoDBReplicationEmitter(final String applicationName, final String endpoint, final String region, final String tableName,
                                       final AmazonCloudWatchAsync cloudwatch, final AWSCredentialsProvider credentialProvider) {
-        this(applicationName, endpoint, region, tableName,
-                new AmazonDynamoDBAsyncClient(credentialProvider, new ClientConfiguration().withMaxConnections(MAX_THREADS).withRetryPolicy(PredefinedRetryPolicies.DYNAMODB_DEFAULT), Executors.newFixedThreadPool(MAX_THREADS)),
-                cloudwatch);
+        this(applicationName, endpoint, region, tableName, createDynamoDBClient(credentialProvider), cloudwatch);
+    }
+
+    /**
+     * @return A new client with a connection per thread
+     */
+    private static AmazonDynamoDBAsync createDynamoDBClient(final AWSCredentialsProvider credentialProvider) {
+        return new AmazonDynamoDBAsyncClient(credentialProvider, new ClientConfiguration().withMaxConnections(MAX_THREADS).withRetryPolicy(PredefinedRetryPolicies.DYNAMODB_DEFAULT), Executors.newFixedThreadPool(MAX_THREADS));
     }
 
     /**
@@ -161,7 +314,7 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
     public DynamoDBReplicationEmitter(final DynamoDBStreamsConnectorConfiguration configuration, final AmazonDynamoDBAsync dynamoDBAsync,
                                       final AmazonCloudWatchAsync cloudwatch) {
         this(configuration.APP_NAME, configuration.DYNAMODB_ENDPOINT, configuration.REGION_NAME, configuration.DYNAMODB_DATA_TABLE_NAME,
-                dynamoDBAsync, cloudwatch);
+                dynamoDBAsync, cloudwatch, configuration);
     }
 
     /**
@@ -178,23 +331,142 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
      * @param cloudwatch
      *            The cloudwatch client used for this application
      */
-    @SuppressWarnings("deprecation")
     public DynamoDBReplicationEmitter(final String applicationName, final String endpoint, final String region, final String tableName,
                                       final AmazonDynamoDBAsync dynamoDBAsync, final AmazonCloudWatchAsync cloudwatch) {
+        this(applicationName, endpoint, region, tableName, dynamoDBAsync, cloudwatch,
+                new DynamoDBStreamsConnectorConfiguration(new Properties(), null));
+    }
+
+    /**
+     * Constructor with given parameters, used for when MultiRegionEmitter creates emitter dynamically. Write behavior
+     * such as batching is taken from the configuration; the destination is taken from the other parameters.
+     *
+     * @param endpoint
+     *            The endpoint of the emitter
+     * @param region
+     *            The region of the emitter
+     * @param tableName
+     *            The tableName the emitter should emit to
+     * @param dynamoDBAsync
+     *            The DynamoDB client used for this application
+     * @param cloudwatch
+     *            The cloudwatch client used for this application
+     * @param configuration
+     *            The configuration for the write behavior of this emitter
+     */
+    @SuppressWarnings("deprecation")
+    public DynamoDBReplicationEmitter(final String applicationName, final String endpoint, final String region, final String tableName,
+                                      final AmazonDynamoDBAsync dynamoDBAsync, final AmazonCloudWatchAsync cloudwatch,
+                                      final DynamoDBStreamsConnectorConfiguration configuration) {
         this.applicationName = applicationName;
         this.endpoint = endpoint;
         this.region = region;
         this.tableName = tableName;
 
-        final boolean setDynamoDB = DYNAMODB.compareAndSet(null, dynamoDBAsync);
-        if (setDynamoDB && dynamoDBAsync != null) {
-            DYNAMODB.get().setEndpoint(endpoint);
+        this.dynamodb = dynamoDBAsync;
+        if (dynamoDBAsync != null) {
+            dynamoDBAsync.setEndpoint(endpoint);
+        }
+        if (cloudwatch != null) {
+            cloudwatch.setRegion(Regions.getCurrentRegion() == null ? Region.getRegion(Regions.US_EAST_1) : Regions.getCurrentRegion());
+            metrics = CloudWatchMetricsAggregator.forNamespace(cloudwatch, applicationName, configuration.METRICS_INTERVAL_MILLIS);
+            replicationLag = metrics.getLatencyHistogram(REPLICATION_LAG, tableName);
+            putItemLatency = metrics.getLatencyHistogram(PUT_ITEM_LATENCY, tableName);
+            deleteItemLatency = metrics.getLatencyHistogram(DELETE_ITEM_LATENCY, tableName);
+            batchWriteItemLatency = metrics.getLatencyHistogram(BATCH_WRITE_ITEM_LATENCY, tableName);
+        } else {
+            metrics = null;
+            replicationLag = null;
+            putItemLatency = null;
+            deleteItemLatency = null;
+            batchWriteItemLatency = null;
+        }
+        skipErrors = configuration.SKIP_ERRORS;
+        if (null != configuration.DEAD_LETTER_DIRECTORY) {
+            try {
+                deadLetterLog = DeadLetterLog.forDirectory(new File(configuration.DEAD_LETTER_DIRECTORY), configuration.DEAD_LETTER_SEGMENT_BYTES);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open dead letter log in " + configuration.DEAD_LETTER_DIRECTORY, e);
+            }
+        } else {
+            deadLetterLog = null;
+        }
+        versionAttribute = configuration.VERSION_ATTRIBUTE;
+        itemValidator = configuration.PREFLIGHT_VALIDATION ? new ItemValidator(endpoint, tableName,
+            getReservedItemBytes(versionAttribute, configuration.ORIGIN_ATTRIBUTE, configuration.ORIGIN_ID)) : null;
+        if (null != itemValidator && null != dynamoDBAsync) {
+            // Describe the destination table before the first emit, without waiting for it
+            itemValidator.describe(dynamoDBAsync);
+        }
+        writeCapacityLimiter = configuration.MAX_WRITE_CAPACITY_UNITS > 0
+            ? WriteCapacityLimiter.forTable(endpoint, tableName, configuration.MAX_WRITE_CAPACITY_UNITS) : null;
+        final boolean conditionalWrites = null != versionAttribute || null != configuration.ORIGIN_ATTRIBUTE;
+        if (configuration.BATCH_WRITE_ENABLED && conditionalWrites) {
+            // BatchWriteItem does not support condition expressions
+            log.warn("Batch writes are disabled because versioned writes or origin markers are enabled");
+        }
+        batchWritePacker = configuration.BATCH_WRITE_ENABLED && !conditionalWrites ? new BatchWriteItemPacker() : null;
+        concurrencyLimiter = new AdaptiveConcurrencyLimiter(configuration.INITIAL_CONCURRENT_WRITES, 1, configuration.MAX_CONCURRENT_WRITES);
+        retryBackoff = new RetryBackoff(configuration.RETRY_BASE_DELAY_MILLIS, configuration.RETRY_MAX_DELAY_MILLIS);
+        minRetryBudget = configuration.MIN_RETRY_BUDGET;
+        retryBudgetRatio = configuration.RETRY_BUDGET_RATIO;
+        partitionKeyAttribute = configuration.PARTITION_KEY_ATTRIBUTE;
+        maxConcurrentWritesPerPartition = configuration.MAX_CONCURRENT_WRITES_PER_PARTITION;
+        hotPartitionRatio = configuration.HOT_PARTITION_RATIO;
+        minHotPartitionRecords = configuration.MIN_HOT_PARTITION_RECORDS;
+        rawImageWrites = configuration.RAW_IMAGE_WRITES;
+        originAttribute = configuration.ORIGIN_ATTRIBUTE;
+        originId = configuration.ORIGIN_ID;
+    }
+
+    /**
+     * @param versionAttribute
+     *            The name of the version attribute, or null if writes are not versioned
+     * @param originAttribute
+     *            The name of the origin marker attribute, or null if the origin is not stamped
+     * @param originId
+     *            The id of the source table in the origin markers
+     * @return The bytes the emitter adds to every item it puts
+     */
+    private static long getReservedItemBytes(final String versionAttribute, final String originAttribute, final String originId) {
+        final String sequenceNumber = new String(new char[DynamoDBConnectorConstants.SEQUENCE_NUMBER_VERSION_LENGTH]);
+        final Map<String, AttributeValue> stamps = new HashMap<String, AttributeValue>();
+        if (null != versionAttribute) {
+            stamps.put(versionAttribute, new AttributeValue().withS(sequenceNumber));
         }
-        final boolean setCloudWatch = CLOUDWATCH.compareAndSet(null, cloudwatch);
-        if (setCloudWatch && cloudwatch != null) {
-            CLOUDWATCH.get().setRegion(Regions.getCurrentRegion() == null ? Region.getRegion(Regions.US_EAST_1) : Regions.getCurrentRegion());
+        if (null != originAttribute) {
+            stamps.put(originAttribute, new AttributeValue().withS(OriginFilter.getMarker(originId, sequenceNumber)));
         }
-        skipErrors = false; // TODO make configurable
+        return stamps.isEmpty() ? 0 : DynamoDBConnectorUtilities.getItemSizeBytes(stamps);
+    }
+
+    /**
+     * Checks the records against the destination table before any request is built. Records the destination would
+     * reject are failed for good: retrying them would not make them valid.
+     *
+     * @param records
+     *            The records to check
+     * @param invalidRecords
+     *            The list the invalid records are added to
+     * @return The valid records
+     */
+    private List<Record> validate(final List<Record> records, final List<Record> invalidRecords) {
+        if (null == itemValidator) {
+            return records;
+        }
+        // Describe the table again if it could not be described so far
+        itemValidator.describe(getDynamodb());
+        final List<Record> valid = new ArrayList<Record>(records.size());
+        for (Record record : records) {
+            final String reason = itemValidator.validate(record);
+            if (null == reason) {
+                valid.add(record);
+            } else {
+                log.error("Record failed validation: " + reason + ". Record: " + record);
+                invalidRecords.add(record);
+            }
+        }
+        return valid;
     }
 
     /**
@@ -209,15 +481,50 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
         final AmazonWebServiceRequest request;
         if (eventName.equalsIgnoreCase(OperationType.INSERT.toString()) || eventName.equalsIgnoreCase(OperationType.MODIFY.toString())) {
             // For INSERT or MODIFY: Put the new image in the DynamoDB table
-            PutItemRequest putItemRequest = new PutItemRequest();
-            putItemRequest.setItem(record.getDynamodb().getNewImage());
+            final AttributeValue version = null == versionAttribute ? null : getVersion(record);
+            final Map<String, String> stamps = getStamps(record, version);
+            final byte[] rawItem = rawImageWrites && record.getDynamodb() instanceof LazyStreamRecord
+                ? ((LazyStreamRecord) record.getDynamodb()).transcodeRawNewImage(stamps) : null;
+            final PutItemRequest putItemRequest;
+            if (null != rawItem) {
+                // The image was never decoded: send its JSON, with the version and origin stamped
+                putItemRequest = new RawPutItemRequest(rawItem);
+            } else {
+                putItemRequest = new PutItemRequest().withItem(stamp(record.getDynamodb().getNewImage(), stamps));
+            }
             putItemRequest.setTableName(getTableName());
+            if (null != version) {
+                // Only overwrite older versions
+                putItemRequest.withConditionExpression(VERSION_CONDITION)
+                    .withExpressionAttributeNames(Collections.singletonMap("#version", versionAttribute))
+                    .withExpressionAttributeValues(Collections.singletonMap(":version", version));
+            }
             request = putItemRequest;
         } else if (eventName.equalsIgnoreCase(OperationType.REMOVE.toString())) {
             // For REMOVE: Delete the item from the DynamoDB table
             DeleteItemRequest deleteItemRequest = new DeleteItemRequest();
             deleteItemRequest.setKey(record.getDynamodb().getKeys());
             deleteItemRequest.setTableName(getTableName());
+            if (null != versionAttribute || null != originAttribute) {
+                final Map<String, String> names = new HashMap<String, String>();
+                final Map<String, AttributeValue> values = new HashMap<String, AttributeValue>();
+                String condition = null;
+                if (null != versionAttribute) {
+                    // Only delete older versions
+                    names.put("#version", versionAttribute);
+                    values.put(":version", getVersion(record));
+                    condition = "(" + VERSION_CONDITION + ")";
+                }
+                if (null != originAttribute) {
+                    // Only delete items replicated from the source table, so an echoed delete cannot remove an item
+                    // the destination table wrote again
+                    names.put("#origin", originAttribute);
+                    values.put(":origin", new AttributeValue().withS(OriginFilter.getMarker(originId, "")));
+                    condition = (null == condition ? "" : condition + " AND ") + ORIGIN_CONDITION;
+                }
+                deleteItemRequest.withConditionExpression(condition).withExpressionAttributeNames(names)
+                    .withExpressionAttributeValues(values);
+            }
             request = deleteItemRequest;
         } else {
             // This should only happen if DynamoDB Streams adds/changes its operation types
@@ -226,14 +533,70 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
         }
         if (null != request) {
             request.getRequestClientOptions().appendUserAgent(USER_AGENT);
+            if (null != writeCapacityLimiter) {
+                if (request instanceof PutItemRequest) {
+                    ((PutItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+                } else {
+                    ((DeleteItemRequest) request).setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+                }
+            }
         }
         return request;
     }
 
+    /**
+     * @param record
+     *            The DynamoDB Stream record
+     * @param version
+     *            The version of the item written by the record, or null if writes are not versioned
+     * @return The string attributes stamped on the item written by the record: its version and its origin marker
+     */
+    private Map<String, String> getStamps(final Record record, final AttributeValue version) {
+        if (null == version && null == originAttribute) {
+            return Collections.emptyMap();
+        }
+        final Map<String, String> stamps = new LinkedHashMap<String, String>();
+        if (null != version) {
+            stamps.put(versionAttribute, version.getS());
+        }
+        if (null != originAttribute) {
+            stamps.put(originAttribute, OriginFilter.getMarker(originId, record.getDynamodb().getSequenceNumber()));
+        }
+        return stamps;
+    }
+
+    /**
+     * @return The item with the stamped attributes, a copy if there are any, so the stream record is not modified
+     */
+    private static Map<String, AttributeValue> stamp(final Map<String, AttributeValue> item, final Map<String, String> stamps) {
+        if (stamps.isEmpty()) {
+            return item;
+        }
+        final Map<String, AttributeValue> stamped = new HashMap<String, AttributeValue>(item);
+        for (Map.Entry<String, String> attribute : stamps.entrySet()) {
+            stamped.put(attribute.getKey(), new AttributeValue().withS(attribute.getValue()));
+        }
+        return stamped;
+    }
+
+    /**
+     * @param record
+     *            The DynamoDB Stream record
+     * @return The version of the item written by the record: its sequence number, zero-padded so that string order is
+     *         sequence order
+     */
+    private static AttributeValue getVersion(final Record record) {
+        final String sequenceNumber = record.getDynamodb().getSequenceNumber();
+        final StringBuilder version = new StringBuilder(DynamoDBConnectorConstants.SEQUENCE_NUMBER_VERSION_LENGTH);
+        for (int i = sequenceNumber.length(); i < DynamoDBConnectorConstants.SEQUENCE_NUMBER_VERSION_LENGTH; i++) {
+            version.append('0');
+        }
+        return new AttributeValue().withS(version.append(sequenceNumber).toString());
+    }
+
     /**
      * {@inheritDoc}
      */
-    @SuppressWarnings("unchecked")
     @Override
     public List<Record> emit(final UnmodifiableBuffer<Record> buffer) {
         if (isShutdown) {
@@ -247,45 +610,41 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
         }
         // Asynchronously process all writes, but block on the results.
         List<Record> records = buffer.getRecords();
-        // Stores records that failed with a non-retryable exception
-        final List<Record> failedRecords = Collections.synchronizedList(new ArrayList<Record>());
-        // Queue of records to submit
-        final BlockingQueue<Record> toSubmit = new LinkedBlockingQueue<Record>(records);
-        // Used to detect when all requests have either succeeded or resulted in a non-retryable exception
-        final CountDownLatch doneSignal = new CountDownLatch(records.size());
-        final AtomicInteger retryCount = new AtomicInteger();
+        final EmitState state = new EmitState(records);
         boolean interrupted = false;
         try {
-            while (doneSignal.getCount() > 0) {
-                Record recordToSubmit = null;
+            while (state.remaining.get() > 0) {
+                // Block until a write is ready to submit or the last write completes
+                final PendingWrite write;
                 try {
-                    recordToSubmit = toSubmit.poll(WAIT_TIME_MS, TimeUnit.MILLISECONDS);
+                    write = state.toSubmit.take();
                 } catch (InterruptedException e) {
                     interrupted = true;
+                    continue;
                 }
-                final Record record = recordToSubmit;
-                if (null == record) {
-                    continue; // Check if all records have completed and if not try to poll again
-                }
-                // Generate the request based on the record
-                AmazonWebServiceRequest request = createRequest(record);
-                if (request == null) { // Should only happen if DynamoDB Streams API updates to support different operations
-                                       // than {INSERT, MODIFY, REMOVE}.
+                if (write == PendingWrite.ALL_DONE) {
                     continue;
                 }
-                // Submit the write request based on its type
-                if (request instanceof PutItemRequest) { // PUT
-                    getDynamodb().putItemAsync((PutItemRequest) request,
-                        (AsyncHandler<PutItemRequest, PutItemResult>) getHandler(toSubmit, failedRecords, retryCount, doneSignal, record));
-                } else if (request instanceof DeleteItemRequest) { // DELETE
-                    getDynamodb().deleteItemAsync((DeleteItemRequest) request,
-                        (AsyncHandler<DeleteItemRequest, DeleteItemResult>) getHandler(toSubmit, failedRecords, retryCount, doneSignal, record));
-                } else if (request instanceof UpdateItemRequest) { // UPDATE
-                    getDynamodb().updateItemAsync((UpdateItemRequest) request,
-                        (AsyncHandler<UpdateItemRequest, UpdateItemResult>) getHandler(toSubmit, failedRecords, retryCount, doneSignal, record));
-                } else { // Should only happen if DynamoDB allows a new operation other than {PutItem, DeleteItem,
-                         // UpdateItem} for single item writes.
-                    log.warn("Unsupported DynamoDB request: " + request);
+                // Wait for the destination write capacity, then for the concurrency limiter to allow another write in flight
+                if (null != writeCapacityLimiter) {
+                    try {
+                        writeCapacityLimiter.acquire(write.getEstimatedCapacityUnits());
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                Long startNanos = null;
+                while (null == startNanos) {
+                    try {
+                        startNanos = concurrencyLimiter.acquire();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (write.isBatch()) {
+                    submitBatch(state, write, startNanos);
+                } else {
+                    submit(state, write, startNanos);
                 }
             }
         } finally {
@@ -293,81 +652,384 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
                 Thread.currentThread().interrupt();
             }
         }
-        emitCloudWatchMetrics(records, failedRecords, retryCount);
+        hotPartitions = state.lanes.getHotPartitions();
+        if (!hotPartitions.isEmpty()) {
+            log.debug("Hot partition keys with their number of records: " + hotPartitions);
+        }
+        emitCloudWatchMetrics(records, state.failedRecords, state.retryCount);
         if (!records.isEmpty()) {
-            log.debug("Successfully emitted " + (records.size() - failedRecords.size()) + " records ending with sequence number "
+            log.debug("Successfully emitted " + (records.size() - state.failedRecords.size()) + " records ending with sequence number "
                 + buffer.getLastSequenceNumber());
         } else {
             log.debug("No records to emit");
         }
-        return failedRecords;
+        return state.failedRecords;
+    }
+
+    /**
+     * Groups the records into the first writes to submit: one BatchWriteItem group per bin when batch writes are
+     * enabled, otherwise one write per record, interleaved across partition keys. Further writes of a busy partition
+     * key are submitted as earlier writes of that key complete.
+     *
+     * @param records
+     *            The deduplicated records to write
+     * @param lanes
+     *            The records grouped by partition key
+     * @return The writes to submit
+     */
+    private List<PendingWrite> createWrites(final List<Record> records, final PartitionLanes lanes) {
+        final List<PendingWrite> writes = new ArrayList<PendingWrite>();
+        if (null != batchWritePacker) {
+            for (List<Record> group : batchWritePacker.pack(records)) {
+                writes.add(new PendingWrite(group, true));
+            }
+        } else {
+            for (Record record : lanes.start()) {
+                writes.add(new PendingWrite(Collections.singletonList(record), false));
+            }
+        }
+        return writes;
+    }
+
+    /**
+     * Submits a single item write for the record.
+     */
+    @SuppressWarnings("unchecked")
+    private void submit(final EmitState state, final PendingWrite write, final long startNanos) {
+        final Record record = write.getRecords().get(0);
+        // Generate the request based on the record
+        AmazonWebServiceRequest request = createRequest(record);
+        if (request == null) { // Should only happen if DynamoDB Streams API updates to support different operations
+                               // than {INSERT, MODIFY, REMOVE}.
+            concurrencyLimiter.release();
+            state.onWritten(record);
+            state.onDone(record);
+            return;
+        }
+        // Submit the write request based on its type
+        if (request instanceof PutItemRequest) { // PUT
+            getDynamodb().putItemAsync((PutItemRequest) request,
+                (AsyncHandler<PutItemRequest, PutItemResult>) getHandler(state, write, startNanos));
+        } else if (request instanceof DeleteItemRequest) { // DELETE
+            getDynamodb().deleteItemAsync((DeleteItemRequest) request,
+                (AsyncHandler<DeleteItemRequest, DeleteItemResult>) getHandler(state, write, startNanos));
+        } else if (request instanceof UpdateItemRequest) { // UPDATE
+            getDynamodb().updateItemAsync((UpdateItemRequest) request,
+                (AsyncHandler<UpdateItemRequest, UpdateItemResult>) getHandler(state, write, startNanos));
+        } else { // Should only happen if DynamoDB allows a new operation other than {PutItem, DeleteItem,
+                 // UpdateItem} for single item writes.
+            log.warn("Unsupported DynamoDB request: " + request);
+            concurrencyLimiter.release();
+        }
+    }
+
+    /**
+     * Submits a BatchWriteItem request for a group of records.
+     */
+    private void submitBatch(final EmitState state, final PendingWrite write, final long startNanos) {
+        // Map each write request back to its record so unprocessed items can be resubmitted
+        final Map<WriteRequest, Record> writeRequests = new HashMap<WriteRequest, Record>();
+        for (Record record : write.getRecords()) {
+            final WriteRequest writeRequest = createWriteRequest(record);
+            if (writeRequest == null) {
+                state.onWritten(record);
+                state.onDone();
+            } else {
+                writeRequests.put(writeRequest, record);
+            }
+        }
+        if (writeRequests.isEmpty()) {
+            concurrencyLimiter.release();
+            return;
+        }
+        final Map<String, List<WriteRequest>> requestItems = new HashMap<String, List<WriteRequest>>();
+        requestItems.put(getTableName(), new ArrayList<WriteRequest>(writeRequests.keySet()));
+        final BatchWriteItemRequest request = new BatchWriteItemRequest().withRequestItems(requestItems);
+        request.getRequestClientOptions().appendUserAgent(USER_AGENT);
+        if (null != writeCapacityLimiter) {
+            request.setReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        }
+        getDynamodb().batchWriteItemAsync(request, getBatchHandler(state, write, writeRequests, startNanos));
+    }
+
+    /**
+     * Creates the BatchWriteItem entry based on the DynamoDB Stream record.
+     *
+     * @param record
+     *            The DynamoDB Stream record containing information about the update to a DynamoDB table
+     * @return A put or delete request based on the DynamoDB Stream record
+     */
+    private WriteRequest createWriteRequest(final Record record) {
+        final String eventName = record.getEventName();
+        if (eventName.equalsIgnoreCase(OperationType.INSERT.toString()) || eventName.equalsIgnoreCase(OperationType.MODIFY.toString())) {
+            return new WriteRequest().withPutRequest(new PutRequest().withItem(stamp(record.getDynamodb().getNewImage(), getStamps(record, null))));
+        } else if (eventName.equalsIgnoreCase(OperationType.REMOVE.toString())) {
+            return new WriteRequest().withDeleteRequest(new DeleteRequest().withKey(record.getDynamodb().getKeys()));
+        } else {
+            // This should only happen if DynamoDB Streams adds/changes its operation types
+            log.warn("Unsupported operation type detected: " + eventName + ". Record: " + record);
+            return null;
+        }
     }
 
-    private AsyncHandler<? extends AmazonWebServiceRequest, ?> getHandler(final BlockingQueue<Record> toSubmit, final List<Record> failedRecords,
-                                                                          final AtomicInteger retryCount, final CountDownLatch doneSignal, final Record record) {
+    /**
+     * Schedules the records of a write to be submitted again after a jittered exponential backoff. Retryable errors
+     * are retried for as long as they last: once the retry budget of this emit call is spent, the records are still
+     * retried, after the largest backoff delay, so a throttled destination slows the emit down instead of failing
+     * records.
+     */
+    private void retry(final EmitState state, final PendingWrite write, final List<Record> records, final boolean batch) {
+        final int budget = state.retryBudget.addAndGet(-records.size());
+        final boolean budgetSpent = budget < 0;
+        if (budgetSpent && budget + records.size() >= 0) {
+            log.warn("Retry budget exhausted, retrying the remaining writes of this emit after the largest backoff delay");
+        }
+        state.retryCount.addAndGet(records.size());
+        final long delayMillis = retryBackoff.getDelayMillis(write.getAttempt(), budgetSpent);
+        state.toSubmit.offer(new PendingWrite(records, batch, write.getAttempt() + 1, TimeUnit.MILLISECONDS.toNanos(delayMillis)));
+    }
+
+    private AsyncHandler<? extends AmazonWebServiceRequest, ?> getHandler(final EmitState state, final PendingWrite write, final long startNanos) {
+        final Record record = write.getRecords().get(0);
+        final LatencyHistogram latency = OperationType.REMOVE.toString().equalsIgnoreCase(record.getEventName()) ? deleteItemLatency : putItemLatency;
         return new AsyncHandler<AmazonWebServiceRequest, Object>() {
             @Override
             public void onError(Exception exception) {
-                if (isRetryable(exception)) { // Throttling or 500 response
-                    retryCount.incrementAndGet();
-                    // Retryable
-                    while (!toSubmit.offer(record)) {
-                        ; // NOP
-                    }
-                } else if (exception instanceof ItemCollectionSizeLimitExceededException) {
-                    // Not Retryable, but from DynamoDB
-                    log.error("Local Secondary Index is full: " + record, exception);
-                    if (skipErrors) {
-                        failedRecords.add(record);
-                        doneSignal.countDown();
-                    } else {
-                        System.exit(StatusCodes.EIO);
-                    }
-                } else if (exception instanceof AmazonServiceException && 413 == ((AmazonServiceException) exception).getStatusCode()) {
-                    log.error("Request entity too large: " + record, exception);
-                    if (skipErrors) {
-                        failedRecords.add(record);
-                        doneSignal.countDown();
-                    } else {
-                        System.exit(StatusCodes.EIO);
-                    }
-                } else if (exception instanceof AmazonClientException) {
-                    // This block catches unrecoverable AmazonWebServices errors:
-                    //
-                    // ConditionalCheckFailedException - not possible as we are not making conditional writes
-                    // LimitExceededException - not possible for PutItem, UpdateItem, or DeleteItem
-                    // ResourceInUseException - not possible for PutItem, UpdateItem, or DeleteItem
-                    // ResourceNotFoundException - table does not exist
-                    // AmazonServiceException - any unhandled response from the DynamoDB service
-                    // AmazonClientException - any other 400 response: validation, authentication, authorization, or configuration exception
-                    //
-                    log.fatal("Exception emitting record: " + record, exception);
-                    System.exit(StatusCodes.EIO);
+                recordLatency(latency, startNanos);
+                if ((null != versionAttribute || null != originAttribute) && exception instanceof ConditionalCheckFailedException) {
+                    // The destination holds a newer version of the item, or an item this replication did not put, so
+                    // this write is stale and is skipped
+                    concurrencyLimiter.onSuccess(startNanos);
+                    staleWritesRejected.incrementAndGet();
+                    log.trace("Stale record skipped: " + record.getDynamodb().getSequenceNumber());
+                    state.onWritten(record);
+                    state.onDone(record);
+                    return;
+                }
+                onWriteError(exception, write, startNanos);
+                if (isRetryable(exception)) { // Throttling or 5xx response
+                    retry(state, write, write.getRecords(), false);
                 } else {
-                    // This block catches all other exceptions. Since it was not expected, this is an unrecoverable exception.
-                    log.fatal("Abnormal exception emitting record: " + record, exception);
-                    System.exit(StatusCodes.EIO);
+                    onNonRetryableError(exception, record, state);
                 }
             }
 
-            private boolean isRetryable(Exception exception) {
-                if (exception instanceof ProvisionedThroughputExceededException) {
-                    return true;
-                } else if (exception instanceof InternalServerErrorException) {
-                    return true;
+            @Override
+            public void onSuccess(AmazonWebServiceRequest request, Object result) {
+                recordLatency(latency, startNanos);
+                recordReplicationLag(record);
+                concurrencyLimiter.onSuccess(startNanos);
+                onConsumedCapacity(write, result);
+                log.trace("Record emitted successfully: " + record.getDynamodb().getSequenceNumber());
+                state.onWritten(record);
+                state.onDone(record);
+            }
+        };
+    }
+
+    private AsyncHandler<BatchWriteItemRequest, BatchWriteItemResult> getBatchHandler(final EmitState state, final PendingWrite write,
+        final Map<WriteRequest, Record> writeRequests, final long startNanos) {
+        return new AsyncHandler<BatchWriteItemRequest, BatchWriteItemResult>() {
+            @Override
+            public void onError(Exception exception) {
+                recordLatency(batchWriteItemLatency, startNanos);
+                onWriteError(exception, write, startNanos);
+                final List<Record> records = new ArrayList<Record>(writeRequests.values());
+                if (isRetryable(exception)) { // Throttling or 5xx response
+                    retry(state, write, records, true);
+                } else if (records.size() > 1) {
+                    // Write the records one at a time so the error is attributed to the record that caused it
+                    log.warn("Non-retryable exception emitting a batch of " + records.size() + " records, retrying as single item writes", exception);
+                    for (Record record : records) {
+                        state.toSubmit.offer(new PendingWrite(Collections.singletonList(record), false));
+                    }
                 } else {
-                    return false;
+                    onNonRetryableError(exception, records.get(0), state);
                 }
             }
 
             @Override
-            public void onSuccess(AmazonWebServiceRequest request, Object result) {
-                log.trace("Record emitted successfully: " + record.getDynamodb().getSequenceNumber());
-                doneSignal.countDown();
+            public void onSuccess(BatchWriteItemRequest request, BatchWriteItemResult result) {
+                recordLatency(batchWriteItemLatency, startNanos);
+                onConsumedCapacity(write, result);
+                final List<Record> unprocessed = new ArrayList<Record>();
+                if (null != result && null != result.getUnprocessedItems()) {
+                    final List<WriteRequest> unprocessedItems = result.getUnprocessedItems().get(getTableName());
+                    if (null != unprocessedItems) {
+                        for (WriteRequest writeRequest : unprocessedItems) {
+                            final Record record = writeRequests.get(writeRequest);
+                            if (null != record) {
+                                unprocessed.add(record);
+                            }
+                        }
+                    }
+                }
+                if (unprocessed.isEmpty()) {
+                    concurrencyLimiter.onSuccess(startNanos);
+                } else {
+                    // Unprocessed items mean the destination could not keep up with the batch
+                    concurrencyLimiter.onThrottle(startNanos);
+                }
+                final Set<Record> retried = Collections.newSetFromMap(new IdentityHashMap<Record, Boolean>());
+                retried.addAll(unprocessed);
+                for (Record record : writeRequests.values()) {
+                    if (!retried.contains(record)) {
+                        recordReplicationLag(record);
+                        state.onWritten(record);
+                        state.onDone();
+                    }
+                }
+                if (!unprocessed.isEmpty()) {
+                    // Only the unprocessed items are resubmitted
+                    retry(state, write, unprocessed, true);
+                } else {
+                    log.trace("Batch of " + writeRequests.size() + " records emitted successfully");
+                }
             }
         };
     }
 
+    /**
+     * Records the time since a write attempt was submitted.
+     */
+    private static void recordLatency(final LatencyHistogram latency, final long startNanos) {
+        if (null != latency) {
+            latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+        }
+    }
+
+    /**
+     * Records the time since the stream record was created, for a record whose write was acknowledged. The creation
+     * time of stream records is approximate, so the lag is only as precise as the stream reports it.
+     */
+    private void recordReplicationLag(final Record record) {
+        if (null != replicationLag && null != record.getDynamodb().getApproximateCreationDateTime()) {
+            final long lagMillis = System.currentTimeMillis() - record.getDynamodb().getApproximateCreationDateTime().getTime();
+            replicationLag.record(TimeUnit.MILLISECONDS.toMicros(lagMillis));
+        }
+    }
+
+    /**
+     * Releases the concurrency limiter permit of a failed write, shrinking the limit if the destination throttled. A
+     * throttled write consumed no capacity, so its estimated capacity is returned to the write capacity limiter.
+     */
+    private void onWriteError(final Exception exception, final PendingWrite write, final long startNanos) {
+        if (isThrottle(exception)) {
+            concurrencyLimiter.onThrottle(startNanos);
+            if (null != writeCapacityLimiter) {
+                writeCapacityLimiter.onConsumed(write.getEstimatedCapacityUnits(), 0);
+            }
+        } else {
+            concurrencyLimiter.release();
+        }
+    }
+
+    /**
+     * Corrects the write capacity limiter with the capacity the destination reported for a successful write.
+     */
+    private void onConsumedCapacity(final PendingWrite write, final Object result) {
+        if (null == writeCapacityLimiter) {
+            return;
+        }
+        final List<ConsumedCapacity> consumedCapacity = new ArrayList<ConsumedCapacity>();
+        if (result instanceof PutItemResult) {
+            consumedCapacity.add(((PutItemResult) result).getConsumedCapacity());
+        } else if (result instanceof DeleteItemResult) {
+            consumedCapacity.add(((DeleteItemResult) result).getConsumedCapacity());
+        } else if (result instanceof BatchWriteItemResult && null != ((BatchWriteItemResult) result).getConsumedCapacity()) {
+            consumedCapacity.addAll(((BatchWriteItemResult) result).getConsumedCapacity());
+        }
+        double consumedUnits = 0;
+        boolean reported = false;
+        for (ConsumedCapacity capacity : consumedCapacity) {
+            if (null != capacity && null != capacity.getCapacityUnits()) {
+                consumedUnits += capacity.getCapacityUnits();
+                reported = true;
+            }
+        }
+        if (reported) {
+            writeCapacityLimiter.onConsumed(write.getEstimatedCapacityUnits(), consumedUnits);
+        }
+    }
+
+    /**
+     * Handles an exception that retrying the write will not fix.
+     */
+    private void onNonRetryableError(final Exception exception, final Record record, final EmitState state) {
+        if (exception instanceof ItemCollectionSizeLimitExceededException) {
+            // Not Retryable, but from DynamoDB
+            log.error("Local Secondary Index is full: " + record, exception);
+            if (skipErrors) {
+                state.failedRecords.add(record);
+                state.onDone(record);
+            } else {
+                System.exit(StatusCodes.EIO);
+            }
+        } else if (exception instanceof AmazonServiceException && 413 == ((AmazonServiceException) exception).getStatusCode()) {
+            log.error("Request entity too large: " + record, exception);
+            if (skipErrors) {
+                state.failedRecords.add(record);
+                state.onDone(record);
+            } else {
+                System.exit(StatusCodes.EIO);
+            }
+        } else if (exception instanceof AmazonServiceException && VALIDATION_EXCEPTION.equals(((AmazonServiceException) exception).getErrorCode())) {
+            // The request was rejected for the contents of this record, such as a key that does not match the key schema
+            log.error("Record rejected by the destination table: " + record, exception);
+            if (skipErrors) {
+                state.failedRecords.add(record);
+                state.onDone(record);
+            } else {
+                System.exit(StatusCodes.EIO);
+            }
+        } else if (exception instanceof AmazonClientException) {
+            // This block catches unrecoverable AmazonWebServices errors:
+            //
+            // ConditionalCheckFailedException - only possible for versioned writes, where it means the write is stale
+            // LimitExceededException - not possible for PutItem, UpdateItem, or DeleteItem
+            // ResourceInUseException - not possible for PutItem, UpdateItem, or DeleteItem
+            // ResourceNotFoundException - table does not exist
+            // AmazonServiceException - any unhandled response from the DynamoDB service
+            // AmazonClientException - any other 400 response: validation, authentication, authorization, or configuration exception
+            //
+            log.fatal("Exception emitting record: " + record, exception);
+            System.exit(StatusCodes.EIO);
+        } else {
+            // This block catches all other exceptions. Since it was not expected, this is an unrecoverable exception.
+            log.fatal("Abnormal exception emitting record: " + record, exception);
+            System.exit(StatusCodes.EIO);
+        }
+    }
+
+    /**
+     * @return whether the exception means the destination is throttling writes
+     */
+    private static boolean isThrottle(final Exception exception) {
+        if (exception instanceof ProvisionedThroughputExceededException) {
+            return true;
+        } else if (exception instanceof AmazonServiceException) {
+            final String errorCode = ((AmazonServiceException) exception).getErrorCode();
+            return THROTTLING_EXCEPTION.equals(errorCode) || REQUEST_LIMIT_EXCEEDED.equals(errorCode);
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * @return whether the write can succeed if it is retried: throttling and 5xx responses
+     */
+    static boolean isRetryable(final Exception exception) {
+        if (isThrottle(exception)) {
+            return true;
+        } else if (exception instanceof InternalServerErrorException) {
+            return true;
+        } else if (exception instanceof AmazonServiceException) {
+            return ((AmazonServiceException) exception).getStatusCode() >= 500;
+        } else {
+            return false;
+        }
+    }
+
     /**
      * Emit CloudWatch metrics based on the records submitted for processing and failed writes.
      *
@@ -376,9 +1038,8 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
      * @param failures
      *            The records that failed to write to DynamoDB
      */
-    protected synchronized void emitCloudWatchMetrics(final List<Record> records, final List<Record> failures, final AtomicInteger retryCount) {
-        AmazonCloudWatchAsync cloudwatch = CLOUDWATCH.get();
-        if (null == cloudwatch) {
+    protected void emitCloudWatchMetrics(final List<Record> records, final List<Record> failures, final AtomicInteger retryCount) {
+        if (null == metrics) {
             return;
         }
         if (isShutdown) {
@@ -389,30 +1050,28 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
                 throw new IllegalStateException("emitCloudWatchMetrics called after shutdown");
             }
         }
-        final List<MetricDatum> metrics = new ArrayList<MetricDatum>();
+        // Accumulated and published once per interval by the aggregator
+        final String shard = shardId;
         final double successful = records.size() - failures.size();
         if (successful > 0) {
-            metrics.add(new MetricDatum().withMetricName(RECORDS_WRITTEN).withValue(successful).withUnit(StandardUnit.Count).withTimestamp(new Date()));
+            metrics.addCount(RECORDS_WRITTEN, tableName, shard, successful);
         }
         final double retries = retryCount.get();
         if (retries > 0) {
-            metrics.add(new MetricDatum().withMetricName(RECORDS_RETRIED).withValue(retries).withUnit(StandardUnit.Count).withTimestamp(new Date()));
-        }
-        if (metrics.isEmpty()) {
-            return;
+            metrics.addCount(RECORDS_RETRIED, tableName, shard, retries);
         }
-        final PutMetricDataRequest request = new PutMetricDataRequest().withNamespace(applicationName).withMetricData(metrics);
-        cloudwatch.putMetricDataAsync(request, new AsyncHandler<PutMetricDataRequest, PutMetricDataResult>() {
-            @Override
-            public void onSuccess(PutMetricDataRequest request, PutMetricDataResult result) {
-                log.trace("Published metric: " + request);
-            }
-
-            @Override
-            public void onError(Exception exception) {
-                log.error("Could not publish metric: " + request, exception);
+        final Map<Object, Integer> hot = hotPartitions;
+        if (!hot.isEmpty()) {
+            int hotRecords = 0;
+            for (Integer count : hot.values()) {
+                hotRecords += count;
             }
-        });
+            metrics.addCount(HOT_PARTITION_KEYS, tableName, shard, hot.size());
+            metrics.addCount(HOT_PARTITION_RECORDS, tableName, shard, hotRecords);
+        }
+        if (!records.isEmpty()) {
+            metrics.addSample(CONCURRENCY_LIMIT, StandardUnit.None, tableName, shard, getConcurrencyLimit());
+        }
     }
 
     /**
@@ -432,13 +1091,16 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
         for (Record record : records) {
             log.error("Could not emit record: " + record);
         }
-        final AmazonCloudWatchAsync cloudwatch = CLOUDWATCH.get();
-        if (null != cloudwatch) {
-            final double failed = records.size();
-            final MetricDatum recordsProcessedFailedDatum = new MetricDatum().withMetricName(RECORDS_FAILED).withValue(failed).withUnit(StandardUnit.Count)
-                .withTimestamp(new Date());
-            final PutMetricDataRequest request = new PutMetricDataRequest().withNamespace(applicationName).withMetricData(recordsProcessedFailedDatum);
-            cloudwatch.putMetricDataAsync(request);
+        if (null != deadLetterLog && !records.isEmpty()) {
+            try {
+                // Forced to disk once for all the records
+                deadLetterLog.append(records);
+            } catch (IOException e) {
+                log.fatal("Could not append records to dead letter log: " + records, e);
+            }
+        }
+        if (null != metrics && !records.isEmpty()) {
+            metrics.addCount(RECORDS_FAILED, tableName, shardId, records.size());
         }
     }
 
@@ -452,6 +1114,9 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
             return;
         }
         isShutdown = true;
+        if (null != metrics) {
+            metrics.removeShard(tableName, shardId);
+        }
     }
 
     /**
@@ -462,6 +1127,29 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
         return "DynamoDBReplicationEmitter [endpoint=" + getEndpoint() + ", region=" + getRegion() + ", tableName=" + getTableName() + "]";
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setShardId(final String shardId) {
+        this.shardId = shardId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setProgressListener(final ProgressAware.Listener listener) {
+        this.progressListener = listener;
+    }
+
+    /**
+     * @return the shard the records come from, or null if unknown
+     */
+    public String getShardId() {
+        return shardId;
+    }
+
     /**
      * @return the tableName
      */
@@ -473,7 +1161,40 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
      * @return the dynamodb
      */
     public AmazonDynamoDBAsync getDynamodb() {
-        return DYNAMODB.get();
+        return dynamodb;
+    }
+
+    /**
+     * @return the number of writes currently allowed in flight to the destination table
+     */
+    public int getConcurrencyLimit() {
+        return concurrencyLimiter.getLimit();
+    }
+
+    /**
+     * @return the partition keys that held a large share of the records of the last emit call, with their number of
+     *         records
+     */
+    public Map<Object, Integer> getHotPartitions() {
+        return hotPartitions;
+    }
+
+    /**
+     * Replaces the backoff computing the retry delays.
+     *
+     * @param retryBackoff
+     *            The backoff
+     */
+    void setRetryBackoff(final RetryBackoff retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
+    /**
+     * @return the number of conditional writes rejected because the destination held a newer version of the item, or an
+     *         item that was not replicated from the source table
+     */
+    public long getStaleWritesRejected() {
+        return staleWritesRejected.get();
     }
 
     /**
@@ -490,4 +1211,155 @@ public class DynamoDBReplicationEmitter implements IEmitter<Record> {
         return region;
     }
 
+    /**
+     * The state of a single emit call, shared by the write handlers.
+     */
+    private final class EmitState {
+        /**
+         * Queue of writes to submit, each becomes available once its retry delay has passed.
+         */
+        private final DelayQueue<PendingWrite> toSubmit;
+        /**
+         * Stores records that failed with a non-retryable exception.
+         */
+        private final List<Record> failedRecords = Collections.synchronizedList(new ArrayList<Record>());
+        /**
+         * The records grouped by partition key, paces the single item writes of each key.
+         */
+        private final PartitionLanes lanes;
+        /**
+         * Number of records that have neither succeeded nor failed.
+         */
+        private final AtomicInteger remaining;
+        private final AtomicInteger retryCount = new AtomicInteger();
+        /**
+         * Number of record retries left in this emit call before retries are delayed by the largest backoff delay.
+         */
+        private final AtomicInteger retryBudget;
+        /**
+         * Told of the records of this emit call as they are written, or null.
+         */
+        private final ProgressAware.Listener listener = progressListener;
+
+        private EmitState(final List<Record> records) {
+            final List<Record> invalidRecords = new ArrayList<Record>();
+            final List<Record> validRecords = validate(records, invalidRecords);
+            if (!invalidRecords.isEmpty()) {
+                // Fail the invalid records at once, instead of returning them for the record processor to retry
+                fail(invalidRecords);
+                for (Record record : invalidRecords) {
+                    onWritten(record);
+                }
+            }
+            String lanePartitionKeyAttribute = partitionKeyAttribute;
+            if (null == lanePartitionKeyAttribute && null != itemValidator) {
+                lanePartitionKeyAttribute = itemValidator.getPartitionKeyAttribute();
+            }
+            lanes = new PartitionLanes(validRecords, lanePartitionKeyAttribute, maxConcurrentWritesPerPartition, hotPartitionRatio,
+                minHotPartitionRecords);
+            toSubmit = new DelayQueue<PendingWrite>(createWrites(validRecords, lanes));
+            remaining = new AtomicInteger(validRecords.size());
+            retryBudget = new AtomicInteger(minRetryBudget + (int) Math.min(Integer.MAX_VALUE / 2, retryBudgetRatio * records.size()));
+        }
+
+        /**
+         * Reports a record that no longer needs to be written to the progress listener.
+         */
+        private void onWritten(final Record record) {
+            if (null != listener) {
+                listener.onWritten(record);
+            }
+        }
+
+        /**
+         * Marks a record as written or failed. The last record wakes up the emit loop, so it returns without waiting
+         * for another write to become ready.
+         */
+        private void onDone() {
+            if (remaining.decrementAndGet() == 0) {
+                toSubmit.offer(PendingWrite.ALL_DONE);
+            }
+        }
+
+        /**
+         * Marks a record as written or failed, and submits the next single item write of its partition key.
+         */
+        private void onDone(final Record record) {
+            if (null == batchWritePacker) {
+                final Record next = lanes.onComplete(record);
+                if (null != next) {
+                    toSubmit.offer(new PendingWrite(Collections.singletonList(next), false));
+                }
+            }
+            onDone();
+        }
+    }
+
+    /**
+     * A write waiting to be submitted: either a single record written with its own request, or a group of records
+     * written with one BatchWriteItem request. Retried writes become available after their backoff delay.
+     */
+    private static final class PendingWrite implements Delayed {
+        /**
+         * Queued by the last completion of an emit call to wake up the emit loop.
+         */
+        private static final PendingWrite ALL_DONE = new PendingWrite(Collections.<Record>emptyList(), false);
+
+        private final List<Record> records;
+        private final boolean batch;
+        private final int attempt;
+        private final long readyAtNanos;
+        private double estimatedCapacityUnits = -1;
+
+        private PendingWrite(final List<Record> records, final boolean batch) {
+            this(records, batch, 0, 0);
+        }
+
+        private PendingWrite(final List<Record> records, final boolean batch, final int attempt, final long delayNanos) {
+            this.records = records;
+            this.batch = batch;
+            this.attempt = attempt;
+            this.readyAtNanos = System.nanoTime() + delayNanos;
+        }
+
+        private List<Record> getRecords() {
+            return records;
+        }
+
+        private boolean isBatch() {
+            return batch;
+        }
+
+        private int getAttempt() {
+            return attempt;
+        }
+
+        /**
+         * @return The write capacity units the write is expected to consume, estimated from the size of each record
+         */
+        private double getEstimatedCapacityUnits() {
+            if (estimatedCapacityUnits < 0) {
+                double units = 0;
+                for (Record record : records) {
+                    units += WriteCapacityLimiter.getWriteCapacityUnits(BatchWriteItemPacker.getWriteSizeBytes(record));
+                }
+                estimatedCapacityUnits = units;
+            }
+            return estimatedCapacityUnits;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(readyAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            if (other instanceof PendingWrite) {
+                final long diff = readyAtNanos - ((PendingWrite) other).readyAtNanos;
+                return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
 }
@@ -5,12 +5,15 @@
  */
 package com.amazonaws.services.dynamodbv2.streams.connectors;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 
@@ -28,6 +31,258 @@ public class DynamoDBStreamsConnectorConfiguration extends KinesisConnectorConfi
     public static final Map<String, List<String>> DEFAULT_DYNAMODB_REGIONS_TO_TABLES =
             ImmutableMap.<String, List<String>>of(DEFAULT_REGION_NAME, Lists.newArrayList(DEFAULT_DYNAMODB_DATA_TABLE_NAME));
 
+    /**
+     * Property names used to configure the replication emitter.
+     */
+    public static final String PROP_BATCH_WRITE_ENABLED = "batchWriteEnabled";
+    public static final String PROP_INITIAL_CONCURRENT_WRITES = "initialConcurrentWrites";
+    public static final String PROP_MAX_CONCURRENT_WRITES = "maxConcurrentWrites";
+    public static final String PROP_RETRY_BASE_DELAY_MILLIS = "retryBaseDelayMillis";
+    public static final String PROP_RETRY_MAX_DELAY_MILLIS = "retryMaxDelayMillis";
+    public static final String PROP_MIN_RETRY_BUDGET = "minRetryBudget";
+    public static final String PROP_RETRY_BUDGET_RATIO = "retryBudgetRatio";
+    public static final String PROP_PARTITION_KEY_ATTRIBUTE = "partitionKeyAttribute";
+    public static final String PROP_MAX_CONCURRENT_WRITES_PER_PARTITION = "maxConcurrentWritesPerPartition";
+    public static final String PROP_HOT_PARTITION_RATIO = "hotPartitionRatio";
+    public static final String PROP_MIN_HOT_PARTITION_RECORDS = "minHotPartitionRecords";
+    public static final String PROP_VERSION_ATTRIBUTE = "versionAttribute";
+    public static final String PROP_MAX_WRITE_CAPACITY_UNITS = "maxWriteCapacityUnits";
+    public static final String PROP_PREFLIGHT_VALIDATION = "preflightValidation";
+    public static final String PROP_RAW_IMAGE_WRITES = "rawImageWrites";
+    public static final String PROP_SKIP_ERRORS = "skipErrors";
+    public static final String PROP_DEAD_LETTER_DIRECTORY = "deadLetterDirectory";
+    public static final String PROP_DEAD_LETTER_SEGMENT_BYTES = "deadLetterSegmentBytes";
+    public static final String PROP_ADDITIONAL_DESTINATIONS = "additionalDestinations";
+    public static final String PROP_FILTER_EXPRESSION = "filterExpression";
+    public static final String PROP_PROJECTED_ATTRIBUTES = "projectedAttributes";
+    public static final String PROP_ORIGIN_ATTRIBUTE = "originAttribute";
+    public static final String PROP_ORIGIN_ID = "originId";
+    public static final String PROP_MAX_CONNECTIONS = "maxConnections";
+    public static final String PROP_CLIENT_THREADS = "clientThreads";
+    public static final String PROP_CONNECTION_TIMEOUT_MILLIS = "connectionTimeoutMillis";
+    public static final String PROP_SOCKET_TIMEOUT_MILLIS = "socketTimeoutMillis";
+    public static final String PROP_REQUEST_TIMEOUT_MILLIS = "requestTimeoutMillis";
+    public static final String PROP_METRICS_INTERVAL_MILLIS = "metricsIntervalMillis";
+    public static final String PROP_BUFFER_MAX_BYTES = "bufferMaxBytes";
+    public static final String PROP_WORKER_BUFFER_MAX_BYTES = "workerBufferMaxBytes";
+    public static final String PROP_COALESCE_MILLIS = "coalesceMillis";
+    public static final String PROP_COALESCE_MAX_RECORDS = "coalesceMaxRecords";
+    public static final String PROP_CHECKPOINT_INTERVAL_MILLIS = "checkpointIntervalMillis";
+
+    /**
+     * Default values for the replication emitter properties.
+     */
+    public static final boolean DEFAULT_BATCH_WRITE_ENABLED = false;
+    public static final int DEFAULT_INITIAL_CONCURRENT_WRITES = 50;
+    public static final int DEFAULT_MAX_CONCURRENT_WRITES = DynamoDBReplicationEmitter.MAX_THREADS;
+    public static final long DEFAULT_RETRY_BASE_DELAY_MILLIS = 25L;
+    public static final long DEFAULT_RETRY_MAX_DELAY_MILLIS = 5000L;
+    public static final int DEFAULT_MIN_RETRY_BUDGET = 100;
+    public static final double DEFAULT_RETRY_BUDGET_RATIO = 10.0;
+    public static final int DEFAULT_MAX_CONCURRENT_WRITES_PER_PARTITION = 10;
+    public static final double DEFAULT_HOT_PARTITION_RATIO = 0.2;
+    public static final int DEFAULT_MIN_HOT_PARTITION_RECORDS = 10;
+    public static final double DEFAULT_MAX_WRITE_CAPACITY_UNITS = 0;
+    public static final boolean DEFAULT_PREFLIGHT_VALIDATION = false;
+    public static final boolean DEFAULT_RAW_IMAGE_WRITES = false;
+    public static final boolean DEFAULT_SKIP_ERRORS = false;
+    public static final long DEFAULT_DEAD_LETTER_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_MAX_CONNECTIONS = DynamoDBReplicationEmitter.MAX_THREADS;
+    public static final int DEFAULT_CLIENT_THREADS = DynamoDBReplicationEmitter.MAX_THREADS;
+    public static final int DEFAULT_CONNECTION_TIMEOUT_MILLIS = ClientConfiguration.DEFAULT_CONNECTION_TIMEOUT;
+    public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = ClientConfiguration.DEFAULT_SOCKET_TIMEOUT;
+    public static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = ClientConfiguration.DEFAULT_REQUEST_TIMEOUT;
+    public static final long DEFAULT_METRICS_INTERVAL_MILLIS = 60000L;
+    public static final long DEFAULT_BUFFER_MAX_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_WORKER_BUFFER_MAX_BYTES = 0L;
+    public static final long DEFAULT_COALESCE_MILLIS = 0L;
+    public static final int DEFAULT_COALESCE_MAX_RECORDS = 10000;
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 5000L;
+
+    /**
+     * Whether the emitter packs records into BatchWriteItem requests instead of making one write request per record.
+     */
+    public final boolean BATCH_WRITE_ENABLED;
+
+    /**
+     * Number of writes the emitter allows in flight before it has observed the destination's latency.
+     */
+    public final int INITIAL_CONCURRENT_WRITES;
+
+    /**
+     * Upper bound of the number of writes the emitter allows in flight.
+     */
+    public final int MAX_CONCURRENT_WRITES;
+
+    /**
+     * Delay ceiling of the first retry of a throttled or failed write, doubled on each further retry.
+     */
+    public final long RETRY_BASE_DELAY_MILLIS;
+
+    /**
+     * Largest delay ceiling of any retry.
+     */
+    public final long RETRY_MAX_DELAY_MILLIS;
+
+    /**
+     * Record retries allowed in every emit call, in addition to RETRY_BUDGET_RATIO retries per record.
+     */
+    public final int MIN_RETRY_BUDGET;
+
+    /**
+     * Record retries allowed per record in an emit call. Once the budget is spent, writes that fail with throttling or
+     * server errors are still retried, but only after the largest retry delay.
+     */
+    public final double RETRY_BUDGET_RATIO;
+
+    /**
+     * Name of the partition key attribute of the destination table, used to group writes by partition. Optional for
+     * tables without a sort key.
+     */
+    public final String PARTITION_KEY_ATTRIBUTE;
+
+    /**
+     * Number of single item writes the emitter allows in flight per partition key.
+     */
+    public final int MAX_CONCURRENT_WRITES_PER_PARTITION;
+
+    /**
+     * Share of the records of an emit call above which a partition key is reported as hot.
+     */
+    public final double HOT_PARTITION_RATIO;
+
+    /**
+     * Number of records of an emit call below which a partition key is never reported as hot.
+     */
+    public final int MIN_HOT_PARTITION_RECORDS;
+
+    /**
+     * Name of the attribute in which the emitter stamps the stream sequence number of each write, and which it uses to
+     * reject writes older than the item in the destination table. Unset to write unconditionally. Deleted items keep no
+     * version, so a put older than the delete of its item is not rejected once the item is deleted.
+     */
+    public final String VERSION_ATTRIBUTE;
+
+    /**
+     * Ceiling of the write capacity units per second that replication consumes on the destination table, shared by all
+     * emitters of the process. 0 for no ceiling.
+     */
+    public final double MAX_WRITE_CAPACITY_UNITS;
+
+    /**
+     * Whether the emitter checks item sizes and key attributes against the described destination table before writing,
+     * failing invalid records locally.
+     */
+    public final boolean PREFLIGHT_VALIDATION;
+
+    /**
+     * Whether the emitter puts the new image of each record as the JSON read from the stream, transcoded to the request
+     * without decoding it, when nothing read the image before the write. Requires a client with a
+     * {@link RawPutItemRequestHandler}, as created by the {@link DynamoDBClientRegistry}. Only records decoded by the
+     * {@link DynamoDBStreamsRecordTransformer} from their JSON have raw images: the records of the DynamoDB Streams
+     * Kinesis adapter, read by the command line interface, arrive decoded and are put as usual.
+     */
+    public final boolean RAW_IMAGE_WRITES;
+
+    /**
+     * Whether records the destination rejects (item too large, full local secondary index, validation error) are
+     * failed so replication continues, instead of stopping the process.
+     */
+    public final boolean SKIP_ERRORS;
+
+    /**
+     * Directory of the log that failed records are appended to, or null to only log failed records.
+     */
+    public final String DEAD_LETTER_DIRECTORY;
+
+    /**
+     * Size of each segment file of the dead letter log.
+     */
+    public final long DEAD_LETTER_SEGMENT_BYTES;
+
+    /**
+     * Destination tables replicated to in addition to the DynamoDB data table, from the same stream read. Set as comma
+     * separated {@code region:table[:endpoint]} entries.
+     */
+    public final List<ReplicationDestination> ADDITIONAL_DESTINATIONS;
+
+    /**
+     * Expression of the records replicated, in the syntax of {@link RecordFilter}. Unset to replicate every record.
+     */
+    public final String FILTER_EXPRESSION;
+
+    /**
+     * Attributes of the new images replicated besides the key attributes, set as a comma separated list. Empty to
+     * replicate every attribute.
+     */
+    public final List<String> PROJECTED_ATTRIBUTES;
+
+    /**
+     * Name of the attribute in which the emitter stamps the origin marker of each item it puts, and on which the
+     * {@link OriginFilter} drops the records of writes replicated from other tables. Deletes only remove items holding
+     * a marker of the source table, and batch writes are disabled. Unset to not prevent loops between tables replicated
+     * to each other.
+     */
+    public final String ORIGIN_ATTRIBUTE;
+
+    /**
+     * Id of the source table in the origin markers, by default the application name.
+     */
+    public final String ORIGIN_ID;
+
+    /**
+     * Size of the connection pool of the DynamoDB client of each destination table.
+     */
+    public final int MAX_CONNECTIONS;
+
+    /**
+     * Number of executor threads of the DynamoDB client of each destination table.
+     */
+    public final int CLIENT_THREADS;
+
+    /**
+     * Timeouts of the DynamoDB client of each destination table: establishing a connection, waiting for data on an
+     * open connection, and a whole request attempt. A request timeout of 0 disables it.
+     */
+    public final int CONNECTION_TIMEOUT_MILLIS;
+    public final int SOCKET_TIMEOUT_MILLIS;
+    public final int REQUEST_TIMEOUT_MILLIS;
+
+    /**
+     * Time between publications of the accumulated emitter metrics to CloudWatch.
+     */
+    public final long METRICS_INTERVAL_MILLIS;
+
+    /**
+     * Bytes of records a buffer holds before it is flushed. A GetRecords batch larger than this is buffered and
+     * emitted in several chunks.
+     */
+    public final long BUFFER_MAX_BYTES;
+
+    /**
+     * Ceiling of the bytes of records buffered or being emitted by all record processors of the worker, above which
+     * processors wait before buffering more and KCL stops reading their shards. 0 for no ceiling.
+     */
+    public final long WORKER_BUFFER_MAX_BYTES;
+
+    /**
+     * Longest time a buffer keeps records to merge the writes of the same key across GetRecords batches, from its first
+     * record. 0 to flush the buffer after every batch.
+     */
+    public final long COALESCE_MILLIS;
+
+    /**
+     * Number of distinct keys at which a coalescing buffer is flushed before COALESCE_MILLIS. A coalescing buffer is
+     * also flushed when it holds BUFFER_MAX_BYTES.
+     */
+    public final int COALESCE_MAX_RECORDS;
+
+    /**
+     * Shortest time between the checkpoints a record processor makes while a buffer is being emitted, at the last
+     * record before which every record is written. 0 to checkpoint only once the whole buffer is emitted.
+     */
+    public final long CHECKPOINT_INTERVAL_MILLIS;
+
     /**
      * Constructor for the DynamoDBStreamsConnectorConfiguration class.
      *
@@ -39,6 +294,91 @@ public class DynamoDBStreamsConnectorConfiguration extends KinesisConnectorConfi
     public DynamoDBStreamsConnectorConfiguration(final Properties properties,
         final AWSCredentialsProvider credentialsProvider) {
         super(properties, credentialsProvider);
+        BATCH_WRITE_ENABLED = booleanProperty(properties, PROP_BATCH_WRITE_ENABLED, DEFAULT_BATCH_WRITE_ENABLED);
+        MAX_CONCURRENT_WRITES = intProperty(properties, PROP_MAX_CONCURRENT_WRITES, DEFAULT_MAX_CONCURRENT_WRITES);
+        INITIAL_CONCURRENT_WRITES = Math.min(MAX_CONCURRENT_WRITES,
+            intProperty(properties, PROP_INITIAL_CONCURRENT_WRITES, DEFAULT_INITIAL_CONCURRENT_WRITES));
+        RETRY_BASE_DELAY_MILLIS = longProperty(properties, PROP_RETRY_BASE_DELAY_MILLIS, DEFAULT_RETRY_BASE_DELAY_MILLIS);
+        RETRY_MAX_DELAY_MILLIS = Math.max(RETRY_BASE_DELAY_MILLIS,
+            longProperty(properties, PROP_RETRY_MAX_DELAY_MILLIS, DEFAULT_RETRY_MAX_DELAY_MILLIS));
+        MIN_RETRY_BUDGET = intProperty(properties, PROP_MIN_RETRY_BUDGET, DEFAULT_MIN_RETRY_BUDGET);
+        RETRY_BUDGET_RATIO = doubleProperty(properties, PROP_RETRY_BUDGET_RATIO, DEFAULT_RETRY_BUDGET_RATIO);
+        PARTITION_KEY_ATTRIBUTE = properties.getProperty(PROP_PARTITION_KEY_ATTRIBUTE);
+        MAX_CONCURRENT_WRITES_PER_PARTITION = intProperty(properties, PROP_MAX_CONCURRENT_WRITES_PER_PARTITION,
+            DEFAULT_MAX_CONCURRENT_WRITES_PER_PARTITION);
+        HOT_PARTITION_RATIO = doubleProperty(properties, PROP_HOT_PARTITION_RATIO, DEFAULT_HOT_PARTITION_RATIO);
+        MIN_HOT_PARTITION_RECORDS = intProperty(properties, PROP_MIN_HOT_PARTITION_RECORDS, DEFAULT_MIN_HOT_PARTITION_RECORDS);
+        VERSION_ATTRIBUTE = properties.getProperty(PROP_VERSION_ATTRIBUTE);
+        MAX_WRITE_CAPACITY_UNITS = doubleProperty(properties, PROP_MAX_WRITE_CAPACITY_UNITS, DEFAULT_MAX_WRITE_CAPACITY_UNITS);
+        PREFLIGHT_VALIDATION = booleanProperty(properties, PROP_PREFLIGHT_VALIDATION, DEFAULT_PREFLIGHT_VALIDATION);
+        RAW_IMAGE_WRITES = booleanProperty(properties, PROP_RAW_IMAGE_WRITES, DEFAULT_RAW_IMAGE_WRITES);
+        SKIP_ERRORS = booleanProperty(properties, PROP_SKIP_ERRORS, DEFAULT_SKIP_ERRORS);
+        DEAD_LETTER_DIRECTORY = properties.getProperty(PROP_DEAD_LETTER_DIRECTORY);
+        DEAD_LETTER_SEGMENT_BYTES = longProperty(properties, PROP_DEAD_LETTER_SEGMENT_BYTES, DEFAULT_DEAD_LETTER_SEGMENT_BYTES);
+        ADDITIONAL_DESTINATIONS = ReplicationDestination.parseList(properties.getProperty(PROP_ADDITIONAL_DESTINATIONS));
+        FILTER_EXPRESSION = properties.getProperty(PROP_FILTER_EXPRESSION);
+        PROJECTED_ATTRIBUTES = listProperty(properties, PROP_PROJECTED_ATTRIBUTES);
+        ORIGIN_ATTRIBUTE = properties.getProperty(PROP_ORIGIN_ATTRIBUTE);
+        ORIGIN_ID = properties.getProperty(PROP_ORIGIN_ID, APP_NAME);
+        MAX_CONNECTIONS = intProperty(properties, PROP_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+        CLIENT_THREADS = intProperty(properties, PROP_CLIENT_THREADS, DEFAULT_CLIENT_THREADS);
+        CONNECTION_TIMEOUT_MILLIS = intProperty(properties, PROP_CONNECTION_TIMEOUT_MILLIS, DEFAULT_CONNECTION_TIMEOUT_MILLIS);
+        SOCKET_TIMEOUT_MILLIS = intProperty(properties, PROP_SOCKET_TIMEOUT_MILLIS, DEFAULT_SOCKET_TIMEOUT_MILLIS);
+        REQUEST_TIMEOUT_MILLIS = intProperty(properties, PROP_REQUEST_TIMEOUT_MILLIS, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+        METRICS_INTERVAL_MILLIS = longProperty(properties, PROP_METRICS_INTERVAL_MILLIS, DEFAULT_METRICS_INTERVAL_MILLIS);
+        BUFFER_MAX_BYTES = longProperty(properties, PROP_BUFFER_MAX_BYTES, DEFAULT_BUFFER_MAX_BYTES);
+        WORKER_BUFFER_MAX_BYTES = longProperty(properties, PROP_WORKER_BUFFER_MAX_BYTES, DEFAULT_WORKER_BUFFER_MAX_BYTES);
+        COALESCE_MILLIS = longProperty(properties, PROP_COALESCE_MILLIS, DEFAULT_COALESCE_MILLIS);
+        COALESCE_MAX_RECORDS = intProperty(properties, PROP_COALESCE_MAX_RECORDS, DEFAULT_COALESCE_MAX_RECORDS);
+        CHECKPOINT_INTERVAL_MILLIS = longProperty(properties, PROP_CHECKPOINT_INTERVAL_MILLIS, DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+    }
+
+    private static boolean booleanProperty(final Properties properties, final String property, final boolean defaultValue) {
+        final String value = properties.getProperty(property);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+
+    private static List<String> listProperty(final Properties properties, final String property) {
+        final String value = properties.getProperty(property);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Lists.newArrayList(Splitter.on(',').trimResults().omitEmptyStrings().split(value)));
+    }
+
+    private static int intProperty(final Properties properties, final String property, final int defaultValue) {
+        final String value = properties.getProperty(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Property " + property + " must be an integer: " + value, e);
+        }
+    }
+
+    private static long longProperty(final Properties properties, final String property, final long defaultValue) {
+        final String value = properties.getProperty(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Property " + property + " must be an integer: " + value, e);
+        }
+    }
 
+    private static double doubleProperty(final Properties properties, final String property, final double defaultValue) {
+        final String value = properties.getProperty(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Property " + property + " must be a number: " + value, e);
+        }
     }
 }
@@ -6,21 +6,31 @@
 package com.amazonaws.services.dynamodbv2.streams.connectors;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
 
 import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
 import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
 import com.amazonaws.services.kinesis.connectors.interfaces.ITransformer;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 /**
  * This class implements {@link ITransformer} to convert input Kinesis records to output DynamoDB Streams records. It then converts all records into the format
  * expected by the emitter, which is also Streams records in this case.
+ * <p>
+ * Records that are not {@link RecordAdapter}s are parsed from the JSON bytes between the position and the limit of
+ * their data, in place when the data starts at the beginning of its array: Jackson decodes the UTF-8 bytes as it reads
+ * them, without first copying the record into a string. Their images are only skipped over, and left to
+ * {@link LazyStreamRecord} to decode if they are read, so that records replaced in the buffer by a newer record with
+ * the same key cost little more than their keys. Records from the DynamoDB Streams adapter arrive decoded.
  */
 public class DynamoDBStreamsRecordTransformer implements ITransformer<Record, Record> {
 
     private static final ObjectMapper MAPPER = DynamoDBStreamsRecordObjectMapper.getInstance();
-    private static final Charset ENCODING = Charset.forName("UTF-8");
     /**
      * {@inheritDoc}
      */
@@ -38,7 +48,135 @@ public class DynamoDBStreamsRecordTransformer implements ITransformer<Record, Re
         if (record instanceof RecordAdapter) {
             return ((RecordAdapter) record).getInternalObject();
         } else {
-            return MAPPER.readValue(new String(record.getData().array(), ENCODING), Record.class);
+            return decode(record.getData());
         }
     }
+
+    /**
+     * @param data
+     *            The JSON of a DynamoDB Streams record, between the position and the limit of the buffer, which are left
+     *            unchanged
+     * @return The record, with a {@link LazyStreamRecord}
+     * @throws IOException
+     *             If the data is not the JSON of a record
+     */
+    static Record decode(final ByteBuffer data) throws IOException {
+        final byte[] json;
+        final int length;
+        if (data.hasArray() && data.arrayOffset() + data.position() == 0) {
+            json = data.array();
+            length = data.limit();
+        } else {
+            // The images refer to the record by offset from the start of its array
+            json = new byte[data.remaining()];
+            data.duplicate().get(json);
+            length = json.length;
+        }
+        try (JsonParser parser = MAPPER.getFactory().createParser(json, 0, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return MAPPER.readValue(parser, Record.class);
+            }
+            // Every field but the stream record is bound by the mapper as before
+            final TokenBuffer fields = new TokenBuffer(MAPPER, false);
+            fields.writeStartObject();
+            LazyStreamRecord streamRecord = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                if ("dynamodb".equals(name)) {
+                    if (parser.nextToken() == JsonToken.START_OBJECT) {
+                        streamRecord = decodeStreamRecord(parser, json);
+                        continue;
+                    }
+                    fields.writeFieldName(name);
+                }
+                fields.copyCurrentStructure(parser);
+            }
+            fields.writeEndObject();
+            final Record record = MAPPER.readValue(fields.asParser(), Record.class);
+            if (null != streamRecord) {
+                record.setDynamodb(streamRecord);
+            }
+            return record;
+        }
+    }
+
+    /**
+     * Decodes the stream record the parser is at, except for its images, whose position in the bytes is kept instead.
+     */
+    private static LazyStreamRecord decodeStreamRecord(final JsonParser parser, final byte[] json) throws IOException {
+        final TokenBuffer fields = new TokenBuffer(MAPPER, false);
+        fields.writeStartObject();
+        final LazyStreamRecord streamRecord = new LazyStreamRecord(json);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final boolean newImage = "newImage".equals(name);
+            if (newImage || "oldImage".equals(name)) {
+                final long nameOffset = parser.getTokenLocation().getByteOffset();
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    final int start = indexOf(json, '{', (int) Math.max(0, nameOffset), parser);
+                    final int end = endOfObject(json, start, parser);
+                    if (newImage) {
+                        streamRecord.setRawNewImage(start, end - start);
+                    } else {
+                        streamRecord.setRawOldImage(start, end - start);
+                    }
+                    parser.skipChildren();
+                    continue;
+                }
+                fields.writeFieldName(name);
+            }
+            fields.copyCurrentStructure(parser);
+        }
+        fields.writeEndObject();
+        final StreamRecord decoded = MAPPER.readValue(fields.asParser(), StreamRecord.class);
+        streamRecord.setApproximateCreationDateTime(decoded.getApproximateCreationDateTime());
+        streamRecord.setKeys(decoded.getKeys());
+        streamRecord.setSequenceNumber(decoded.getSequenceNumber());
+        streamRecord.setSizeBytes(decoded.getSizeBytes());
+        streamRecord.setStreamViewType(decoded.getStreamViewType());
+        if (null != decoded.getNewImage()) {
+            streamRecord.setNewImage(decoded.getNewImage());
+        }
+        if (null != decoded.getOldImage()) {
+            streamRecord.setOldImage(decoded.getOldImage());
+        }
+        return streamRecord;
+    }
+
+    /**
+     * @return The offset of the first occurrence of an ASCII character at or after the given offset
+     */
+    private static int indexOf(final byte[] json, final char c, final int from, final JsonParser parser) throws JsonParseException {
+        for (int i = from; i < json.length; i++) {
+            if (json[i] == c) {
+                return i;
+            }
+        }
+        throw new JsonParseException("Expected '" + c + "'", parser.getCurrentLocation());
+    }
+
+    /**
+     * @return The offset after the JSON object or array starting at the given offset, skipping the brackets in strings
+     */
+    private static int endOfObject(final byte[] json, final int start, final JsonParser parser) throws JsonParseException {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = start; i < json.length; i++) {
+            final byte b = json[i];
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                return i + 1;
+            }
+        }
+        throw new JsonParseException("Unterminated object", parser.getCurrentLocation());
+    }
 }
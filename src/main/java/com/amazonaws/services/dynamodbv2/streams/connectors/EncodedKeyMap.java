@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Map from encoded keys, such as {@link AttributeValueCodec#encodeKey(java.util.Map)}, to values, for deduplicating
+ * records by key without hashing and comparing {@code AttributeValue} maps. Keys are hashed to 64 bits once, and an
+ * open-addressing table with linear probing holds the index of each entry, so a lookup compares the stored hash first
+ * and the key bytes only on a hash match. Entries are kept in arrays in the order their keys were put: a key keeps
+ * its position when its value is replaced with {@link #put(byte[], Object)}, and moves to the end with
+ * {@link #putLast(byte[], Object)}, which leaves a removed entry behind until the arrays are next compacted.
+ *
+ * @param <V>
+ *            The type of the values
+ */
+public class EncodedKeyMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * Slots of the table: the index of an entry plus one, 0 for an empty slot. Half full at most.
+     */
+    private int[] table = new int[DEFAULT_CAPACITY * 2];
+    private long[] hashes = new long[DEFAULT_CAPACITY];
+    private byte[][] keys = new byte[DEFAULT_CAPACITY][];
+    private Object[] values = new Object[DEFAULT_CAPACITY];
+    /**
+     * Number of keys.
+     */
+    private int size = 0;
+    /**
+     * Number of entries, including removed entries, which have a null key.
+     */
+    private int entries = 0;
+
+    /**
+     * Puts the value of a key, keeping the position of the key if it is already in the map.
+     *
+     * @param key
+     *            The encoded key, not copied and not to be modified afterwards
+     * @param value
+     *            The value
+     * @return The previous value of the key, or null if the key was not in the map
+     */
+    public V put(final byte[] key, final V value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * Puts the value of a key, moving the key after all other keys if it is already in the map.
+     *
+     * @param key
+     *            The encoded key, not copied and not to be modified afterwards
+     * @param value
+     *            The value
+     * @return The previous value of the key, or null if the key was not in the map
+     */
+    public V putLast(final byte[] key, final V value) {
+        return put(key, value, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(final byte[] key, final V value, final boolean last) {
+        final long hash = hash(key);
+        final int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        V previous = null;
+        while (table[slot] != 0) {
+            final int entry = table[slot] - 1;
+            if (hashes[entry] == hash && Arrays.equals(keys[entry], key)) {
+                previous = (V) values[entry];
+                if (!last || entry == entries - 1) {
+                    values[entry] = value;
+                    return previous;
+                }
+                keys[entry] = null;
+                values[entry] = null;
+                size--;
+                break;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (entries == hashes.length) {
+            grow();
+            put(key, value, last);
+            return previous;
+        }
+        hashes[entries] = hash;
+        keys[entries] = key;
+        values[entries] = value;
+        table[slot] = ++entries;
+        size++;
+        return previous;
+    }
+
+    /**
+     * @param key
+     *            The encoded key
+     * @return The value of the key, or null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final byte[] key) {
+        final long hash = hash(key);
+        final int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        while (table[slot] != 0) {
+            final int entry = table[slot] - 1;
+            if (hashes[entry] == hash && Arrays.equals(keys[entry], key)) {
+                return (V) values[entry];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of keys in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The values, in the order of their keys
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        final List<V> list = new ArrayList<V>(size);
+        for (int i = 0; i < entries; i++) {
+            if (null != keys[i]) {
+                list.add((V) values[i]);
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Removes all keys, keeping the capacity for the next batch.
+     */
+    public void clear() {
+        if (entries == 0) {
+            return;
+        }
+        Arrays.fill(table, 0);
+        Arrays.fill(keys, 0, entries, null);
+        Arrays.fill(values, 0, entries, null);
+        size = 0;
+        entries = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedKeyMap [size=" + size + ", values=" + values() + "]";
+    }
+
+    /**
+     * Drops the removed entries, doubles the entry arrays unless that leaves them at most half full, and rebuilds the
+     * table.
+     */
+    private void grow() {
+        int live = 0;
+        for (int entry = 0; entry < entries; entry++) {
+            if (null != keys[entry]) {
+                hashes[live] = hashes[entry];
+                keys[live] = keys[entry];
+                values[live] = values[entry];
+                live++;
+            }
+        }
+        Arrays.fill(keys, live, entries, null);
+        Arrays.fill(values, live, entries, null);
+        entries = live;
+        if (live * 2 > hashes.length) {
+            final int capacity = hashes.length * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            table = new int[capacity * 2];
+        } else {
+            Arrays.fill(table, 0);
+        }
+        final int mask = table.length - 1;
+        for (int entry = 0; entry < entries; entry++) {
+            int slot = (int) hashes[entry] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = entry + 1;
+        }
+    }
+
+    /**
+     * @param key
+     *            The encoded key
+     * @return A 64-bit hash of the key, mixing eight bytes at a time as MurmurHash3 does
+     */
+    static long hash(final byte[] key) {
+        long hash = key.length * C1;
+        int i = 0;
+        for (; i + 8 <= key.length; i += 8) {
+            long block = (key[i] & 0xFFL) | (key[i + 1] & 0xFFL) << 8 | (key[i + 2] & 0xFFL) << 16 | (key[i + 3] & 0xFFL) << 24
+                | (key[i + 4] & 0xFFL) << 32 | (key[i + 5] & 0xFFL) << 40 | (key[i + 6] & 0xFFL) << 48 | (key[i + 7] & 0xFFL) << 56;
+            hash ^= mixBlock(block);
+            hash = Long.rotateLeft(hash, 27) * 5 + 0x52dce729;
+        }
+        long tail = 0;
+        for (int shift = 0; i < key.length; i++, shift += 8) {
+            tail |= (key[i] & 0xFFL) << shift;
+        }
+        hash ^= mixBlock(tail);
+        // MurmurHash3 finalizer, so that the low bits used for the slot depend on every byte
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long mixBlock(final long block) {
+        return Long.rotateLeft(block * C1, 31) * C2;
+    }
+}
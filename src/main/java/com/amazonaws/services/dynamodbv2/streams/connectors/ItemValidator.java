@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Checks the writes a record produces against the limits of DynamoDB and the key schema of the destination table
+ * before any request is sent, so that a record the destination would reject fails locally instead of after a cross
+ * region round trip. The key schema comes from a DescribeTable call of the destination table, made once per table and
+ * shared by all emitters of the process. The table is described in the background, so validating never waits for
+ * DynamoDB: until the table has been described, only the item size is checked.
+ * <p>
+ * The item collection size limit of local secondary indexes depends on the items already in the table, so it cannot
+ * be checked locally.
+ */
+@Log4j
+public class ItemValidator {
+
+    /**
+     * Time to wait after a failed DescribeTable call before describing the table again.
+     */
+    private static final long DESCRIBE_RETRY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final ConcurrentMap<String, TableDescription> TABLE_DESCRIPTIONS = new ConcurrentHashMap<String, TableDescription>();
+
+    private final String endpoint;
+    private final String tableName;
+    private final long reservedItemBytes;
+    private final AtomicBoolean describing = new AtomicBoolean();
+    private volatile Long nextDescribeNanos = null;
+
+    /**
+     * Constructor for the validator.
+     *
+     * @param endpoint
+     *            The DynamoDB endpoint of the destination table
+     * @param tableName
+     *            The name of the destination table
+     * @param reservedItemBytes
+     *            The bytes the emitter adds to every item it puts, counted against the item size limit
+     */
+    public ItemValidator(final String endpoint, final String tableName, final long reservedItemBytes) {
+        this.endpoint = endpoint;
+        this.tableName = tableName;
+        this.reservedItemBytes = reservedItemBytes;
+    }
+
+    /**
+     * Describes the destination table in the background, unless it is described already, is being described, or could
+     * not be described less than the retry interval ago.
+     *
+     * @param dynamodb
+     *            The client of the destination table
+     */
+    public void describe(final AmazonDynamoDBAsync dynamodb) {
+        if (null != getTableDescription()) {
+            return;
+        }
+        final Long next = nextDescribeNanos;
+        if (null != next && System.nanoTime() - next < 0) {
+            return;
+        }
+        if (!describing.compareAndSet(false, true)) {
+            return;
+        }
+        final AsyncHandler<DescribeTableRequest, DescribeTableResult> handler = new AsyncHandler<DescribeTableRequest, DescribeTableResult>() {
+            @Override
+            public void onError(final Exception exception) {
+                // Validate the item size only until the table can be described
+                log.warn("Could not describe destination table " + tableName + ", skipping key schema validation", exception);
+                nextDescribeNanos = System.nanoTime() + DESCRIBE_RETRY_INTERVAL_NANOS;
+                describing.set(false);
+            }
+
+            @Override
+            public void onSuccess(final DescribeTableRequest request, final DescribeTableResult result) {
+                TABLE_DESCRIPTIONS.putIfAbsent(getTableKey(), result.getTable());
+                describing.set(false);
+            }
+        };
+        try {
+            dynamodb.describeTableAsync(new DescribeTableRequest().withTableName(tableName), handler);
+        } catch (RuntimeException e) {
+            handler.onError(e);
+        }
+    }
+
+    /**
+     * Checks the write the record produces.
+     *
+     * @param record
+     *            The record to check
+     * @return The reason the destination would reject the write, or null if the write is valid
+     */
+    public String validate(final Record record) {
+        final boolean remove = OperationType.REMOVE.toString().equalsIgnoreCase(record.getEventName());
+        final Map<String, AttributeValue> item = remove ? record.getDynamodb().getKeys() : record.getDynamodb().getNewImage();
+        if (null == item) {
+            return remove ? "Record has no keys" : "Record has no new image";
+        }
+        if (!remove) {
+            final long sizeBytes = DynamoDBConnectorUtilities.getItemSizeBytes(item) + reservedItemBytes;
+            if (sizeBytes > DynamoDBConnectorConstants.MAX_ITEM_SIZE_BYTES) {
+                return "Item size " + sizeBytes + " bytes exceeds the limit of " + DynamoDBConnectorConstants.MAX_ITEM_SIZE_BYTES + " bytes";
+            }
+        }
+        final TableDescription table = getTableDescription();
+        if (null == table) {
+            return null;
+        }
+        if (remove && item.size() != table.getKeySchema().size()) {
+            return "Key has " + item.size() + " attributes, the key schema of " + tableName + " has " + table.getKeySchema().size();
+        }
+        for (KeySchemaElement keyElement : table.getKeySchema()) {
+            final String reason = validateKeyAttribute(table, keyElement, item.get(keyElement.getAttributeName()));
+            if (null != reason) {
+                return reason;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The name of the partition key attribute of the destination table, or null if the table has not been
+     *         described
+     */
+    public String getPartitionKeyAttribute() {
+        final TableDescription table = getTableDescription();
+        if (null == table) {
+            return null;
+        }
+        for (KeySchemaElement keyElement : table.getKeySchema()) {
+            if (KeyType.HASH.toString().equals(keyElement.getKeyType())) {
+                return keyElement.getAttributeName();
+            }
+        }
+        return null;
+    }
+
+    private static String validateKeyAttribute(final TableDescription table, final KeySchemaElement keyElement, final AttributeValue value) {
+        final String name = keyElement.getAttributeName();
+        if (null == value) {
+            return "Key attribute " + name + " is missing";
+        }
+        final String type = getAttributeType(table, name);
+        final boolean matches;
+        if (ScalarAttributeType.S.toString().equals(type)) {
+            matches = null != value.getS();
+        } else if (ScalarAttributeType.N.toString().equals(type)) {
+            matches = null != value.getN();
+        } else if (ScalarAttributeType.B.toString().equals(type)) {
+            matches = null != value.getB();
+        } else {
+            matches = true;
+        }
+        if (!matches) {
+            return "Key attribute " + name + " is not of type " + type;
+        }
+        final long sizeBytes = DynamoDBConnectorUtilities.getAttributeValueSizeBytes(value);
+        final long limit = KeyType.HASH.toString().equals(keyElement.getKeyType()) ? DynamoDBConnectorConstants.MAX_PARTITION_KEY_BYTES
+            : DynamoDBConnectorConstants.MAX_SORT_KEY_BYTES;
+        if (sizeBytes > limit) {
+            return "Key attribute " + name + " size " + sizeBytes + " bytes exceeds the limit of " + limit + " bytes";
+        }
+        return null;
+    }
+
+    private static String getAttributeType(final TableDescription table, final String name) {
+        for (AttributeDefinition definition : table.getAttributeDefinitions()) {
+            if (definition.getAttributeName().equals(name)) {
+                return definition.getAttributeType();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The description of the destination table, or null if it has not been described
+     */
+    private TableDescription getTableDescription() {
+        return TABLE_DESCRIPTIONS.get(getTableKey());
+    }
+
+    private String getTableKey() {
+        return endpoint + "/" + tableName;
+    }
+}
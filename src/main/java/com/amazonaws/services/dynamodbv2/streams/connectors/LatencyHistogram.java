@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds with log-linear buckets, in the style of HdrHistogram: every power of two is
+ * split into {@link #SUB_BUCKETS} linear buckets, so a recorded value is reported within 1/64 of itself while the
+ * whole range up to {@link #MAX_TRACKABLE_MICROS} takes a fixed array of counters. Recording allocates nothing and
+ * takes no lock. Values above the trackable range are counted in the last bucket, and the maximum is kept exactly.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of linear buckets per power of two.
+     */
+    public static final int SUB_BUCKETS = 64;
+
+    /**
+     * Largest value counted in its own bucket, about 19 hours in microseconds.
+     */
+    public static final long MAX_TRACKABLE_MICROS = (1L << 36) - 1;
+
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+    private static final int BUCKETS = getIndex(MAX_TRACKABLE_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param micros
+     *            The latency to record, negative latencies are recorded as zero
+     */
+    public void record(final long micros) {
+        final long value = Math.max(0, micros);
+        counts.incrementAndGet(getIndex(Math.min(value, MAX_TRACKABLE_MICROS)));
+        long current;
+        do {
+            current = max.get();
+        } while (value > current && !max.compareAndSet(current, value));
+    }
+
+    /**
+     * Reads the latencies recorded since the last reset, and resets them. A latency recorded during the reset may be
+     * counted in either snapshot.
+     *
+     * @return The snapshot of the latencies
+     */
+    public Snapshot snapshotThenReset() {
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                snapshot[i] = counts.getAndSet(i, 0);
+                total += snapshot[i];
+            }
+        }
+        return new Snapshot(snapshot, total, max.getAndSet(0));
+    }
+
+    /**
+     * @return The bucket of a value: the value itself below two sub-bucket ranges, then its power of two and its
+     *         top bits
+     */
+    private static int getIndex(final long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 64 - Long.numberOfLeadingZeros(value) - 1 - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return The largest value counted in a bucket
+     */
+    private static long getHighestValue(final int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Latencies recorded during an interval.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+
+        private Snapshot(final long[] counts, final long count, final long max) {
+            this.counts = counts;
+            this.count = count;
+            this.max = max;
+        }
+
+        /**
+         * @return The number of latencies recorded
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The largest latency recorded, 0 if none was recorded
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile
+         *            The percentile, between 0 and 100
+         * @return The latency at or below which the percentile of the recorded latencies fall, within the precision
+         *         of the buckets and at most the maximum, 0 if none was recorded
+         */
+        public long getValueAtPercentile(final double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(getHighestValue(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
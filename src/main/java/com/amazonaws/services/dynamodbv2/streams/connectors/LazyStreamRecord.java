@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * Stream record whose new and old images are kept as the bytes of their JSON until they are first read, so that the
+ * records replaced in {@link DynamoDBBuffer} by a newer record with the same key are never fully decoded. The images
+ * are decoded with the {@link DynamoDBStreamsRecordObjectMapper} on the first call to their getter, or to a method
+ * reading them such as equals; an image that cannot be decoded then throws an {@link IllegalStateException}.
+ */
+public class LazyStreamRecord extends StreamRecord {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final TypeReference<Map<String, AttributeValue>> IMAGE_TYPE = new TypeReference<Map<String, AttributeValue>>() {
+    };
+
+    /**
+     * The bytes holding the JSON of the images not decoded yet.
+     */
+    private final byte[] json;
+    /**
+     * Offset and length of the JSON of each image in the bytes, the offset -1 once the image is decoded or set.
+     */
+    private int newImageOffset = -1;
+    private int newImageLength;
+    private int oldImageOffset = -1;
+    private int oldImageLength;
+
+    /**
+     * Constructor for a record with images in the given bytes.
+     *
+     * @param json
+     *            The bytes holding the JSON of the images, not copied and not to be modified afterwards
+     */
+    public LazyStreamRecord(final byte[] json) {
+        this.json = json;
+    }
+
+    /**
+     * @param offset
+     *            The offset of the JSON object of the new image in the bytes of this record
+     * @param length
+     *            The length of the JSON object
+     */
+    synchronized void setRawNewImage(final int offset, final int length) {
+        super.setNewImage(null);
+        newImageOffset = offset;
+        newImageLength = length;
+    }
+
+    /**
+     * @param offset
+     *            The offset of the JSON object of the old image in the bytes of this record
+     * @param length
+     *            The length of the JSON object
+     */
+    synchronized void setRawOldImage(final int offset, final int length) {
+        super.setOldImage(null);
+        oldImageOffset = offset;
+        oldImageLength = length;
+    }
+
+    /**
+     * @return A copy of the JSON of the new image, or null if the new image is decoded or absent
+     */
+    synchronized byte[] copyRawNewImage() {
+        return newImageOffset < 0 ? null : Arrays.copyOfRange(json, newImageOffset, newImageOffset + newImageLength);
+    }
+
+    /**
+     * Transcodes the JSON of the new image to an item of a {@link RawPutItemRequest}, without decoding it.
+     *
+     * @param stringAttributes
+     *            The string attributes to set on the item
+     * @return The new image as the JSON object of the DynamoDB API, or null if the new image is decoded or absent
+     */
+    synchronized byte[] transcodeRawNewImage(final Map<String, String> stringAttributes) {
+        if (newImageOffset < 0) {
+            return null;
+        }
+        try {
+            return RawPutItemRequest.transcodeItem(json, newImageOffset, newImageLength, stringAttributes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not transcode the new image of record " + getSequenceNumber(), e);
+        }
+    }
+
+    /**
+     * @return Whether the record has an old image, without decoding it
+     */
+    synchronized boolean hasOldImage() {
+        return oldImageOffset >= 0 || null != super.getOldImage();
+    }
+
+    /**
+     * Reads a string attribute of an image, scanning its JSON without decoding the image if it is not decoded yet.
+     *
+     * @param newImage
+     *            Whether to read the new image rather than the old image
+     * @param attribute
+     *            The name of the attribute
+     * @return The value of the attribute, or null if the image is absent or has no string attribute with that name
+     */
+    synchronized String getImageString(final boolean newImage, final String attribute) {
+        final int offset = newImage ? newImageOffset : oldImageOffset;
+        if (offset < 0) {
+            final Map<String, AttributeValue> image = newImage ? super.getNewImage() : super.getOldImage();
+            final AttributeValue value = null == image ? null : image.get(attribute);
+            return null == value ? null : value.getS();
+        }
+        try (JsonParser parser = DynamoDBStreamsRecordObjectMapper.getInstance().getFactory().createParser(json, offset,
+            newImage ? newImageLength : oldImageLength)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final boolean found = attribute.equals(parser.getCurrentName());
+                if (parser.nextToken() == JsonToken.START_OBJECT && found) {
+                    // The fields of the attribute value, the string in "s"
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final boolean string = "s".equalsIgnoreCase(parser.getCurrentName());
+                        if (parser.nextToken() == JsonToken.VALUE_STRING && string) {
+                            return parser.getText();
+                        }
+                        parser.skipChildren();
+                    }
+                    return null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the " + (newImage ? "new" : "old") + " image of record " + getSequenceNumber(), e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Map<String, AttributeValue> getNewImage() {
+        if (newImageOffset >= 0) {
+            super.setNewImage(decodeImage(newImageOffset, newImageLength, "new"));
+            newImageOffset = -1;
+        }
+        return super.getNewImage();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void setNewImage(final Map<String, AttributeValue> newImage) {
+        newImageOffset = -1;
+        super.setNewImage(newImage);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Map<String, AttributeValue> getOldImage() {
+        if (oldImageOffset >= 0) {
+            super.setOldImage(decodeImage(oldImageOffset, oldImageLength, "old"));
+            oldImageOffset = -1;
+        }
+        return super.getOldImage();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void setOldImage(final Map<String, AttributeValue> oldImage) {
+        oldImageOffset = -1;
+        super.setOldImage(oldImage);
+    }
+
+    private Map<String, AttributeValue> decodeImage(final int offset, final int length, final String image) {
+        try {
+            return DynamoDBStreamsRecordObjectMapper.getInstance().readValue(json, offset, length, IMAGE_TYPE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not decode the " + image + " image of record " + getSequenceNumber(), e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.regions.Region;
+import com.amazonaws.services.cloudwatch.AbstractAmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * CloudWatch client keeping the metric data put to it in memory instead of sending it, so that the metrics of the
+ * emitters and of KCL can be scraped locally by {@link LocalMetricsEndpoint}. Every metric becomes one series per
+ * namespace and dimensions:
+ * <ul>
+ * <li>A value with the Count unit is added to a counter.</li>
+ * <li>A value with another unit replaces a gauge.</li>
+ * <li>A statistic set is added to the {@code _sum} and {@code _count} counters of the metric, and replaces its
+ * {@code _max} gauge.</li>
+ * </ul>
+ * A series that is not put to for {@link #DEFAULT_IDLE_EXPIRY_MILLIS} is dropped, so the series of shards the process
+ * no longer owns do not accumulate. All other CloudWatch operations are unsupported.
+ */
+public class LocalMetricsCloudWatch extends AbstractAmazonCloudWatchAsync {
+
+    /**
+     * Label holding the CloudWatch namespace of a metric.
+     */
+    public static final String NAMESPACE_LABEL = "namespace";
+
+    /**
+     * Time after which a series that is not put to is dropped, several times the interval at which the emitters and
+     * KCL publish their metrics.
+     */
+    public static final long DEFAULT_IDLE_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Map<String, Series> series = new TreeMap<String, Series>();
+    private final long idleExpiryNanos;
+    private final Ticker ticker;
+
+    /**
+     * Constructor for a client dropping the series idle for {@link #DEFAULT_IDLE_EXPIRY_MILLIS}.
+     */
+    public LocalMetricsCloudWatch() {
+        this(DEFAULT_IDLE_EXPIRY_MILLIS, Ticker.systemTicker());
+    }
+
+    LocalMetricsCloudWatch(final long idleExpiryMillis, final Ticker ticker) {
+        this.idleExpiryNanos = TimeUnit.MILLISECONDS.toNanos(idleExpiryMillis);
+        this.ticker = ticker;
+    }
+
+    /**
+     * A counter or gauge of one metric name and set of labels.
+     */
+    public static final class Series {
+        private final String name;
+        private final Map<String, String> labels;
+        private final boolean counter;
+        private double value;
+        private long updatedNanos;
+
+        private Series(final String name, final Map<String, String> labels, final boolean counter) {
+            this.name = name;
+            this.labels = labels;
+            this.counter = counter;
+        }
+
+        /**
+         * @return The metric name, with only the characters allowed in Prometheus metric names
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The labels: the namespace and the dimensions, in name order
+         */
+        public Map<String, String> getLabels() {
+            return labels;
+        }
+
+        /**
+         * @return True for a counter, false for a gauge
+         */
+        public boolean isCounter() {
+            return counter;
+        }
+
+        /**
+         * @return The value of the series
+         */
+        public double getValue() {
+            return value;
+        }
+    }
+
+    @Override
+    public void setEndpoint(final String endpoint) {
+        // Nothing is sent
+    }
+
+    @Override
+    public void setRegion(final Region region) {
+        // Nothing is sent
+    }
+
+    @Override
+    public PutMetricDataResult putMetricData(final PutMetricDataRequest request) {
+        record(request);
+        return new PutMetricDataResult();
+    }
+
+    @Override
+    public Future<PutMetricDataResult> putMetricDataAsync(final PutMetricDataRequest request) {
+        return putMetricDataAsync(request, null);
+    }
+
+    @Override
+    public Future<PutMetricDataResult> putMetricDataAsync(final PutMetricDataRequest request,
+        final AsyncHandler<PutMetricDataRequest, PutMetricDataResult> asyncHandler) {
+        final PutMetricDataResult result = putMetricData(request);
+        if (null != asyncHandler) {
+            asyncHandler.onSuccess(request, result);
+        }
+        return Futures.immediateFuture(result);
+    }
+
+    @Override
+    public void shutdown() {
+        // Nothing to release
+    }
+
+    /**
+     * @return A copy of every series, in name and label order
+     */
+    public synchronized Map<String, Series> getSeries() {
+        expireIdleSeries();
+        final Map<String, Series> copy = new TreeMap<String, Series>();
+        for (Map.Entry<String, Series> entry : series.entrySet()) {
+            final Series original = entry.getValue();
+            final Series snapshot = new Series(original.name, original.labels, original.counter);
+            snapshot.value = original.value;
+            copy.put(entry.getKey(), snapshot);
+        }
+        return copy;
+    }
+
+    private synchronized void record(final PutMetricDataRequest request) {
+        expireIdleSeries();
+        for (MetricDatum datum : request.getMetricData()) {
+            final Map<String, String> labels = new TreeMap<String, String>();
+            labels.put(NAMESPACE_LABEL, request.getNamespace());
+            if (null != datum.getDimensions()) {
+                for (Dimension dimension : datum.getDimensions()) {
+                    labels.put(toSnakeCase(dimension.getName()), dimension.getValue());
+                }
+            }
+            final String name = toSnakeCase(datum.getMetricName());
+            final StatisticSet statistics = datum.getStatisticValues();
+            if (null != statistics) {
+                getSeries(name + "_sum", labels, true).value += statistics.getSum();
+                getSeries(name + "_count", labels, true).value += statistics.getSampleCount();
+                getSeries(name + "_max", labels, false).value = statistics.getMaximum();
+            } else if (null != datum.getValue()) {
+                if (StandardUnit.Count.toString().equals(datum.getUnit())) {
+                    getSeries(name + "_total", labels, true).value += datum.getValue();
+                } else {
+                    getSeries(name, labels, false).value = datum.getValue();
+                }
+            }
+        }
+    }
+
+    private Series getSeries(final String name, final Map<String, String> labels, final boolean counter) {
+        final String key = name + labels;
+        Series existing = series.get(key);
+        if (null == existing) {
+            existing = new Series(name, labels, counter);
+            series.put(key, existing);
+        }
+        existing.updatedNanos = ticker.read();
+        return existing;
+    }
+
+    private void expireIdleSeries() {
+        final long now = ticker.read();
+        final Iterator<Series> iterator = series.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().updatedNanos > idleExpiryNanos) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return The name in lower case with words separated by underscores, and any character not allowed in Prometheus
+     *         names replaced by an underscore
+     */
+    static String toSnakeCase(final String name) {
+        final StringBuilder builder = new StringBuilder(name.length() + 8);
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (Character.isUpperCase(c)) {
+                if (i > 0 && (Character.isLowerCase(name.charAt(i - 1)) || Character.isDigit(name.charAt(i - 1))
+                    || (i + 1 < name.length() && Character.isLowerCase(name.charAt(i + 1)) && Character.isUpperCase(name.charAt(i - 1))))) {
+                    builder.append('_');
+                }
+                builder.append(Character.toLowerCase(c));
+            } else if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_') {
+                builder.append(c);
+            } else {
+                builder.append('_');
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.amazonaws.services.dynamodbv2.streams.connectors.PipelineStats.ShardSnapshot;
+import com.amazonaws.services.dynamodbv2.streams.connectors.PipelineStats.Stage;
+import com.amazonaws.services.dynamodbv2.streams.connectors.PipelineStats.StageSnapshot;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Serves the metrics of the process locally, as an alternative to publishing them to CloudWatch: the emitter and KCL
+ * metrics kept by a {@link LocalMetricsCloudWatch} and the per-shard stage stats of {@link PipelineStats}. They are
+ * served in the Prometheus text format over HTTP at {@link #PATH}, and as the attributes of one JMX MBean named
+ * {@link #OBJECT_NAME}, with one attribute per series named like the series in the Prometheus format.
+ */
+@Log4j
+public class LocalMetricsEndpoint implements Closeable {
+
+    /**
+     * HTTP path of the metrics.
+     */
+    public static final String PATH = "/metrics";
+
+    /**
+     * Name of the MBean of the metrics.
+     */
+    public static final String OBJECT_NAME = "com.amazonaws.services.dynamodbv2.streams.connectors:type=ReplicationMetrics";
+
+    /**
+     * Prefix of all metric names.
+     */
+    static final String PREFIX = "dynamodb_replication_";
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final LocalMetricsCloudWatch metrics;
+    private final PipelineStats stats;
+    private HttpServer server;
+    private ObjectName objectName;
+
+    /**
+     * Constructor for an endpoint that is not serving yet.
+     *
+     * @param metrics
+     *            The emitter and KCL metrics
+     * @param stats
+     *            The stage stats of the pipeline, or null if not recorded
+     */
+    public LocalMetricsEndpoint(final LocalMetricsCloudWatch metrics, final PipelineStats stats) {
+        this.metrics = metrics;
+        this.stats = stats;
+    }
+
+    /**
+     * Starts serving over HTTP on the loopback address on a daemon thread and registers the MBean.
+     *
+     * @param port
+     *            The HTTP port, 0 for any free port
+     * @throws IOException
+     *             If the port cannot be bound
+     */
+    public void start(final int port) throws IOException {
+        start(null, port);
+    }
+
+    /**
+     * Starts serving over HTTP on a daemon thread and registers the MBean.
+     *
+     * @param address
+     *            The address to bind, such as 0.0.0.0 for every interface, or null for the loopback address only
+     * @param port
+     *            The HTTP port, 0 for any free port
+     * @throws IOException
+     *             If the address and port cannot be bound
+     */
+    public synchronized void start(final String address, final int port) throws IOException {
+        final InetSocketAddress socketAddress = null == address ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+            : new InetSocketAddress(address, port);
+        if (socketAddress.isUnresolved()) {
+            throw new IOException("Could not resolve the metrics address " + address);
+        }
+        server = HttpServer.create(socketAddress, 0);
+        server.setExecutor(Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("metrics-http-%d").setDaemon(true).build()));
+        server.createContext(PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    final byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        try {
+            final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(OBJECT_NAME);
+            if (!mbeanServer.isRegistered(objectName)) {
+                mbeanServer.registerMBean(new MetricsMBean(), objectName);
+            }
+        } catch (JMException e) {
+            log.warn("Could not register the metrics MBean " + OBJECT_NAME, e);
+            objectName = null;
+        }
+        log.info("Serving metrics at http://" + server.getAddress().getHostString() + ":" + getPort() + PATH + " and as MBean " + OBJECT_NAME);
+    }
+
+    /**
+     * @return The HTTP port the endpoint serves on
+     */
+    public synchronized int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The address the endpoint serves on
+     */
+    synchronized InetAddress getAddress() {
+        return server.getAddress().getAddress();
+    }
+
+    /**
+     * Stops serving and unregisters the MBean.
+     */
+    @Override
+    public synchronized void close() {
+        if (null != server) {
+            server.stop(0);
+            server = null;
+        }
+        if (null != objectName) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                log.warn("Could not unregister the metrics MBean " + OBJECT_NAME, e);
+            }
+            objectName = null;
+        }
+    }
+
+    /**
+     * @return All metrics in the Prometheus text format
+     */
+    public String scrape() {
+        final StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Family> entry : collect().entrySet()) {
+            builder.append("# TYPE ").append(entry.getKey()).append(entry.getValue().counter ? " counter" : " gauge").append('\n');
+            for (Map.Entry<String, Double> sample : entry.getValue().samples.entrySet()) {
+                builder.append(sample.getKey()).append(' ').append(format(sample.getValue())).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return The value of every series, by series name with labels
+     */
+    private Map<String, Double> getValues() {
+        final Map<String, Double> values = new LinkedHashMap<String, Double>();
+        for (Family family : collect().values()) {
+            values.putAll(family.samples);
+        }
+        return values;
+    }
+
+    /**
+     * @return The series of all metrics by family, the CloudWatch metrics first
+     */
+    private Map<String, Family> collect() {
+        final Map<String, Family> families = new LinkedHashMap<String, Family>();
+        for (LocalMetricsCloudWatch.Series series : metrics.getSeries().values()) {
+            add(families, PREFIX + series.getName(), series.isCounter(), series.getLabels(), series.getValue());
+        }
+        if (null != stats) {
+            for (Map.Entry<String, ShardSnapshot> shard : stats.getSnapshot().getShards().entrySet()) {
+                final Map<String, String> shardLabels = new LinkedHashMap<String, String>();
+                shardLabels.put("shard_id", shard.getKey());
+                add(families, PREFIX + "pipeline_buffered_records", false, shardLabels, shard.getValue().getBufferedRecords());
+                add(families, PREFIX + "pipeline_buffered_bytes", false, shardLabels, shard.getValue().getBufferedBytes());
+                add(families, PREFIX + "pipeline_in_flight_records", false, shardLabels, shard.getValue().getInFlightRecords());
+                add(families, PREFIX + "pipeline_flushed_records_total", true, shardLabels, shard.getValue().getFlushedRecords());
+                add(families, PREFIX + "pipeline_flushed_unique_records_total", true, shardLabels, shard.getValue().getFlushedUniqueRecords());
+                add(families, PREFIX + "pipeline_dedup_ratio", false, shardLabels, shard.getValue().getDedupRatio());
+                for (Map.Entry<Stage, StageSnapshot> stage : shard.getValue().getStages().entrySet()) {
+                    final Map<String, String> labels = new LinkedHashMap<String, String>(shardLabels);
+                    labels.put("stage", stage.getKey().toString().toLowerCase());
+                    final StageSnapshot snapshot = stage.getValue();
+                    add(families, PREFIX + "pipeline_stage_calls_total", true, labels, snapshot.getCalls());
+                    add(families, PREFIX + "pipeline_stage_seconds_total", true, labels, snapshot.getNanos() / (double) TimeUnit.SECONDS.toNanos(1));
+                    add(families, PREFIX + "pipeline_stage_records_total", true, labels, snapshot.getRecords());
+                    add(families, PREFIX + "pipeline_stage_bytes_total", true, labels, snapshot.getBytes());
+                }
+            }
+        }
+        return families;
+    }
+
+    private static void add(final Map<String, Family> families, final String name, final boolean counter, final Map<String, String> labels,
+        final double value) {
+        Family family = families.get(name);
+        if (null == family) {
+            family = new Family(counter);
+            families.put(name, family);
+        }
+        family.samples.put(name + formatLabels(labels), value);
+    }
+
+    private static String formatLabels(final Map<String, String> labels) {
+        if (labels.isEmpty()) {
+            return "";
+        }
+        final StringBuilder builder = new StringBuilder("{");
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            builder.append(label.getKey()).append("=\"");
+            final String value = null == label.getValue() ? "" : label.getValue();
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    builder.append('\\').append(c);
+                } else if (c == '\n') {
+                    builder.append("\\n");
+                } else {
+                    builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String format(final double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Series of one metric name.
+     */
+    private static final class Family {
+        private final boolean counter;
+        private final Map<String, Double> samples = new LinkedHashMap<String, Double>();
+
+        private Family(final boolean counter) {
+            this.counter = counter;
+        }
+    }
+
+    /**
+     * MBean with one read-only attribute per series, read when the attribute is.
+     */
+    private final class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+            final Double value = getValues().get(attribute);
+            if (null == value) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(final String[] attributes) {
+            final Map<String, Double> values = getValues();
+            final AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(final AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(final String actionName, final Object[] params, final String[] signature) {
+            throw new UnsupportedOperationException("Metrics have no operations: " + actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            final List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            for (String name : getValues().keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, Double.class.getName(), name, true, false, false));
+            }
+            return new MBeanInfo(LocalMetricsEndpoint.class.getName(), "Replication metrics", attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+                null, null, null);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.kinesis.connectors.interfaces.IFilter;
+
+/**
+ * Filter stage preventing loops between tables replicated to each other. Every item the emitter puts carries an origin
+ * marker attribute, {@code <origin id>#<sequence number>}, naming the table the write was read from and the stream
+ * record it replicates. A record of the source stream whose new image carries the marker of another origin, changed by
+ * the write, was made by the replication into the source table, and is dropped instead of being sent back. Writes made
+ * by applications to the source table are kept: puts replace the marker, and updates of a replicated item leave it
+ * unchanged. Telling those updates apart needs the old image, so the stream must have the NEW_AND_OLD_IMAGES view
+ * type: a modification carrying a foreign marker without an old image is refused with an exception, since it can be
+ * neither dropped nor replicated safely.
+ * <p>
+ * Deletes cannot carry a marker, so a replicated delete is sent back once. The emitter only deletes items holding a
+ * marker of its source table, so the echoed delete does not remove an item that applications wrote again to the table
+ * it came from. For the same reason, deleting an item from another table than the one applications last put it in is
+ * not replicated back to that table.
+ * <p>
+ * The replication between each pair of tables must be direct: a record is not replicated further than the table it
+ * was replicated to. The markers are read without decoding the images of a {@link LazyStreamRecord}.
+ */
+public class OriginFilter implements IFilter<Record> {
+
+    /**
+     * Separator of the origin id and the sequence number in the markers.
+     */
+    public static final String SEPARATOR = "#";
+
+    private final String originAttribute;
+    /**
+     * Prefix of the markers of this origin.
+     */
+    private final String originPrefix;
+    /**
+     * The filter of the records that are not replicated writes.
+     */
+    private final IFilter<Record> next;
+
+    /**
+     * Constructor for a filter of replicated writes.
+     *
+     * @param originAttribute
+     *            The name of the origin marker attribute
+     * @param originId
+     *            The id of the source table of this replication
+     * @param next
+     *            The filter applied to the records that are not replicated writes
+     */
+    public OriginFilter(final String originAttribute, final String originId, final IFilter<Record> next) {
+        this.originAttribute = originAttribute;
+        this.originPrefix = originId + SEPARATOR;
+        this.next = next;
+    }
+
+    /**
+     * @param originId
+     *            The id of the source table of the replication
+     * @param sequenceNumber
+     *            The sequence number of the replicated record
+     * @return The origin marker of the item written for the record
+     */
+    public static String getMarker(final String originId, final String sequenceNumber) {
+        return originId + SEPARATOR + sequenceNumber;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean keepRecord(final Record record) {
+        return !isReplicatedWrite(record) && next.keepRecord(record);
+    }
+
+    /**
+     * @return Whether the record was made by the replication of another table into the source table
+     * @throws IllegalStateException
+     *             If the record is a modification carrying a foreign marker, without an old image
+     */
+    boolean isReplicatedWrite(final Record record) {
+        if (OperationType.REMOVE.toString().equals(record.getEventName())) {
+            return false;
+        }
+        final StreamRecord streamRecord = record.getDynamodb();
+        final String marker = getMarker(streamRecord, true);
+        if (null == marker || marker.startsWith(originPrefix)) {
+            return false;
+        }
+        final String oldMarker = getMarker(streamRecord, false);
+        if (null == oldMarker && OperationType.MODIFY.toString().equals(record.getEventName()) && !hasOldImage(streamRecord)) {
+            throw new IllegalStateException("Stream record " + streamRecord.getSequenceNumber() + " has no old image: updates of items with a "
+                + originAttribute + " attribute cannot be told apart from replicated writes. Use the NEW_AND_OLD_IMAGES stream view type.");
+        }
+        return !marker.equals(oldMarker);
+    }
+
+    private String getMarker(final StreamRecord streamRecord, final boolean newImage) {
+        if (streamRecord instanceof LazyStreamRecord) {
+            return ((LazyStreamRecord) streamRecord).getImageString(newImage, originAttribute);
+        }
+        final Map<String, AttributeValue> image = newImage ? streamRecord.getNewImage() : streamRecord.getOldImage();
+        final AttributeValue value = null == image ? null : image.get(originAttribute);
+        return null == value ? null : value.getS();
+    }
+
+    private static boolean hasOldImage(final StreamRecord streamRecord) {
+        if (streamRecord instanceof LazyStreamRecord) {
+            return ((LazyStreamRecord) streamRecord).hasOldImage();
+        }
+        return null != streamRecord.getOldImage();
+    }
+}
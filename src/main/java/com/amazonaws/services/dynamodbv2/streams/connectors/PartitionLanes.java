@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.Record;
+
+/**
+ * Groups the records of one emit call into lanes by partition key, so that writes to a single destination partition
+ * are interleaved with writes to other partitions instead of arriving together, and limits the number of writes in
+ * flight per lane. Partition keys holding a large share of the records are reported as hot.
+ * <p>
+ * Stream records carry the full primary key without the key schema, so the partition key attribute is taken from
+ * the configuration. Without it, a key with a single attribute is its own partition key and a composite key is used
+ * whole, which keeps the interleaving but cannot detect hot partitions of tables with a sort key.
+ */
+public class PartitionLanes {
+
+    private final String partitionKeyAttribute;
+    private final int maxInFlightPerLane;
+    private final Map<Object, Deque<Record>> lanes = new LinkedHashMap<Object, Deque<Record>>();
+    private final Map<Object, Integer> hotPartitions = new LinkedHashMap<Object, Integer>();
+
+    /**
+     * Constructor for the lanes of one emit call.
+     *
+     * @param records
+     *            The records to write, with at most one record per item key
+     * @param partitionKeyAttribute
+     *            The name of the partition key attribute of the destination table, or null if unknown
+     * @param maxInFlightPerLane
+     *            The number of writes allowed in flight per partition key
+     * @param hotPartitionRatio
+     *            The share of the records above which a partition key is hot
+     * @param minHotPartitionRecords
+     *            The number of records below which a partition key is never hot
+     */
+    public PartitionLanes(final List<Record> records, final String partitionKeyAttribute, final int maxInFlightPerLane,
+        final double hotPartitionRatio, final int minHotPartitionRecords) {
+        if (maxInFlightPerLane < 1) {
+            throw new IllegalArgumentException("Writes in flight per partition must be positive: " + maxInFlightPerLane);
+        }
+        this.partitionKeyAttribute = partitionKeyAttribute;
+        this.maxInFlightPerLane = maxInFlightPerLane;
+        for (Record record : records) {
+            final Object partitionKey = getPartitionKey(record);
+            Deque<Record> lane = lanes.get(partitionKey);
+            if (lane == null) {
+                lane = new ArrayDeque<Record>();
+                lanes.put(partitionKey, lane);
+            }
+            lane.add(record);
+        }
+        final double hotThreshold = Math.max(minHotPartitionRecords, hotPartitionRatio * records.size());
+        for (Map.Entry<Object, Deque<Record>> entry : lanes.entrySet()) {
+            final int size = entry.getValue().size();
+            if (size >= hotThreshold) {
+                hotPartitions.put(entry.getKey(), size);
+            }
+        }
+    }
+
+    /**
+     * Takes the first writes of every lane, up to the per-lane limit, in round-robin order across lanes.
+     *
+     * @return The records to submit first
+     */
+    public synchronized List<Record> start() {
+        final List<Record> started = new ArrayList<Record>();
+        boolean added = true;
+        for (int round = 0; round < maxInFlightPerLane && added; round++) {
+            added = false;
+            for (Deque<Record> lane : lanes.values()) {
+                final Record record = lane.poll();
+                if (record != null) {
+                    started.add(record);
+                    added = true;
+                }
+            }
+        }
+        return started;
+    }
+
+    /**
+     * Frees the lane slot of a record that was written or failed.
+     *
+     * @param record
+     *            The record that completed
+     * @return The next record of the same lane to submit, or null if the lane has no more waiting records
+     */
+    public synchronized Record onComplete(final Record record) {
+        final Deque<Record> lane = lanes.get(getPartitionKey(record));
+        return lane == null ? null : lane.poll();
+    }
+
+    /**
+     * @return The partition keys holding a large share of the records, with their number of records
+     */
+    public Map<Object, Integer> getHotPartitions() {
+        return Collections.unmodifiableMap(hotPartitions);
+    }
+
+    /**
+     * @return The number of distinct partition keys
+     */
+    public int getLaneCount() {
+        return lanes.size();
+    }
+
+    private Object getPartitionKey(final Record record) {
+        final Map<String, AttributeValue> keys = record.getDynamodb().getKeys();
+        if (keys == null) {
+            return Collections.emptyMap();
+        }
+        if (partitionKeyAttribute != null && keys.containsKey(partitionKeyAttribute)) {
+            return keys.get(partitionKeyAttribute);
+        }
+        if (keys.size() == 1) {
+            return keys.values().iterator().next();
+        }
+        return keys;
+    }
+}
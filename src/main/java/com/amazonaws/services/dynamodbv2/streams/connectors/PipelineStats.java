@@ -0,0 +1,375 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Time, records and bytes spent in each stage of the replication pipeline, and the records waiting in it, per shard.
+ * The record processors of {@link ReplicationRecordProcessorFactory} record into the stats of their shard with atomic
+ * counters only, and {@link #getSnapshot()} reads all shards at once, to be logged or exported. Counters are
+ * cumulative since the shard was first processed by this process; the stats of a shard are dropped when its record
+ * processor shuts down.
+ */
+@Log4j
+public class PipelineStats {
+
+    /**
+     * Stages of the pipeline, in the order a record goes through them.
+     */
+    public enum Stage {
+        /**
+         * Between two processRecords calls, that is the GetRecords call and the idle time between reads.
+         */
+        GET_RECORDS,
+        /**
+         * Waiting for the records read to fit in the buffer memory of the worker.
+         */
+        BACKPRESSURE,
+        /**
+         * Transformer toClass calls.
+         */
+        TRANSFORM,
+        /**
+         * Buffer consumeRecord calls.
+         */
+        BUFFER,
+        /**
+         * Emitter emit calls.
+         */
+        EMIT,
+        /**
+         * Checkpointer calls.
+         */
+        CHECKPOINT
+    }
+
+    private final ConcurrentMap<String, ShardStats> shards = new ConcurrentHashMap<String, ShardStats>();
+
+    /**
+     * @return New stats for a record processor, counted once registered with {@link #register(String, ShardStats)}
+     */
+    public ShardStats newShardStats() {
+        return new ShardStats();
+    }
+
+    /**
+     * Starts reporting the stats of a record processor under its shard, replacing the stats of an earlier processor
+     * of the same shard.
+     *
+     * @param shardId
+     *            The shard of the record processor
+     * @param stats
+     *            The stats of the record processor
+     */
+    public void register(final String shardId, final ShardStats stats) {
+        shards.put(shardId, stats);
+    }
+
+    /**
+     * Stops reporting the stats of a record processor.
+     *
+     * @param shardId
+     *            The shard of the record processor
+     * @param stats
+     *            The stats of the record processor
+     */
+    public void unregister(final String shardId, final ShardStats stats) {
+        shards.remove(shardId, stats);
+    }
+
+    /**
+     * Logs a snapshot of the stats periodically on a daemon thread.
+     *
+     * @param intervalMillis
+     *            The time between two snapshots
+     */
+    public void logEvery(final long intervalMillis) {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("pipeline-stats-%d").setDaemon(true).build());
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                log.info(getSnapshot());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The stats of every shard processed by this process, by shard
+     */
+    public Snapshot getSnapshot() {
+        final Map<String, ShardSnapshot> snapshot = new TreeMap<String, ShardSnapshot>();
+        for (Map.Entry<String, ShardStats> entry : shards.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().getSnapshot());
+        }
+        return new Snapshot(snapshot);
+    }
+
+    /**
+     * Counters of the stages of one record processor.
+     */
+    public static final class ShardStats {
+        private final Map<Stage, StageCounters> stages = new EnumMap<Stage, StageCounters>(Stage.class);
+        private final AtomicLong bufferedRecords = new AtomicLong();
+        private final AtomicLong bufferedBytes = new AtomicLong();
+        private final AtomicLong inFlightRecords = new AtomicLong();
+        private final AtomicLong flushedRecords = new AtomicLong();
+        private final AtomicLong flushedUniqueRecords = new AtomicLong();
+
+        private ShardStats() {
+            for (Stage stage : Stage.values()) {
+                stages.put(stage, new StageCounters());
+            }
+        }
+
+        /**
+         * Adds a call of a stage.
+         *
+         * @param stage
+         *            The stage
+         * @param nanos
+         *            The time the call took
+         * @param records
+         *            The records the call handled
+         * @param bytes
+         *            The bytes the call handled, 0 if unknown
+         */
+        public void record(final Stage stage, final long nanos, final long records, final long bytes) {
+            final StageCounters counters = stages.get(stage);
+            counters.calls.incrementAndGet();
+            counters.nanos.addAndGet(nanos);
+            if (records != 0) {
+                counters.records.addAndGet(records);
+            }
+            if (bytes != 0) {
+                counters.bytes.addAndGet(bytes);
+            }
+        }
+
+        /**
+         * @param records
+         *            The records in the buffer waiting to be emitted
+         */
+        public void setBufferedRecords(final long records) {
+            bufferedRecords.set(records);
+        }
+
+        /**
+         * @param bytes
+         *            The bytes of the records in the buffer waiting to be emitted
+         */
+        public void setBufferedBytes(final long bytes) {
+            bufferedBytes.set(bytes);
+        }
+
+        /**
+         * @param records
+         *            The records the emitter is writing
+         */
+        public void setInFlightRecords(final long records) {
+            inFlightRecords.set(records);
+        }
+
+        /**
+         * Adds a flush of the buffer.
+         *
+         * @param records
+         *            The records consumed by the buffer since the previous flush
+         * @param uniqueRecords
+         *            The records left to emit once records of the same key are merged
+         */
+        public void recordFlush(final long records, final long uniqueRecords) {
+            flushedRecords.addAndGet(records);
+            flushedUniqueRecords.addAndGet(uniqueRecords);
+        }
+
+        private ShardSnapshot getSnapshot() {
+            final Map<Stage, StageSnapshot> snapshot = new EnumMap<Stage, StageSnapshot>(Stage.class);
+            for (Map.Entry<Stage, StageCounters> entry : stages.entrySet()) {
+                final StageCounters counters = entry.getValue();
+                snapshot.put(entry.getKey(), new StageSnapshot(counters.calls.get(), counters.nanos.get(), counters.records.get(),
+                    counters.bytes.get()));
+            }
+            return new ShardSnapshot(snapshot, bufferedRecords.get(), bufferedBytes.get(), inFlightRecords.get(), flushedRecords.get(),
+                flushedUniqueRecords.get());
+        }
+    }
+
+    private static final class StageCounters {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong records = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+    }
+
+    /**
+     * Stats of all shards at one point in time.
+     */
+    public static final class Snapshot {
+        private final Map<String, ShardSnapshot> shards;
+
+        private Snapshot(final Map<String, ShardSnapshot> shards) {
+            this.shards = Collections.unmodifiableMap(shards);
+        }
+
+        /**
+         * @return The stats of every shard, by shard in shard order
+         */
+        public Map<String, ShardSnapshot> getShards() {
+            return shards;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder("Pipeline stats:");
+            for (Map.Entry<String, ShardSnapshot> shard : shards.entrySet()) {
+                builder.append("\n  ").append(shard.getKey()).append(' ').append(shard.getValue());
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Stats of the stages of one shard.
+     */
+    public static final class ShardSnapshot {
+        private final Map<Stage, StageSnapshot> stages;
+        private final long bufferedRecords;
+        private final long bufferedBytes;
+        private final long inFlightRecords;
+        private final long flushedRecords;
+        private final long flushedUniqueRecords;
+
+        private ShardSnapshot(final Map<Stage, StageSnapshot> stages, final long bufferedRecords, final long bufferedBytes,
+            final long inFlightRecords, final long flushedRecords, final long flushedUniqueRecords) {
+            this.stages = Collections.unmodifiableMap(stages);
+            this.bufferedRecords = bufferedRecords;
+            this.bufferedBytes = bufferedBytes;
+            this.inFlightRecords = inFlightRecords;
+            this.flushedRecords = flushedRecords;
+            this.flushedUniqueRecords = flushedUniqueRecords;
+        }
+
+        /**
+         * @return The stats of every stage
+         */
+        public Map<Stage, StageSnapshot> getStages() {
+            return stages;
+        }
+
+        /**
+         * @return The records in the buffer waiting to be emitted
+         */
+        public long getBufferedRecords() {
+            return bufferedRecords;
+        }
+
+        /**
+         * @return The bytes of the records in the buffer waiting to be emitted
+         */
+        public long getBufferedBytes() {
+            return bufferedBytes;
+        }
+
+        /**
+         * @return The records the emitter is writing
+         */
+        public long getInFlightRecords() {
+            return inFlightRecords;
+        }
+
+        /**
+         * @return The records consumed by the buffer and flushed
+         */
+        public long getFlushedRecords() {
+            return flushedRecords;
+        }
+
+        /**
+         * @return The records emitted from the flushed records once records of the same key were merged
+         */
+        public long getFlushedUniqueRecords() {
+            return flushedUniqueRecords;
+        }
+
+        /**
+         * @return The flushed records per record emitted, 1 if no record was flushed
+         */
+        public double getDedupRatio() {
+            return flushedUniqueRecords == 0 ? 1 : (double) flushedRecords / flushedUniqueRecords;
+        }
+
+        @Override
+        public String toString() {
+            return "buffered=" + bufferedRecords + " bufferedBytes=" + bufferedBytes + " inFlight=" + inFlightRecords + " dedupRatio="
+                + String.format("%.2f", getDedupRatio()) + " " + stages;
+        }
+    }
+
+    /**
+     * Cumulative stats of one stage of one shard.
+     */
+    public static final class StageSnapshot {
+        private final long calls;
+        private final long nanos;
+        private final long records;
+        private final long bytes;
+
+        private StageSnapshot(final long calls, final long nanos, final long records, final long bytes) {
+            this.calls = calls;
+            this.nanos = nanos;
+            this.records = records;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return The number of calls of the stage
+         */
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * @return The time spent in the stage, in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return The records handled by the stage
+         */
+        public long getRecords() {
+            return records;
+        }
+
+        /**
+         * @return The bytes handled by the stage, if the stage knows the size of its records
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "{calls=" + calls + ", millis=" + TimeUnit.NANOSECONDS.toMillis(nanos) + ", records=" + records + ", bytes=" + bytes + "}";
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import com.amazonaws.services.dynamodbv2.model.Record;
+
+/**
+ * An emitter that reports the records of an emit call as they are written, rather than only when the call returns, so
+ * that the record processor can checkpoint the records written so far while the rest of a large buffer is still in
+ * flight.
+ */
+public interface ProgressAware {
+
+    /**
+     * Told of each record of an emit call that no longer needs to be written: either written to the destination,
+     * skipped because the destination already holds a newer version of it, or failed by the emitter itself because the
+     * destination would reject it. Records returned by emit as failed are not reported. Called from the threads completing the writes, possibly concurrently.
+     */
+    interface Listener {
+
+        /**
+         * @param record
+         *            The record, the same instance as in the emitted buffer
+         */
+        void onWritten(Record record);
+    }
+
+    /**
+     * Called by the record processor before an emit call with the listener for its records, and with null after it.
+     *
+     * @param listener
+     *            The listener, or null to report nothing
+     */
+    void setProgressListener(Listener listener);
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * PutItem request whose item is already encoded as the JSON of the DynamoDB API. The item of the request itself is
+ * left empty, so the client marshals only the other parameters, and {@link RawPutItemRequestHandler} splices the
+ * encoded item into the marshalled request before it is signed. The encoded item is transcoded from the JSON of the new
+ * image of a {@link LazyStreamRecord}, token by token, without decoding it into attribute values.
+ */
+public class RawPutItemRequest extends PutItemRequest {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final JsonFactory FACTORY = DynamoDBStreamsRecordObjectMapper.getInstance().getFactory();
+
+    /**
+     * Names of the attribute value types in the DynamoDB API, by their name in the JSON of {@link AttributeValue} beans
+     * and in the API itself.
+     */
+    private static final Map<String, String> TYPES = new HashMap<String, String>();
+    static {
+        for (String type : Arrays.asList("S", "N", "B", "SS", "NS", "BS", "M", "L", "NULL", "BOOL")) {
+            TYPES.put(type, type);
+            TYPES.put(type.toLowerCase(), type);
+        }
+    }
+
+    /**
+     * The item, as the JSON object of the DynamoDB API.
+     */
+    private final byte[] rawItem;
+
+    /**
+     * Constructor for a request putting an encoded item.
+     *
+     * @param rawItem
+     *            The item, as the JSON object of the DynamoDB API, not copied
+     */
+    public RawPutItemRequest(final byte[] rawItem) {
+        this.rawItem = rawItem;
+        setItem(Collections.<String, AttributeValue>emptyMap());
+    }
+
+    /**
+     * @return The item, as the JSON object of the DynamoDB API, not copied
+     */
+    public byte[] getRawItem() {
+        return rawItem;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof RawPutItemRequest && super.equals(obj) && Arrays.equals(rawItem, ((RawPutItemRequest) obj).rawItem);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Arrays.hashCode(rawItem);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return super.toString() + " (raw item of " + rawItem.length + " bytes)";
+    }
+
+    /**
+     * Transcodes the JSON of an item, as written for a map of {@link AttributeValue} beans by the
+     * {@link DynamoDBStreamsRecordObjectMapper}, to the JSON of the DynamoDB API: the type names are upper cased and the
+     * null types dropped.
+     *
+     * @param json
+     *            The bytes holding the JSON of the item
+     * @param offset
+     *            The offset of the JSON object in the bytes
+     * @param length
+     *            The length of the JSON object
+     * @param stringAttributes
+     *            The string attributes to set on the item, such as its version, replacing the attributes of the image
+     *            with their names
+     * @return The item, as the JSON object of the DynamoDB API
+     * @throws IOException
+     *             If the bytes do not hold the JSON of an item
+     */
+    public static byte[] transcodeItem(final byte[] json, final int offset, final int length, final Map<String, String> stringAttributes)
+        throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        try (JsonParser parser = FACTORY.createParser(json, offset, length); JsonGenerator generator = FACTORY.createGenerator(out)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            transcodeAttributes(parser, generator, stringAttributes.keySet());
+            for (Map.Entry<String, String> attribute : stringAttributes.entrySet()) {
+                generator.writeObjectFieldStart(attribute.getKey());
+                generator.writeStringField("S", attribute.getValue());
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Transcodes the attributes of the object at the current token, leaving the object open in the output.
+     */
+    private static void transcodeAttributes(final JsonParser parser, final JsonGenerator generator, final Set<String> skippedAttributes)
+        throws IOException {
+        generator.writeStartObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            if (skippedAttributes.contains(name)) {
+                parser.skipChildren();
+            } else {
+                generator.writeFieldName(name);
+                transcodeValue(parser, generator);
+            }
+        }
+        expect(parser, parser.getCurrentToken(), JsonToken.END_OBJECT);
+    }
+
+    /**
+     * Transcodes the attribute value object at the current token.
+     */
+    private static void transcodeValue(final JsonParser parser, final JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String type = TYPES.get(parser.getCurrentName());
+            if (null == type) {
+                throw new IOException("Unknown attribute value type " + parser.getCurrentName() + " at " + parser.getCurrentLocation());
+            }
+            final JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            generator.writeFieldName(type);
+            if ("M".equals(type)) {
+                expect(parser, token, JsonToken.START_OBJECT);
+                transcodeAttributes(parser, generator, Collections.<String>emptySet());
+                generator.writeEndObject();
+            } else if ("L".equals(type)) {
+                expect(parser, token, JsonToken.START_ARRAY);
+                generator.writeStartArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+                    transcodeValue(parser, generator);
+                }
+                generator.writeEndArray();
+            } else {
+                // Strings, numbers, base64 binaries, booleans and sets are the same in both forms
+                generator.copyCurrentStructure(parser);
+            }
+        }
+        expect(parser, parser.getCurrentToken(), JsonToken.END_OBJECT);
+        generator.writeEndObject();
+    }
+
+    private static void expect(final JsonParser parser, final JsonToken token, final JsonToken expected) throws IOException {
+        if (token != expected) {
+            throw new IOException("Expected " + expected + " but found " + token + " at " + parser.getCurrentLocation());
+        }
+    }
+}
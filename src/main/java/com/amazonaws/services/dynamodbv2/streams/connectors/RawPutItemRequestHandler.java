@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.Request;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.util.IOUtils;
+
+/**
+ * Request handler of the DynamoDB clients splicing the encoded item of a {@link RawPutItemRequest} into the body the
+ * client marshalled for it, in place of its empty item. It runs before the request is signed, and leaves other
+ * requests untouched.
+ */
+public class RawPutItemRequestHandler extends RequestHandler2 {
+
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    /**
+     * The empty item in the marshalled body, the only object of a PutItem request named Item.
+     */
+    private static final byte[] EMPTY_ITEM = "\"Item\":{}".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeRequest(final Request<?> request) {
+        if (!(request.getOriginalRequest() instanceof RawPutItemRequest)) {
+            return;
+        }
+        final byte[] item = ((RawPutItemRequest) request.getOriginalRequest()).getRawItem();
+        final byte[] body;
+        try {
+            body = IOUtils.toByteArray(request.getContent());
+        } catch (IOException e) {
+            throw new AmazonClientException("Could not read the marshalled PutItem request", e);
+        }
+        final int index = indexOf(body, EMPTY_ITEM);
+        if (index < 0) {
+            // Sending the request would put an empty item
+            throw new AmazonClientException("Marshalled PutItem request has no empty item to replace");
+        }
+        // Replace the braces of the empty item
+        final int itemStart = index + EMPTY_ITEM.length - 2;
+        final int itemEnd = index + EMPTY_ITEM.length;
+        final byte[] spliced = new byte[body.length - 2 + item.length];
+        System.arraycopy(body, 0, spliced, 0, itemStart);
+        System.arraycopy(item, 0, spliced, itemStart, item.length);
+        System.arraycopy(body, itemEnd, spliced, itemStart + item.length, body.length - itemEnd);
+        request.setContent(new ByteArrayInputStream(spliced));
+        if (request.getHeaders().containsKey(CONTENT_LENGTH)) {
+            request.addHeader(CONTENT_LENGTH, Integer.toString(spliced.length));
+        }
+    }
+
+    /**
+     * @return The index of the first occurrence of the pattern in the bytes, or -1
+     */
+    private static int indexOf(final byte[] bytes, final byte[] pattern) {
+        outer: for (int i = 0; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,676 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.kinesis.connectors.interfaces.IFilter;
+import com.google.common.base.Predicate;
+
+/**
+ * Filter stage of the replication pipeline: keeps the records matching a filter expression and projects their new
+ * image on a set of attributes, so that a destination holding a subset of the source table only receives that subset.
+ * The expression is compiled once into predicates. Its syntax follows DynamoDB condition expressions:
+ * <ul>
+ * <li>comparisons {@code a = 'x'}, {@code a <> 1}, {@code <}, {@code <=}, {@code >}, {@code >=} of an attribute with a
+ * string, number or boolean literal, and {@code a IN ('x', 'y')}</li>
+ * <li>{@code begins_with(a, 'prefix')}, {@code attribute_exists(a)} and {@code attribute_not_exists(a)}</li>
+ * <li>{@code AND}, {@code OR}, {@code NOT} and parentheses</li>
+ * </ul>
+ * The pseudo attribute {@code eventName} is the event name of the record (INSERT, MODIFY or REMOVE). Other attributes
+ * are read from the keys of the record, then from its new image, or from its old image if it has no new image, so a
+ * predicate on key attributes never decodes the images. Names other than letters, digits, '_', '-' and '.' are written
+ * in double quotes. An attribute that is missing or of another type than the literal only matches {@code <>}.
+ * <p>
+ * A record without images, such as a removal on a stream that only has new images or keys, cannot be evaluated on
+ * other attributes than its keys. Such removals are kept, since the destination may hold the item. A modification
+ * that does not match, of an item whose old image matches or cannot be evaluated, is replicated as a removal, so the
+ * item leaving the filter is deleted from the destination.
+ * <p>
+ * Filtered records are dropped before the buffer, for every destination of the stream. The shard is checkpointed past
+ * them with the next record that is kept.
+ */
+public class RecordFilter implements IFilter<Record> {
+
+    /**
+     * Name of the pseudo attribute holding the event name of the record.
+     */
+    public static final String EVENT_NAME = "eventName";
+
+    /**
+     * Value of the attributes of a record without images.
+     */
+    private static final AttributeValue UNKNOWN = new AttributeValue();
+
+    private final Condition condition;
+    /**
+     * The attributes kept in new images besides the key attributes, or null to keep every attribute.
+     */
+    private final Set<String> projectedAttributes;
+
+    /**
+     * Constructor for a filter stage.
+     *
+     * @param expression
+     *            The filter expression, or null to keep every record
+     * @param projectedAttributes
+     *            The attributes kept in new images besides the key attributes, or null or empty to keep every attribute
+     * @throws IllegalArgumentException
+     *             If the expression is invalid
+     */
+    public RecordFilter(final String expression, final Collection<String> projectedAttributes) {
+        this.condition = null == expression ? TRUE : new Parser(expression).parse();
+        this.projectedAttributes = null == projectedAttributes || projectedAttributes.isEmpty() ? null
+            : Collections.unmodifiableSet(new HashSet<String>(projectedAttributes));
+    }
+
+    /**
+     * Compiles a filter expression.
+     *
+     * @param expression
+     *            The filter expression
+     * @return The predicate of the records matching the expression
+     * @throws IllegalArgumentException
+     *             If the expression is invalid
+     */
+    public static Predicate<Record> compile(final String expression) {
+        final Condition condition = new Parser(expression).parse();
+        return new Predicate<Record>() {
+            @Override
+            public boolean apply(final Record record) {
+                return Boolean.TRUE.equals(condition.evaluate(record));
+            }
+
+            @Override
+            public String toString() {
+                return condition.toString();
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean keepRecord(final Record record) {
+        final Boolean matches = condition.evaluate(record);
+        if (Boolean.FALSE.equals(matches) && OperationType.MODIFY.toString().equals(record.getEventName())) {
+            final StreamRecord streamRecord = record.getDynamodb();
+            final Record removal = new Record().withEventName(OperationType.REMOVE).withDynamodb(
+                new StreamRecord().withKeys(streamRecord.getKeys()).withOldImage(streamRecord.getOldImage()));
+            if (Boolean.FALSE.equals(condition.evaluate(removal))) {
+                return false;
+            }
+            // The item leaves the filter, delete it from the destination
+            record.setEventName(OperationType.REMOVE);
+            streamRecord.setNewImage(null);
+            return true;
+        }
+        if (null == matches) {
+            // Removals that cannot be evaluated may delete items of the destination
+            return OperationType.REMOVE.toString().equals(record.getEventName());
+        }
+        if (!matches) {
+            return false;
+        }
+        if (null != projectedAttributes) {
+            project(record.getDynamodb());
+        }
+        return true;
+    }
+
+    /**
+     * Removes the attributes that are neither projected nor key attributes from the new image of the record.
+     */
+    private void project(final StreamRecord streamRecord) {
+        final Map<String, AttributeValue> image = streamRecord.getNewImage();
+        if (null == image) {
+            return;
+        }
+        final Map<String, AttributeValue> keys = streamRecord.getKeys();
+        final Map<String, AttributeValue> projected = new HashMap<String, AttributeValue>();
+        for (Map.Entry<String, AttributeValue> attribute : image.entrySet()) {
+            if (projectedAttributes.contains(attribute.getKey()) || (null != keys && keys.containsKey(attribute.getKey()))) {
+                projected.put(attribute.getKey(), attribute.getValue());
+            }
+        }
+        if (projected.size() < image.size()) {
+            streamRecord.setNewImage(projected);
+        }
+    }
+
+    /**
+     * @return The attribute of the record, from its keys, then its new image or its old image, null if it is missing or
+     *         {@link #UNKNOWN} if the record has no image
+     */
+    private static AttributeValue getAttribute(final Record record, final String name) {
+        final StreamRecord streamRecord = record.getDynamodb();
+        final Map<String, AttributeValue> keys = streamRecord.getKeys();
+        if (null != keys && keys.containsKey(name)) {
+            return keys.get(name);
+        }
+        Map<String, AttributeValue> image = streamRecord.getNewImage();
+        if (null == image) {
+            image = streamRecord.getOldImage();
+        }
+        return null == image ? UNKNOWN : image.get(name);
+    }
+
+    /**
+     * Condition of an expression, true or false for a record, or null if the record lacks the images to evaluate it.
+     */
+    private interface Condition {
+        Boolean evaluate(Record record);
+    }
+
+    private static final Condition TRUE = new Condition() {
+        @Override
+        public Boolean evaluate(final Record record) {
+            return Boolean.TRUE;
+        }
+    };
+
+    /**
+     * {@code AND} of conditions: false if any is false, otherwise null if any is null.
+     */
+    private static final class And implements Condition {
+        private final List<Condition> factors;
+
+        And(final List<Condition> factors) {
+            this.factors = factors;
+        }
+
+        @Override
+        public Boolean evaluate(final Record record) {
+            Boolean result = Boolean.TRUE;
+            for (Condition factor : factors) {
+                final Boolean value = factor.evaluate(record);
+                if (Boolean.FALSE.equals(value)) {
+                    return Boolean.FALSE;
+                } else if (null == value) {
+                    result = null;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "and(" + factors + ")";
+        }
+    }
+
+    /**
+     * {@code OR} of conditions: true if any is true, otherwise null if any is null.
+     */
+    private static final class Or implements Condition {
+        private final List<Condition> terms;
+
+        Or(final List<Condition> terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        public Boolean evaluate(final Record record) {
+            Boolean result = Boolean.FALSE;
+            for (Condition term : terms) {
+                final Boolean value = term.evaluate(record);
+                if (Boolean.TRUE.equals(value)) {
+                    return Boolean.TRUE;
+                } else if (null == value) {
+                    result = null;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "or(" + terms + ")";
+        }
+    }
+
+    /**
+     * {@code NOT} of a condition.
+     */
+    private static final class Not implements Condition {
+        private final Condition condition;
+
+        Not(final Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        public Boolean evaluate(final Record record) {
+            final Boolean value = condition.evaluate(record);
+            return null == value ? null : !value;
+        }
+
+        @Override
+        public String toString() {
+            return "not(" + condition + ")";
+        }
+    }
+
+    /**
+     * Comparison operators of the expressions.
+     */
+    private enum Operator {
+        EQ("="), NE("<>"), LT("<"), LE("<="), GT(">"), GE(">=");
+
+        private final String symbol;
+
+        Operator(final String symbol) {
+            this.symbol = symbol;
+        }
+
+        boolean test(final int comparison) {
+            switch (this) {
+                case EQ:
+                    return comparison == 0;
+                case NE:
+                    return comparison != 0;
+                case LT:
+                    return comparison < 0;
+                case LE:
+                    return comparison <= 0;
+                case GT:
+                    return comparison > 0;
+                default:
+                    return comparison >= 0;
+            }
+        }
+
+        static Operator forSymbol(final String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Comparison of an attribute, or of the event name, with a literal.
+     */
+    private static final class Comparison implements Condition {
+        /**
+         * The compared attribute, or null for the event name.
+         */
+        private final String attribute;
+        private final Operator operator;
+        /**
+         * A String, BigDecimal or Boolean.
+         */
+        private final Object literal;
+
+        Comparison(final String attribute, final Operator operator, final Object literal) {
+            this.attribute = attribute;
+            this.operator = operator;
+            this.literal = literal;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Boolean evaluate(final Record record) {
+            final Object value;
+            if (null == attribute) {
+                value = literal instanceof String ? record.getEventName() : null;
+            } else {
+                final AttributeValue attributeValue = getAttribute(record, attribute);
+                if (UNKNOWN == attributeValue) {
+                    return null;
+                }
+                value = valueOf(attributeValue);
+            }
+            if (null == value) {
+                return operator == Operator.NE;
+            }
+            return operator.test(((Comparable<Object>) value).compareTo(literal));
+        }
+
+        /**
+         * @return The value of the attribute of the type of the literal, or null
+         */
+        private Object valueOf(final AttributeValue value) {
+            if (null == value) {
+                return null;
+            } else if (literal instanceof String) {
+                return value.getS();
+            } else if (literal instanceof BigDecimal) {
+                return null == value.getN() ? null : new BigDecimal(value.getN());
+            } else {
+                return value.getBOOL();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return (null == attribute ? EVENT_NAME : attribute) + " " + operator.symbol + " " + literal;
+        }
+    }
+
+    /**
+     * {@code begins_with} of a string attribute.
+     */
+    private static final class BeginsWith implements Condition {
+        private final String attribute;
+        private final String prefix;
+
+        BeginsWith(final String attribute, final String prefix) {
+            this.attribute = attribute;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Boolean evaluate(final Record record) {
+            final String value;
+            if (null == attribute) {
+                value = record.getEventName();
+            } else {
+                final AttributeValue attributeValue = getAttribute(record, attribute);
+                if (UNKNOWN == attributeValue) {
+                    return null;
+                }
+                value = getS(attributeValue);
+            }
+            return null != value && value.startsWith(prefix);
+        }
+
+        private static String getS(final AttributeValue value) {
+            return null == value ? null : value.getS();
+        }
+
+        @Override
+        public String toString() {
+            return "begins_with(" + (null == attribute ? EVENT_NAME : attribute) + ", " + prefix + ")";
+        }
+    }
+
+    /**
+     * {@code attribute_exists} of an attribute.
+     */
+    private static final class AttributeExists implements Condition {
+        private final String attribute;
+
+        AttributeExists(final String attribute) {
+            this.attribute = attribute;
+        }
+
+        @Override
+        public Boolean evaluate(final Record record) {
+            final AttributeValue value = getAttribute(record, attribute);
+            return UNKNOWN == value ? null : null != value;
+        }
+
+        @Override
+        public String toString() {
+            return "attribute_exists(" + attribute + ")";
+        }
+    }
+
+    /**
+     * Types of the tokens of an expression.
+     */
+    private enum TokenType {
+        NAME, QUOTED_NAME, STRING, NUMBER, SYMBOL, END
+    }
+
+    private static final class Token {
+        private final TokenType type;
+        private final String text;
+        private final int position;
+
+        Token(final TokenType type, final String text, final int position) {
+            this.type = type;
+            this.text = text;
+            this.position = position;
+        }
+
+        boolean isKeyword(final String keyword) {
+            return type == TokenType.NAME && text.equalsIgnoreCase(keyword);
+        }
+
+        boolean isSymbol(final String symbol) {
+            return type == TokenType.SYMBOL && text.equals(symbol);
+        }
+    }
+
+    /**
+     * Recursive descent parser of filter expressions, {@code OR} binding looser than {@code AND}, and {@code AND}
+     * looser than {@code NOT}.
+     */
+    private static final class Parser {
+        private final String expression;
+        private final List<Token> tokens;
+        private int next = 0;
+
+        Parser(final String expression) {
+            this.expression = expression;
+            this.tokens = tokenize();
+        }
+
+        Condition parse() {
+            final Condition predicate = parseOr();
+            if (peek().type != TokenType.END) {
+                throw error(peek(), "unexpected " + peek().text);
+            }
+            return predicate;
+        }
+
+        private Condition parseOr() {
+            final List<Condition> terms = new ArrayList<Condition>();
+            terms.add(parseAnd());
+            while (peek().isKeyword("OR")) {
+                next++;
+                terms.add(parseAnd());
+            }
+            return terms.size() == 1 ? terms.get(0) : new Or(terms);
+        }
+
+        private Condition parseAnd() {
+            final List<Condition> factors = new ArrayList<Condition>();
+            factors.add(parseNot());
+            while (peek().isKeyword("AND")) {
+                next++;
+                factors.add(parseNot());
+            }
+            return factors.size() == 1 ? factors.get(0) : new And(factors);
+        }
+
+        private Condition parseNot() {
+            if (peek().isKeyword("NOT")) {
+                next++;
+                return new Not(parseNot());
+            }
+            if (peek().isSymbol("(")) {
+                next++;
+                final Condition predicate = parseOr();
+                expectSymbol(")");
+                return predicate;
+            }
+            return parseCondition();
+        }
+
+        private Condition parseCondition() {
+            final Token token = peek();
+            if (token.type == TokenType.NAME && peek(1).isSymbol("(")) {
+                next += 2;
+                final Condition function;
+                if (token.text.equals("begins_with")) {
+                    final String attribute = parseOperand();
+                    expectSymbol(",");
+                    final Object prefix = parseLiteral();
+                    if (!(prefix instanceof String)) {
+                        throw error(token, "begins_with needs a string prefix");
+                    }
+                    function = new BeginsWith(attribute, (String) prefix);
+                } else if (token.text.equals("attribute_exists")) {
+                    function = new AttributeExists(parseAttribute());
+                } else if (token.text.equals("attribute_not_exists")) {
+                    function = new Not(new AttributeExists(parseAttribute()));
+                } else {
+                    throw error(token, "unknown function " + token.text);
+                }
+                expectSymbol(")");
+                return function;
+            }
+            final String attribute = parseOperand();
+            if (peek().isKeyword("IN")) {
+                next++;
+                expectSymbol("(");
+                final List<Condition> values = new ArrayList<Condition>();
+                values.add(new Comparison(attribute, Operator.EQ, parseLiteral()));
+                while (peek().isSymbol(",")) {
+                    next++;
+                    values.add(new Comparison(attribute, Operator.EQ, parseLiteral()));
+                }
+                expectSymbol(")");
+                return values.size() == 1 ? values.get(0) : new Or(values);
+            }
+            final Token operator = peek();
+            final Operator comparison = operator.type == TokenType.SYMBOL ? Operator.forSymbol(operator.text) : null;
+            if (null == comparison) {
+                throw error(operator, "expected a comparison after " + (null == attribute ? EVENT_NAME : attribute));
+            }
+            next++;
+            return new Comparison(attribute, comparison, parseLiteral());
+        }
+
+        /**
+         * @return The attribute name, or null for the event name
+         */
+        private String parseOperand() {
+            final Token token = peek();
+            if (token.type == TokenType.NAME && token.text.equals(EVENT_NAME)) {
+                next++;
+                return null;
+            }
+            return parseAttribute();
+        }
+
+        private String parseAttribute() {
+            final Token token = peek();
+            if (token.type != TokenType.NAME && token.type != TokenType.QUOTED_NAME) {
+                throw error(token, "expected an attribute name");
+            }
+            next++;
+            return token.text;
+        }
+
+        private Object parseLiteral() {
+            final Token token = peek();
+            next++;
+            if (token.type == TokenType.STRING) {
+                return token.text;
+            } else if (token.type == TokenType.NUMBER) {
+                return new BigDecimal(token.text);
+            } else if (token.isKeyword("true") || token.isKeyword("false")) {
+                return Boolean.valueOf(token.text);
+            }
+            throw error(token, "expected a string, number or boolean");
+        }
+
+        private void expectSymbol(final String symbol) {
+            if (!peek().isSymbol(symbol)) {
+                throw error(peek(), "expected " + symbol);
+            }
+            next++;
+        }
+
+        private Token peek() {
+            return peek(0);
+        }
+
+        private Token peek(final int offset) {
+            return tokens.get(Math.min(next + offset, tokens.size() - 1));
+        }
+
+        private IllegalArgumentException error(final Token token, final String message) {
+            return new IllegalArgumentException("Invalid filter expression at position " + token.position + ", " + message + ": " + expression);
+        }
+
+        private List<Token> tokenize() {
+            final List<Token> tokens = new ArrayList<Token>();
+            int i = 0;
+            while (i < expression.length()) {
+                final char c = expression.charAt(i);
+                final int start = i;
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '\'' || c == '"') {
+                    // Quotes are escaped by doubling them
+                    final StringBuilder text = new StringBuilder();
+                    i++;
+                    while (true) {
+                        if (i >= expression.length()) {
+                            throw error(new Token(TokenType.END, "", start), "unterminated quote");
+                        }
+                        if (expression.charAt(i) == c) {
+                            if (i + 1 < expression.length() && expression.charAt(i + 1) == c) {
+                                i++;
+                            } else {
+                                break;
+                            }
+                        }
+                        text.append(expression.charAt(i++));
+                    }
+                    i++;
+                    tokens.add(new Token(c == '\'' ? TokenType.STRING : TokenType.QUOTED_NAME, text.toString(), start));
+                } else if (Character.isDigit(c) || (c == '-' && i + 1 < expression.length() && Character.isDigit(expression.charAt(i + 1)))) {
+                    i++;
+                    while (i < expression.length() && isNumberPart(expression.charAt(i), expression.charAt(i - 1))) {
+                        i++;
+                    }
+                    final String number = expression.substring(start, i);
+                    try {
+                        new BigDecimal(number);
+                    } catch (NumberFormatException e) {
+                        throw error(new Token(TokenType.NUMBER, number, start), "invalid number " + number);
+                    }
+                    tokens.add(new Token(TokenType.NUMBER, number, start));
+                } else if (Character.isLetter(c) || c == '_') {
+                    while (i < expression.length() && isNamePart(expression.charAt(i))) {
+                        i++;
+                    }
+                    tokens.add(new Token(TokenType.NAME, expression.substring(start, i), start));
+                } else if (expression.startsWith("<>", i) || expression.startsWith("<=", i) || expression.startsWith(">=", i)) {
+                    i += 2;
+                    tokens.add(new Token(TokenType.SYMBOL, expression.substring(start, i), start));
+                } else if ("=<>(),".indexOf(c) >= 0) {
+                    i++;
+                    tokens.add(new Token(TokenType.SYMBOL, String.valueOf(c), start));
+                } else {
+                    throw error(new Token(TokenType.SYMBOL, String.valueOf(c), start), "unexpected character " + c);
+                }
+            }
+            tokens.add(new Token(TokenType.END, "end of expression", expression.length()));
+            return tokens;
+        }
+
+        private static boolean isNumberPart(final char c, final char previous) {
+            return Character.isDigit(c) || c == '.' || c == 'e' || c == 'E'
+                || ((c == '-' || c == '+') && (previous == 'e' || previous == 'E'));
+        }
+
+        private static boolean isNamePart(final char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import com.beust.jcommander.Parameter;
+
+import lombok.Getter;
+
+/**
+ * Arguments of the replay command, which writes the records of a dead letter log to the destination table.
+ */
+@Getter
+public class ReplayCommandLineArgs {
+    public static final String COMMAND = "replay";
+
+    public static final String HELP = "--help";
+    @Parameter(names = HELP, description = "Display usage information", help = true)
+    private boolean help;
+
+    public static final String DEAD_LETTER_DIRECTORY = "--deadLetterDirectory";
+    @Parameter(names = DEAD_LETTER_DIRECTORY, required = true, description = "Directory of the dead letter log to replay")
+    private String deadLetterDirectory;
+
+    public static final String DELETE_REPLAYED = "--deleteReplayed";
+    @Parameter(names = DELETE_REPLAYED, description = "Delete the segments of the dead letter log once all their records are replayed, so they are not replayed again")
+    private boolean deleteReplayed;
+
+    public static final String DESTINATION_SIGNING_REGION = "--destinationRegion";
+    @Parameter(names = DESTINATION_SIGNING_REGION, required = true, description =
+            "Signing region to use for the DynamoDB endpoint containing the destination table")
+    private String destinationSigningRegion;
+
+    public static final String DESTINATION_ENDPOINT = "--destinationEndpoint";
+    @Parameter(names = DESTINATION_ENDPOINT, description = "DynamoDB endpoint of the destination table")
+    private String destinationEndpoint;
+
+    public static final String DESTINATION_TABLE = "--destinationTable";
+    @Parameter(names = DESTINATION_TABLE, description = "Name of the destination table", required = true)
+    private String destinationTable;
+
+    public static final String TASK_NAME = "--taskName";
+    @Parameter(names = TASK_NAME, description = "Name of task, used to identify metrics in CloudWatch")
+    private String taskName = "DeadLetterReplay";
+
+    public static final String RECORDS_PER_BATCH = "--recordsPerBatch";
+    @Parameter(names = RECORDS_PER_BATCH, description = "Number of records written with each batch of concurrent BatchWriteItem requests")
+    private int recordsPerBatch = 5000;
+}
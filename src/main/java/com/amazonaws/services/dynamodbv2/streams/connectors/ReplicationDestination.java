@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+
+import lombok.Getter;
+
+/**
+ * A destination table replicated to, given as {@code region:table[:endpoint][;setting=value...]}. Without an endpoint,
+ * the DynamoDB endpoint of the region is used. The settings override the connection pool size, executor threads and
+ * timeouts of the client of this destination, named like the properties of {@link DynamoDBStreamsConnectorConfiguration}
+ * they override: {@code maxConnections}, {@code clientThreads}, {@code connectionTimeoutMillis},
+ * {@code socketTimeoutMillis} and {@code requestTimeoutMillis}.
+ */
+@Getter
+public class ReplicationDestination {
+
+    private static final String SEPARATOR = ":";
+    private static final String LIST_SEPARATOR = ",";
+    private static final String SETTING_SEPARATOR = ";";
+    private static final String VALUE_SEPARATOR = "=";
+    private static final List<String> CLIENT_SETTINGS = Arrays.asList(DynamoDBStreamsConnectorConfiguration.PROP_MAX_CONNECTIONS,
+        DynamoDBStreamsConnectorConfiguration.PROP_CLIENT_THREADS, DynamoDBStreamsConnectorConfiguration.PROP_CONNECTION_TIMEOUT_MILLIS,
+        DynamoDBStreamsConnectorConfiguration.PROP_SOCKET_TIMEOUT_MILLIS, DynamoDBStreamsConnectorConfiguration.PROP_REQUEST_TIMEOUT_MILLIS);
+
+    private final String region;
+    private final String tableName;
+    private final String endpoint;
+    private final SortedMap<String, Integer> clientSettings;
+
+    /**
+     * Constructor for the destination.
+     *
+     * @param region
+     *            The signing region of the destination table
+     * @param tableName
+     *            The name of the destination table
+     * @param endpoint
+     *            The DynamoDB endpoint of the destination table
+     */
+    public ReplicationDestination(final String region, final String tableName, final String endpoint) {
+        this(region, tableName, endpoint, Collections.<String, Integer>emptyMap());
+    }
+
+    /**
+     * Constructor for a destination whose client overrides some settings of the configuration.
+     *
+     * @param region
+     *            The signing region of the destination table
+     * @param tableName
+     *            The name of the destination table
+     * @param endpoint
+     *            The DynamoDB endpoint of the destination table
+     * @param clientSettings
+     *            The client settings of this destination by property name
+     * @throws IllegalArgumentException
+     *             If a setting is unknown or not positive
+     */
+    public ReplicationDestination(final String region, final String tableName, final String endpoint,
+        final Map<String, Integer> clientSettings) {
+        for (Map.Entry<String, Integer> setting : clientSettings.entrySet()) {
+            if (!CLIENT_SETTINGS.contains(setting.getKey())) {
+                throw new IllegalArgumentException("Unknown client setting " + setting.getKey() + ", expected one of " + CLIENT_SETTINGS);
+            }
+            if (null == setting.getValue() || setting.getValue() <= 0) {
+                throw new IllegalArgumentException("Client setting " + setting.getKey() + " must be positive");
+            }
+        }
+        this.region = region;
+        this.tableName = tableName;
+        this.endpoint = endpoint;
+        this.clientSettings = Collections.unmodifiableSortedMap(new TreeMap<String, Integer>(clientSettings));
+    }
+
+    /**
+     * @param name
+     *            The property name of a client setting, such as
+     *            {@link DynamoDBStreamsConnectorConfiguration#PROP_MAX_CONNECTIONS}
+     * @param defaultValue
+     *            The value of the setting in the configuration
+     * @return The value of the setting for this destination, or the default value if it is not overridden
+     */
+    public int getClientSetting(final String name, final int defaultValue) {
+        final Integer value = clientSettings.get(name);
+        return null == value ? defaultValue : value;
+    }
+
+    /**
+     * @param destination
+     *            The destination as {@code region:table[:endpoint][;setting=value...]}
+     * @return The parsed destination
+     * @throws IllegalArgumentException
+     *             If the region is unknown, the table is missing or a client setting is invalid
+     */
+    public static ReplicationDestination parse(final String destination) {
+        final String[] settings = destination.trim().split(SETTING_SEPARATOR);
+        // The endpoint is a URL that may itself contain the separator
+        final String[] parts = settings[0].split(SEPARATOR, 3);
+        if (parts.length < 2 || parts[1].isEmpty()) {
+            throw new IllegalArgumentException("Destination must be region:table[:endpoint][;setting=value...]: " + destination);
+        }
+        final Map<String, Integer> clientSettings = new TreeMap<String, Integer>();
+        for (int i = 1; i < settings.length; i++) {
+            final String[] setting = settings[i].split(VALUE_SEPARATOR, 2);
+            try {
+                clientSettings.put(setting[0].trim(), Integer.valueOf(setting[1].trim()));
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new IllegalArgumentException("Client setting must be setting=number: " + settings[i]);
+            }
+        }
+        final Region region = RegionUtils.getRegion(parts[0]);
+        if (null == region) {
+            throw new IllegalArgumentException("Unknown region of destination " + destination);
+        }
+        final String endpoint = parts.length == 3 && !parts[2].isEmpty() ? parts[2]
+            : "https://" + region.getServiceEndpoint(AmazonDynamoDB.ENDPOINT_PREFIX);
+        return new ReplicationDestination(region.getName(), parts[1], endpoint, clientSettings);
+    }
+
+    /**
+     * @param destinations
+     *            Comma separated destinations, or null
+     * @return The parsed destinations, empty if none are given
+     */
+    public static List<ReplicationDestination> parseList(final String destinations) {
+        if (null == destinations || destinations.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<ReplicationDestination> parsed = new ArrayList<ReplicationDestination>();
+        for (String destination : destinations.split(LIST_SEPARATOR)) {
+            parsed.add(parse(destination));
+        }
+        return Collections.unmodifiableList(parsed);
+    }
+
+    /**
+     * @param destinations
+     *            The destinations to format
+     * @return The destinations in the comma separated form read by {@link #parseList(String)}
+     */
+    public static String formatList(final List<ReplicationDestination> destinations) {
+        final StringBuilder formatted = new StringBuilder();
+        for (ReplicationDestination destination : destinations) {
+            if (formatted.length() > 0) {
+                formatted.append(LIST_SEPARATOR);
+            }
+            formatted.append(destination);
+        }
+        return formatted.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder destination = new StringBuilder(region).append(SEPARATOR).append(tableName).append(SEPARATOR).append(endpoint);
+        for (Map.Entry<String, Integer> setting : clientSettings.entrySet()) {
+            destination.append(SETTING_SEPARATOR).append(setting.getKey()).append(VALUE_SEPARATOR).append(setting.getValue());
+        }
+        return destination.toString();
+    }
+}
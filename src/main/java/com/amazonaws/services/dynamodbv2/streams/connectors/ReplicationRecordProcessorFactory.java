@@ -0,0 +1,590 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.dynamodbv2.model.Record;
+
+import com.amazonaws.services.dynamodbv2.streams.connectors.PipelineStats.ShardStats;
+import com.amazonaws.services.dynamodbv2.streams.connectors.PipelineStats.Stage;
+import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessor;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorFactory;
+import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorRecordProcessor;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IKinesisConnectorPipeline;
+import com.amazonaws.services.kinesis.connectors.interfaces.ITransformer;
+import com.amazonaws.services.kinesis.connectors.interfaces.ITransformerBase;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Record processor factory building the same {@link KinesisConnectorRecordProcessor} as the connector library, with
+ * these additions:
+ * <ul>
+ * <li>The emitter of each processor is told which shard it replicates when the processor is initialized, if the
+ * emitter is {@link ShardAware}.</li>
+ * <li>The buffer, transformer, emitter and checkpointer of each processor are wrapped to time their calls into the
+ * {@link PipelineStats} of the factory.</li>
+ * <li>A GetRecords batch larger than the bytes to buffer of the buffer is handed to the processor in chunks of at most
+ * that many bytes, so that a buffer flushing on every processRecords call, as {@link DynamoDBBuffer} does by default,
+ * emits each chunk before the next one is buffered.</li>
+ * <li>Before a chunk is buffered, its bytes are acquired from a {@link BufferMemoryLimiter} shared by the processors,
+ * with the ceiling {@link DynamoDBStreamsConnectorConfiguration#WORKER_BUFFER_MAX_BYTES}, and they are released once
+ * the buffer is emitted.</li>
+ * <li>The checkpoints the processor makes after emitting its buffer are made at the last record of the buffer, rather
+ * than at the last record of the GetRecords batch, which may not be emitted yet.</li>
+ * <li>While a buffer of DynamoDB Stream records is being emitted by a {@link ProgressAware} emitter, the processor
+ * checkpoints the records written so far, at most every
+ * {@link DynamoDBStreamsConnectorConfiguration#CHECKPOINT_INTERVAL_MILLIS}, at the sequence number of the
+ * {@link SequenceWatermark} of the buffer, so that a processor restarted in the middle of a large buffer does not
+ * replay all of it. These checkpoints are made from a thread shared by the processors.</li>
+ * </ul>
+ * The size of a record is the size the stream reports for it.
+ *
+ * @param <T>
+ *            The type of the records read from the stream
+ * @param <U>
+ *            The type of the records emitted
+ */
+@Log4j
+public class ReplicationRecordProcessorFactory<T, U> implements IRecordProcessorFactory {
+
+    private final IKinesisConnectorPipeline<T, U> pipeline;
+    private final KinesisConnectorConfiguration configuration;
+    private final PipelineStats stats;
+    private final BufferMemoryLimiter memory;
+    private final long checkpointIntervalNanos;
+    /**
+     * Makes the checkpoints of the records written while a buffer is being emitted, or null if there are none.
+     */
+    private final ExecutorService checkpointExecutor;
+
+    /**
+     * Constructor for the factory.
+     *
+     * @param pipeline
+     *            The pipeline of every record processor
+     * @param configuration
+     *            The connector configuration
+     * @param stats
+     *            The stats the record processors record into
+     */
+    public ReplicationRecordProcessorFactory(final IKinesisConnectorPipeline<T, U> pipeline, final KinesisConnectorConfiguration configuration,
+        final PipelineStats stats) {
+        this.pipeline = pipeline;
+        this.configuration = configuration;
+        this.stats = stats;
+        final boolean replication = configuration instanceof DynamoDBStreamsConnectorConfiguration;
+        this.memory = new BufferMemoryLimiter(replication ? ((DynamoDBStreamsConnectorConfiguration) configuration).WORKER_BUFFER_MAX_BYTES : 0);
+        this.checkpointIntervalNanos = TimeUnit.MILLISECONDS
+            .toNanos(replication ? ((DynamoDBStreamsConnectorConfiguration) configuration).CHECKPOINT_INTERVAL_MILLIS : 0);
+        this.checkpointExecutor = checkpointIntervalNanos > 0
+            ? Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("checkpointer-%d").setDaemon(true).build()) : null;
+    }
+
+    @Override
+    public IRecordProcessor createProcessor() {
+        final ShardStats shardStats = stats.newShardStats();
+        final IEmitter<U> emitter = pipeline.getEmitter(configuration);
+        ITransformerBase<T, U> transformer = pipeline.getTransformer(configuration);
+        if (transformer instanceof ITransformer) {
+            // Collection transformers are left untimed
+            transformer = new TimedTransformer<T, U>((ITransformer<T, U>) transformer, shardStats);
+        }
+        final TimedBuffer<T> buffer = new TimedBuffer<T>(pipeline.getBuffer(configuration), shardStats);
+        final TimedEmitter<U> timedEmitter = new TimedEmitter<U>(emitter, shardStats, checkpointIntervalNanos, checkpointExecutor);
+        final KinesisConnectorRecordProcessor<T, U> processor = new KinesisConnectorRecordProcessor<T, U>(buffer,
+            pipeline.getFilter(configuration), timedEmitter, transformer, configuration);
+        return new ReplicationRecordProcessor(processor, emitter, stats, shardStats, buffer, timedEmitter, memory);
+    }
+
+    /**
+     * @return The stats the record processors record into
+     */
+    public PipelineStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return The ceiling of the bytes the record processors hold
+     */
+    public BufferMemoryLimiter getMemory() {
+        return memory;
+    }
+
+    /**
+     * Record processor setting the shard of its emitter, timing the calls between and to its delegate, and handing
+     * records to its delegate in chunks bounded in bytes.
+     */
+    private static final class ReplicationRecordProcessor implements IRecordProcessor {
+        private final IRecordProcessor delegate;
+        private final Object emitter;
+        private final PipelineStats stats;
+        private final ShardStats shardStats;
+        private final TimedBuffer<?> buffer;
+        private final TimedEmitter<?> timedEmitter;
+        private final long chunkBytes;
+        private final BufferMemoryLimiter memory;
+        private String shardId;
+        private long lastReturnNanos;
+        private long heldBytes = 0;
+
+        private ReplicationRecordProcessor(final IRecordProcessor delegate, final Object emitter, final PipelineStats stats,
+            final ShardStats shardStats, final TimedBuffer<?> buffer, final TimedEmitter<?> timedEmitter, final BufferMemoryLimiter memory) {
+            this.delegate = delegate;
+            this.emitter = emitter;
+            this.stats = stats;
+            this.shardStats = shardStats;
+            this.buffer = buffer;
+            this.timedEmitter = timedEmitter;
+            this.chunkBytes = buffer.getBytesToBuffer();
+            this.memory = memory;
+        }
+
+        @Override
+        public void initialize(final String shardId) {
+            this.shardId = shardId;
+            if (emitter instanceof ShardAware) {
+                ((ShardAware) emitter).setShardId(shardId);
+            }
+            stats.register(shardId, shardStats);
+            delegate.initialize(shardId);
+            lastReturnNanos = System.nanoTime();
+        }
+
+        @Override
+        public void processRecords(final List<com.amazonaws.services.kinesis.model.Record> records, final IRecordProcessorCheckpointer checkpointer) {
+            final long startNanos = System.nanoTime();
+            final long[] sizes = new long[records.size()];
+            long bytes = 0;
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = getSizeBytes(records.get(i));
+                bytes += sizes[i];
+            }
+            shardStats.record(Stage.GET_RECORDS, startNanos - lastReturnNanos, records.size(), bytes);
+            final IRecordProcessorCheckpointer timedCheckpointer = timed(checkpointer, true);
+            timedEmitter.setCheckpointer(timedCheckpointer);
+            try {
+                int from = 0;
+                do {
+                    // At least one record per chunk, however large
+                    int to = from;
+                    long chunk = 0;
+                    while (to < sizes.length && (to == from || chunk + sizes[to] <= chunkBytes)) {
+                        chunk += sizes[to++];
+                    }
+                    processChunk(from == 0 && to == sizes.length ? records : records.subList(from, to), chunk, timedCheckpointer);
+                    from = to;
+                } while (from < sizes.length);
+            } finally {
+                timedEmitter.setCheckpointer(null);
+                lastReturnNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * Waits for the bytes of a chunk to fit in the memory of the worker, then hands the chunk to the delegate. The
+         * bytes are held until the buffer is flushed, which may be several chunks later if the buffer coalesces. A
+         * processor holding bytes flushes its buffer rather than wait for memory, so that it never waits on itself.
+         */
+        private void processChunk(final List<com.amazonaws.services.kinesis.model.Record> records, final long bytes,
+            final IRecordProcessorCheckpointer checkpointer) {
+            final long startNanos = System.nanoTime();
+            if (!memory.tryAcquire(bytes)) {
+                if (heldBytes > 0) {
+                    buffer.requestFlush();
+                    process(Collections.<com.amazonaws.services.kinesis.model.Record>emptyList(), checkpointer);
+                }
+                memory.acquireUninterruptibly(bytes);
+            }
+            heldBytes += bytes;
+            shardStats.record(Stage.BACKPRESSURE, System.nanoTime() - startNanos, records.size(), bytes);
+            process(records, checkpointer);
+        }
+
+        /**
+         * Hands records to the delegate, and releases the bytes held once the buffer is flushed.
+         */
+        private void process(final List<com.amazonaws.services.kinesis.model.Record> records, final IRecordProcessorCheckpointer checkpointer) {
+            try {
+                delegate.processRecords(records, checkpointer);
+            } finally {
+                if (buffer.isEmpty()) {
+                    releaseHeldBytes();
+                }
+            }
+        }
+
+        private void releaseHeldBytes() {
+            memory.release(heldBytes);
+            heldBytes = 0;
+        }
+
+        @Override
+        public void shutdown(final IRecordProcessorCheckpointer checkpointer, final ShutdownReason reason) {
+            try {
+                delegate.shutdown(timed(checkpointer, false), reason);
+            } finally {
+                releaseHeldBytes();
+                if (null != shardId) {
+                    stats.unregister(shardId, shardStats);
+                }
+            }
+        }
+
+        /**
+         * Wraps the checkpointer in a proxy, which keeps working as the checkpointer interface gains methods.
+         *
+         * @param toLastFlushed
+         *            Whether a checkpoint without a sequence number is made at the last record flushed by the buffer
+         *            instead of the last record KCL handed to the processor, because later records of the GetRecords
+         *            batch may not have been buffered yet, or may still be coalescing
+         */
+        private IRecordProcessorCheckpointer timed(final IRecordProcessorCheckpointer checkpointer, final boolean toLastFlushed) {
+            return (IRecordProcessorCheckpointer) Proxy.newProxyInstance(IRecordProcessorCheckpointer.class.getClassLoader(),
+                new Class<?>[] {IRecordProcessorCheckpointer.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+                        final long startNanos = System.nanoTime();
+                        final boolean checkpoint = method.getName().equals("checkpoint");
+                        try {
+                            if (checkpoint && toLastFlushed && (null == args || args.length == 0)) {
+                                final String sequenceNumber = buffer.getCheckpointSequenceNumber();
+                                if (null != sequenceNumber) {
+                                    checkpointer.checkpoint(sequenceNumber);
+                                    return null;
+                                }
+                            }
+                            return method.invoke(checkpointer, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        } finally {
+                            if (checkpoint) {
+                                shardStats.record(Stage.CHECKPOINT, System.nanoTime() - startNanos, 0, 0);
+                            }
+                        }
+                    }
+                });
+        }
+
+        /**
+         * @return The size of a stream record as reported by the stream, without serializing it
+         */
+        private static long getSizeBytes(final com.amazonaws.services.kinesis.model.Record record) {
+            if (record instanceof RecordAdapter) {
+                final Long sizeBytes = ((RecordAdapter) record).getInternalObject().getDynamodb().getSizeBytes();
+                return null == sizeBytes ? 0 : sizeBytes;
+            }
+            return null == record.getData() ? 0 : record.getData().remaining();
+        }
+    }
+
+    /**
+     * Transformer timing its toClass calls.
+     */
+    private static final class TimedTransformer<T, U> implements ITransformer<T, U> {
+        private final ITransformer<T, U> delegate;
+        private final ShardStats shardStats;
+
+        private TimedTransformer(final ITransformer<T, U> delegate, final ShardStats shardStats) {
+            this.delegate = delegate;
+            this.shardStats = shardStats;
+        }
+
+        @Override
+        public T toClass(final com.amazonaws.services.kinesis.model.Record record) throws IOException {
+            final long startNanos = System.nanoTime();
+            try {
+                return delegate.toClass(record);
+            } finally {
+                shardStats.record(Stage.TRANSFORM, System.nanoTime() - startNanos, 1, 0);
+            }
+        }
+
+        @Override
+        public U fromClass(final T record) throws IOException {
+            return delegate.fromClass(record);
+        }
+    }
+
+    /**
+     * Buffer timing its consumeRecord calls, counting the records and bytes it holds and the records it merges, and
+     * flushing on request.
+     */
+    private static final class TimedBuffer<T> implements IBuffer<T> {
+        private final IBuffer<T> delegate;
+        private final ShardStats shardStats;
+        private long buffered;
+        private long bufferedBytes;
+        private boolean flushRequested;
+        private String lastFlushedSequenceNumber;
+
+        private TimedBuffer(final IBuffer<T> delegate, final ShardStats shardStats) {
+            this.delegate = delegate;
+            this.shardStats = shardStats;
+        }
+
+        @Override
+        public void consumeRecord(final T record, final int recordBytes, final String sequenceNumber) {
+            final long startNanos = System.nanoTime();
+            try {
+                delegate.consumeRecord(record, recordBytes, sequenceNumber);
+            } finally {
+                shardStats.record(Stage.BUFFER, System.nanoTime() - startNanos, 1, recordBytes);
+                shardStats.setBufferedRecords(++buffered);
+                bufferedBytes += recordBytes;
+                shardStats.setBufferedBytes(bufferedBytes);
+            }
+        }
+
+        @Override
+        public void clear() {
+            lastFlushedSequenceNumber = delegate.getLastSequenceNumber();
+            flushRequested = false;
+            delegate.clear();
+            buffered = 0;
+            bufferedBytes = 0;
+            shardStats.setBufferedRecords(0);
+            shardStats.setBufferedBytes(0);
+        }
+
+        @Override
+        public long getBytesToBuffer() {
+            return delegate.getBytesToBuffer();
+        }
+
+        @Override
+        public long getNumRecordsToBuffer() {
+            return delegate.getNumRecordsToBuffer();
+        }
+
+        @Override
+        public long getMillisecondsToBuffer() {
+            return delegate.getMillisecondsToBuffer();
+        }
+
+        @Override
+        public boolean shouldFlush() {
+            return delegate.shouldFlush() || (flushRequested && buffered > 0);
+        }
+
+        /**
+         * Makes {@link #shouldFlush()} true until the buffer is cleared.
+         */
+        private void requestFlush() {
+            flushRequested = true;
+        }
+
+        /**
+         * @return True if the buffer holds no record
+         */
+        private boolean isEmpty() {
+            return buffered == 0;
+        }
+
+        /**
+         * @return The last sequence number of the records being emitted, or of the records last emitted once the
+         *         buffer is cleared
+         */
+        private String getCheckpointSequenceNumber() {
+            final String lastSequenceNumber = delegate.getLastSequenceNumber();
+            return null == lastSequenceNumber ? lastFlushedSequenceNumber : lastSequenceNumber;
+        }
+
+        @Override
+        public String getFirstSequenceNumber() {
+            return delegate.getFirstSequenceNumber();
+        }
+
+        @Override
+        public String getLastSequenceNumber() {
+            return delegate.getLastSequenceNumber();
+        }
+
+        /**
+         * Called by the record processor once per flush.
+         */
+        @Override
+        public List<T> getRecords() {
+            final List<T> records = delegate.getRecords();
+            shardStats.recordFlush(buffered, records.size());
+            return records;
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+
+    /**
+     * Emitter timing its emit calls, counting the records being emitted, and checkpointing the records written while a
+     * buffer of DynamoDB Stream records is being emitted.
+     */
+    private static final class TimedEmitter<U> implements IEmitter<U> {
+        private final IEmitter<U> delegate;
+        private final ShardStats shardStats;
+        private final long checkpointIntervalNanos;
+        private final ExecutorService checkpointExecutor;
+        /**
+         * Checkpointer of the processRecords call in progress, or null outside of it.
+         */
+        private IRecordProcessorCheckpointer checkpointer;
+
+        private TimedEmitter(final IEmitter<U> delegate, final ShardStats shardStats, final long checkpointIntervalNanos,
+            final ExecutorService checkpointExecutor) {
+            this.delegate = delegate;
+            this.shardStats = shardStats;
+            this.checkpointIntervalNanos = checkpointIntervalNanos;
+            this.checkpointExecutor = checkpointExecutor;
+        }
+
+        private void setCheckpointer(final IRecordProcessorCheckpointer checkpointer) {
+            this.checkpointer = checkpointer;
+        }
+
+        @Override
+        public List<U> emit(final UnmodifiableBuffer<U> buffer) throws IOException {
+            final int records = buffer.getRecords().size();
+            shardStats.setInFlightRecords(records);
+            final IncrementalCheckpointer progress = newIncrementalCheckpointer(buffer.getRecords());
+            if (null != progress) {
+                ((ProgressAware) delegate).setProgressListener(progress);
+            }
+            final long startNanos = System.nanoTime();
+            try {
+                return delegate.emit(buffer);
+            } finally {
+                shardStats.record(Stage.EMIT, System.nanoTime() - startNanos, records, 0);
+                shardStats.setInFlightRecords(0);
+                if (null != progress) {
+                    ((ProgressAware) delegate).setProgressListener(null);
+                    // The processor checkpoints next, which must not race with an earlier checkpoint
+                    progress.awaitCheckpoint();
+                }
+            }
+        }
+
+        /**
+         * @return The listener checkpointing the records written during the emit call, or null if there are no
+         *         checkpoints to make during this call
+         */
+        private IncrementalCheckpointer newIncrementalCheckpointer(final List<U> records) {
+            if (null == checkpointExecutor || null == checkpointer || !(delegate instanceof ProgressAware) || records.size() < 2) {
+                return null;
+            }
+            final List<Record> streamRecords = new ArrayList<Record>(records.size());
+            for (U record : records) {
+                if (!(record instanceof Record)) {
+                    return null;
+                }
+                streamRecords.add((Record) record);
+            }
+            return new IncrementalCheckpointer(new SequenceWatermark(streamRecords), checkpointer);
+        }
+
+        @Override
+        public void fail(final List<U> records) {
+            delegate.fail(records);
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+
+        /**
+         * Progress listener of one emit call, checkpointing its watermark once the checkpoint interval has passed since
+         * the emit call started or since its last checkpoint. At most one checkpoint is in flight, so the checkpoints
+         * of a shard are made in order.
+         */
+        private final class IncrementalCheckpointer implements ProgressAware.Listener {
+            private final SequenceWatermark watermark;
+            private final IRecordProcessorCheckpointer checkpointer;
+            private long lastCheckpointNanos = System.nanoTime();
+            private String lastSequenceNumber;
+            private Future<?> inFlight;
+
+            private IncrementalCheckpointer(final SequenceWatermark watermark, final IRecordProcessorCheckpointer checkpointer) {
+                this.watermark = watermark;
+                this.checkpointer = checkpointer;
+            }
+
+            @Override
+            public void onWritten(final Record record) {
+                watermark.onWritten(record);
+                final long now = System.nanoTime();
+                synchronized (this) {
+                    if (now - lastCheckpointNanos < checkpointIntervalNanos || (null != inFlight && !inFlight.isDone())) {
+                        return;
+                    }
+                    final String sequenceNumber = watermark.getSequenceNumber();
+                    if (null == sequenceNumber || sequenceNumber.equals(lastSequenceNumber)) {
+                        return;
+                    }
+                    lastCheckpointNanos = now;
+                    lastSequenceNumber = sequenceNumber;
+                    inFlight = checkpointExecutor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            checkpoint(sequenceNumber);
+                        }
+                    });
+                }
+            }
+
+            private void checkpoint(final String sequenceNumber) {
+                try {
+                    checkpointer.checkpoint(sequenceNumber);
+                    log.debug("Checkpointed records written so far up to sequence number " + sequenceNumber);
+                } catch (Exception e) {
+                    // The processor checkpoints again once the buffer is emitted
+                    log.warn("Could not checkpoint records written so far up to sequence number " + sequenceNumber, e);
+                }
+            }
+
+            private void awaitCheckpoint() {
+                final Future<?> checkpoint;
+                synchronized (this) {
+                    checkpoint = inFlight;
+                }
+                if (null != checkpoint) {
+                    try {
+                        Uninterruptibles.getUninterruptibly(checkpoint);
+                    } catch (ExecutionException e) {
+                        log.warn("Could not checkpoint records written so far", e.getCause());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter for retrying writes: the delay before retry attempt n is drawn uniformly from
+ * [0, min(maxDelay, baseDelay * 2^n)). Jitter spreads the retries of a throttled batch over time instead of sending them
+ * back to the destination together.
+ * <p>
+ * Once the retry budget of an emit call is spent, a write is still retried, but its delay is drawn from
+ * [maxDelay / 2, maxDelay) whatever its attempt, so that the writes that keep failing slow down instead of being given up.
+ */
+public class RetryBackoff {
+
+    /**
+     * Upper bound on the exponent, keeps the shifted delay from overflowing.
+     */
+    private static final int MAX_EXPONENT = 30;
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * Draws the jittered delays, or null to use the random number generator of the calling thread.
+     */
+    private final Random random;
+
+    /**
+     * Constructor for the backoff.
+     *
+     * @param baseDelayMillis
+     *            The delay ceiling of the first retry, 0 to retry without delay
+     * @param maxDelayMillis
+     *            The largest delay ceiling of any retry
+     */
+    public RetryBackoff(final long baseDelayMillis, final long maxDelayMillis) {
+        this(baseDelayMillis, maxDelayMillis, null);
+    }
+
+    /**
+     * Constructor for the backoff drawing its delays from a given random number generator.
+     *
+     * @param baseDelayMillis
+     *            The delay ceiling of the first retry, 0 to retry without delay
+     * @param maxDelayMillis
+     *            The largest delay ceiling of any retry
+     * @param random
+     *            Draws the jittered delays, or null to use the random number generator of the calling thread
+     */
+    public RetryBackoff(final long baseDelayMillis, final long maxDelayMillis, final Random random) {
+        if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Invalid retry delays: base=" + baseDelayMillis + ", max=" + maxDelayMillis);
+        }
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.random = random;
+    }
+
+    /**
+     * @param attempt
+     *            The number of times the write has already been retried
+     * @return The delay in milliseconds before retrying the write again
+     */
+    public long getDelayMillis(final int attempt) {
+        return getDelayMillis(attempt, false);
+    }
+
+    /**
+     * @param attempt
+     *            The number of times the write has already been retried
+     * @param budgetSpent
+     *            Whether the retry budget of the emit call is spent, which stretches the delay to the largest ceiling
+     * @return The delay in milliseconds before retrying the write again
+     */
+    public long getDelayMillis(final int attempt, final boolean budgetSpent) {
+        if (budgetSpent && baseDelayMillis > 0) {
+            final long floor = maxDelayMillis / 2;
+            return floor + nextLong(maxDelayMillis - floor);
+        }
+        final long ceiling = getDelayCeilingMillis(attempt);
+        if (ceiling <= 0) {
+            return 0;
+        }
+        return nextLong(ceiling);
+    }
+
+    /**
+     * @return A delay drawn uniformly from [0, bound)
+     */
+    private long nextLong(final long bound) {
+        final Random generator = null == random ? ThreadLocalRandom.current() : random;
+        return Math.min(bound - 1, (long) (generator.nextDouble() * bound));
+    }
+
+    /**
+     * @param attempt
+     *            The number of times the write has already been retried
+     * @return The exclusive upper bound of the delay before retrying the write again
+     */
+    long getDelayCeilingMillis(final int attempt) {
+        if (baseDelayMillis == 0) {
+            return 0;
+        }
+        final int exponent = Math.min(Math.max(attempt, 0), MAX_EXPONENT);
+        return Math.min(maxDelayMillis, baseDelayMillis << exponent);
+    }
+}
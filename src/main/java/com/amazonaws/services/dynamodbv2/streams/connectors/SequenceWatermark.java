@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.Record;
+
+/**
+ * Low watermark of the records of one emit call: the longest prefix of the emitted list whose records have all been
+ * written, however the writes of the list complete out of order. {@link DynamoDBBuffer} emits its records in the order
+ * of their sequence numbers, and a record it dropped for a newer record with the same key comes before that record in
+ * the stream, so once the prefix is written the shard can be checkpointed at the sequence number of its last record.
+ */
+public class SequenceWatermark implements ProgressAware.Listener {
+
+    private final List<Record> records;
+    /**
+     * Index of each record in the list, by identity.
+     */
+    private final Map<Record, Integer> indexes;
+    private final boolean[] written;
+    /**
+     * Length of the written prefix.
+     */
+    private int low = 0;
+
+    /**
+     * Constructor for the watermark of an emit call.
+     *
+     * @param records
+     *            The emitted records, in the order of their sequence numbers
+     */
+    public SequenceWatermark(final List<Record> records) {
+        this.records = records;
+        this.indexes = new IdentityHashMap<Record, Integer>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            indexes.put(records.get(i), i);
+        }
+        this.written = new boolean[records.size()];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onWritten(final Record record) {
+        final Integer index = indexes.get(record);
+        if (null == index) {
+            return;
+        }
+        written[index] = true;
+        while (low < written.length && written[low]) {
+            low++;
+        }
+    }
+
+    /**
+     * @return The number of records at the start of the list that have all been written
+     */
+    public synchronized int getWrittenPrefix() {
+        return low;
+    }
+
+    /**
+     * @return The sequence number of the last record of the written prefix, or null if the first record is not written
+     *         yet
+     */
+    public synchronized String getSequenceNumber() {
+        return low == 0 ? null : records.get(low - 1).getDynamodb().getSequenceNumber();
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+/**
+ * A pipeline component that is told which shard its record processor reads, for example to tag its metrics.
+ */
+public interface ShardAware {
+
+    /**
+     * Called when the record processor of the component is initialized, before any records are processed.
+     *
+     * @param shardId
+     *            The shard the records come from
+     */
+    void setShardId(String shardId);
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+
+/**
+ * Sample count, sum, minimum and maximum of a metric, updated without locks. Samples are spread over cells by thread,
+ * so threads recording the same metric rarely contend on the same cell, and the cells are combined when the
+ * statistics are read. A sample recorded while the statistics are read and reset may be counted in either interval.
+ */
+public class StripedStatistics {
+
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private final Cell[] cells = new Cell[STRIPES];
+
+    /**
+     * Constructor for empty statistics.
+     */
+    public StripedStatistics() {
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = new Cell();
+        }
+    }
+
+    /**
+     * @param value
+     *            The sample to record
+     */
+    public void add(final double value) {
+        cells[(int) (Thread.currentThread().getId() & (cells.length - 1))].add(value);
+    }
+
+    /**
+     * Reads the statistics of all samples recorded since the last reset, and resets them.
+     *
+     * @return The statistics, or null if no sample was recorded
+     */
+    public StatisticSet sumThenReset() {
+        long count = 0;
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (Cell cell : cells) {
+            final Samples samples = cell.getAndSet(Samples.EMPTY);
+            if (samples.count == 0) {
+                continue;
+            }
+            count += samples.count;
+            sum += samples.sum;
+            min = Math.min(min, samples.min);
+            max = Math.max(max, samples.max);
+        }
+        if (count == 0) {
+            return null;
+        }
+        return new StatisticSet().withSampleCount((double) count).withSum(sum).withMinimum(min).withMaximum(max);
+    }
+
+    /**
+     * @return The smallest power of two of at least twice the number of processors, at most 64
+     */
+    private static int stripes(final int processors) {
+        int stripes = 1;
+        while (stripes < processors * 2 && stripes < 64) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * Statistics of the samples recorded by a subset of threads. They are replaced as a whole, so a reset never sees a
+     * sample counted without its sum, minimum and maximum.
+     */
+    @SuppressWarnings("serial")
+    private static final class Cell extends AtomicReference<Samples> {
+        private Cell() {
+            super(Samples.EMPTY);
+        }
+
+        private void add(final double value) {
+            Samples current;
+            do {
+                current = get();
+            } while (!compareAndSet(current, current.add(value)));
+        }
+    }
+
+    /**
+     * Immutable count, sum, minimum and maximum of samples.
+     */
+    private static final class Samples {
+        private static final Samples EMPTY = new Samples(0, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+
+        private final long count;
+        private final double sum;
+        private final double min;
+        private final double max;
+
+        private Samples(final long count, final double sum, final double min, final double max) {
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        private Samples add(final double value) {
+            return new Samples(count + 1, sum + value, Math.min(min, value), Math.max(max, value));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+/**
+ * Token bucket that keeps the write capacity units consumed on a destination table under a ceiling per second. Before a
+ * write is sent its capacity is estimated from its size and taken from the bucket, and once the response reports the
+ * capacity actually consumed the bucket is corrected by the difference. The bucket holds at most one second of
+ * capacity, and a write that takes more tokens than are left puts the bucket in debt, which delays the next write
+ * until the debt is refilled.
+ * <p>
+ * All emitters writing to the same table share one limiter, obtained from {@link #forTable(String, String, double)}.
+ */
+public class WriteCapacityLimiter {
+
+    /**
+     * Size of a write capacity unit.
+     */
+    private static final long WRITE_CAPACITY_UNIT_BYTES = 1024L;
+
+    private static final ConcurrentMap<String, WriteCapacityLimiter> LIMITERS = new ConcurrentHashMap<String, WriteCapacityLimiter>();
+
+    private final double unitsPerSecond;
+    private final Ticker ticker;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * Returns the limiter shared by all emitters writing to a table, creating it on first use.
+     *
+     * @param endpoint
+     *            The DynamoDB endpoint of the table
+     * @param tableName
+     *            The name of the table
+     * @param unitsPerSecond
+     *            The ceiling of write capacity units consumed per second, used if the limiter is created
+     * @return The limiter of the table
+     */
+    public static WriteCapacityLimiter forTable(final String endpoint, final String tableName, final double unitsPerSecond) {
+        final String key = endpoint + "/" + tableName;
+        WriteCapacityLimiter limiter = LIMITERS.get(key);
+        if (limiter == null) {
+            final WriteCapacityLimiter created = new WriteCapacityLimiter(unitsPerSecond);
+            limiter = LIMITERS.putIfAbsent(key, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Constructor for the limiter, starting with a full bucket.
+     *
+     * @param unitsPerSecond
+     *            The ceiling of write capacity units consumed per second
+     */
+    public WriteCapacityLimiter(final double unitsPerSecond) {
+        this(unitsPerSecond, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    WriteCapacityLimiter(final double unitsPerSecond, final Ticker ticker) {
+        if (!(unitsPerSecond > 0)) {
+            throw new IllegalArgumentException("Write capacity ceiling must be positive: " + unitsPerSecond);
+        }
+        this.unitsPerSecond = unitsPerSecond;
+        this.ticker = ticker;
+        this.tokens = unitsPerSecond;
+        this.lastRefillNanos = ticker.read();
+    }
+
+    /**
+     * Takes the estimated capacity of a write from the bucket, blocking while the bucket is in debt.
+     *
+     * @param units
+     *            The estimated write capacity units of the write
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting
+     */
+    public void acquire(final double units) throws InterruptedException {
+        final long waitNanos = reserve(units);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes capacity from the bucket.
+     *
+     * @param units
+     *            The estimated write capacity units of the write
+     * @return The time in nanoseconds to wait before sending the write
+     */
+    @VisibleForTesting
+    synchronized long reserve(final double units) {
+        refill();
+        final long waitNanos = tokens >= 0 ? 0 : (long) (-tokens / unitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+        tokens -= units;
+        return waitNanos;
+    }
+
+    /**
+     * Corrects the bucket with the capacity a write actually consumed.
+     *
+     * @param estimatedUnits
+     *            The units taken from the bucket for the write
+     * @param consumedUnits
+     *            The units the destination reported as consumed, 0 for throttled writes
+     */
+    public synchronized void onConsumed(final double estimatedUnits, final double consumedUnits) {
+        refill();
+        tokens = Math.min(unitsPerSecond, tokens + estimatedUnits - consumedUnits);
+    }
+
+    /**
+     * @return The write capacity units left in the bucket, negative while in debt
+     */
+    public synchronized double getAvailableUnits() {
+        refill();
+        return tokens;
+    }
+
+    /**
+     * @return The ceiling of write capacity units consumed per second
+     */
+    public double getUnitsPerSecond() {
+        return unitsPerSecond;
+    }
+
+    /**
+     * @param sizeBytes
+     *            The size of an item write
+     * @return The write capacity units of the write: one per started kilobyte, at least one
+     */
+    public static double getWriteCapacityUnits(final long sizeBytes) {
+        return Math.max(1L, (sizeBytes + WRITE_CAPACITY_UNIT_BYTES - 1) / WRITE_CAPACITY_UNIT_BYTES);
+    }
+
+    private void refill() {
+        final long now = ticker.read();
+        final double refilled = (now - lastRefillNanos) * unitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        tokens = Math.min(unitsPerSecond, tokens + refilled);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTests {
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void growsWhileLatencyIsFlatTest() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 100);
+        for (int round = 0; round < 10; round++) {
+            final int limit = limiter.getLimit();
+            final long[] starts = new long[limit];
+            for (int i = 0; i < limit; i++) {
+                starts[i] = limiter.acquire();
+            }
+            for (int i = 0; i < limit; i++) {
+                limiter.onSuccess(starts[i], starts[i] + LATENCY);
+            }
+        }
+        // Grows by up to one permit per round of writes
+        assertTrue("limit=" + limiter.getLimit(), limiter.getLimit() >= 8);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void shrinksWhenLatencyRisesTest() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 1, 100);
+        long start = limiter.acquire();
+        limiter.onSuccess(start, start + LATENCY);
+        for (int i = 0; i < 10; i++) {
+            start = limiter.acquire();
+            limiter.onSuccess(start, start + 10 * LATENCY);
+        }
+        assertTrue("limit=" + limiter.getLimit(), limiter.getLimit() <= 15);
+    }
+
+    @Test
+    public void halvesOncePerRoundOnThrottleTest() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(16, 1, 100);
+        final long[] starts = new long[16];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = limiter.acquire();
+        }
+        final long end = System.nanoTime();
+        for (long start : starts) {
+            limiter.onThrottle(start, end);
+        }
+        // All throttles were sent before the first decrease, so the limit is halved only once
+        assertEquals(8, limiter.getLimit());
+        final long start = limiter.acquire();
+        limiter.onThrottle(start, System.nanoTime());
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void neverShrinksBelowMinimumTest() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 2, 10);
+        for (int i = 0; i < 5; i++) {
+            final long start = limiter.acquire();
+            limiter.onThrottle(start, System.nanoTime());
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void blocksAtLimitTest() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10);
+        limiter.acquire();
+        limiter.acquire();
+        final Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    limiter.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiter.start();
+        waiter.join(200);
+        assertTrue(waiter.isAlive());
+        limiter.release();
+        waiter.join(5000);
+        assertFalse(waiter.isAlive());
+        assertEquals(2, limiter.getInFlight());
+    }
+}
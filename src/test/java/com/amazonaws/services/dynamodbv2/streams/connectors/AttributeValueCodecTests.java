@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+
+public class AttributeValueCodecTests {
+
+    private static Map<String, AttributeValue> createItem() {
+        final Map<String, AttributeValue> nested = new HashMap<String, AttributeValue>();
+        nested.put("name", new AttributeValue().withS("n\u00e4me"));
+        final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+        item.put("string", new AttributeValue().withS("value"));
+        item.put("number", new AttributeValue().withN("-12.5E3"));
+        item.put("binary", new AttributeValue().withB(ByteBuffer.wrap(new byte[] {0, 1, (byte) 0xFF})));
+        item.put("stringSet", new AttributeValue().withSS("a", "b"));
+        item.put("numberSet", new AttributeValue().withNS("1", "2"));
+        item.put("binarySet", new AttributeValue().withBS(ByteBuffer.wrap(new byte[] {1}), ByteBuffer.wrap(new byte[0])));
+        item.put("map", new AttributeValue().withM(nested));
+        item.put("list", new AttributeValue().withL(new AttributeValue().withN("1"), new AttributeValue().withM(nested)));
+        item.put("true", new AttributeValue().withBOOL(true));
+        item.put("false", new AttributeValue().withBOOL(false));
+        item.put("null", new AttributeValue().withNULL(true));
+        item.put("large", new AttributeValue().withS(new String(new char[1000]).replace('\0', 'x')));
+        return item;
+    }
+
+    @Test
+    public void itemRoundTripTest() {
+        final Map<String, AttributeValue> item = createItem();
+        final ByteBuffer buffer = ByteBuffer.wrap(AttributeValueCodec.encodeItem(item));
+        assertEquals(item, AttributeValueCodec.decodeItem(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void recordRoundTripTest() {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put("string", new AttributeValue().withS("value"));
+        final Record record = new Record().withEventName(OperationType.MODIFY).withDynamodb(
+            new StreamRecord().withSequenceNumber("300000000000000499659").withSizeBytes(1234L).withKeys(key)
+                .withNewImage(createItem()).withOldImage(key));
+        assertEquals(record, AttributeValueCodec.decodeRecord(ByteBuffer.wrap(AttributeValueCodec.encodeRecord(record))));
+    }
+
+    @Test
+    public void recordWithoutImagesRoundTripTest() {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put("string", new AttributeValue().withS("value"));
+        final Record record = new Record().withEventName(OperationType.REMOVE).withDynamodb(
+            new StreamRecord().withSequenceNumber("1").withKeys(key));
+        assertEquals(record, AttributeValueCodec.decodeRecord(ByteBuffer.wrap(AttributeValueCodec.encodeRecord(record))));
+    }
+
+    @Test
+    public void decodeFromPositionTest() {
+        final Map<String, AttributeValue> item = createItem();
+        final byte[] encoded = AttributeValueCodec.encodeItem(item);
+        final byte[] prefixed = new byte[encoded.length + 3];
+        System.arraycopy(encoded, 0, prefixed, 3, encoded.length);
+        final ByteBuffer buffer = ByteBuffer.wrap(prefixed);
+        buffer.position(3);
+        assertEquals(item, AttributeValueCodec.decodeItem(buffer.slice()));
+    }
+
+    @Test
+    public void compactEncodingTest() {
+        final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+        item.put("id", new AttributeValue().withS("abc"));
+        // item count, name length, name, type, value length, value
+        final byte[] expected = new byte[] {1, 2, 'i', 'd', 1, 3, 'a', 'b', 'c'};
+        assertEquals(Arrays.toString(expected), Arrays.toString(AttributeValueCodec.encodeItem(item)));
+    }
+
+    @Test
+    public void keyEncodingIgnoresAttributeOrderTest() {
+        final Map<String, AttributeValue> key = new LinkedHashMap<String, AttributeValue>();
+        key.put("hash", new AttributeValue().withS("a"));
+        key.put("range", new AttributeValue().withN("1"));
+        final Map<String, AttributeValue> reversed = new LinkedHashMap<String, AttributeValue>();
+        reversed.put("range", new AttributeValue().withN("1"));
+        reversed.put("hash", new AttributeValue().withS("a"));
+        assertArrayEquals(AttributeValueCodec.encodeKey(key), AttributeValueCodec.encodeKey(reversed));
+        assertEquals(key, AttributeValueCodec.decodeItem(ByteBuffer.wrap(AttributeValueCodec.encodeKey(reversed))));
+    }
+}
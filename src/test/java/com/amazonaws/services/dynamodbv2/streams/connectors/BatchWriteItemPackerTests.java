@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.google.common.base.Strings;
+
+public class BatchWriteItemPackerTests {
+    private static final String HASH_KEY = "hashKey";
+    private static final String ATTRIBUTE = "att";
+
+    private static Record createRecord(final int id, final int attributeLength) {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put(HASH_KEY, new AttributeValue().withS("key" + id));
+        final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(key);
+        item.put(ATTRIBUTE, new AttributeValue().withS(Strings.repeat("a", attributeLength)));
+        return new Record().withEventName(OperationType.INSERT)
+            .withDynamodb(new StreamRecord().withKeys(key).withNewImage(item).withSequenceNumber(String.valueOf(id)));
+    }
+
+    @Test
+    public void itemLimitTest() {
+        final List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 60; i++) {
+            records.add(createRecord(i, 10));
+        }
+        final List<List<Record>> groups = new BatchWriteItemPacker().pack(records);
+        assertEquals(3, groups.size());
+        int packed = 0;
+        for (List<Record> group : groups) {
+            assertTrue(group.size() <= DynamoDBConnectorConstants.BATCH_WRITE_ITEM_LIMIT);
+            packed += group.size();
+        }
+        assertEquals(records.size(), packed);
+    }
+
+    @Test
+    public void byteLimitTest() {
+        // Each write is 7 + 4 + 3 + 60 = 74 bytes, so only two fit within 150 bytes
+        final List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 5; i++) {
+            records.add(createRecord(i, 60));
+        }
+        final List<List<Record>> groups = new BatchWriteItemPacker(25, 150).pack(records);
+        assertEquals(3, groups.size());
+        for (List<Record> group : groups) {
+            long size = 0;
+            for (Record record : group) {
+                size += BatchWriteItemPacker.getWriteSizeBytes(record);
+            }
+            assertTrue(size <= 150);
+        }
+    }
+
+    @Test
+    public void smallWritesFillLargeWriteBinsTest() {
+        final List<Record> records = new ArrayList<Record>();
+        records.add(createRecord(0, 80));
+        records.add(createRecord(1, 80));
+        records.add(createRecord(2, 5));
+        records.add(createRecord(3, 5));
+        // The two 94 byte writes cannot share a bin, the 19 byte writes fill the remaining space
+        final List<List<Record>> groups = new BatchWriteItemPacker(25, 120).pack(records);
+        assertEquals(2, groups.size());
+        assertEquals(2, groups.get(0).size());
+        assertEquals(2, groups.get(1).size());
+    }
+
+    @Test
+    public void itemSizeTest() {
+        final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+        item.put("s", new AttributeValue().withS("abc"));
+        item.put("n", new AttributeValue().withN("-12.300"));
+        item.put("bool", new AttributeValue().withBOOL(true));
+        // 1 + 3, 1 + (3 digits in 2 bytes + 1 byte + 1 sign byte), 4 + 1
+        assertEquals(4 + 5 + 5, DynamoDBConnectorUtilities.getItemSizeBytes(item));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BufferMemoryLimiterTests {
+
+    @Test
+    public void noCeilingTest() throws Exception {
+        final BufferMemoryLimiter limiter = new BufferMemoryLimiter(0);
+        limiter.acquireUninterruptibly(Long.MAX_VALUE / 2);
+        limiter.acquireUninterruptibly(Long.MAX_VALUE / 2);
+        assertEquals(Long.MAX_VALUE / 2 * 2, limiter.getHeldBytes());
+    }
+
+    @Test
+    public void oversizedAcquireWhenEmptyTest() throws Exception {
+        final BufferMemoryLimiter limiter = new BufferMemoryLimiter(100);
+        limiter.acquireUninterruptibly(1000);
+        assertEquals(1000, limiter.getHeldBytes());
+        limiter.release(1000);
+        assertEquals(0, limiter.getHeldBytes());
+    }
+
+    @Test
+    public void acquireWaitsForReleaseTest() throws Exception {
+        final BufferMemoryLimiter limiter = new BufferMemoryLimiter(100);
+        limiter.acquireUninterruptibly(60);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                limiter.acquireUninterruptibly(50);
+                acquired.countDown();
+            }
+        };
+        waiter.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        assertFalse(limiter.tryAcquire(50));
+        limiter.release(60);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(50, limiter.getHeldBytes());
+        waiter.join();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCeilingTest() {
+        new BufferMemoryLimiter(-1);
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.regions.Region;
+import com.amazonaws.services.cloudwatch.AbstractAmazonCloudWatchAsync;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+
+public class CloudWatchMetricsAggregatorTests {
+    private static final String NAMESPACE = "Namespace";
+    private static final String TABLE = "Table";
+    private static final String SHARD = "shardId-00000000000000000000-00000000";
+    private static final String RECORDS_WRITTEN = "RecordsWritten";
+    private static final String RECORDS_FAILED = "RecordsFailed";
+    private static final String CONCURRENCY_LIMIT = "ConcurrencyLimit";
+    private static final String REPLICATION_LAG = "ReplicationLag";
+
+    private RecordingCloudWatch cloudwatch;
+    private CloudWatchMetricsAggregator aggregator;
+
+    /**
+     * CloudWatch client recording the PutMetricData calls instead of sending them.
+     */
+    private static class RecordingCloudWatch extends AbstractAmazonCloudWatchAsync {
+        private final List<PutMetricDataRequest> requests = Collections.synchronizedList(new ArrayList<PutMetricDataRequest>());
+
+        @Override
+        public void setRegion(final Region region) {
+            // Nothing to configure
+        }
+
+        @Override
+        public Future<PutMetricDataResult> putMetricDataAsync(final PutMetricDataRequest request,
+            final AsyncHandler<PutMetricDataRequest, PutMetricDataResult> asyncHandler) {
+            requests.add(request);
+            asyncHandler.onSuccess(request, new PutMetricDataResult());
+            return null;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        cloudwatch = new RecordingCloudWatch();
+        aggregator = new CloudWatchMetricsAggregator(cloudwatch, NAMESPACE, 0);
+    }
+
+    @Test
+    public void concurrentCountsTest() throws InterruptedException {
+        final int threads = 8;
+        final int countsPerThread = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < countsPerThread; j++) {
+                        aggregator.addCount(RECORDS_WRITTEN, TABLE, SHARD, 1);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertTrue(cloudwatch.requests.isEmpty());
+
+        assertEquals(1, aggregator.flush());
+        assertEquals(1, cloudwatch.requests.size());
+        final PutMetricDataRequest request = cloudwatch.requests.get(0);
+        assertEquals(NAMESPACE, request.getNamespace());
+        assertEquals(2, request.getMetricData().size());
+        final MetricDatum datum = request.getMetricData().get(0);
+        assertEquals(RECORDS_WRITTEN, datum.getMetricName());
+        assertEquals(StandardUnit.Count.toString(), datum.getUnit());
+        assertEquals(threads * countsPerThread, datum.getValue(), 0);
+        assertEquals(2, datum.getDimensions().size());
+        assertTrue(datum.getDimensions().contains(new Dimension().withName(CloudWatchMetricsAggregator.TABLE_NAME_DIMENSION).withValue(TABLE)));
+        assertTrue(datum.getDimensions().contains(new Dimension().withName(CloudWatchMetricsAggregator.SHARD_ID_DIMENSION).withValue(SHARD)));
+        // And the total without dimensions
+        final MetricDatum total = request.getMetricData().get(1);
+        assertEquals(RECORDS_WRITTEN, total.getMetricName());
+        assertEquals(threads * countsPerThread, total.getValue(), 0);
+        assertTrue(total.getDimensions().isEmpty());
+    }
+
+    @Test
+    public void countTotalsTest() {
+        aggregator.addCount(RECORDS_WRITTEN, TABLE, SHARD, 3);
+        aggregator.addCount(RECORDS_WRITTEN, TABLE, "shard1", 4);
+        aggregator.addCount(RECORDS_WRITTEN, "Table1", SHARD, 5);
+        aggregator.addCount(RECORDS_FAILED, TABLE, SHARD, 1);
+        aggregator.addSample(CONCURRENCY_LIMIT, StandardUnit.None, TABLE, null, 4);
+        assertEquals(1, aggregator.flush());
+        final Map<String, Double> totals = new HashMap<String, Double>();
+        int dimensioned = 0;
+        for (MetricDatum datum : cloudwatch.requests.get(0).getMetricData()) {
+            if (datum.getDimensions().isEmpty()) {
+                assertNull(totals.put(datum.getMetricName(), datum.getValue()));
+            } else {
+                dimensioned++;
+            }
+        }
+        assertEquals(5, dimensioned);
+        // Only counts have a total
+        assertEquals(2, totals.size());
+        assertEquals(12, totals.get(RECORDS_WRITTEN), 0);
+        assertEquals(1, totals.get(RECORDS_FAILED), 0);
+    }
+
+    @Test
+    public void concurrentResetTest() throws InterruptedException {
+        final StripedStatistics statistics = new StripedStatistics();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            final Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        statistics.add(7);
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        try {
+            // Every set read while samples are recorded is complete
+            for (int i = 0; i < 10000; i++) {
+                final StatisticSet set = statistics.sumThenReset();
+                if (null != set) {
+                    assertEquals(7, set.getMinimum(), 0);
+                    assertEquals(7, set.getMaximum(), 0);
+                    assertEquals(7 * set.getSampleCount(), set.getSum(), 0);
+                }
+            }
+        } finally {
+            stop.set(true);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+    }
+
+    @Test
+    public void statisticSetTest() {
+        aggregator.addSample(CONCURRENCY_LIMIT, StandardUnit.None, TABLE, null, 4);
+        aggregator.addSample(CONCURRENCY_LIMIT, StandardUnit.None, TABLE, null, 16);
+        aggregator.addSample(CONCURRENCY_LIMIT, StandardUnit.None, TABLE, null, 10);
+        assertEquals(1, aggregator.flush());
+        final MetricDatum datum = cloudwatch.requests.get(0).getMetricData().get(0);
+        assertNull(datum.getValue());
+        assertEquals(3, datum.getStatisticValues().getSampleCount(), 0);
+        assertEquals(30, datum.getStatisticValues().getSum(), 0);
+        assertEquals(4, datum.getStatisticValues().getMinimum(), 0);
+        assertEquals(16, datum.getStatisticValues().getMaximum(), 0);
+        // No shard dimension when the shard is unknown
+        assertEquals(Collections.singletonList(new Dimension().withName(CloudWatchMetricsAggregator.TABLE_NAME_DIMENSION).withValue(TABLE)),
+            datum.getDimensions());
+    }
+
+    @Test
+    public void latencyPercentilesTest() {
+        final LatencyHistogram lag = aggregator.getLatencyHistogram(REPLICATION_LAG, TABLE);
+        assertSame(lag, aggregator.getLatencyHistogram(REPLICATION_LAG, TABLE));
+        for (int i = 1; i <= 1000; i++) {
+            lag.record(i * 1000L);
+        }
+        assertEquals(1, aggregator.flush());
+        final List<MetricDatum> data = cloudwatch.requests.get(0).getMetricData();
+        assertEquals(4, data.size());
+        final Map<String, Double> values = new HashMap<String, Double>();
+        for (MetricDatum datum : data) {
+            assertEquals(StandardUnit.Milliseconds.toString(), datum.getUnit());
+            values.put(datum.getMetricName(), datum.getValue());
+        }
+        assertEquals(500, values.get(REPLICATION_LAG + "P50"), 500 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(990, values.get(REPLICATION_LAG + "P99"), 990 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(999, values.get(REPLICATION_LAG + "P999"), 999 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000, values.get(REPLICATION_LAG + "Max"), 0);
+        // Nothing recorded since the last flush
+        assertEquals(0, aggregator.flush());
+    }
+
+    @Test
+    public void batchedRequestsTest() {
+        final int shards = CloudWatchMetricsAggregator.MAX_METRIC_DATA_PER_REQUEST * 2 + 1;
+        for (int i = 0; i < shards; i++) {
+            aggregator.addCount(RECORDS_WRITTEN, TABLE, "shard" + i, 1);
+        }
+        assertEquals(3, aggregator.flush());
+        int data = 0;
+        for (PutMetricDataRequest request : cloudwatch.requests) {
+            assertTrue(request.getMetricData().size() <= CloudWatchMetricsAggregator.MAX_METRIC_DATA_PER_REQUEST);
+            data += request.getMetricData().size();
+        }
+        // And the total of the shards
+        assertEquals(shards + 1, data);
+    }
+
+    @Test
+    public void emptyIntervalTest() {
+        aggregator.addCount(RECORDS_FAILED, TABLE, SHARD, 1);
+        assertEquals(1, aggregator.flush());
+        // Nothing recorded since the last flush
+        assertEquals(0, aggregator.flush());
+        assertEquals(1, cloudwatch.requests.size());
+    }
+
+    @Test
+    public void removeShardTest() {
+        aggregator.addCount(RECORDS_WRITTEN, TABLE, SHARD, 1);
+        aggregator.addCount(RECORDS_FAILED, TABLE, SHARD, 1);
+        aggregator.addCount(RECORDS_WRITTEN, TABLE, "shard1", 1);
+        aggregator.addCount(RECORDS_WRITTEN, "Table1", SHARD, 1);
+        aggregator.addSample(CONCURRENCY_LIMIT, StandardUnit.None, TABLE, null, 4);
+        assertEquals(5, aggregator.getMetricCount());
+
+        // Only the metrics of the shard and table are dropped
+        aggregator.removeShard(TABLE, SHARD);
+        aggregator.removeShard(TABLE, null);
+        assertEquals(3, aggregator.getMetricCount());
+        // What the shard recorded is still published, once
+        assertEquals(1, aggregator.flush());
+        assertEquals(5 + 2, cloudwatch.requests.get(0).getMetricData().size());
+        assertEquals(0, aggregator.flush());
+    }
+
+    @Test
+    public void sharedAggregatorTest() {
+        final CloudWatchMetricsAggregator shared = CloudWatchMetricsAggregator.forNamespace(cloudwatch, NAMESPACE, 0);
+        assertSame(shared, CloudWatchMetricsAggregator.forNamespace(cloudwatch, NAMESPACE, 0));
+        shared.addCount(RECORDS_WRITTEN, TABLE, SHARD, 1);
+        CloudWatchMetricsAggregator.closeAll(cloudwatch);
+        assertEquals(1, cloudwatch.requests.size());
+        assertTrue(shared != CloudWatchMetricsAggregator.forNamespace(cloudwatch, NAMESPACE, 0));
+        CloudWatchMetricsAggregator.closeAll(cloudwatch);
+    }
+
+    @Test
+    public void closeAllReleasesAggregatorsTest() {
+        // Other tests may leave aggregators of their own clients
+        final int aggregators = CloudWatchMetricsAggregator.getAggregatorCount();
+        final int scheduled = CloudWatchMetricsAggregator.getScheduledCount();
+        final CloudWatchMetricsAggregator shared = CloudWatchMetricsAggregator.forNamespace(cloudwatch, NAMESPACE, 60000L);
+        CloudWatchMetricsAggregator.forNamespace(cloudwatch, "Other" + NAMESPACE, 60000L);
+        assertEquals(aggregators + 2, CloudWatchMetricsAggregator.getAggregatorCount());
+        assertEquals(scheduled + 2, CloudWatchMetricsAggregator.getScheduledCount());
+        assertTrue(CloudWatchMetricsAggregator.isSchedulerRunning());
+        CloudWatchMetricsAggregator.closeAll(cloudwatch);
+        assertEquals(aggregators, CloudWatchMetricsAggregator.getAggregatorCount());
+        assertEquals(scheduled, CloudWatchMetricsAggregator.getScheduledCount());
+        // The publishing thread stops with the last scheduled aggregator
+        assertEquals(scheduled > 0, CloudWatchMetricsAggregator.isSchedulerRunning());
+        // Closing again releases nothing more
+        shared.close();
+        assertEquals(scheduled, CloudWatchMetricsAggregator.getScheduledCount());
+    }
+}
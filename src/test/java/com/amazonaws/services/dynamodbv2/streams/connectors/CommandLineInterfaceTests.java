@@ -110,6 +110,69 @@ public class CommandLineInterfaceTests {
         assertEquals(args.getKclSigningRegion(), null);
     }
 
+    @Test(expected = ParameterException.class)
+    public void nonPositiveMaxWriteCapacityUnitsTest() {
+        List<String> capacityArgs = new ArrayList<String>(Arrays.asList(sampleArgs));
+        capacityArgs.add(CommandLineArgs.MAX_WRITE_CAPACITY_UNITS);
+        capacityArgs.add("0");
+        cmd.parse(capacityArgs.toArray(new String[capacityArgs.size()]));
+        new CommandLineInterface(args);
+    }
+
+    @Test(expected = ParameterException.class)
+    public void nonPositiveWorkerBufferMaxBytesTest() {
+        List<String> bufferArgs = new ArrayList<String>(Arrays.asList(sampleArgs));
+        bufferArgs.add(CommandLineArgs.WORKER_BUFFER_MAX_BYTES);
+        bufferArgs.add("0");
+        cmd.parse(bufferArgs.toArray(new String[bufferArgs.size()]));
+        new CommandLineInterface(args);
+    }
+
+    @Test
+    public void additionalDestinationsTest() {
+        List<String> destinationArgs = new ArrayList<String>(Arrays.asList(sampleArgs));
+        destinationArgs.add(CommandLineArgs.ADDITIONAL_DESTINATION);
+        destinationArgs.add(Regions.US_WEST_2.getName() + ":Replica2");
+        destinationArgs.add(CommandLineArgs.ADDITIONAL_DESTINATION);
+        destinationArgs.add(Regions.AP_SOUTHEAST_1.getName() + ":Replica3:http://localhost:8000");
+        cmd.parse(destinationArgs.toArray(new String[destinationArgs.size()]));
+        List<ReplicationDestination> destinations = new CommandLineInterface(args).getAdditionalDestinations();
+        assertEquals(2, destinations.size());
+        assertEquals("Replica2", destinations.get(0).getTableName());
+        assertTrue(destinations.get(0).getEndpoint().contains(Regions.US_WEST_2.getName()));
+        assertEquals(Regions.AP_SOUTHEAST_1.getName(), destinations.get(1).getRegion());
+        assertEquals("http://localhost:8000", destinations.get(1).getEndpoint());
+        assertEquals(destinations.get(1).toString(),
+            ReplicationDestination.parseList(ReplicationDestination.formatList(destinations)).get(1).toString());
+    }
+
+    @Test(expected = ParameterException.class)
+    public void additionalDestinationWithoutTableTest() {
+        List<String> destinationArgs = new ArrayList<String>(Arrays.asList(sampleArgs));
+        destinationArgs.add(CommandLineArgs.ADDITIONAL_DESTINATION);
+        destinationArgs.add(Regions.US_WEST_2.getName());
+        cmd.parse(destinationArgs.toArray(new String[destinationArgs.size()]));
+        new CommandLineInterface(args);
+    }
+
+    @Test(expected = ParameterException.class)
+    public void localMetricsAddressWithoutPortTest() {
+        List<String> metricsArgs = new ArrayList<String>(Arrays.asList(sampleArgs));
+        metricsArgs.add(CommandLineArgs.LOCAL_METRICS_ADDRESS);
+        metricsArgs.add("0.0.0.0");
+        cmd.parse(metricsArgs.toArray(new String[metricsArgs.size()]));
+        new CommandLineInterface(args);
+    }
+
+    @Test(expected = ParameterException.class)
+    public void invalidFilterExpressionTest() {
+        List<String> filterArgs = new ArrayList<String>(Arrays.asList(sampleArgs));
+        filterArgs.add(CommandLineArgs.FILTER_EXPRESSION);
+        filterArgs.add("begins_with(customerId 'eu-')");
+        cmd.parse(filterArgs.toArray(new String[filterArgs.size()]));
+        new CommandLineInterface(args);
+    }
+
     @Test
     public void testKclDynamoDbClientDefault() {
         cmd.parse(sampleArgs);
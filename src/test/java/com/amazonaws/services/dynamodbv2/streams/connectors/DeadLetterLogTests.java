@@ -0,0 +1,201 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+
+public class DeadLetterLogTests {
+    private static final long SEGMENT_BYTES = 256L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Record createRecord(final int id, final int valueLength) {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put("id", new AttributeValue().withN(String.valueOf(id)));
+        final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(key);
+        item.put("value", new AttributeValue().withS(new String(new char[valueLength]).replace('\0', 'v')));
+        return new Record().withEventName(OperationType.INSERT).withDynamodb(
+            new StreamRecord().withSequenceNumber(String.valueOf(100 + id)).withKeys(key).withNewImage(item));
+    }
+
+    private static List<Record> readAll(final File directory) throws IOException {
+        final List<Record> records = new ArrayList<Record>();
+        final Iterator<Record> iterator = DeadLetterLog.read(directory);
+        while (iterator.hasNext()) {
+            records.add(iterator.next());
+        }
+        return records;
+    }
+
+    private static int countSegments(final File directory) throws IOException {
+        return DeadLetterLog.listSegments(directory).size();
+    }
+
+    @Test
+    public void appendAcrossSegmentsTest() throws IOException {
+        final File directory = folder.newFolder();
+        final List<Record> expected = new ArrayList<Record>();
+        final DeadLetterLog deadLetterLog = new DeadLetterLog(directory, SEGMENT_BYTES);
+        for (int i = 0; i < 20; i++) {
+            final Record record = createRecord(i, 50);
+            deadLetterLog.append(record);
+            expected.add(record);
+        }
+        deadLetterLog.close();
+        assertTrue(countSegments(directory) > 1);
+        assertEquals(expected, readAll(directory));
+    }
+
+    @Test
+    public void reopenAppendsToNewSegmentTest() throws IOException {
+        final File directory = folder.newFolder();
+        final DeadLetterLog first = new DeadLetterLog(directory, SEGMENT_BYTES);
+        first.append(createRecord(1, 10));
+        first.close();
+        final DeadLetterLog second = new DeadLetterLog(directory, SEGMENT_BYTES);
+        second.append(createRecord(2, 10));
+        second.close();
+        assertEquals(2, countSegments(directory));
+        final List<Record> expected = new ArrayList<Record>();
+        expected.add(createRecord(1, 10));
+        expected.add(createRecord(2, 10));
+        assertEquals(expected, readAll(directory));
+    }
+
+    @Test
+    public void corruptTailIsIgnoredTest() throws IOException {
+        final File directory = folder.newFolder();
+        final DeadLetterLog first = new DeadLetterLog(directory, SEGMENT_BYTES);
+        first.append(createRecord(1, 10));
+        first.append(createRecord(2, 10));
+        first.close();
+        final File segment = directory.listFiles()[0];
+        final int firstEntryBytes = 8 + AttributeValueCodec.encodeRecord(createRecord(1, 10)).length;
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // Flip the last byte of the second entry, as if the process stopped while writing it
+            final long lastByte = firstEntryBytes + 8 + AttributeValueCodec.encodeRecord(createRecord(2, 10)).length - 1;
+            file.seek(lastByte);
+            final int b = file.read();
+            file.seek(lastByte);
+            file.write(b ^ 0xFF);
+        }
+        final List<Record> expected = new ArrayList<Record>();
+        expected.add(createRecord(1, 10));
+        assertEquals(expected, readAll(directory));
+
+        final DeadLetterLog second = new DeadLetterLog(directory, SEGMENT_BYTES);
+        second.append(createRecord(3, 10));
+        second.close();
+        expected.add(createRecord(3, 10));
+        assertEquals(expected, readAll(directory));
+    }
+
+    @Test
+    public void oversizedRecordTest() throws IOException {
+        final File directory = folder.newFolder();
+        final DeadLetterLog deadLetterLog = new DeadLetterLog(directory, SEGMENT_BYTES);
+        final Record large = createRecord(1, (int) SEGMENT_BYTES * 4);
+        deadLetterLog.append(createRecord(0, 10));
+        deadLetterLog.append(large);
+        deadLetterLog.append(createRecord(2, 10));
+        deadLetterLog.close();
+        assertEquals(3, countSegments(directory));
+        final List<Record> records = readAll(directory);
+        assertEquals(3, records.size());
+        assertEquals(large, records.get(1));
+    }
+
+    @Test
+    public void appendBatchTest() throws IOException {
+        final File directory = folder.newFolder();
+        final List<Record> expected = new ArrayList<Record>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(createRecord(i, 50));
+        }
+        final DeadLetterLog deadLetterLog = new DeadLetterLog(directory, SEGMENT_BYTES);
+        deadLetterLog.append(expected.subList(0, 10));
+        deadLetterLog.append(expected.subList(10, 20));
+        deadLetterLog.close();
+        assertTrue(countSegments(directory) > 1);
+        assertEquals(expected, readAll(directory));
+    }
+
+    @Test
+    public void openLogLocksDirectoryTest() throws IOException {
+        final File directory = folder.newFolder();
+        final DeadLetterLog deadLetterLog = new DeadLetterLog(directory, SEGMENT_BYTES);
+        try {
+            new DeadLetterLog(directory, SEGMENT_BYTES);
+            fail("Opened a second log on a locked directory");
+        } catch (IOException e) {
+            // Expected
+        } finally {
+            deadLetterLog.close();
+        }
+        new DeadLetterLog(directory, SEGMENT_BYTES).close();
+    }
+
+    @Test
+    public void sealedSegmentsSkipLastSegmentOfOpenLogTest() throws IOException {
+        final File directory = folder.newFolder();
+        final DeadLetterLog deadLetterLog = new DeadLetterLog(directory, SEGMENT_BYTES);
+        for (int i = 0; i < 20; i++) {
+            deadLetterLog.append(createRecord(i, 50));
+        }
+        final List<File> segments = DeadLetterLog.listSegments(directory);
+        assertEquals(segments.subList(0, segments.size() - 1), DeadLetterLog.listSealedSegments(directory));
+        deadLetterLog.close();
+        assertEquals(segments, DeadLetterLog.listSealedSegments(directory));
+    }
+
+    @Test
+    public void emptyDirectoryTest() throws IOException {
+        assertFalse(DeadLetterLog.read(folder.newFolder()).hasNext());
+    }
+
+    @Test(expected = IOException.class)
+    public void closedLogTest() throws IOException {
+        final DeadLetterLog deadLetterLog = new DeadLetterLog(folder.newFolder(), SEGMENT_BYTES);
+        deadLetterLog.close();
+        deadLetterLog.append(createRecord(1, 10));
+    }
+
+    @Test
+    public void sharedLogTest() throws IOException {
+        final File directory = folder.newFolder();
+        final DeadLetterLog deadLetterLog = DeadLetterLog.forDirectory(directory, SEGMENT_BYTES);
+        try {
+            assertTrue(deadLetterLog == DeadLetterLog.forDirectory(new File(directory.getPath()), SEGMENT_BYTES));
+        } finally {
+            deadLetterLog.close();
+        }
+        final DeadLetterLog reopened = DeadLetterLog.forDirectory(directory, SEGMENT_BYTES);
+        reopened.close();
+        assertFalse(deadLetterLog == reopened);
+    }
+}
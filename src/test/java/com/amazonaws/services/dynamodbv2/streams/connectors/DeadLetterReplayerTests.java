@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+
+public class DeadLetterReplayerTests {
+    private static final long SEGMENT_BYTES = 256L;
+
+    /**
+     * Emitter writing nothing, and failing the records of the given sequence numbers.
+     */
+    private static final class StubEmitter implements IEmitter<Record> {
+        private final Set<String> failing = new HashSet<String>();
+        private final List<Record> emitted = new ArrayList<Record>();
+
+        @Override
+        public List<Record> emit(final UnmodifiableBuffer<Record> buffer) {
+            final List<Record> unprocessed = new ArrayList<Record>();
+            for (Record record : buffer.getRecords()) {
+                if (failing.contains(record.getDynamodb().getSequenceNumber())) {
+                    unprocessed.add(record);
+                } else {
+                    emitted.add(record);
+                }
+            }
+            return unprocessed;
+        }
+
+        @Override
+        public void fail(final List<Record> records) {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubEmitter emitter;
+    private DeadLetterReplayer replayer;
+    private File directory;
+
+    private static Record createRecord(final int id) {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put("id", new AttributeValue().withN(String.valueOf(id)));
+        return new Record().withEventName(OperationType.INSERT).withDynamodb(
+            new StreamRecord().withSequenceNumber(String.valueOf(100 + id)).withKeys(key).withNewImage(key));
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(KinesisConnectorConfiguration.PROP_RETRY_LIMIT, "1");
+        properties.setProperty(KinesisConnectorConfiguration.PROP_BACKOFF_INTERVAL, "0");
+        emitter = new StubEmitter();
+        replayer = new DeadLetterReplayer(emitter, new DynamoDBStreamsConnectorConfiguration(properties, null), 2);
+        directory = folder.newFolder();
+        final DeadLetterLog deadLetterLog = new DeadLetterLog(directory, SEGMENT_BYTES);
+        for (int i = 0; i < 10; i++) {
+            deadLetterLog.append(createRecord(i));
+        }
+        deadLetterLog.close();
+        assertTrue(DeadLetterLog.listSegments(directory).size() > 1);
+    }
+
+    @Test
+    public void replayKeepsLogTest() throws Exception {
+        assertEquals(0, replayer.replay(directory, false));
+        assertEquals(0, replayer.replay(directory, false));
+        // Replayed twice
+        assertEquals(20, emitter.emitted.size());
+    }
+
+    @Test
+    public void replayDeletesReplayedSegmentsTest() throws Exception {
+        assertEquals(0, replayer.replay(directory, true));
+        assertEquals(10, emitter.emitted.size());
+        assertTrue(DeadLetterLog.listSegments(directory).isEmpty());
+        // Nothing is replayed again
+        assertEquals(0, replayer.replay(directory, true));
+        assertEquals(10, emitter.emitted.size());
+    }
+
+    @Test
+    public void replayNextToOpenLogTest() throws Exception {
+        final DeadLetterLog deadLetterLog = new DeadLetterLog(directory, SEGMENT_BYTES);
+        try {
+            deadLetterLog.append(createRecord(10));
+            // The segment the open log appends to is left
+            assertEquals(0, replayer.replay(directory, true));
+            assertEquals(10, emitter.emitted.size());
+            assertEquals(1, DeadLetterLog.listSegments(directory).size());
+        } finally {
+            deadLetterLog.close();
+        }
+        assertEquals(0, replayer.replay(directory, true));
+        assertEquals(11, emitter.emitted.size());
+        assertEquals(createRecord(10), emitter.emitted.get(10));
+        assertTrue(DeadLetterLog.listSegments(directory).isEmpty());
+    }
+
+    @Test
+    public void failedReplayKeepsSegmentsTest() throws Exception {
+        final int segments = DeadLetterLog.listSegments(directory).size();
+        emitter.failing.add("105");
+        assertEquals(1, replayer.replay(directory, true));
+        assertEquals(9, emitter.emitted.size());
+        assertEquals(segments, DeadLetterLog.listSegments(directory).size());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+
+/**
+ * Compares the deduplication of a batch of records in {@link DynamoDBBuffer}, keyed by encoded keys, with a
+ * {@link HashMap} keyed by the attribute value maps, for batches of 1,000 to 100,000 records with a composite key and
+ * one update in four to an earlier key. Run its main method with the test classpath; it is not a test.
+ */
+public final class DynamoDBBufferBenchmark {
+
+    private static final int[] BATCH_SIZES = {1000, 10000, 100000};
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int MEASURED_ITERATIONS = 20;
+
+    private DynamoDBBufferBenchmark() {
+        // Main class only
+    }
+
+    public static void main(final String[] args) {
+        for (int batchSize : BATCH_SIZES) {
+            final List<Record> records = createRecords(batchSize);
+            final DynamoDBBuffer buffer = new DynamoDBBuffer(new DynamoDBStreamsConnectorConfiguration(new Properties(), null));
+            final Map<Map<String, AttributeValue>, Record> hashMap = new HashMap<Map<String, AttributeValue>, Record>();
+            long sink = 0;
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                sink += runBuffer(buffer, records) + runHashMap(hashMap, records);
+            }
+            long bufferNanos = 0;
+            long hashMapNanos = 0;
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                long start = System.nanoTime();
+                sink += runBuffer(buffer, records);
+                bufferNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                sink += runHashMap(hashMap, records);
+                hashMapNanos += System.nanoTime() - start;
+            }
+            System.out.println(String.format("batch=%d encodedKeyMap=%.1fns/record hashMap=%.1fns/record (%d)", batchSize,
+                (double) bufferNanos / MEASURED_ITERATIONS / batchSize, (double) hashMapNanos / MEASURED_ITERATIONS / batchSize, sink));
+        }
+    }
+
+    private static long runBuffer(final DynamoDBBuffer buffer, final List<Record> records) {
+        for (Record record : records) {
+            buffer.consumeRecord(record, 0, record.getDynamodb().getSequenceNumber());
+        }
+        final long size = buffer.getRecords().size();
+        buffer.clear();
+        return size;
+    }
+
+    private static long runHashMap(final Map<Map<String, AttributeValue>, Record> hashMap, final List<Record> records) {
+        for (Record record : records) {
+            hashMap.put(record.getDynamodb().getKeys(), record);
+        }
+        final long size = new ArrayList<Record>(hashMap.values()).size();
+        hashMap.clear();
+        return size;
+    }
+
+    private static List<Record> createRecords(final int batchSize) {
+        final List<Record> records = new ArrayList<Record>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            final int item = i % 4 == 3 ? i / 2 : i;
+            final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+            key.put("customerId", new AttributeValue().withS("customer-" + item / 10));
+            key.put("orderId", new AttributeValue().withN(Integer.toString(item)));
+            records.add(new Record().withEventName(OperationType.MODIFY).withDynamodb(
+                new StreamRecord().withSequenceNumber(Integer.toString(i)).withKeys(key)));
+        }
+        return records;
+    }
+}
@@ -7,8 +7,14 @@ package com.amazonaws.services.dynamodbv2.streams.connectors;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +26,7 @@ import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.OperationType;
 import com.amazonaws.services.dynamodbv2.model.Record;
 import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.model.StreamViewType;
 
 public class DynamoDBBufferTests {
     private static final String HASH_KEY = "hashKey";
@@ -60,6 +67,13 @@ public class DynamoDBBufferTests {
         return SEQ_NUM_PRE + seqNum;
     }
 
+    /**
+     * @return The record as the buffer returns it, without its old image
+     */
+    protected static Record buffered(Record record) {
+        return record.clone().withDynamodb(record.getDynamodb().clone().withOldImage(null));
+    }
+
     @Test
     public void sanityTest() {
         DynamoDBBuffer buffer = new DynamoDBBuffer(new DynamoDBStreamsConnectorConfiguration(new Properties(), null));
@@ -103,7 +117,7 @@ public class DynamoDBBufferTests {
         assertEquals(ITEM1_MODIFY.getDynamodb().getSequenceNumber(),buffer.getLastSequenceNumber());
         List<Record> buffered = buffer.getRecords();
         assertEquals(1, buffered.size());
-        assertTrue(buffered.contains(ITEM1_MODIFY));
+        assertTrue(buffered.contains(buffered(ITEM1_MODIFY)));
         assertFalse(buffered.contains(ITEM1_INSERT));
         assertTrue(buffer.shouldFlush());
     }
@@ -124,17 +138,112 @@ public class DynamoDBBufferTests {
         assertEquals(ITEM2_MODIFY.getDynamodb().getSequenceNumber(),buffer.getLastSequenceNumber());
         List<Record> buffered = buffer.getRecords();
         assertEquals(2, buffered.size());
-        assertTrue(buffered.contains(ITEM1_MODIFY));
+        assertTrue(buffered.contains(buffered(ITEM1_MODIFY)));
         assertFalse(buffered.contains(ITEM1_INSERT));
-        assertTrue(buffered.contains(ITEM2_MODIFY));
+        assertTrue(buffered.contains(buffered(ITEM2_MODIFY)));
         assertFalse(buffered.contains(ITEM2_INSERT));
         assertTrue(buffer.shouldFlush());
+        final Map<Map<String, AttributeValue>, Record> byKey = buffer.getBuffer();
+        assertEquals(2, byKey.size());
+        assertEquals(buffered(ITEM1_MODIFY), byKey.get(KEY1));
+        assertEquals(buffered(ITEM2_MODIFY), byKey.get(KEY2));
+    }
+
+    @Test
+    public void sequenceOrderTest() {
+        DynamoDBBuffer buffer = new DynamoDBBuffer(new DynamoDBStreamsConnectorConfiguration(new Properties(), null));
+
+        buffer.consumeRecord(ITEM1_INSERT, ITEM1_INSERT.getDynamodb().getSizeBytes().intValue(), ITEM1_INSERT
+            .getDynamodb().getSequenceNumber());
+        buffer.consumeRecord(ITEM2_INSERT, ITEM2_INSERT.getDynamodb().getSizeBytes().intValue(), ITEM2_INSERT
+            .getDynamodb().getSequenceNumber());
+        buffer.consumeRecord(ITEM1_MODIFY, ITEM1_MODIFY.getDynamodb().getSizeBytes().intValue(), ITEM1_MODIFY
+            .getDynamodb().getSequenceNumber());
+        // The newer record of the first key is emitted after the record of the second key
+        assertEquals(Arrays.asList(ITEM2_INSERT, buffered(ITEM1_MODIFY)), buffer.getRecords());
+    }
+
+    @Test
+    public void compactRecordTest() {
+        DynamoDBBuffer buffer = new DynamoDBBuffer(new DynamoDBStreamsConnectorConfiguration(new Properties(), null));
+        Record record = ITEM1_MODIFY.clone().withEventID("eventId").withAwsRegion("us-east-1")
+            .withDynamodb(ITEM1_MODIFY.getDynamodb().clone().withApproximateCreationDateTime(new Date(1000L)).withStreamViewType(StreamViewType.NEW_AND_OLD_IMAGES));
+        buffer.consumeRecord(record, 1, record.getDynamodb().getSequenceNumber());
+
+        // Only the fields written by the emitter are kept
+        Record rebuilt = buffer.getRecords().get(0);
+        assertEquals(ITEM1_MODIFY.getEventName(), rebuilt.getEventName());
+        assertNull(rebuilt.getEventID());
+        assertNull(rebuilt.getAwsRegion());
+        assertEquals(KEY1, rebuilt.getDynamodb().getKeys());
+        assertEquals(NEWITEM1, rebuilt.getDynamodb().getNewImage());
+        assertNull(rebuilt.getDynamodb().getOldImage());
+        assertNull(rebuilt.getDynamodb().getStreamViewType());
+        assertEquals(ITEM1_MODIFY.getDynamodb().getSequenceNumber(), rebuilt.getDynamodb().getSequenceNumber());
+        assertEquals(ITEM1_MODIFY.getDynamodb().getSizeBytes(), rebuilt.getDynamodb().getSizeBytes());
+        assertEquals(new Date(1000L), rebuilt.getDynamodb().getApproximateCreationDateTime());
+        // The same instances until the buffer changes
+        assertSame(rebuilt, buffer.getRecords().get(0));
+    }
+
+    @Test
+    public void lazyImageStaysEncodedTest() {
+        DynamoDBBuffer buffer = new DynamoDBBuffer(new DynamoDBStreamsConnectorConfiguration(new Properties(), null));
+        byte[] json = "{\"att\":{\"s\":\"1\"}}".getBytes(StandardCharsets.UTF_8);
+        LazyStreamRecord streamRecord = new LazyStreamRecord(json);
+        streamRecord.withKeys(KEY1).withSequenceNumber(getSequenceNumber(0));
+        streamRecord.setRawNewImage(0, json.length);
+        buffer.consumeRecord(new Record().withEventName(OperationType.MODIFY).withDynamodb(streamRecord), 1, getSequenceNumber(0));
+        // The image was not decoded to buffer the record
+        assertNotNull(streamRecord.copyRawNewImage());
+
+        Record rebuilt = buffer.getRecords().get(0);
+        assertTrue(rebuilt.getDynamodb() instanceof LazyStreamRecord);
+        assertEquals(KEY1, rebuilt.getDynamodb().getKeys());
+        assertEquals("1", rebuilt.getDynamodb().getNewImage().get("att").getS());
+    }
+
+    @Test
+    public void bufferedBytesTest() {
+        DynamoDBBuffer buffer = new DynamoDBBuffer(new DynamoDBStreamsConnectorConfiguration(new Properties(), null));
+        buffer.consumeRecord(ITEM1_INSERT, 100, ITEM1_INSERT.getDynamodb().getSequenceNumber());
+        buffer.consumeRecord(ITEM1_MODIFY, 150, ITEM1_MODIFY.getDynamodb().getSequenceNumber());
+        // The replaced record is still counted
+        assertEquals(1, buffer.getRecords().size());
+        assertEquals(250, buffer.getBufferedBytes());
+        buffer.clear();
+        assertEquals(0, buffer.getBufferedBytes());
+    }
+
+    @Test
+    public void coalescingTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_COALESCE_MILLIS, "50");
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_COALESCE_MAX_RECORDS, "2");
+        DynamoDBBuffer buffer = new DynamoDBBuffer(new DynamoDBStreamsConnectorConfiguration(properties, null));
+        assertTrue(buffer.isCoalescing());
+        assertEquals(50, buffer.getMillisecondsToBuffer());
+        assertEquals(2, buffer.getNumRecordsToBuffer());
+
+        buffer.consumeRecord(ITEM1_INSERT, 1, ITEM1_INSERT.getDynamodb().getSequenceNumber());
+        buffer.consumeRecord(ITEM1_MODIFY, 1, ITEM1_MODIFY.getDynamodb().getSequenceNumber());
+        assertFalse(buffer.shouldFlush());
+        // Flushed once the distinct keys reach the threshold
+        buffer.consumeRecord(ITEM2_INSERT, 1, ITEM2_INSERT.getDynamodb().getSequenceNumber());
+        assertTrue(buffer.shouldFlush());
+        buffer.clear();
+
+        // Flushed once the first record is old enough
+        buffer.consumeRecord(ITEM1_INSERT, 1, ITEM1_INSERT.getDynamodb().getSequenceNumber());
+        assertFalse(buffer.shouldFlush());
+        Thread.sleep(60);
+        assertTrue(buffer.shouldFlush());
     }
 
     @Test
     public void testBufferBounds(){
         DynamoDBBuffer buffer = new DynamoDBBuffer(new DynamoDBStreamsConnectorConfiguration(new Properties(), null));
-        assertEquals(1,buffer.getBytesToBuffer());
+        assertEquals(DynamoDBStreamsConnectorConfiguration.DEFAULT_BUFFER_MAX_BYTES,buffer.getBytesToBuffer());
         assertEquals(1,buffer.getNumRecordsToBuffer());
         assertEquals(Long.MAX_VALUE,buffer.getMillisecondsToBuffer());
     }
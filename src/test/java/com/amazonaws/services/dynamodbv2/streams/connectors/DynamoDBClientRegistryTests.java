@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClient;
+
+public class DynamoDBClientRegistryTests {
+    private static final ReplicationDestination REPLICA1 = new ReplicationDestination("us-west-2", "Replica", "http://localhost:8000");
+    private static final ReplicationDestination REPLICA2 = new ReplicationDestination("eu-west-1", "Replica", "http://localhost:8001");
+
+    private DynamoDBStreamsConnectorConfiguration configuration;
+    private DynamoDBClientRegistry registry;
+
+    @Before
+    public void setUp() {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_MAX_CONNECTIONS, "5");
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_CLIENT_THREADS, "5");
+        configuration = new DynamoDBStreamsConnectorConfiguration(properties, null);
+        registry = new DynamoDBClientRegistry(new AWSStaticCredentialsProvider(new BasicAWSCredentials("Access", "Secret")));
+    }
+
+    @Test
+    public void clientPerDestinationTest() {
+        final AmazonDynamoDBAsync client1 = registry.getDynamoDB(REPLICA1, configuration);
+        final AmazonDynamoDBAsync client2 = registry.getDynamoDB(REPLICA2, configuration);
+        assertSame(client1, registry.getDynamoDB(new ReplicationDestination("us-west-2", "Replica", "http://localhost:8000"), configuration));
+        assertNotSame(client1, client2);
+        assertNotSame(((AmazonDynamoDBAsyncClient) client1).getExecutorService(), ((AmazonDynamoDBAsyncClient) client2).getExecutorService());
+        assertEquals(2, registry.getDestinations().size());
+        registry.shutdown();
+    }
+
+    @Test
+    public void clientSettingsPerDestinationTest() {
+        final Map<String, Integer> settings = new HashMap<String, Integer>();
+        settings.put(DynamoDBStreamsConnectorConfiguration.PROP_CLIENT_THREADS, 20);
+        final ReplicationDestination busy = new ReplicationDestination("eu-west-1", "Busy", "http://localhost:8002", settings);
+        final AmazonDynamoDBAsyncClient client1 = (AmazonDynamoDBAsyncClient) registry.getDynamoDB(REPLICA1, configuration);
+        final AmazonDynamoDBAsyncClient client2 = (AmazonDynamoDBAsyncClient) registry.getDynamoDB(busy, configuration);
+        // The destination without settings gets the pool of the configuration
+        assertEquals(5, ((ThreadPoolExecutor) client1.getExecutorService()).getMaximumPoolSize());
+        assertEquals(20, ((ThreadPoolExecutor) client2.getExecutorService()).getMaximumPoolSize());
+        registry.shutdown();
+    }
+
+    @Test
+    public void parseClientSettingsTest() {
+        final ReplicationDestination destination = ReplicationDestination
+            .parse("eu-west-1:Replica:http://localhost:8000;maxConnections=200; requestTimeoutMillis = 5000");
+        assertEquals("http://localhost:8000", destination.getEndpoint());
+        assertEquals(200, destination.getClientSetting(DynamoDBStreamsConnectorConfiguration.PROP_MAX_CONNECTIONS, 5));
+        assertEquals(5000, destination.getClientSetting(DynamoDBStreamsConnectorConfiguration.PROP_REQUEST_TIMEOUT_MILLIS, 5));
+        assertEquals(5, destination.getClientSetting(DynamoDBStreamsConnectorConfiguration.PROP_CLIENT_THREADS, 5));
+        // Formatted settings are parsed back
+        assertEquals(destination.toString(), ReplicationDestination.parse(destination.toString()).toString());
+        assertEquals(2, ReplicationDestination.parse("eu-west-1:Replica;clientThreads=2").getClientSetting(
+            DynamoDBStreamsConnectorConfiguration.PROP_CLIENT_THREADS, 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownClientSettingTest() {
+        ReplicationDestination.parse("eu-west-1:Replica;maxThreads=2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveClientSettingTest() {
+        ReplicationDestination.parse("eu-west-1:Replica;maxConnections=0");
+    }
+
+    @Test
+    public void shutdownTest() {
+        final AmazonDynamoDBAsyncClient client = (AmazonDynamoDBAsyncClient) registry.getDynamoDB(REPLICA1, configuration);
+        registry.getCloudWatch();
+        registry.shutdown();
+        assertTrue(client.getExecutorService().isShutdown());
+        assertTrue(registry.getDestinations().isEmpty());
+        // Idempotent
+        registry.shutdown();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getAfterShutdownTest() {
+        registry.shutdown();
+        registry.getDynamoDB(REPLICA1, configuration);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+
+public class DynamoDBFanOutEmitterTests {
+
+    /**
+     * Destination that fails the records of the given sequence numbers, and reports the others as written.
+     */
+    private static final class StubEmitter implements IEmitter<Record>, ProgressAware {
+        private final Set<String> failing = Collections.synchronizedSet(new HashSet<String>());
+        private final List<List<Record>> emitted = Collections.synchronizedList(new ArrayList<List<Record>>());
+        private final List<Record> failed = Collections.synchronizedList(new ArrayList<Record>());
+        private boolean isShutdown = false;
+        private volatile ProgressAware.Listener listener;
+
+        @Override
+        public List<Record> emit(final UnmodifiableBuffer<Record> buffer) {
+            emitted.add(new ArrayList<Record>(buffer.getRecords()));
+            final List<Record> unprocessed = new ArrayList<Record>();
+            for (Record record : buffer.getRecords()) {
+                if (failing.contains(record.getDynamodb().getSequenceNumber())) {
+                    unprocessed.add(record);
+                } else if (null != listener) {
+                    listener.onWritten(record);
+                }
+            }
+            return unprocessed;
+        }
+
+        @Override
+        public void fail(final List<Record> records) {
+            failed.addAll(records);
+        }
+
+        @Override
+        public void shutdown() {
+            isShutdown = true;
+        }
+
+        @Override
+        public void setProgressListener(final ProgressAware.Listener listener) {
+            this.listener = listener;
+        }
+    }
+
+    private static Record createRecord(final String sequenceNumber) {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put("id", new AttributeValue().withS(sequenceNumber));
+        return new Record().withEventName(OperationType.INSERT)
+            .withDynamodb(new StreamRecord().withKeys(key).withNewImage(key).withSequenceNumber(sequenceNumber).withSizeBytes(1L));
+    }
+
+    private final Record record1 = createRecord("1");
+    private final Record record2 = createRecord("2");
+    private DynamoDBBuffer buffer;
+    private StubEmitter first;
+    private StubEmitter second;
+    private DynamoDBFanOutEmitter emitter;
+
+    @Before
+    public void setUp() {
+        buffer = new DynamoDBBuffer(new DynamoDBStreamsConnectorConfiguration(new Properties(), null));
+        buffer.consumeRecord(record1, 1, record1.getDynamodb().getSequenceNumber());
+        buffer.consumeRecord(record2, 1, record2.getDynamodb().getSequenceNumber());
+        first = new StubEmitter();
+        second = new StubEmitter();
+        emitter = new DynamoDBFanOutEmitter(Arrays.asList(first, second));
+    }
+
+    @Test
+    public void emitToAllDestinationsTest() throws Exception {
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(buffer)).isEmpty());
+        assertEquals(Collections.singletonList(Arrays.asList(record1, record2)), first.emitted);
+        assertEquals(Collections.singletonList(Arrays.asList(record1, record2)), second.emitted);
+    }
+
+    @Test
+    public void retryOnlyUnwrittenDestinationsTest() throws Exception {
+        second.failing.add("2");
+        final List<Record> unprocessed = emitter.emit(new UnmodifiableBuffer<Record>(buffer));
+        assertEquals(Collections.singletonList(record2), unprocessed);
+
+        // Retried like the record processor does: only the destination that failed the record writes it again
+        second.failing.clear();
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(buffer, unprocessed)).isEmpty());
+        assertEquals(1, first.emitted.size());
+        assertEquals(2, second.emitted.size());
+        assertEquals(Collections.singletonList(record2), second.emitted.get(1));
+    }
+
+    @Test
+    public void failOnlyOnFailingDestinationTest() throws Exception {
+        first.failing.add("1");
+        second.failing.add("2");
+        final List<Record> unprocessed = emitter.emit(new UnmodifiableBuffer<Record>(buffer));
+        assertEquals(Arrays.asList(record1, record2), unprocessed);
+        emitter.fail(unprocessed);
+        assertEquals(Collections.singletonList(record1), first.failed);
+        assertEquals(Collections.singletonList(record2), second.failed);
+
+        // The next buffer is written to every destination again
+        first.failing.clear();
+        second.failing.clear();
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(buffer)).isEmpty());
+        assertEquals(Arrays.asList(record1, record2), first.emitted.get(1));
+        assertEquals(Arrays.asList(record1, record2), second.emitted.get(1));
+    }
+
+    @Test
+    public void progressReportedOnceEveryDestinationWroteTest() throws Exception {
+        final List<Record> written = Collections.synchronizedList(new ArrayList<Record>());
+        emitter.setProgressListener(new ProgressAware.Listener() {
+            @Override
+            public void onWritten(final Record record) {
+                written.add(record);
+            }
+        });
+        second.failing.add("2");
+        final List<Record> unprocessed = emitter.emit(new UnmodifiableBuffer<Record>(buffer));
+        assertEquals(Collections.singletonList(record1), written);
+
+        // Only the second destination writes the record again, which completes it
+        second.failing.clear();
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(buffer, unprocessed)).isEmpty());
+        assertEquals(Arrays.asList(record1, record2), written);
+        assertNull(first.listener);
+        assertNull(second.listener);
+    }
+
+    @Test
+    public void shutdownAllDestinationsTest() {
+        emitter.shutdown();
+        assertTrue(first.isShutdown);
+        assertTrue(second.isShutdown);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.powermock.api.easymock.PowerMock.createMock;
+import static org.powermock.api.easymock.PowerMock.expectLastCall;
+import static org.powermock.api.easymock.PowerMock.replayAll;
+import static org.powermock.api.easymock.PowerMock.resetAll;
+import static org.powermock.api.easymock.PowerMock.verifyAll;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(DynamoDBReplicationEmitter.class)
+@PowerMockIgnore({"javax.management.*", "org.apache.log4j.*"})
+public class DynamoDBReplicationEmitterBatchWriteTests {
+    private static final AmazonDynamoDBAsync DYNAMODB = createMock(AmazonDynamoDBAsync.class);
+    private static final String TABLE = "TABLE";
+    private static final String HASH_KEY = "hashKey";
+
+    private static DynamoDBStreamsConnectorConfiguration createConfiguration() {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_BATCH_WRITE_ENABLED, "true");
+        return new DynamoDBStreamsConnectorConfiguration(properties, null);
+    }
+
+    private static DynamoDBBuffer createBuffer(final int numRecords) {
+        final DynamoDBBuffer buffer = new DynamoDBBuffer(createConfiguration());
+        for (int i = 0; i < numRecords; i++) {
+            final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+            key.put(HASH_KEY, new AttributeValue().withS("key" + i));
+            final StreamRecord streamRecord = new StreamRecord().withKeys(key).withNewImage(key).withSequenceNumber(String.valueOf(i))
+                .withSizeBytes(1L);
+            final OperationType operationType = i % 5 == 0 ? OperationType.REMOVE : OperationType.MODIFY;
+            buffer.consumeRecord(new Record().withEventName(operationType).withDynamodb(streamRecord), 1, streamRecord.getSequenceNumber());
+        }
+        return buffer;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void unprocessedItemsAreResubmittedTest() throws Exception {
+        final DynamoDBBuffer buffer = createBuffer(30);
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger itemsWritten = new AtomicInteger();
+
+        resetAll();
+        DYNAMODB.setEndpoint(EasyMock.anyString());
+        EasyMock.expectLastCall().anyTimes();
+        DYNAMODB.batchWriteItemAsync(anyObject(BatchWriteItemRequest.class), anyObject(AsyncHandler.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                final BatchWriteItemRequest request = (BatchWriteItemRequest) getCurrentArguments()[0];
+                final AsyncHandler<BatchWriteItemRequest, BatchWriteItemResult> handler =
+                    (AsyncHandler<BatchWriteItemRequest, BatchWriteItemResult>) getCurrentArguments()[1];
+                final List<WriteRequest> items = request.getRequestItems().get(TABLE);
+                assertTrue(items.size() <= DynamoDBConnectorConstants.BATCH_WRITE_ITEM_LIMIT);
+                final Map<String, List<WriteRequest>> unprocessed = new HashMap<String, List<WriteRequest>>();
+                if (requests.incrementAndGet() == 1) {
+                    // Leave two items of the first batch unprocessed
+                    unprocessed.put(TABLE, items.subList(0, 2));
+                }
+                itemsWritten.addAndGet(items.size() - (unprocessed.isEmpty() ? 0 : 2));
+                handler.onSuccess(request, new BatchWriteItemResult().withUnprocessedItems(unprocessed));
+                return null;
+            }
+        }).times(3);
+        replayAll();
+
+        final DynamoDBReplicationEmitter emitter = new DynamoDBReplicationEmitter("TEST", "ENDPOINT", "REGION", TABLE, DYNAMODB, null,
+            createConfiguration());
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(buffer)).isEmpty());
+        verifyAll();
+        // Two batches for 30 records, plus one request for the unprocessed items
+        assertEquals(3, requests.get());
+        assertEquals(30, itemsWritten.get());
+    }
+}
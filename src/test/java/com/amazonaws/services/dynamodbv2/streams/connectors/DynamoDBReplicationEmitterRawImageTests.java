@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.powermock.api.easymock.PowerMock.createMock;
+import static org.powermock.api.easymock.PowerMock.expectLastCall;
+import static org.powermock.api.easymock.PowerMock.replayAll;
+import static org.powermock.api.easymock.PowerMock.resetAll;
+import static org.powermock.api.easymock.PowerMock.verifyAll;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(DynamoDBReplicationEmitter.class)
+@PowerMockIgnore({"javax.management.*", "org.apache.log4j.*"})
+public class DynamoDBReplicationEmitterRawImageTests {
+    private static final AmazonDynamoDBAsync DYNAMODB = createMock(AmazonDynamoDBAsync.class);
+    private static final ObjectMapper MAPPER = DynamoDBStreamsRecordObjectMapper.getInstance();
+    private static final String TABLE = "TABLE";
+    private static final String HASH_KEY = "hashKey";
+    private static final String VERSION = "replicationVersion";
+
+    private static DynamoDBStreamsConnectorConfiguration createConfiguration() {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_VERSION_ATTRIBUTE, VERSION);
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_RAW_IMAGE_WRITES, "true");
+        return new DynamoDBStreamsConnectorConfiguration(properties, null);
+    }
+
+    /**
+     * @return The record decoded from its JSON, as read from the stream
+     */
+    private static Record createRecord(final String hashKey, final String sequenceNumber) throws Exception {
+        final Map<String, AttributeValue> key = Collections.singletonMap(HASH_KEY, new AttributeValue().withS(hashKey));
+        final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(key);
+        item.put("value", new AttributeValue().withN(sequenceNumber));
+        final Record record = new Record().withEventName(OperationType.MODIFY).withDynamodb(
+            new StreamRecord().withKeys(key).withNewImage(item).withSequenceNumber(sequenceNumber).withSizeBytes(1L));
+        return DynamoDBStreamsRecordTransformer.decode(ByteBuffer.wrap(MAPPER.writeValueAsBytes(record)));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void unreadImageIsSentRawTest() throws Exception {
+        final DynamoDBBuffer buffer = new DynamoDBBuffer(createConfiguration());
+        buffer.consumeRecord(createRecord("key0", "500"), 1, "500");
+        final Record read = createRecord("key1", "600");
+        // An image read before the write is sent as attribute values
+        assertEquals(2, read.getDynamodb().getNewImage().size());
+        buffer.consumeRecord(read, 1, "600");
+        final JsonNode expected = MAPPER.readTree("{\"" + HASH_KEY + "\":{\"S\":\"key0\"},\"value\":{\"N\":\"500\"},\"" + VERSION
+            + "\":{\"S\":\"" + DynamoDBReplicationEmitterVersionedTests.padded("500") + "\"}}");
+
+        resetAll();
+        DYNAMODB.setEndpoint(EasyMock.anyString());
+        EasyMock.expectLastCall().anyTimes();
+        DYNAMODB.putItemAsync(anyObject(PutItemRequest.class), anyObject(AsyncHandler.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                final PutItemRequest request = (PutItemRequest) getCurrentArguments()[0];
+                final String sequenceNumber = request.getExpressionAttributeValues().get(":version").getS();
+                if (sequenceNumber.equals(DynamoDBReplicationEmitterVersionedTests.padded("500"))) {
+                    assertTrue(request instanceof RawPutItemRequest);
+                    assertTrue(request.getItem().isEmpty());
+                    assertEquals(expected, MAPPER.readTree(((RawPutItemRequest) request).getRawItem()));
+                } else {
+                    assertFalse(request instanceof RawPutItemRequest);
+                    assertEquals(3, request.getItem().size());
+                }
+                assertTrue(request.getConditionExpression().contains("#version < :version"));
+                ((AsyncHandler<PutItemRequest, PutItemResult>) getCurrentArguments()[1]).onSuccess(request, new PutItemResult());
+                return null;
+            }
+        }).times(2);
+        replayAll();
+
+        final DynamoDBReplicationEmitter emitter = new DynamoDBReplicationEmitter("TEST", "ENDPOINT", "REGION", TABLE, DYNAMODB, null,
+            createConfiguration());
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(buffer)).isEmpty());
+        verifyAll();
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.InternalServerErrorException;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(DynamoDBReplicationEmitter.class)
+@PowerMockIgnore({"javax.management.*", "org.apache.log4j.*"})
+public class DynamoDBReplicationEmitterRetryTests {
+    private static final String TABLE = "TABLE";
+    private static final String HASH_KEY = "hashKey";
+    private static final long SEED = 42L;
+
+    private static final ExecutorService COMPLETIONS = Executors.newSingleThreadExecutor();
+
+    /**
+     * Stand-in destination that throttles the first writes of every key. Writes complete on the calling thread, or on
+     * another thread once released if a release latch is set.
+     */
+    private static final class ThrottlingDynamoDB extends AbstractAmazonDynamoDBAsync {
+        private final AtomicInteger requests = new AtomicInteger();
+        private final ConcurrentMap<String, AtomicInteger> attempts = new ConcurrentHashMap<String, AtomicInteger>();
+        private volatile int throttledAttempts;
+        private volatile CountDownLatch release;
+        private volatile long lastCompletionNanos;
+
+        @Override
+        public void setEndpoint(final String endpoint) {
+        }
+
+        @Override
+        public Future<PutItemResult> putItemAsync(final PutItemRequest request, final AsyncHandler<PutItemRequest, PutItemResult> handler) {
+            requests.incrementAndGet();
+            final String key = request.getItem().get(HASH_KEY).getS();
+            attempts.putIfAbsent(key, new AtomicInteger());
+            final boolean throttled = attempts.get(key).incrementAndGet() <= throttledAttempts;
+            final Runnable completion = new Runnable() {
+                @Override
+                public void run() {
+                    if (throttled) {
+                        handler.onError(new ProvisionedThroughputExceededException("Throttled"));
+                    } else {
+                        handler.onSuccess(request, new PutItemResult());
+                    }
+                }
+            };
+            final CountDownLatch latch = release;
+            if (null != latch) {
+                COMPLETIONS.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Uninterruptibles.awaitUninterruptibly(latch);
+                        completion.run();
+                        lastCompletionNanos = System.nanoTime();
+                    }
+                });
+            } else {
+                completion.run();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Backoff drawing its delays from a seeded generator and recording them instead of waiting them out: retries are
+     * submitted again at once, and the recorded delays stand in for the clock.
+     */
+    private static final class RecordingBackoff extends RetryBackoff {
+        private final List<Integer> attempts = Collections.synchronizedList(new ArrayList<Integer>());
+        private final List<Boolean> budgetSpent = Collections.synchronizedList(new ArrayList<Boolean>());
+        private final List<Long> delays = Collections.synchronizedList(new ArrayList<Long>());
+
+        private RecordingBackoff(final long baseDelayMillis, final long maxDelayMillis) {
+            super(baseDelayMillis, maxDelayMillis, new Random(SEED));
+        }
+
+        @Override
+        public synchronized long getDelayMillis(final int attempt, final boolean spent) {
+            attempts.add(attempt);
+            budgetSpent.add(spent);
+            delays.add(super.getDelayMillis(attempt, spent));
+            return 0;
+        }
+    }
+
+    private static DynamoDBStreamsConnectorConfiguration createConfiguration(final long baseDelayMillis, final long maxDelayMillis,
+        final int minRetryBudget, final double retryBudgetRatio) {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_RETRY_BASE_DELAY_MILLIS, String.valueOf(baseDelayMillis));
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_RETRY_MAX_DELAY_MILLIS, String.valueOf(maxDelayMillis));
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_MIN_RETRY_BUDGET, String.valueOf(minRetryBudget));
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_RETRY_BUDGET_RATIO, String.valueOf(retryBudgetRatio));
+        return new DynamoDBStreamsConnectorConfiguration(properties, null);
+    }
+
+    private static DynamoDBBuffer createBuffer(final DynamoDBStreamsConnectorConfiguration configuration, final int numRecords) {
+        final DynamoDBBuffer buffer = new DynamoDBBuffer(configuration);
+        for (int i = 0; i < numRecords; i++) {
+            final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+            key.put(HASH_KEY, new AttributeValue().withS("key" + i));
+            final StreamRecord streamRecord = new StreamRecord().withKeys(key).withNewImage(key).withSequenceNumber(String.valueOf(i))
+                .withSizeBytes(1L);
+            buffer.consumeRecord(new Record().withEventName(OperationType.MODIFY).withDynamodb(streamRecord), 1,
+                streamRecord.getSequenceNumber());
+        }
+        return buffer;
+    }
+
+    /**
+     * Each emitter is given its client, so every test gets a stand-in client of its own.
+     */
+    private ThrottlingDynamoDB dynamoDB;
+
+    @Before
+    public void setUp() {
+        dynamoDB = new ThrottlingDynamoDB();
+    }
+
+    @Test
+    public void backoffDelaysRetriesTest() {
+        final DynamoDBStreamsConnectorConfiguration configuration = createConfiguration(20, 200, 0, 1000000);
+        dynamoDB.throttledAttempts = 3;
+        final DynamoDBReplicationEmitter emitter = new DynamoDBReplicationEmitter("TEST", "ENDPOINT", "REGION", TABLE, dynamoDB, null,
+            configuration);
+        final RecordingBackoff backoff = new RecordingBackoff(20, 200);
+        emitter.setRetryBackoff(backoff);
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(createBuffer(configuration, 10))).isEmpty());
+        // Each record is throttled three times, then written
+        assertEquals(40, dynamoDB.requests.get());
+        assertEquals(30, backoff.attempts.size());
+        assertEquals(10, Collections.frequency(backoff.attempts, 0));
+        assertEquals(10, Collections.frequency(backoff.attempts, 1));
+        assertEquals(10, Collections.frequency(backoff.attempts, 2));
+        assertFalse(backoff.budgetSpent.contains(true));
+        // The delays of a record are drawn below 20, 40 and 80 ms, the same delays as another backoff with the seed draws
+        final RetryBackoff expected = new RetryBackoff(20, 200, new Random(SEED));
+        for (int i = 0; i < backoff.delays.size(); i++) {
+            final int attempt = backoff.attempts.get(i);
+            assertTrue(backoff.delays.get(i) < 20L << attempt);
+            assertEquals(expected.getDelayMillis(attempt, false), backoff.delays.get(i).longValue());
+        }
+    }
+
+    @Test
+    public void exhaustedRetryBudgetStretchesDelaysTest() {
+        final DynamoDBStreamsConnectorConfiguration configuration = createConfiguration(20, 200, 5, 0);
+        dynamoDB.throttledAttempts = 6;
+        final DynamoDBReplicationEmitter emitter = new DynamoDBReplicationEmitter("TEST", "ENDPOINT", "REGION", TABLE, dynamoDB, null,
+            configuration);
+        final RecordingBackoff backoff = new RecordingBackoff(20, 200);
+        emitter.setRetryBackoff(backoff);
+        // Throttled records are retried until they are written, never returned to the record processor
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(createBuffer(configuration, 3))).isEmpty());
+        assertEquals(21, dynamoDB.requests.get());
+        assertEquals(18, backoff.budgetSpent.size());
+        // Five retries within the budget, then the remaining thirteen after the largest delay
+        assertEquals(5, Collections.frequency(backoff.budgetSpent, false));
+        for (int i = 0; i < backoff.delays.size(); i++) {
+            if (backoff.budgetSpent.get(i)) {
+                assertTrue(backoff.delays.get(i) >= 100 && backoff.delays.get(i) < 200);
+            }
+        }
+    }
+
+    @Test
+    public void lastCompletionEndsEmitTest() throws Exception {
+        final DynamoDBStreamsConnectorConfiguration configuration = createConfiguration(0, 0, 0, 0);
+        final CountDownLatch release = new CountDownLatch(1);
+        dynamoDB.release = release;
+        final DynamoDBReplicationEmitter emitter = new DynamoDBReplicationEmitter("TEST", "ENDPOINT", "REGION", TABLE, dynamoDB, null,
+            configuration);
+        final UnmodifiableBuffer<Record> buffer = new UnmodifiableBuffer<Record>(createBuffer(configuration, 3));
+        final ExecutorService emitting = Executors.newSingleThreadExecutor();
+        try {
+            final AtomicLong returnedNanos = new AtomicLong();
+            final Future<List<Record>> failed = emitting.submit(new Callable<List<Record>>() {
+                @Override
+                public List<Record> call() throws Exception {
+                    final List<Record> unprocessed = emitter.emit(buffer);
+                    returnedNanos.set(System.nanoTime());
+                    return unprocessed;
+                }
+            });
+            // The emit waits for the writes it submitted, however long they take
+            Thread.sleep(50);
+            assertFalse(failed.isDone());
+            release.countDown();
+            // Then returns once the last of them completes, well within the 100 ms the loop used to poll for
+            assertTrue(failed.get(1, TimeUnit.SECONDS).isEmpty());
+            final long tailMs = TimeUnit.NANOSECONDS.toMillis(returnedNanos.get() - dynamoDB.lastCompletionNanos);
+            assertTrue("Emit returned " + tailMs + " ms after the last completion", tailMs < 50);
+            assertEquals(3, dynamoDB.requests.get());
+        } finally {
+            emitting.shutdownNow();
+        }
+    }
+
+    @Test
+    public void retryableExceptionsTest() {
+        assertTrue(DynamoDBReplicationEmitter.isRetryable(new ProvisionedThroughputExceededException("Throttled")));
+        assertTrue(DynamoDBReplicationEmitter.isRetryable(new InternalServerErrorException("Internal")));
+        assertTrue(DynamoDBReplicationEmitter.isRetryable(createServiceException("ThrottlingException", 400)));
+        assertTrue(DynamoDBReplicationEmitter.isRetryable(createServiceException("RequestLimitExceeded", 400)));
+        assertTrue(DynamoDBReplicationEmitter.isRetryable(createServiceException("ServiceUnavailable", 503)));
+        assertFalse(DynamoDBReplicationEmitter.isRetryable(createServiceException("ValidationException", 400)));
+    }
+
+    private static AmazonServiceException createServiceException(final String errorCode, final int statusCode) {
+        final AmazonServiceException exception = new AmazonServiceException(errorCode);
+        exception.setErrorCode(errorCode);
+        exception.setStatusCode(statusCode);
+        return exception;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.powermock.api.easymock.PowerMock.createMock;
+import static org.powermock.api.easymock.PowerMock.expectLastCall;
+import static org.powermock.api.easymock.PowerMock.replayAll;
+import static org.powermock.api.easymock.PowerMock.resetAll;
+import static org.powermock.api.easymock.PowerMock.verifyAll;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Future;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(DynamoDBReplicationEmitter.class)
+@PowerMockIgnore({"javax.management.*", "org.apache.log4j.*"})
+public class DynamoDBReplicationEmitterValidationTests {
+    private static final AmazonDynamoDBAsync DYNAMODB = createMock(AmazonDynamoDBAsync.class);
+    private static final String TABLE = "ValidatedTable";
+    private static final String HASH_KEY = "hashKey";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void invalidRecordsFailWithoutRequestTest() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_PREFLIGHT_VALIDATION, "true");
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_DEAD_LETTER_DIRECTORY, folder.getRoot().getPath());
+        final DynamoDBStreamsConnectorConfiguration configuration = new DynamoDBStreamsConnectorConfiguration(properties, null);
+        final DynamoDBBuffer buffer = new DynamoDBBuffer(configuration);
+        final Map<String, AttributeValue> validKey = new HashMap<String, AttributeValue>();
+        validKey.put(HASH_KEY, new AttributeValue().withS("valid"));
+        final Map<String, AttributeValue> invalidKey = new HashMap<String, AttributeValue>();
+        invalidKey.put(HASH_KEY, new AttributeValue().withN("1"));
+        final Record valid = new Record().withEventName(OperationType.INSERT).withDynamodb(new StreamRecord().withKeys(validKey)
+            .withNewImage(validKey).withSequenceNumber("1").withSizeBytes(1L));
+        final Record invalid = new Record().withEventName(OperationType.INSERT).withDynamodb(new StreamRecord().withKeys(invalidKey)
+            .withNewImage(invalidKey).withSequenceNumber("2").withSizeBytes(1L));
+        buffer.consumeRecord(valid, 1, "1");
+        buffer.consumeRecord(invalid, 1, "2");
+
+        resetAll();
+        DYNAMODB.setEndpoint(EasyMock.anyString());
+        EasyMock.expectLastCall().anyTimes();
+        // The table is described when the emitter is created, in the background
+        EasyMock.expect(DYNAMODB.describeTableAsync(anyObject(DescribeTableRequest.class), anyObject(AsyncHandler.class))).andAnswer(
+            new IAnswer<Future<DescribeTableResult>>() {
+                @Override
+                public Future<DescribeTableResult> answer() throws Throwable {
+                    ((AsyncHandler<DescribeTableRequest, DescribeTableResult>) getCurrentArguments()[1]).onSuccess(
+                        (DescribeTableRequest) getCurrentArguments()[0], new DescribeTableResult().withTable(new TableDescription()
+                            .withKeySchema(new KeySchemaElement(HASH_KEY, KeyType.HASH))
+                            .withAttributeDefinitions(new AttributeDefinition(HASH_KEY, ScalarAttributeType.S))));
+                    return null;
+                }
+            });
+        // Only the valid record is written
+        DYNAMODB.putItemAsync(anyObject(PutItemRequest.class), anyObject(AsyncHandler.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                final PutItemRequest request = (PutItemRequest) getCurrentArguments()[0];
+                assertEquals("valid", request.getItem().get(HASH_KEY).getS());
+                ((AsyncHandler<PutItemRequest, PutItemResult>) getCurrentArguments()[1]).onSuccess(request, new PutItemResult());
+                return null;
+            }
+        });
+        replayAll();
+
+        final DynamoDBReplicationEmitter emitter = new DynamoDBReplicationEmitter("TEST", "ENDPOINT", "REGION", TABLE, DYNAMODB, null,
+            configuration);
+        final List<Record> reported = new ArrayList<Record>();
+        emitter.setProgressListener(new ProgressAware.Listener() {
+            @Override
+            public void onWritten(final Record record) {
+                reported.add(record);
+            }
+        });
+        // The invalid record is failed at once instead of being returned for the record processor to retry
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(buffer)).isEmpty());
+        verifyAll();
+        assertEquals(2, reported.size());
+        final Iterator<Record> deadLetters = DeadLetterLog.read(folder.getRoot());
+        assertEquals(invalid.getDynamodb().getSequenceNumber(), deadLetters.next().getDynamodb().getSequenceNumber());
+        assertFalse(deadLetters.hasNext());
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.powermock.api.easymock.PowerMock.createMock;
+import static org.powermock.api.easymock.PowerMock.expectLastCall;
+import static org.powermock.api.easymock.PowerMock.replayAll;
+import static org.powermock.api.easymock.PowerMock.resetAll;
+import static org.powermock.api.easymock.PowerMock.verifyAll;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(DynamoDBReplicationEmitter.class)
+@PowerMockIgnore({"javax.management.*", "org.apache.log4j.*"})
+public class DynamoDBReplicationEmitterVersionedTests {
+    private final AmazonDynamoDBAsync dynamoDB = createMock(AmazonDynamoDBAsync.class);
+    private static final String TABLE = "TABLE";
+    private static final String HASH_KEY = "hashKey";
+    private static final String VERSION = "replicationVersion";
+    private static final String ORIGIN = "replicationOrigin";
+
+    private static DynamoDBStreamsConnectorConfiguration createConfiguration() {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_VERSION_ATTRIBUTE, VERSION);
+        return new DynamoDBStreamsConnectorConfiguration(properties, null);
+    }
+
+    private static Record createRecord(final OperationType operationType, final String hashKey, final String sequenceNumber) {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put(HASH_KEY, new AttributeValue().withS(hashKey));
+        final StreamRecord streamRecord = new StreamRecord().withKeys(key).withNewImage(key).withSequenceNumber(sequenceNumber)
+            .withSizeBytes(1L);
+        return new Record().withEventName(operationType).withDynamodb(streamRecord);
+    }
+
+    static String padded(final String sequenceNumber) {
+        final StringBuilder version = new StringBuilder();
+        while (version.length() + sequenceNumber.length() < DynamoDBConnectorConstants.SEQUENCE_NUMBER_VERSION_LENGTH) {
+            version.append('0');
+        }
+        return version.append(sequenceNumber).toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void staleWritesAreRejectedTest() throws Exception {
+        final DynamoDBBuffer buffer = new DynamoDBBuffer(createConfiguration());
+        final Record put = createRecord(OperationType.MODIFY, "key0", "500");
+        final Record delete = createRecord(OperationType.REMOVE, "key1", "700");
+        buffer.consumeRecord(put, 1, "500");
+        buffer.consumeRecord(delete, 1, "700");
+
+        resetAll();
+        dynamoDB.setEndpoint(EasyMock.anyString());
+        EasyMock.expectLastCall().anyTimes();
+        dynamoDB.putItemAsync(anyObject(PutItemRequest.class), anyObject(AsyncHandler.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                final PutItemRequest request = (PutItemRequest) getCurrentArguments()[0];
+                assertEquals(padded("500"), request.getItem().get(VERSION).getS());
+                assertEquals(VERSION, request.getExpressionAttributeNames().get("#version"));
+                assertEquals(padded("500"), request.getExpressionAttributeValues().get(":version").getS());
+                assertTrue(request.getConditionExpression().contains("#version < :version"));
+                // The destination already holds a newer version of the item
+                ((AsyncHandler<PutItemRequest, PutItemResult>) getCurrentArguments()[1]).onError(new ConditionalCheckFailedException("Stale"));
+                return null;
+            }
+        });
+        dynamoDB.deleteItemAsync(anyObject(DeleteItemRequest.class), anyObject(AsyncHandler.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                final DeleteItemRequest request = (DeleteItemRequest) getCurrentArguments()[0];
+                assertEquals(padded("700"), request.getExpressionAttributeValues().get(":version").getS());
+                assertTrue(request.getConditionExpression().contains("#version < :version"));
+                ((AsyncHandler<DeleteItemRequest, DeleteItemResult>) getCurrentArguments()[1]).onSuccess(request, new DeleteItemResult());
+                return null;
+            }
+        });
+        replayAll();
+
+        final DynamoDBReplicationEmitter emitter = new DynamoDBReplicationEmitter("TEST", "ENDPOINT", "REGION", TABLE, dynamoDB, null,
+            createConfiguration());
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(buffer)).isEmpty());
+        verifyAll();
+        assertEquals(1, emitter.getStaleWritesRejected());
+        // The stream record is not modified by stamping the version
+        assertEquals(1, put.getDynamodb().getNewImage().size());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void originIsStampedTest() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_VERSION_ATTRIBUTE, VERSION);
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_ORIGIN_ATTRIBUTE, ORIGIN);
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_ORIGIN_ID, "us-east-1:Source");
+        final DynamoDBStreamsConnectorConfiguration configuration = new DynamoDBStreamsConnectorConfiguration(properties, null);
+        final DynamoDBBuffer buffer = new DynamoDBBuffer(configuration);
+        final Record put = createRecord(OperationType.INSERT, "key0", "500");
+        buffer.consumeRecord(put, 1, "500");
+
+        resetAll();
+        dynamoDB.setEndpoint(EasyMock.anyString());
+        EasyMock.expectLastCall().anyTimes();
+        dynamoDB.putItemAsync(anyObject(PutItemRequest.class), anyObject(AsyncHandler.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                final PutItemRequest request = (PutItemRequest) getCurrentArguments()[0];
+                assertEquals(padded("500"), request.getItem().get(VERSION).getS());
+                assertEquals("us-east-1:Source#500", request.getItem().get(ORIGIN).getS());
+                ((AsyncHandler<PutItemRequest, PutItemResult>) getCurrentArguments()[1]).onSuccess(request, new PutItemResult());
+                return null;
+            }
+        });
+        replayAll();
+
+        final DynamoDBReplicationEmitter emitter = new DynamoDBReplicationEmitter("TEST", "ENDPOINT", "REGION", TABLE, dynamoDB, null,
+            configuration);
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(buffer)).isEmpty());
+        verifyAll();
+        assertEquals(1, put.getDynamodb().getNewImage().size());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void deletesAreConditionalOnOriginTest() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_ORIGIN_ATTRIBUTE, ORIGIN);
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_ORIGIN_ID, "us-east-1:Source");
+        final DynamoDBStreamsConnectorConfiguration configuration = new DynamoDBStreamsConnectorConfiguration(properties, null);
+        final DynamoDBBuffer buffer = new DynamoDBBuffer(configuration);
+        buffer.consumeRecord(createRecord(OperationType.REMOVE, "key0", "700"), 1, "700");
+
+        resetAll();
+        dynamoDB.setEndpoint(EasyMock.anyString());
+        EasyMock.expectLastCall().anyTimes();
+        dynamoDB.deleteItemAsync(anyObject(DeleteItemRequest.class), anyObject(AsyncHandler.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                final DeleteItemRequest request = (DeleteItemRequest) getCurrentArguments()[0];
+                assertEquals("begins_with(#origin, :origin)", request.getConditionExpression());
+                assertEquals(ORIGIN, request.getExpressionAttributeNames().get("#origin"));
+                assertEquals("us-east-1:Source#", request.getExpressionAttributeValues().get(":origin").getS());
+                assertFalse(request.getExpressionAttributeNames().containsKey("#version"));
+                // The destination table wrote the item again after the delete this one echoes
+                ((AsyncHandler<DeleteItemRequest, DeleteItemResult>) getCurrentArguments()[1]).onError(new ConditionalCheckFailedException("Kept"));
+                return null;
+            }
+        });
+        replayAll();
+
+        final DynamoDBReplicationEmitter emitter = new DynamoDBReplicationEmitter("TEST", "ENDPOINT", "REGION", TABLE, dynamoDB, null,
+            configuration);
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(buffer)).isEmpty());
+        verifyAll();
+        assertEquals(1, emitter.getStaleWritesRejected());
+    }
+
+    private static DynamoDBBuffer createBuffer(final Record record) {
+        final DynamoDBBuffer buffer = new DynamoDBBuffer(createConfiguration());
+        buffer.consumeRecord(record, 1, record.getDynamodb().getSequenceNumber());
+        return buffer;
+    }
+
+    /**
+     * A delete removes the item together with its version, so the version condition cannot reject a put older than the
+     * delete that arrives after it, for example when a failed record is replayed from the dead letter log. The put
+     * recreates the item. This is a known limitation of versioned writes.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void stalePutAfterDeleteRecreatesItemTest() throws Exception {
+        // The versions of the items of the destination table, evaluating the version condition of each write
+        final Map<String, String> versions = new HashMap<String, String>();
+        resetAll();
+        dynamoDB.setEndpoint(EasyMock.anyString());
+        EasyMock.expectLastCall().anyTimes();
+        dynamoDB.putItemAsync(anyObject(PutItemRequest.class), anyObject(AsyncHandler.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                final PutItemRequest request = (PutItemRequest) getCurrentArguments()[0];
+                final AsyncHandler<PutItemRequest, PutItemResult> handler = (AsyncHandler<PutItemRequest, PutItemResult>) getCurrentArguments()[1];
+                final String key = request.getItem().get(HASH_KEY).getS();
+                final String version = request.getExpressionAttributeValues().get(":version").getS();
+                if (versions.containsKey(key) && versions.get(key).compareTo(version) >= 0) {
+                    handler.onError(new ConditionalCheckFailedException("Stale"));
+                } else {
+                    versions.put(key, version);
+                    handler.onSuccess(request, new PutItemResult());
+                }
+                return null;
+            }
+        }).anyTimes();
+        dynamoDB.deleteItemAsync(anyObject(DeleteItemRequest.class), anyObject(AsyncHandler.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                final DeleteItemRequest request = (DeleteItemRequest) getCurrentArguments()[0];
+                final AsyncHandler<DeleteItemRequest, DeleteItemResult> handler = (AsyncHandler<DeleteItemRequest, DeleteItemResult>) getCurrentArguments()[1];
+                final String key = request.getKey().get(HASH_KEY).getS();
+                final String version = request.getExpressionAttributeValues().get(":version").getS();
+                if (versions.containsKey(key) && versions.get(key).compareTo(version) >= 0) {
+                    handler.onError(new ConditionalCheckFailedException("Stale"));
+                } else {
+                    versions.remove(key);
+                    handler.onSuccess(request, new DeleteItemResult());
+                }
+                return null;
+            }
+        }).anyTimes();
+        replayAll();
+
+        final DynamoDBReplicationEmitter emitter = new DynamoDBReplicationEmitter("TEST", "ENDPOINT", "REGION", TABLE, dynamoDB, null,
+            createConfiguration());
+        // While the item exists, its version rejects an older put
+        emitter.emit(new UnmodifiableBuffer<Record>(createBuffer(createRecord(OperationType.INSERT, "key0", "500"))));
+        emitter.emit(new UnmodifiableBuffer<Record>(createBuffer(createRecord(OperationType.MODIFY, "key0", "400"))));
+        assertEquals(padded("500"), versions.get("key0"));
+        assertEquals(1, emitter.getStaleWritesRejected());
+        // Once deleted, the item has no version left, and a put older than the delete recreates it
+        emitter.emit(new UnmodifiableBuffer<Record>(createBuffer(createRecord(OperationType.REMOVE, "key0", "700"))));
+        assertFalse(versions.containsKey("key0"));
+        emitter.emit(new UnmodifiableBuffer<Record>(createBuffer(createRecord(OperationType.MODIFY, "key0", "600"))));
+        assertEquals(padded("600"), versions.get("key0"));
+        assertEquals(1, emitter.getStaleWritesRejected());
+        verifyAll();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(DynamoDBReplicationEmitter.class)
+@PowerMockIgnore({"javax.management.*", "org.apache.log4j.*"})
+public class DynamoDBReplicationEmitterWriteCapacityTests {
+    private static final String TABLE = "WriteCapacityTable";
+    private static final String HASH_KEY = "hashKey";
+    private static final double CEILING = 200;
+    private static final double UNITS_PER_WRITE = 2;
+
+    /**
+     * Stand-in destination reporting a fixed consumed capacity for every write.
+     */
+    private static final class ConsumedCapacityDynamoDB extends AbstractAmazonDynamoDBAsync {
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger requestsWithoutConsumedCapacity = new AtomicInteger();
+
+        @Override
+        public void setEndpoint(final String endpoint) {
+        }
+
+        @Override
+        public Future<PutItemResult> putItemAsync(final PutItemRequest request, final AsyncHandler<PutItemRequest, PutItemResult> handler) {
+            requests.incrementAndGet();
+            if (!ReturnConsumedCapacity.TOTAL.toString().equals(request.getReturnConsumedCapacity())) {
+                requestsWithoutConsumedCapacity.incrementAndGet();
+            }
+            handler.onSuccess(request, new PutItemResult().withConsumedCapacity(new ConsumedCapacity().withTableName(TABLE)
+                .withCapacityUnits(UNITS_PER_WRITE)));
+            return null;
+        }
+    }
+
+    @Test
+    public void writesArePacedUnderCeilingTest() {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_MAX_WRITE_CAPACITY_UNITS, String.valueOf(CEILING));
+        final DynamoDBStreamsConnectorConfiguration configuration = new DynamoDBStreamsConnectorConfiguration(properties, null);
+        final DynamoDBBuffer buffer = new DynamoDBBuffer(configuration);
+        final int numRecords = 150;
+        for (int i = 0; i < numRecords; i++) {
+            final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+            key.put(HASH_KEY, new AttributeValue().withS("key" + i));
+            final StreamRecord streamRecord = new StreamRecord().withKeys(key).withNewImage(key).withSequenceNumber(String.valueOf(i))
+                .withSizeBytes(1L);
+            buffer.consumeRecord(new Record().withEventName(OperationType.INSERT).withDynamodb(streamRecord), 1,
+                streamRecord.getSequenceNumber());
+        }
+        final ConsumedCapacityDynamoDB dynamodb = new ConsumedCapacityDynamoDB();
+        final DynamoDBReplicationEmitter emitter = new DynamoDBReplicationEmitter("TEST", "ENDPOINT", "REGION", TABLE, dynamodb, null,
+            configuration);
+
+        final long startNanos = System.nanoTime();
+        assertTrue(emitter.emit(new UnmodifiableBuffer<Record>(buffer)).isEmpty());
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        assertEquals(numRecords, dynamodb.requests.get());
+        assertEquals(0, dynamodb.requestsWithoutConsumedCapacity.get());
+        // 300 units were consumed: one second of burst, and the rest at 200 units per second
+        final double expectedMs = (numRecords * UNITS_PER_WRITE - CEILING) / CEILING * 1000;
+        assertTrue("Emit took " + elapsedMs + " ms", elapsedMs >= expectedMs * 0.8);
+    }
+}
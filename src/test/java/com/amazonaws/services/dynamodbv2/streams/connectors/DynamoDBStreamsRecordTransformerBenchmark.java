@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares decoding the JSON of a DynamoDB Streams record from its bytes, as {@link DynamoDBStreamsRecordTransformer}
+ * does, with decoding it from a string copied out of the bytes, for records with new and old images of about 1 KB,
+ * 10 KB and 100 KB. The records decoded from their bytes are measured both with their new image read, as for a record
+ * that is written, and without, as for a record replaced in the buffer. Run its main method with the test classpath;
+ * it is not a test.
+ */
+public final class DynamoDBStreamsRecordTransformerBenchmark {
+
+    private static final int[] ITEM_SIZES = {1024, 10 * 1024, 100 * 1024};
+    private static final int ATTRIBUTE_SIZE = 64;
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int MEASURED_ITERATIONS = 2000;
+    private static final ObjectMapper MAPPER = DynamoDBStreamsRecordObjectMapper.getInstance();
+
+    private DynamoDBStreamsRecordTransformerBenchmark() {
+        // Main class only
+    }
+
+    public static void main(final String[] args) throws IOException {
+        for (int itemSize : ITEM_SIZES) {
+            final ByteBuffer data = ByteBuffer.wrap(MAPPER.writeValueAsBytes(createRecord(itemSize)));
+            long sink = 0;
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                sink += runKeys(data) + runBytes(data) + runString(data);
+            }
+            long keysNanos = 0;
+            long bytesNanos = 0;
+            long stringNanos = 0;
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                long start = System.nanoTime();
+                sink += runKeys(data);
+                keysNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                sink += runBytes(data);
+                bytesNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                sink += runString(data);
+                stringNanos += System.nanoTime() - start;
+            }
+            System.out.println(String.format("json=%dB keys=%.1fus/record bytes=%.1fus/record string=%.1fus/record (%d)", data.remaining(),
+                keysNanos / 1000.0 / MEASURED_ITERATIONS, bytesNanos / 1000.0 / MEASURED_ITERATIONS, stringNanos / 1000.0 / MEASURED_ITERATIONS,
+                sink));
+        }
+    }
+
+    private static long runKeys(final ByteBuffer data) throws IOException {
+        return DynamoDBStreamsRecordTransformer.decode(data).getDynamodb().getKeys().size();
+    }
+
+    private static long runBytes(final ByteBuffer data) throws IOException {
+        return DynamoDBStreamsRecordTransformer.decode(data).getDynamodb().getNewImage().size();
+    }
+
+    private static long runString(final ByteBuffer data) throws IOException {
+        return MAPPER.readValue(new String(data.array(), StandardCharsets.UTF_8), Record.class).getDynamodb().getNewImage().size();
+    }
+
+    private static Record createRecord(final int itemSize) {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put("customerId", new AttributeValue().withS("customer-1"));
+        key.put("orderId", new AttributeValue().withN("1"));
+        final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(key);
+        final StringBuilder value = new StringBuilder();
+        while (value.length() < ATTRIBUTE_SIZE) {
+            value.append("abcdefghij");
+        }
+        for (int i = 0; i < itemSize / ATTRIBUTE_SIZE; i++) {
+            item.put("attribute" + i, i % 2 == 0 ? new AttributeValue().withS(value.toString()) : new AttributeValue().withN(Integer.toString(i)));
+        }
+        return new Record().withEventName(OperationType.MODIFY).withDynamodb(
+            new StreamRecord().withSequenceNumber("1").withKeys(key).withNewImage(item).withOldImage(item).withSizeBytes((long) itemSize * 2));
+    }
+}
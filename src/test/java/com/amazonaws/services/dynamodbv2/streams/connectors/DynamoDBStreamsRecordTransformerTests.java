@@ -5,8 +5,14 @@
  */
 package com.amazonaws.services.dynamodbv2.streams.connectors;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -65,4 +71,57 @@ public class DynamoDBStreamsRecordTransformerTests {
         Record validKinesisRecord = new Record().withData(ByteBuffer.wrap(MAPPER.writeValueAsBytes(VALID_DDB_RECORD)));
         TRANSFORMER.toClass(validKinesisRecord);
     }
+
+    @Test
+    public void testRecordInPartOfBuffer() throws IOException {
+        byte[] json = MAPPER.writeValueAsBytes(VALID_DDB_RECORD);
+        byte[] padded = new byte[json.length + 8];
+        Arrays.fill(padded, (byte) '#');
+        System.arraycopy(json, 0, padded, 3, json.length);
+        // Between a position and a limit, and in a slice with an array offset
+        ByteBuffer data = ByteBuffer.wrap(padded, 3, json.length);
+        assertDecoded(TRANSFORMER.toClass(new Record().withData(data)));
+        assertEquals(3, data.position());
+        assertDecoded(TRANSFORMER.toClass(new Record().withData(data.slice())));
+    }
+
+    @Test
+    public void testRecordInDirectBuffer() throws IOException {
+        byte[] json = MAPPER.writeValueAsBytes(VALID_DDB_RECORD);
+        ByteBuffer data = ByteBuffer.allocateDirect(json.length);
+        data.put(json).flip();
+        assertDecoded(TRANSFORMER.toClass(new Record().withData(data)));
+        assertEquals(0, data.position());
+    }
+
+    @Test
+    public void testImagesDecodedLazily() throws IOException {
+        com.amazonaws.services.dynamodbv2.model.Record record = TRANSFORMER.toClass(new Record().withData(ByteBuffer.wrap(MAPPER.writeValueAsBytes(VALID_DDB_RECORD))));
+        assertTrue(record.getDynamodb() instanceof LazyStreamRecord);
+        LazyStreamRecord streamRecord = (LazyStreamRecord) record.getDynamodb();
+        assertEquals("hashKeyValue", streamRecord.getKeys().get("hashKey").getS());
+        assertEquals(StreamViewType.NEW_AND_OLD_IMAGES.toString(), streamRecord.getStreamViewType());
+        assertNotNull(streamRecord.copyRawNewImage());
+        assertDecoded(record);
+        assertNull(streamRecord.copyRawNewImage());
+        assertEquals("hashKeyValue", streamRecord.getOldImage().get("hashKey").getS());
+    }
+
+    @Test
+    public void testImageWithBracketsInStrings() throws IOException {
+        String json = "{\"eventName\":\"INSERT\",\"dynamodb\":{\"newImage\":{\"a\":{\"s\":\"}\\\"{[\"},\"b\":{\"l\":[{\"s\":\"x\"}]}},"
+            + "\"keys\":{\"a\":{\"s\":\"}\\\"{[\"}},\"oldImage\":null,\"sequenceNumber\":\"1\"}}";
+        com.amazonaws.services.dynamodbv2.model.Record record = TRANSFORMER.toClass(new Record().withData(ByteBuffer.wrap(json.getBytes("UTF-8"))));
+        assertEquals("1", record.getDynamodb().getSequenceNumber());
+        assertNull(record.getDynamodb().getOldImage());
+        assertEquals("}\"{[", record.getDynamodb().getNewImage().get("a").getS());
+        assertEquals("x", record.getDynamodb().getNewImage().get("b").getL().get(0).getS());
+    }
+
+    private static void assertDecoded(com.amazonaws.services.dynamodbv2.model.Record record) {
+        assertEquals(VALID_DDB_RECORD.getEventName(), record.getEventName());
+        assertEquals(STREAM_RECORD.getSequenceNumber(), record.getDynamodb().getSequenceNumber());
+        assertEquals("hashKeyValue", record.getDynamodb().getKeys().get("hashKey").getS());
+        assertEquals("newAttributeValue", record.getDynamodb().getNewImage().get("newAttributeKey").getS());
+    }
 }
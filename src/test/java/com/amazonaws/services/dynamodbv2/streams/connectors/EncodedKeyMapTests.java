@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+
+public class EncodedKeyMapTests {
+
+    private static byte[] key(final String hash, final String range) {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put("hash", new AttributeValue().withS(hash));
+        if (null != range) {
+            key.put("range", new AttributeValue().withN(range));
+        }
+        return AttributeValueCodec.encodeKey(key);
+    }
+
+    @Test
+    public void replacesValueOfEqualKeyTest() {
+        final EncodedKeyMap<String> map = new EncodedKeyMap<String>();
+        assertNull(map.put(key("a", "1"), "first"));
+        assertNull(map.put(key("a", "2"), "second"));
+        assertEquals("first", map.put(key("a", "1"), "third"));
+        assertEquals(2, map.size());
+        assertEquals("third", map.get(key("a", "1")));
+        assertNull(map.get(key("a", null)));
+        // The replaced key keeps its position
+        assertEquals(Arrays.asList("third", "second"), map.values());
+    }
+
+    @Test
+    public void putLastMovesKeyToEndTest() {
+        final EncodedKeyMap<String> map = new EncodedKeyMap<String>();
+        map.putLast(key("a", "1"), "first");
+        map.putLast(key("a", "2"), "second");
+        assertEquals("first", map.putLast(key("a", "1"), "third"));
+        assertEquals("third", map.putLast(key("a", "1"), "fourth"));
+        assertEquals(2, map.size());
+        assertEquals("fourth", map.get(key("a", "1")));
+        assertEquals(Arrays.asList("second", "fourth"), map.values());
+    }
+
+    @Test
+    public void putLastCompactsTest() {
+        final EncodedKeyMap<Integer> map = new EncodedKeyMap<Integer>();
+        final int keys = 100;
+        // Every round leaves a removed entry behind for each key
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < keys; i++) {
+                map.putLast(key("item" + i, null), round * keys + i);
+            }
+        }
+        map.putLast(key("item0", null), -1);
+        assertEquals(keys, map.size());
+        final List<Integer> values = map.values();
+        assertEquals(keys, values.size());
+        for (int i = 1; i < keys; i++) {
+            assertEquals(Integer.valueOf(99 * keys + i), values.get(i - 1));
+            assertEquals(Integer.valueOf(99 * keys + i), map.get(key("item" + i, null)));
+        }
+        assertEquals(Integer.valueOf(-1), values.get(keys - 1));
+    }
+
+    @Test
+    public void binaryKeysTest() {
+        final EncodedKeyMap<String> map = new EncodedKeyMap<String>();
+        final byte[] bytes = new byte[] {0, 1, (byte) 0xFF};
+        map.put(AttributeValueCodec.encodeKey(Collections.singletonMap("id", new AttributeValue().withB(ByteBuffer.wrap(bytes)))), "first");
+        map.put(AttributeValueCodec.encodeKey(Collections.singletonMap("id", new AttributeValue().withB(ByteBuffer.wrap(bytes.clone())))), "second");
+        assertEquals(Collections.singletonList("second"), map.values());
+    }
+
+    @Test
+    public void growTest() {
+        final EncodedKeyMap<Integer> map = new EncodedKeyMap<Integer>();
+        final int keys = 10000;
+        for (int i = 0; i < keys; i++) {
+            map.put(key("item" + i, Integer.toString(i % 7)), i);
+        }
+        for (int i = 0; i < keys; i++) {
+            map.put(key("item" + i, Integer.toString(i % 7)), -i);
+        }
+        assertEquals(keys, map.size());
+        final List<Integer> values = map.values();
+        for (int i = 0; i < keys; i++) {
+            assertEquals(Integer.valueOf(-i), map.get(key("item" + i, Integer.toString(i % 7))));
+            assertEquals(Integer.valueOf(-i), values.get(i));
+        }
+    }
+
+    @Test
+    public void clearTest() {
+        final EncodedKeyMap<String> map = new EncodedKeyMap<String>();
+        map.put(key("a", "1"), "first");
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(key("a", "1")));
+        assertNull(map.put(key("a", "1"), "second"));
+        assertEquals(Collections.singletonList("second"), map.values());
+    }
+
+    @Test
+    public void hashDependsOnEveryByteTest() {
+        final byte[] key = new byte[19];
+        final long hash = EncodedKeyMap.hash(key);
+        for (int i = 0; i < key.length; i++) {
+            final byte[] changed = key.clone();
+            changed[i] = 1;
+            assertNotEquals(hash, EncodedKeyMap.hash(changed));
+        }
+        assertNotEquals(hash, EncodedKeyMap.hash(new byte[20]));
+    }
+}
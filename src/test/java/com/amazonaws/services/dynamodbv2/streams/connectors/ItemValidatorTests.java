@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.easymock.IAnswer;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsync;
+import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.ScalarAttributeType;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+
+public class ItemValidatorTests {
+    private static final String SKU_CODE = "skuCode";
+    private static final String STORE = "store";
+
+    /**
+     * @return A client describing the table once, completing the call before it returns
+     */
+    @SuppressWarnings("unchecked")
+    private static AmazonDynamoDBAsync describing(final String tableName) {
+        final AmazonDynamoDBAsync dynamodb = createMock(AmazonDynamoDBAsync.class);
+        final TableDescription table = new TableDescription().withTableName(tableName)
+            .withKeySchema(new KeySchemaElement(SKU_CODE, KeyType.HASH), new KeySchemaElement(STORE, KeyType.RANGE))
+            .withAttributeDefinitions(new AttributeDefinition(SKU_CODE, ScalarAttributeType.S), new AttributeDefinition(STORE, ScalarAttributeType.N));
+        expect(dynamodb.describeTableAsync(anyObject(DescribeTableRequest.class), anyObject(AsyncHandler.class))).andAnswer(
+            new IAnswer<Future<DescribeTableResult>>() {
+                @Override
+                public Future<DescribeTableResult> answer() throws Throwable {
+                    final DescribeTableRequest request = (DescribeTableRequest) getCurrentArguments()[0];
+                    assertEquals(tableName, request.getTableName());
+                    ((AsyncHandler<DescribeTableRequest, DescribeTableResult>) getCurrentArguments()[1]).onSuccess(request,
+                        new DescribeTableResult().withTable(table));
+                    return null;
+                }
+            }).once();
+        replay(dynamodb);
+        return dynamodb;
+    }
+
+    private static Record createRecord(final OperationType operationType, final Map<String, AttributeValue> key, final Map<String, AttributeValue> item) {
+        return new Record().withEventName(operationType).withDynamodb(new StreamRecord().withKeys(key).withNewImage(item));
+    }
+
+    private static Map<String, AttributeValue> createKey(final AttributeValue skuCode, final AttributeValue store) {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put(SKU_CODE, skuCode);
+        key.put(STORE, store);
+        return key;
+    }
+
+    private static Map<String, AttributeValue> createItem(final Map<String, AttributeValue> key, final String attributeName, final String value) {
+        final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(key);
+        item.put(attributeName, new AttributeValue().withS(value));
+        return item;
+    }
+
+    private static String repeat(final char c, final int length) {
+        final char[] chars = new char[length];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void validRecordsTest() {
+        final AmazonDynamoDBAsync dynamodb = describing("validTable");
+        final ItemValidator validator = new ItemValidator("ENDPOINT", "validTable", 0);
+        validator.describe(dynamodb);
+        final Map<String, AttributeValue> key = createKey(new AttributeValue().withS("sku"), new AttributeValue().withN("7"));
+        assertNull(validator.validate(createRecord(OperationType.INSERT, key, createItem(key, "count", "5"))));
+        assertNull(validator.validate(createRecord(OperationType.REMOVE, key, null)));
+        assertEquals(SKU_CODE, validator.getPartitionKeyAttribute());
+        // The table is described once
+        validator.describe(dynamodb);
+        verify(dynamodb);
+    }
+
+    @Test
+    public void oversizedItemTest() {
+        final ItemValidator validator = new ItemValidator("ENDPOINT", "oversizedTable", 0);
+        validator.describe(describing("oversizedTable"));
+        final Map<String, AttributeValue> key = createKey(new AttributeValue().withS("sku"), new AttributeValue().withN("7"));
+        final String value = repeat('x', (int) DynamoDBConnectorConstants.MAX_ITEM_SIZE_BYTES - 100);
+        final Record record = createRecord(OperationType.MODIFY, key, createItem(key, "data", value));
+        assertNull(validator.validate(record));
+        // The bytes reserved for the version attribute push the item over the limit
+        assertTrue(new ItemValidator("ENDPOINT", "oversizedTable", 100).validate(record).contains("Item size"));
+    }
+
+    @Test
+    public void keySchemaMismatchTest() {
+        final ItemValidator validator = new ItemValidator("ENDPOINT", "mismatchTable", 0);
+        validator.describe(describing("mismatchTable"));
+        final Map<String, AttributeValue> wrongType = createKey(new AttributeValue().withS("sku"), new AttributeValue().withS("seven"));
+        assertTrue(validator.validate(createRecord(OperationType.INSERT, wrongType, wrongType)).contains("not of type N"));
+
+        final Map<String, AttributeValue> missing = new HashMap<String, AttributeValue>();
+        missing.put(SKU_CODE, new AttributeValue().withS("sku"));
+        assertTrue(validator.validate(createRecord(OperationType.INSERT, missing, missing)).contains("missing"));
+
+        final Map<String, AttributeValue> extra = createItem(createKey(new AttributeValue().withS("sku"), new AttributeValue().withN("7")), "other", "x");
+        assertNotNull(validator.validate(createRecord(OperationType.REMOVE, extra, null)));
+
+        final Map<String, AttributeValue> longKey = createKey(new AttributeValue().withS(repeat('k', 2049)), new AttributeValue().withN("7"));
+        assertTrue(validator.validate(createRecord(OperationType.REMOVE, longKey, null)).contains("exceeds"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void describeFailureChecksSizeOnlyTest() {
+        final AmazonDynamoDBAsync dynamodb = createMock(AmazonDynamoDBAsync.class);
+        expect(dynamodb.describeTableAsync(anyObject(DescribeTableRequest.class), anyObject(AsyncHandler.class))).andAnswer(
+            new IAnswer<Future<DescribeTableResult>>() {
+                @Override
+                public Future<DescribeTableResult> answer() throws Throwable {
+                    ((AsyncHandler<DescribeTableRequest, DescribeTableResult>) getCurrentArguments()[1]).onError(
+                        new AmazonServiceException("Access denied"));
+                    return null;
+                }
+            }).once();
+        replay(dynamodb);
+        final ItemValidator validator = new ItemValidator("ENDPOINT", "undescribedTable", 0);
+        validator.describe(dynamodb);
+        final Map<String, AttributeValue> wrongType = createKey(new AttributeValue().withS("sku"), new AttributeValue().withS("seven"));
+        assertNull(validator.validate(createRecord(OperationType.INSERT, wrongType, wrongType)));
+        // The table is not described again right after a failure
+        validator.describe(dynamodb);
+        assertNull(validator.validate(createRecord(OperationType.INSERT, wrongType, wrongType)));
+        verify(dynamodb);
+    }
+
+    @Test
+    public void undescribedTableChecksSizeOnlyTest() {
+        // The table is being described, validation does not wait for it
+        final ItemValidator validator = new ItemValidator("ENDPOINT", "describingTable", 0);
+        final Map<String, AttributeValue> wrongType = createKey(new AttributeValue().withS("sku"), new AttributeValue().withS("seven"));
+        assertNull(validator.validate(createRecord(OperationType.INSERT, wrongType, wrongType)));
+        assertNull(validator.getPartitionKeyAttribute());
+    }
+}
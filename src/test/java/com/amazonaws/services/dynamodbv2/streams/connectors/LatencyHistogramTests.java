@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTests {
+
+    @Test
+    public void percentilesTest() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100000; micros++) {
+            histogram.record(micros);
+        }
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshotThenReset();
+        assertEquals(100000, snapshot.getCount());
+        assertEquals(100000, snapshot.getMax());
+        assertWithinPrecision(50000, snapshot.getValueAtPercentile(50));
+        assertWithinPrecision(99000, snapshot.getValueAtPercentile(99));
+        assertWithinPrecision(99900, snapshot.getValueAtPercentile(99.9));
+        assertEquals(100000, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void smallValuesAreExactTest() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(7);
+        histogram.record(-5);
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshotThenReset();
+        assertEquals(3, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(0));
+        assertEquals(3, snapshot.getValueAtPercentile(50));
+        assertEquals(7, snapshot.getValueAtPercentile(99.9));
+    }
+
+    @Test
+    public void resetTest() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.snapshotThenReset();
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshotThenReset();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getMax());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void beyondTrackableRangeTest() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final long huge = LatencyHistogram.MAX_TRACKABLE_MICROS * 4;
+        histogram.record(huge);
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshotThenReset();
+        assertEquals(huge, snapshot.getMax());
+        assertWithinPrecision(LatencyHistogram.MAX_TRACKABLE_MICROS, snapshot.getValueAtPercentile(50));
+    }
+
+    private static void assertWithinPrecision(final long expected, final long actual) {
+        assertTrue("Expected " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.MetricDatum;
+import com.amazonaws.services.cloudwatch.model.PutMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.cloudwatch.model.StatisticSet;
+import com.amazonaws.services.dynamodbv2.streams.connectors.PipelineStats.ShardStats;
+import com.amazonaws.services.dynamodbv2.streams.connectors.PipelineStats.Stage;
+import com.google.common.base.Ticker;
+
+public class LocalMetricsEndpointTests {
+    private static final String NAMESPACE = "Task";
+    private static final String SHARD_ID = "shardId-1";
+
+    private LocalMetricsCloudWatch metrics;
+    private PipelineStats stats;
+    private LocalMetricsEndpoint endpoint;
+
+    @Before
+    public void setUp() {
+        metrics = new LocalMetricsCloudWatch();
+        stats = new PipelineStats();
+        endpoint = new LocalMetricsEndpoint(metrics, stats);
+        final Dimension table = new Dimension().withName("TableName").withValue("Replica");
+        for (int i = 0; i < 2; i++) {
+            metrics.putMetricDataAsync(new PutMetricDataRequest().withNamespace(NAMESPACE).withMetricData(
+                new MetricDatum().withMetricName("RecordsWritten").withUnit(StandardUnit.Count).withValue(5.0).withDimensions(table),
+                new MetricDatum().withMetricName("ReplicationLagP99").withUnit(StandardUnit.Milliseconds).withValue(12.5 + i).withDimensions(table)));
+        }
+        // As KCL publishes its metrics
+        metrics.putMetricData(new PutMetricDataRequest().withNamespace(NAMESPACE).withMetricData(new MetricDatum()
+            .withMetricName("RecordsProcessed").withUnit(StandardUnit.Count)
+            .withStatisticValues(new StatisticSet().withSampleCount(2.0).withSum(30.0).withMinimum(10.0).withMaximum(20.0))));
+        final ShardStats shardStats = stats.newShardStats();
+        shardStats.record(Stage.EMIT, TimeUnit.MILLISECONDS.toNanos(1500), 3, 0);
+        shardStats.setBufferedRecords(7);
+        stats.register(SHARD_ID, shardStats);
+    }
+
+    @After
+    public void tearDown() {
+        endpoint.close();
+    }
+
+    @Test
+    public void scrapeTest() {
+        final String text = endpoint.scrape();
+        assertTrue(text, text.contains("# TYPE dynamodb_replication_records_written_total counter\n"
+            + "dynamodb_replication_records_written_total{namespace=\"Task\",table_name=\"Replica\"} 10\n"));
+        assertTrue(text, text.contains("# TYPE dynamodb_replication_replication_lag_p99 gauge\n"
+            + "dynamodb_replication_replication_lag_p99{namespace=\"Task\",table_name=\"Replica\"} 13.5\n"));
+        assertTrue(text, text.contains("dynamodb_replication_records_processed_sum{namespace=\"Task\"} 30\n"));
+        assertTrue(text, text.contains("dynamodb_replication_records_processed_count{namespace=\"Task\"} 2\n"));
+        assertTrue(text, text.contains("dynamodb_replication_records_processed_max{namespace=\"Task\"} 20\n"));
+        assertTrue(text, text.contains("dynamodb_replication_pipeline_buffered_records{shard_id=\"shardId-1\"} 7\n"));
+        assertTrue(text, text.contains("dynamodb_replication_pipeline_stage_seconds_total{shard_id=\"shardId-1\",stage=\"emit\"} 1.5\n"));
+        assertTrue(text, text.contains("dynamodb_replication_pipeline_stage_records_total{shard_id=\"shardId-1\",stage=\"emit\"} 3\n"));
+    }
+
+    @Test
+    public void httpAndJmxTest() throws Exception {
+        endpoint.start(0);
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + endpoint.getPort() + LocalMetricsEndpoint.PATH)
+            .openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/plain"));
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            final byte[] chunk = new byte[4096];
+            for (int read = in.read(chunk); read >= 0; read = in.read(chunk)) {
+                body.write(chunk, 0, read);
+            }
+        }
+        assertEquals(endpoint.scrape(), new String(body.toByteArray(), StandardCharsets.UTF_8));
+
+        final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(LocalMetricsEndpoint.OBJECT_NAME);
+        assertEquals(10.0, (Double) mbeanServer.getAttribute(name,
+            "dynamodb_replication_records_written_total{namespace=\"Task\",table_name=\"Replica\"}"), 0);
+        endpoint.close();
+        assertFalse(mbeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void loopbackByDefaultTest() throws Exception {
+        endpoint.start(0);
+        assertTrue(endpoint.getAddress().isLoopbackAddress());
+        endpoint.close();
+        endpoint.start("0.0.0.0", 0);
+        assertTrue(endpoint.getAddress().isAnyLocalAddress());
+    }
+
+    @Test
+    public void idleSeriesExpireTest() {
+        final AtomicLong nanos = new AtomicLong();
+        final LocalMetricsCloudWatch expiring = new LocalMetricsCloudWatch(1000, new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        });
+        final MetricDatum shard1 = new MetricDatum().withMetricName("RecordsWritten").withUnit(StandardUnit.Count).withValue(1.0)
+            .withDimensions(new Dimension().withName("ShardId").withValue("shard1"));
+        final MetricDatum shard2 = new MetricDatum().withMetricName("RecordsWritten").withUnit(StandardUnit.Count).withValue(1.0)
+            .withDimensions(new Dimension().withName("ShardId").withValue("shard2"));
+        expiring.putMetricData(new PutMetricDataRequest().withNamespace(NAMESPACE).withMetricData(shard1, shard2));
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        expiring.putMetricData(new PutMetricDataRequest().withNamespace(NAMESPACE).withMetricData(shard2));
+        assertEquals(2, expiring.getSeries().size());
+        // The first shard is idle for longer than the expiry
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+        final Map<String, LocalMetricsCloudWatch.Series> series = expiring.getSeries();
+        assertEquals(1, series.size());
+        final LocalMetricsCloudWatch.Series remaining = series.values().iterator().next();
+        assertEquals("shard2", remaining.getLabels().get("shard_id"));
+        assertEquals(2, remaining.getValue(), 0);
+        // A series put to again starts over
+        expiring.putMetricData(new PutMetricDataRequest().withNamespace(NAMESPACE).withMetricData(shard1));
+        assertEquals(2, expiring.getSeries().size());
+    }
+
+    @Test
+    public void snakeCaseTest() {
+        assertEquals("records_written", LocalMetricsCloudWatch.toSnakeCase("RecordsWritten"));
+        assertEquals("replication_lag_p999", LocalMetricsCloudWatch.toSnakeCase("ReplicationLagP999"));
+        assertEquals("kinesis_data_fetcher_get_records_time", LocalMetricsCloudWatch.toSnakeCase("KinesisDataFetcher.getRecords.Time"));
+        assertEquals("dynamo_db_table", LocalMetricsCloudWatch.toSnakeCase("DynamoDBTable"));
+    }
+}
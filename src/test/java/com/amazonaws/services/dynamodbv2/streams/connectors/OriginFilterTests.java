@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.kinesis.connectors.impl.AllPassFilter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IFilter;
+
+public class OriginFilterTests {
+
+    private static final String ORIGIN = "origin";
+    private static final String SOURCE = "us-east-1:Source";
+    private static final String REPLICA = "eu-west-1:Replica";
+
+    private final OriginFilter filter = new OriginFilter(ORIGIN, SOURCE, new AllPassFilter<Record>());
+
+    private static Map<String, AttributeValue> createImage(final String marker) {
+        final Map<String, AttributeValue> image = new HashMap<String, AttributeValue>();
+        image.put("hashKey", new AttributeValue().withS("key0"));
+        image.put("value", new AttributeValue().withN("1"));
+        if (null != marker) {
+            image.put(ORIGIN, new AttributeValue().withS(marker));
+        }
+        return image;
+    }
+
+    private static Record createRecord(final OperationType operationType, final String newMarker, final String oldMarker) {
+        final StreamRecord streamRecord = new StreamRecord().withKeys(createImage(null)).withSequenceNumber("700");
+        if (operationType != OperationType.REMOVE) {
+            streamRecord.setNewImage(createImage(newMarker));
+        }
+        if (operationType != OperationType.INSERT) {
+            streamRecord.setOldImage(createImage(oldMarker));
+        }
+        return new Record().withEventName(operationType).withDynamodb(streamRecord);
+    }
+
+    private static Record decode(final Record record) throws Exception {
+        final Record decoded = DynamoDBStreamsRecordTransformer.decode(
+            ByteBuffer.wrap(DynamoDBStreamsRecordObjectMapper.getInstance().writeValueAsBytes(record)));
+        assertTrue(decoded.getDynamodb() instanceof LazyStreamRecord);
+        return decoded;
+    }
+
+    @Test
+    public void replicatedWritesAreDroppedTest() {
+        assertFalse(filter.keepRecord(createRecord(OperationType.INSERT, OriginFilter.getMarker(REPLICA, "1"), null)));
+        assertFalse(filter.keepRecord(createRecord(OperationType.MODIFY, OriginFilter.getMarker(REPLICA, "2"), null)));
+        assertFalse(filter.keepRecord(
+            createRecord(OperationType.MODIFY, OriginFilter.getMarker(REPLICA, "2"), OriginFilter.getMarker(REPLICA, "1"))));
+    }
+
+    @Test
+    public void applicationWritesAreKeptTest() {
+        // Puts without marker, including over a replicated item
+        assertTrue(filter.keepRecord(createRecord(OperationType.INSERT, null, null)));
+        assertTrue(filter.keepRecord(createRecord(OperationType.MODIFY, null, OriginFilter.getMarker(REPLICA, "1"))));
+        // An update of a replicated item that keeps its marker
+        assertTrue(filter.keepRecord(
+            createRecord(OperationType.MODIFY, OriginFilter.getMarker(REPLICA, "1"), OriginFilter.getMarker(REPLICA, "1"))));
+        // Deletes carry no marker
+        assertTrue(filter.keepRecord(createRecord(OperationType.REMOVE, null, OriginFilter.getMarker(REPLICA, "1"))));
+        // Markers of this origin are not foreign
+        assertTrue(filter.keepRecord(createRecord(OperationType.INSERT, OriginFilter.getMarker(SOURCE, "1"), null)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void updateWithoutOldImageIsRefusedTest() {
+        final Record record = createRecord(OperationType.MODIFY, OriginFilter.getMarker(REPLICA, "1"), null);
+        record.getDynamodb().setOldImage(null);
+        filter.keepRecord(record);
+    }
+
+    @Test
+    public void updateWithoutOldImageOrMarkerIsKeptTest() {
+        final Record record = createRecord(OperationType.MODIFY, null, null);
+        record.getDynamodb().setOldImage(null);
+        assertTrue(filter.keepRecord(record));
+    }
+
+    @Test
+    public void markersAreReadWithoutDecodingImagesTest() throws Exception {
+        final Record replicated = decode(
+            createRecord(OperationType.MODIFY, OriginFilter.getMarker(REPLICA, "2"), OriginFilter.getMarker(REPLICA, "1")));
+        assertFalse(filter.keepRecord(replicated));
+        final Record updated = decode(
+            createRecord(OperationType.MODIFY, OriginFilter.getMarker(REPLICA, "1"), OriginFilter.getMarker(REPLICA, "1")));
+        assertTrue(filter.keepRecord(updated));
+        assertNotNull(((LazyStreamRecord) updated.getDynamodb()).copyRawNewImage());
+        assertEquals(3, updated.getDynamodb().getNewImage().size());
+    }
+
+    @Test
+    public void nextFilterIsAppliedTest() {
+        final OriginFilter chained = new OriginFilter(ORIGIN, SOURCE, new IFilter<Record>() {
+            @Override
+            public boolean keepRecord(final Record record) {
+                return !OperationType.REMOVE.toString().equals(record.getEventName());
+            }
+        });
+        assertTrue(chained.keepRecord(createRecord(OperationType.INSERT, null, null)));
+        assertFalse(chained.keepRecord(createRecord(OperationType.REMOVE, null, null)));
+    }
+}
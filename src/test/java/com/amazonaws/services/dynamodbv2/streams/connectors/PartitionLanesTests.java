@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+
+public class PartitionLanesTests {
+    private static final String SKU_CODE = "skuCode";
+    private static final String STORE = "store";
+
+    private static Record createRecord(final String skuCode, final String store) {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put(SKU_CODE, new AttributeValue().withS(skuCode));
+        key.put(STORE, new AttributeValue().withS(store));
+        return new Record().withEventName(OperationType.MODIFY).withDynamodb(new StreamRecord().withKeys(key).withNewImage(key));
+    }
+
+    /**
+     * Six records for sku A followed by one record each for skus B and C.
+     */
+    private static List<Record> createSkewedRecords() {
+        final List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 6; i++) {
+            records.add(createRecord("A", "store" + i));
+        }
+        records.add(createRecord("B", "store0"));
+        records.add(createRecord("C", "store0"));
+        return records;
+    }
+
+    private static String getSkuCode(final Record record) {
+        return record.getDynamodb().getKeys().get(SKU_CODE).getS();
+    }
+
+    @Test
+    public void startInterleavesPartitionsTest() {
+        final PartitionLanes lanes = new PartitionLanes(createSkewedRecords(), SKU_CODE, 2, 0.5, 1);
+        assertEquals(3, lanes.getLaneCount());
+        final List<Record> started = lanes.start();
+        final List<String> skuCodes = new ArrayList<String>();
+        for (Record record : started) {
+            skuCodes.add(getSkuCode(record));
+        }
+        // One write per partition per round, at most two writes of the hot partition in flight
+        assertEquals("[A, B, C, A]", skuCodes.toString());
+    }
+
+    @Test
+    public void completionReleasesNextWriteOfSamePartitionTest() {
+        final List<Record> records = createSkewedRecords();
+        final PartitionLanes lanes = new PartitionLanes(records, SKU_CODE, 2, 0.5, 1);
+        lanes.start();
+        assertSame(records.get(2), lanes.onComplete(records.get(0)));
+        assertNull(lanes.onComplete(records.get(6)));
+        assertSame(records.get(3), lanes.onComplete(records.get(1)));
+        assertSame(records.get(4), lanes.onComplete(records.get(2)));
+        assertSame(records.get(5), lanes.onComplete(records.get(3)));
+        assertNull(lanes.onComplete(records.get(4)));
+    }
+
+    @Test
+    public void hotPartitionsTest() {
+        final PartitionLanes lanes = new PartitionLanes(createSkewedRecords(), SKU_CODE, 2, 0.5, 1);
+        final Map<Object, Integer> hot = lanes.getHotPartitions();
+        assertEquals(1, hot.size());
+        assertEquals(Integer.valueOf(6), hot.get(new AttributeValue().withS("A")));
+    }
+
+    @Test
+    public void compositeKeyWithoutPartitionKeyAttributeTest() {
+        final PartitionLanes lanes = new PartitionLanes(createSkewedRecords(), null, 2, 0.5, 1);
+        // Every item is its own lane, so all records start and none is hot
+        assertEquals(8, lanes.getLaneCount());
+        assertEquals(8, lanes.start().size());
+        assertTrue(lanes.getHotPartitions().isEmpty());
+    }
+}
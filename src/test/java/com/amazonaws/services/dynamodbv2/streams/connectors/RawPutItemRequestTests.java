@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.util.IOUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class RawPutItemRequestTests {
+
+    private static final ObjectMapper MAPPER = DynamoDBStreamsRecordObjectMapper.getInstance();
+
+    private static Map<String, AttributeValue> createItem() {
+        final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+        item.put("key", new AttributeValue().withS("key0"));
+        item.put("number", new AttributeValue().withN("1.5"));
+        item.put("binary", new AttributeValue().withB(ByteBuffer.wrap(new byte[] {1, 2, 3})));
+        item.put("strings", new AttributeValue().withSS("a", "b"));
+        item.put("numbers", new AttributeValue().withNS("1", "2"));
+        item.put("binaries", new AttributeValue().withBS(ByteBuffer.wrap(new byte[] {1})));
+        item.put("map", new AttributeValue().withM(new HashMap<String, AttributeValue>()));
+        item.get("map").getM().put("nested", new AttributeValue().withS("{\"S\":\"x\"}"));
+        item.put("list", new AttributeValue().withL(new AttributeValue().withN("1"), new AttributeValue().withNULL(true)));
+        item.put("null", new AttributeValue().withNULL(true));
+        item.put("bool", new AttributeValue().withBOOL(false));
+        return item;
+    }
+
+    private static final String EXPECTED_ITEM = "{\"key\":{\"S\":\"key0\"},\"number\":{\"N\":\"1.5\"},\"binary\":{\"B\":\"AQID\"},"
+        + "\"strings\":{\"SS\":[\"a\",\"b\"]},\"numbers\":{\"NS\":[\"1\",\"2\"]},\"binaries\":{\"BS\":[\"AQ==\"]},"
+        + "\"map\":{\"M\":{\"nested\":{\"S\":\"{\\\"S\\\":\\\"x\\\"}\"}}},\"list\":{\"L\":[{\"N\":\"1\"},{\"NULL\":true}]},"
+        + "\"null\":{\"NULL\":true},\"bool\":{\"BOOL\":false}}";
+
+    private static byte[] transcode(final Map<String, AttributeValue> item, final Map<String, String> stringAttributes) throws IOException {
+        // The image in the middle of the bytes of a record
+        final byte[] image = MAPPER.writeValueAsBytes(item);
+        final byte[] json = new byte[image.length + 20];
+        Arrays.fill(json, (byte) ' ');
+        System.arraycopy(image, 0, json, 10, image.length);
+        return RawPutItemRequest.transcodeItem(json, 10, image.length, stringAttributes);
+    }
+
+    @Test
+    public void transcodeItemTest() throws IOException {
+        assertEquals(MAPPER.readTree(EXPECTED_ITEM), MAPPER.readTree(transcode(createItem(), Collections.<String, String>emptyMap())));
+    }
+
+    @Test
+    public void transcodeItemWithVersionTest() throws IOException {
+        final Map<String, AttributeValue> item = createItem();
+        // The version of the image is replaced
+        item.put("version", new AttributeValue().withS("old"));
+        final String expected = EXPECTED_ITEM.substring(0, EXPECTED_ITEM.length() - 1) + ",\"version\":{\"S\":\"0042\"}}";
+        assertEquals(MAPPER.readTree(expected), MAPPER.readTree(transcode(item, Collections.singletonMap("version", "0042"))));
+    }
+
+    @Test(expected = IOException.class)
+    public void transcodeInvalidItemTest() throws IOException {
+        final byte[] json = "{\"key\":{\"x\":\"key0\"}}".getBytes(StandardCharsets.UTF_8);
+        RawPutItemRequest.transcodeItem(json, 0, json.length, Collections.<String, String>emptyMap());
+    }
+
+    @Test
+    public void equalsComparesRawItemsTest() {
+        final byte[] item = "{\"key\":{\"S\":\"key0\"}}".getBytes(StandardCharsets.UTF_8);
+        final PutItemRequest request = new RawPutItemRequest(item).withTableName("table");
+        assertEquals(request, new RawPutItemRequest(item.clone()).withTableName("table"));
+        assertNotEquals(request, new RawPutItemRequest("{}".getBytes(StandardCharsets.UTF_8)).withTableName("table"));
+        assertNotEquals(request, new PutItemRequest().withTableName("table").withItem(request.getItem()));
+    }
+
+    @Test
+    public void handlerSplicesItemTest() throws IOException {
+        final byte[] item = "{\"key\":{\"S\":\"key0\"}}".getBytes(StandardCharsets.UTF_8);
+        final DefaultRequest<PutItemRequest> request = new DefaultRequest<PutItemRequest>(new RawPutItemRequest(item), "AmazonDynamoDBv2");
+        final byte[] body = "{\"TableName\":\"table\",\"Item\":{},\"ConditionExpression\":\"c\"}".getBytes(StandardCharsets.UTF_8);
+        request.setContent(new ByteArrayInputStream(body));
+        request.addHeader("Content-Length", Integer.toString(body.length));
+
+        new RawPutItemRequestHandler().beforeRequest(request);
+        final String expected = "{\"TableName\":\"table\",\"Item\":{\"key\":{\"S\":\"key0\"}},\"ConditionExpression\":\"c\"}";
+        assertEquals(expected, new String(IOUtils.toByteArray(request.getContent()), StandardCharsets.UTF_8));
+        assertEquals(Integer.toString(expected.length()), request.getHeaders().get("Content-Length"));
+    }
+
+    @Test
+    public void handlerIgnoresOtherRequestsTest() {
+        final DefaultRequest<PutItemRequest> request = new DefaultRequest<PutItemRequest>(new PutItemRequest(), "AmazonDynamoDBv2");
+        final ByteArrayInputStream content = new ByteArrayInputStream("{\"Item\":{}}".getBytes(StandardCharsets.UTF_8));
+        request.setContent(content);
+        new RawPutItemRequestHandler().beforeRequest(request);
+        assertSame(content, request.getContent());
+    }
+
+    @Test(expected = AmazonClientException.class)
+    public void handlerRejectsBodyWithoutEmptyItemTest() {
+        final DefaultRequest<PutItemRequest> request = new DefaultRequest<PutItemRequest>(
+            new RawPutItemRequest("{}".getBytes(StandardCharsets.UTF_8)), "AmazonDynamoDBv2");
+        request.setContent(new ByteArrayInputStream("{\"TableName\":\"table\"}".getBytes(StandardCharsets.UTF_8)));
+        new RawPutItemRequestHandler().beforeRequest(request);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.google.common.base.Predicate;
+
+public class RecordFilterTests {
+
+    private static Record createRecord(final OperationType operationType, final String customerId, final String total) {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put("customerId", new AttributeValue().withS(customerId));
+        final Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(key);
+        item.put("total", new AttributeValue().withN(total));
+        item.put("status", new AttributeValue().withS("open"));
+        item.put("priority", new AttributeValue().withBOOL(true));
+        item.put("attribute name", new AttributeValue().withS("x"));
+        final StreamRecord streamRecord = new StreamRecord().withKeys(key).withSequenceNumber("1");
+        if (operationType == OperationType.REMOVE) {
+            streamRecord.setOldImage(item);
+        } else {
+            streamRecord.setNewImage(item);
+        }
+        return new Record().withEventName(operationType).withDynamodb(streamRecord);
+    }
+
+    private static boolean matches(final String expression, final Record record) {
+        final Predicate<Record> predicate = RecordFilter.compile(expression);
+        return predicate.apply(record);
+    }
+
+    private final Record euInsert = createRecord(OperationType.INSERT, "eu-1", "10.50");
+    private final Record usModify = createRecord(OperationType.MODIFY, "us-1", "200");
+    private final Record euRemove = createRecord(OperationType.REMOVE, "eu-2", "3");
+
+    @Test
+    public void beginsWithTest() {
+        assertTrue(matches("begins_with(customerId, 'eu-')", euInsert));
+        assertFalse(matches("begins_with(customerId, 'eu-')", usModify));
+        assertFalse(matches("begins_with(missing, 'eu-')", usModify));
+    }
+
+    @Test
+    public void eventNameTest() {
+        assertTrue(matches("eventName = 'INSERT'", euInsert));
+        assertFalse(matches("eventName <> 'REMOVE'", euRemove));
+        assertTrue(matches("eventName IN ('INSERT', 'MODIFY')", usModify));
+        assertFalse(matches("eventName IN ('INSERT', 'MODIFY')", euRemove));
+    }
+
+    @Test
+    public void comparisonTest() {
+        // Numbers are compared by value
+        assertTrue(matches("total = 10.5", euInsert));
+        assertTrue(matches("total >= 100", usModify));
+        assertFalse(matches("total < 100", usModify));
+        assertTrue(matches("status = 'open' AND priority = true", usModify));
+        assertTrue(matches("\"attribute name\" = 'x'", usModify));
+        // Attributes of another type or missing only match <>
+        assertFalse(matches("status = 1", usModify));
+        assertTrue(matches("missing <> 'x'", usModify));
+        // Removed items are matched on their old image
+        assertTrue(matches("status = 'open'", euRemove));
+    }
+
+    @Test
+    public void attributeExistsTest() {
+        assertTrue(matches("attribute_exists(status)", euInsert));
+        assertTrue(matches("attribute_not_exists(missing)", euInsert));
+        assertFalse(matches("attribute_exists(missing)", euInsert));
+    }
+
+    @Test
+    public void precedenceTest() {
+        // AND binds tighter than OR, and NOT tighter than AND
+        final String expression = "eventName = 'REMOVE' OR begins_with(customerId, 'eu-') AND NOT total > 100";
+        assertTrue(matches(expression, euInsert));
+        assertTrue(matches(expression, euRemove));
+        assertFalse(matches(expression, usModify));
+        assertTrue(matches("NOT (eventName = 'REMOVE' OR total > 100)", euInsert));
+        assertFalse(matches("not (eventName = 'REMOVE' or total > 100)", usModify));
+    }
+
+    @Test
+    public void invalidExpressionsTest() {
+        for (String expression : Arrays.asList("", "customerId", "customerId = ", "begins_with(customerId 'eu-')", "unknown(a)",
+            "total = 1e", "status = 'open", "(status = 'open'", "status = 'open' status = 'closed'", "status ! 'open'",
+            "begins_with(customerId, 1)")) {
+            try {
+                RecordFilter.compile(expression);
+                throw new AssertionError("Compiled " + expression);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(expression));
+            }
+        }
+    }
+
+    @Test
+    public void keepRecordTest() {
+        final RecordFilter filter = new RecordFilter("begins_with(customerId, 'eu-')", null);
+        assertTrue(filter.keepRecord(euInsert));
+        assertFalse(filter.keepRecord(usModify));
+        assertEquals(5, euInsert.getDynamodb().getNewImage().size());
+    }
+
+    private static Record createModify(final String oldStatus, final String newStatus) {
+        final Record record = createRecord(OperationType.MODIFY, "eu-1", "1");
+        final StreamRecord streamRecord = record.getDynamodb();
+        streamRecord.getNewImage().put("status", new AttributeValue().withS(newStatus));
+        if (null != oldStatus) {
+            final Map<String, AttributeValue> oldImage = new HashMap<String, AttributeValue>(streamRecord.getNewImage());
+            oldImage.put("status", new AttributeValue().withS(oldStatus));
+            streamRecord.setOldImage(oldImage);
+        }
+        return record;
+    }
+
+    @Test
+    public void modifyLeavingFilterBecomesRemovalTest() {
+        final RecordFilter filter = new RecordFilter("status = 'open'", null);
+        final Record leaving = createModify("open", "closed");
+        assertTrue(filter.keepRecord(leaving));
+        assertEquals(OperationType.REMOVE.toString(), leaving.getEventName());
+        assertNull(leaving.getDynamodb().getNewImage());
+        assertEquals("eu-1", leaving.getDynamodb().getKeys().get("customerId").getS());
+        // Without an old image the item may be in the destination
+        final Record withoutOldImage = createModify(null, "closed");
+        assertTrue(filter.keepRecord(withoutOldImage));
+        assertEquals(OperationType.REMOVE.toString(), withoutOldImage.getEventName());
+        // An item that was not replicated before is not deleted
+        final Record outside = createModify("closed", "closed");
+        assertFalse(filter.keepRecord(outside));
+        assertEquals(OperationType.MODIFY.toString(), outside.getEventName());
+        // Nor is an item whose removals are filtered out
+        assertFalse(new RecordFilter("eventName = 'INSERT'", null).keepRecord(createModify(null, "open")));
+        final Record staying = createModify("closed", "open");
+        assertTrue(filter.keepRecord(staying));
+        assertEquals(OperationType.MODIFY.toString(), staying.getEventName());
+    }
+
+    @Test
+    public void removalWithoutImageTest() {
+        final Record removal = createRecord(OperationType.REMOVE, "eu-1", "1");
+        removal.getDynamodb().setOldImage(null);
+        assertFalse(matches("status = 'open'", removal));
+        // Kept unless the expression rules it out on its keys or event name
+        assertTrue(new RecordFilter("status = 'open'", null).keepRecord(removal));
+        assertTrue(new RecordFilter("begins_with(customerId, 'eu-') AND NOT total > 100", null).keepRecord(removal));
+        assertTrue(new RecordFilter("attribute_not_exists(status) OR begins_with(customerId, 'us-')", null).keepRecord(removal));
+        assertFalse(new RecordFilter("begins_with(customerId, 'us-') AND status = 'open'", null).keepRecord(removal));
+        assertFalse(new RecordFilter("eventName <> 'REMOVE' AND status = 'open'", null).keepRecord(removal));
+    }
+
+    @Test
+    public void projectionTest() {
+        final RecordFilter filter = new RecordFilter(null, Arrays.asList("status", "missing"));
+        assertTrue(filter.keepRecord(usModify));
+        // The key attributes are always kept
+        final Map<String, AttributeValue> image = usModify.getDynamodb().getNewImage();
+        assertEquals(2, image.size());
+        assertEquals("us-1", image.get("customerId").getS());
+        assertEquals("open", image.get("status").getS());
+        // Removals have no new image to project
+        assertTrue(filter.keepRecord(euRemove));
+        assertEquals(5, euRemove.getDynamodb().getOldImage().size());
+    }
+}
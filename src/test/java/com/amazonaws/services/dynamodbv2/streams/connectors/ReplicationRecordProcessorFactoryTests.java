@@ -0,0 +1,310 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.streams.connectors.PipelineStats.ShardSnapshot;
+import com.amazonaws.services.dynamodbv2.streams.connectors.PipelineStats.Stage;
+import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessor;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
+import com.amazonaws.services.kinesis.connectors.KinesisConnectorConfiguration;
+import com.amazonaws.services.kinesis.connectors.UnmodifiableBuffer;
+import com.amazonaws.services.kinesis.connectors.impl.AllPassFilter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IBuffer;
+import com.amazonaws.services.kinesis.connectors.interfaces.IEmitter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IFilter;
+import com.amazonaws.services.kinesis.connectors.interfaces.IKinesisConnectorPipeline;
+import com.amazonaws.services.kinesis.connectors.interfaces.ITransformer;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class ReplicationRecordProcessorFactoryTests {
+    private static final String SHARD_ID = "shardId-00000000000000000000-00000000";
+
+    /**
+     * Emitter writing nothing, reporting each record as written after a delay, and remembering its shard, which can
+     * be made to crash after some emits.
+     */
+    private static final class StubEmitter implements IEmitter<Record>, ShardAware, ProgressAware {
+        private final List<Record> emitted = new ArrayList<Record>();
+        private String shardId;
+        private ProgressAware.Listener listener;
+        private long writeMillis = 0;
+        private int emitsBeforeCrash = Integer.MAX_VALUE;
+
+        @Override
+        public List<Record> emit(final UnmodifiableBuffer<Record> buffer) {
+            if (emitsBeforeCrash-- == 0) {
+                throw new IllegalStateException("crash");
+            }
+            for (Record record : buffer.getRecords()) {
+                if (writeMillis > 0) {
+                    Uninterruptibles.sleepUninterruptibly(writeMillis, TimeUnit.MILLISECONDS);
+                }
+                emitted.add(record);
+                if (null != listener) {
+                    listener.onWritten(record);
+                }
+            }
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void setProgressListener(final ProgressAware.Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void fail(final List<Record> records) {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public void setShardId(final String shardId) {
+            this.shardId = shardId;
+        }
+    }
+
+    private StubEmitter emitter;
+    private PipelineStats stats;
+    private IKinesisConnectorPipeline<Record, Record> pipeline;
+    private ReplicationRecordProcessorFactory<Record, Record> factory;
+
+    @Before
+    public void setUp() {
+        emitter = new StubEmitter();
+        stats = new PipelineStats();
+        pipeline = new IKinesisConnectorPipeline<Record, Record>() {
+            @Override
+            public IEmitter<Record> getEmitter(final KinesisConnectorConfiguration configuration) {
+                return emitter;
+            }
+
+            @Override
+            public IBuffer<Record> getBuffer(final KinesisConnectorConfiguration configuration) {
+                return new DynamoDBBuffer((DynamoDBStreamsConnectorConfiguration) configuration);
+            }
+
+            @Override
+            public ITransformer<Record, Record> getTransformer(final KinesisConnectorConfiguration configuration) {
+                return new DynamoDBStreamsRecordTransformer();
+            }
+
+            @Override
+            public IFilter<Record> getFilter(final KinesisConnectorConfiguration configuration) {
+                return new AllPassFilter<Record>();
+            }
+        };
+        factory = new ReplicationRecordProcessorFactory<Record, Record>(pipeline, new DynamoDBStreamsConnectorConfiguration(new Properties(), null),
+            stats);
+    }
+
+    private static com.amazonaws.services.kinesis.model.Record createRecord(final String sequenceNumber, final long sizeBytes) {
+        return createRecord(sequenceNumber, sequenceNumber, sizeBytes);
+    }
+
+    private static com.amazonaws.services.kinesis.model.Record createRecord(final String sequenceNumber, final String id, final long sizeBytes) {
+        final Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put("id", new AttributeValue().withS(id));
+        return new RecordAdapter(new Record().withEventName(OperationType.INSERT)
+            .withDynamodb(new StreamRecord().withKeys(key).withNewImage(key).withSequenceNumber(sequenceNumber).withSizeBytes(sizeBytes)));
+    }
+
+    @Test
+    public void stageStatsTest() throws Exception {
+        final IRecordProcessorCheckpointer checkpointer = createMock(IRecordProcessorCheckpointer.class);
+        // At the last record emitted, then at the end of the shard
+        checkpointer.checkpoint("2");
+        checkpointer.checkpoint();
+        replay(checkpointer);
+
+        final IRecordProcessor processor = factory.createProcessor();
+        processor.initialize(SHARD_ID);
+        assertEquals(SHARD_ID, emitter.shardId);
+        processor.processRecords(Arrays.asList(createRecord("1", 10), createRecord("2", 20)), checkpointer);
+        assertEquals(2, emitter.emitted.size());
+
+        final ShardSnapshot shard = stats.getSnapshot().getShards().get(SHARD_ID);
+        assertEquals(1, shard.getStages().get(Stage.GET_RECORDS).getCalls());
+        assertEquals(2, shard.getStages().get(Stage.GET_RECORDS).getRecords());
+        assertEquals(30, shard.getStages().get(Stage.GET_RECORDS).getBytes());
+        assertEquals(2, shard.getStages().get(Stage.TRANSFORM).getRecords());
+        assertEquals(2, shard.getStages().get(Stage.BUFFER).getRecords());
+        assertTrue(shard.getStages().get(Stage.BUFFER).getBytes() > 0);
+        assertEquals(1, shard.getStages().get(Stage.EMIT).getCalls());
+        assertEquals(2, shard.getStages().get(Stage.EMIT).getRecords());
+        assertTrue(shard.getStages().get(Stage.CHECKPOINT).getCalls() >= 1);
+        // The buffer was emitted and cleared
+        assertEquals(0, shard.getBufferedRecords());
+        assertEquals(0, shard.getInFlightRecords());
+
+        processor.shutdown(checkpointer, ShutdownReason.TERMINATE);
+        assertTrue(stats.getSnapshot().getShards().isEmpty());
+        verify(checkpointer);
+    }
+
+    @Test
+    public void largeBatchIsEmittedInChunksTest() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_BUFFER_MAX_BYTES, "25");
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_WORKER_BUFFER_MAX_BYTES, "100");
+        factory = new ReplicationRecordProcessorFactory<Record, Record>(pipeline, new DynamoDBStreamsConnectorConfiguration(properties, null), stats);
+        final IRecordProcessorCheckpointer checkpointer = createStrictMock(IRecordProcessorCheckpointer.class);
+        // At the last record of each chunk
+        checkpointer.checkpoint("2");
+        checkpointer.checkpoint("3");
+        checkpointer.checkpoint("4");
+        replay(checkpointer);
+
+        final IRecordProcessor processor = factory.createProcessor();
+        processor.initialize(SHARD_ID);
+        processor.processRecords(Arrays.asList(createRecord("1", 10), createRecord("2", 10), createRecord("3", 30), createRecord("4", 5)),
+            checkpointer);
+        assertEquals(4, emitter.emitted.size());
+
+        // Chunks of 20, 30 and 5 bytes, the second larger than the buffer on its own
+        final ShardSnapshot shard = stats.getSnapshot().getShards().get(SHARD_ID);
+        assertEquals(1, shard.getStages().get(Stage.GET_RECORDS).getCalls());
+        assertEquals(3, shard.getStages().get(Stage.BACKPRESSURE).getCalls());
+        assertEquals(55, shard.getStages().get(Stage.BACKPRESSURE).getBytes());
+        assertEquals(3, shard.getStages().get(Stage.EMIT).getCalls());
+        assertEquals(0, shard.getBufferedBytes());
+        assertEquals(0, factory.getMemory().getHeldBytes());
+        verify(checkpointer);
+    }
+
+    @Test
+    public void checkpointOnlyEmittedChunksTest() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_BUFFER_MAX_BYTES, "25");
+        factory = new ReplicationRecordProcessorFactory<Record, Record>(pipeline, new DynamoDBStreamsConnectorConfiguration(properties, null), stats);
+        // The worker dies while emitting the second chunk
+        emitter.emitsBeforeCrash = 1;
+        final IRecordProcessorCheckpointer checkpointer = createStrictMock(IRecordProcessorCheckpointer.class);
+        checkpointer.checkpoint("2");
+        replay(checkpointer);
+
+        final IRecordProcessor processor = factory.createProcessor();
+        processor.initialize(SHARD_ID);
+        try {
+            processor.processRecords(Arrays.asList(createRecord("1", 10), createRecord("2", 10), createRecord("3", 10), createRecord("4", 10)),
+                checkpointer);
+            fail("The emitter should have crashed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // The records of the second chunk are read again from the checkpoint of the first one
+        assertEquals(2, emitter.emitted.size());
+        // The bytes of the unemitted chunk are held until the processor is shut down
+        processor.shutdown(checkpointer, ShutdownReason.ZOMBIE);
+        assertEquals(0, factory.getMemory().getHeldBytes());
+        verify(checkpointer);
+    }
+
+    @Test
+    public void incrementalCheckpointTest() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_CHECKPOINT_INTERVAL_MILLIS, "1");
+        factory = new ReplicationRecordProcessorFactory<Record, Record>(pipeline, new DynamoDBStreamsConnectorConfiguration(properties, null), stats);
+        emitter.writeMillis = 20;
+        final IRecordProcessorCheckpointer checkpointer = createStrictMock(IRecordProcessorCheckpointer.class);
+        // The first record is checkpointed while the others are being written
+        checkpointer.checkpoint("1");
+        // Skipped if the previous checkpoint is still in flight
+        checkpointer.checkpoint("2");
+        expectLastCall().times(0, 1);
+        // Once while the buffer is being emitted, and once after
+        checkpointer.checkpoint("3");
+        expectLastCall().times(1, 2);
+        replay(checkpointer);
+
+        final IRecordProcessor processor = factory.createProcessor();
+        processor.initialize(SHARD_ID);
+        processor.processRecords(Arrays.asList(createRecord("1", 10), createRecord("2", 10), createRecord("3", 10)), checkpointer);
+        assertEquals(3, emitter.emitted.size());
+        assertNull(emitter.listener);
+        verify(checkpointer);
+    }
+
+    @Test
+    public void coalescingAcrossBatchesTest() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_COALESCE_MILLIS, "60000");
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_COALESCE_MAX_RECORDS, "2");
+        factory = new ReplicationRecordProcessorFactory<Record, Record>(pipeline, new DynamoDBStreamsConnectorConfiguration(properties, null), stats);
+        final IRecordProcessorCheckpointer checkpointer = createMock(IRecordProcessorCheckpointer.class);
+        checkpointer.checkpoint("4");
+        replay(checkpointer);
+
+        final IRecordProcessor processor = factory.createProcessor();
+        processor.initialize(SHARD_ID);
+        // Three updates of the same key over two batches, then a second key reaching the records threshold
+        processor.processRecords(Arrays.asList(createRecord("1", "a", 10), createRecord("2", "a", 10)), checkpointer);
+        processor.processRecords(Collections.<com.amazonaws.services.kinesis.model.Record>emptyList(), checkpointer);
+        assertEquals(0, emitter.emitted.size());
+        assertEquals(20, factory.getMemory().getHeldBytes());
+        processor.processRecords(Arrays.asList(createRecord("3", "a", 10), createRecord("4", "b", 10)), checkpointer);
+        assertEquals(2, emitter.emitted.size());
+        assertEquals("3", emitter.emitted.get(0).getDynamodb().getSequenceNumber());
+        assertEquals(0, factory.getMemory().getHeldBytes());
+
+        final ShardSnapshot shard = stats.getSnapshot().getShards().get(SHARD_ID);
+        assertEquals(4, shard.getFlushedRecords());
+        assertEquals(2, shard.getFlushedUniqueRecords());
+        assertEquals(2.0, shard.getDedupRatio(), 0.0);
+        verify(checkpointer);
+    }
+
+    @Test
+    public void coalescingBufferFlushesForMemoryTest() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_COALESCE_MILLIS, "60000");
+        properties.setProperty(DynamoDBStreamsConnectorConfiguration.PROP_WORKER_BUFFER_MAX_BYTES, "25");
+        factory = new ReplicationRecordProcessorFactory<Record, Record>(pipeline, new DynamoDBStreamsConnectorConfiguration(properties, null), stats);
+        final IRecordProcessorCheckpointer checkpointer = createMock(IRecordProcessorCheckpointer.class);
+        checkpointer.checkpoint("1");
+        replay(checkpointer);
+
+        final IRecordProcessor processor = factory.createProcessor();
+        processor.initialize(SHARD_ID);
+        processor.processRecords(Collections.singletonList(createRecord("1", "a", 20)), checkpointer);
+        assertEquals(0, emitter.emitted.size());
+        // The buffer holds 20 of the 25 bytes, so it is flushed before the next record is buffered
+        processor.processRecords(Collections.singletonList(createRecord("2", "b", 10)), checkpointer);
+        assertEquals(1, emitter.emitted.size());
+        assertEquals(10, factory.getMemory().getHeldBytes());
+        verify(checkpointer);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RetryBackoffTests {
+    private static final long SEED = 42L;
+
+    /**
+     * Simulates writes contending for a destination that accepts a number of requests per millisecond, retrying every
+     * rejected write after the delay of the backoff once its retry budget is spent or not.
+     *
+     * @return The number of requests made until every write was accepted
+     */
+    private static int simulateThrottling(final RetryBackoff backoff, final int writes, final int requestsPerMillis, final int retryBudget) {
+        // The millisecond each write is due, and the number of times it was already retried
+        final PriorityQueue<long[]> due = new PriorityQueue<long[]>(writes, new Comparator<long[]>() {
+            @Override
+            public int compare(final long[] a, final long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        for (int i = 0; i < writes; i++) {
+            due.add(new long[] {0, 0});
+        }
+        int requests = 0;
+        int budget = retryBudget;
+        long now = -1;
+        int accepted = 0;
+        while (!due.isEmpty()) {
+            final long[] write = due.poll();
+            if (write[0] != now) {
+                now = write[0];
+                accepted = 0;
+            }
+            requests++;
+            if (accepted < requestsPerMillis) {
+                accepted++;
+            } else {
+                budget--;
+                final long delay = backoff.getDelayMillis((int) write[1], budget < 0);
+                due.add(new long[] {now + Math.max(1, delay), write[1] + 1});
+            }
+        }
+        return requests;
+    }
+
+    @Test
+    public void delayCeilingDoublesUpToMaximumTest() {
+        final RetryBackoff backoff = new RetryBackoff(10, 100);
+        assertEquals(10, backoff.getDelayCeilingMillis(0));
+        assertEquals(20, backoff.getDelayCeilingMillis(1));
+        assertEquals(80, backoff.getDelayCeilingMillis(3));
+        assertEquals(100, backoff.getDelayCeilingMillis(4));
+        assertEquals(100, backoff.getDelayCeilingMillis(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void delayIsJitteredBelowCeilingTest() {
+        final RetryBackoff backoff = new RetryBackoff(10, 1000, new Random(SEED));
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            final long delay = backoff.getDelayMillis(5);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min >= 0);
+        assertTrue(max < 320);
+        // Full jitter spreads the delays over the whole range
+        assertTrue(max - min > 160);
+    }
+
+    @Test
+    public void spentBudgetStretchesDelayTest() {
+        final RetryBackoff backoff = new RetryBackoff(10, 1000, new Random(SEED));
+        for (int i = 0; i < 1000; i++) {
+            final long delay = backoff.getDelayMillis(0, true);
+            assertTrue(delay >= 500 && delay < 1000);
+        }
+    }
+
+    @Test
+    public void jitterAndBudgetReduceRequestsUnderThrottlingTest() {
+        // 200 writes against a destination accepting 10 requests per millisecond
+        final int immediate = simulateThrottling(new RetryBackoff(0, 0), 200, 10, Integer.MAX_VALUE);
+        final int jittered = simulateThrottling(new RetryBackoff(1, 64, new Random(SEED)), 200, 10, Integer.MAX_VALUE);
+        final int budgeted = simulateThrottling(new RetryBackoff(1, 64, new Random(SEED)), 200, 10, 200);
+        // Retrying every millisecond sends 200 + 190 + ... + 10 requests
+        assertEquals(2100, immediate);
+        assertTrue("Jittered retries made " + jittered + " requests", jittered < immediate / 2);
+        assertTrue("Budgeted retries made " + budgeted + " requests", budgeted < jittered);
+    }
+
+    @Test
+    public void zeroBaseDelayRetriesImmediatelyTest() {
+        final RetryBackoff backoff = new RetryBackoff(0, 0);
+        assertEquals(0, backoff.getDelayMillis(10));
+        assertEquals(0, backoff.getDelayMillis(10, true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximumBelowBaseIsRejectedTest() {
+        new RetryBackoff(100, 10);
+    }
+}
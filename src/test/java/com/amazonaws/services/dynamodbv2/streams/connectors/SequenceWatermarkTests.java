@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.model.Record;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+
+public class SequenceWatermarkTests {
+
+    private static Record createRecord(final String sequenceNumber) {
+        return new Record().withDynamodb(new StreamRecord().withSequenceNumber(sequenceNumber));
+    }
+
+    private final Record record1 = createRecord("1");
+    private final Record record2 = createRecord("2");
+    private final Record record3 = createRecord("3");
+
+    @Test
+    public void advancesOverContiguousWrittenRecordsTest() {
+        final SequenceWatermark watermark = new SequenceWatermark(Arrays.asList(record1, record2, record3));
+        assertNull(watermark.getSequenceNumber());
+        // Written out of order: the watermark waits for the first record
+        watermark.onWritten(record3);
+        assertNull(watermark.getSequenceNumber());
+        assertEquals(0, watermark.getWrittenPrefix());
+        watermark.onWritten(record1);
+        assertEquals("1", watermark.getSequenceNumber());
+        watermark.onWritten(record2);
+        assertEquals("3", watermark.getSequenceNumber());
+        assertEquals(3, watermark.getWrittenPrefix());
+    }
+
+    @Test
+    public void comparesRecordsByIdentityTest() {
+        final SequenceWatermark watermark = new SequenceWatermark(Arrays.asList(record1, record2));
+        // An equal record that was not emitted in this call
+        watermark.onWritten(createRecord("1"));
+        assertNull(watermark.getSequenceNumber());
+        watermark.onWritten(record1);
+        watermark.onWritten(record1);
+        assertEquals("1", watermark.getSequenceNumber());
+    }
+}
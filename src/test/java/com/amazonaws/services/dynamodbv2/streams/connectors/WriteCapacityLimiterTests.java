@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package com.amazonaws.services.dynamodbv2.streams.connectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+public class WriteCapacityLimiterTests {
+    private static final double DELTA = 1e-6;
+
+    private static final class FakeTicker extends Ticker {
+        private long nanos = 0;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void advanceMillis(final long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    @Test
+    public void burstUpToCeilingThenWaitTest() {
+        final FakeTicker ticker = new FakeTicker();
+        final WriteCapacityLimiter limiter = new WriteCapacityLimiter(100, ticker);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.reserve(1));
+        }
+        assertEquals(0, limiter.reserve(1));
+        // One unit of debt takes 10 ms to refill at 100 units per second
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10), limiter.reserve(1));
+        ticker.advanceMillis(20);
+        assertEquals(0, limiter.getAvailableUnits(), DELTA);
+    }
+
+    @Test
+    public void consumedCapacityCorrectsEstimateTest() {
+        final FakeTicker ticker = new FakeTicker();
+        final WriteCapacityLimiter limiter = new WriteCapacityLimiter(10, ticker);
+        limiter.reserve(1);
+        // The write was larger than estimated
+        limiter.onConsumed(1, 4);
+        assertEquals(6, limiter.getAvailableUnits(), DELTA);
+        limiter.reserve(5);
+        // The write was throttled and consumed nothing
+        limiter.onConsumed(5, 0);
+        assertEquals(6, limiter.getAvailableUnits(), DELTA);
+    }
+
+    @Test
+    public void bucketHoldsOneSecondOfCapacityTest() {
+        final FakeTicker ticker = new FakeTicker();
+        final WriteCapacityLimiter limiter = new WriteCapacityLimiter(10, ticker);
+        ticker.advanceMillis(5000);
+        assertEquals(10, limiter.getAvailableUnits(), DELTA);
+        limiter.onConsumed(5, 0);
+        assertEquals(10, limiter.getAvailableUnits(), DELTA);
+    }
+
+    @Test
+    public void writeCapacityUnitsTest() {
+        assertEquals(1, WriteCapacityLimiter.getWriteCapacityUnits(0), DELTA);
+        assertEquals(1, WriteCapacityLimiter.getWriteCapacityUnits(1024), DELTA);
+        assertEquals(2, WriteCapacityLimiter.getWriteCapacityUnits(1025), DELTA);
+    }
+
+    @Test
+    public void limiterIsSharedPerTableTest() {
+        final WriteCapacityLimiter limiter = WriteCapacityLimiter.forTable("ENDPOINT", "sharedTable", 10);
+        assertSame(limiter, WriteCapacityLimiter.forTable("ENDPOINT", "sharedTable", 20));
+        assertEquals(10, limiter.getUnitsPerSecond(), DELTA);
+    }
+}